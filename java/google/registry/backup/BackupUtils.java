@@ -21,11 +21,13 @@ import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
 import com.google.storage.onestore.v3.OnestoreEntity.EntityProto;
 import google.registry.model.ImmutableObject;
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Iterator;
+import javax.annotation.Nullable;
 
 /** Utilities for working with backups. */
 public class BackupUtils {
@@ -35,7 +37,6 @@ public class BackupUtils {
 
     private GcsMetadataKeys() {}
 
-    public static final String NUM_TRANSACTIONS = "num_transactions";
     public static final String LOWER_BOUND_CHECKPOINT = "lower_bound_checkpoint";
     public static final String UPPER_BOUND_CHECKPOINT = "upper_bound_checkpoint";
   }
@@ -51,23 +52,49 @@ public class BackupUtils {
   /**
    * Return an iterator of {@link ImmutableObject} instances deserialized from the given stream.
    *
-   * <p>This parses out delimited protocol buffers for raw datastore entities and then Ofy-loads
-   * those as {@link ImmutableObject}.
+   * <p>The stream may hold a diff file in either the legacy format of delimited protocol buffers
+   * for raw datastore entities, or the {@link CompressedDiffFile} format. In both cases, the raw
+   * datastore entities are Ofy-loaded as {@link ImmutableObject}.
    *
    * <p>The iterator reads from the stream on demand, and as such will fail if the stream is closed.
    */
-  public static Iterator<ImmutableObject> createDeserializingIterator(final InputStream input) {
+  public static Iterator<ImmutableObject> createDeserializingIterator(InputStream input) {
+    InputStream bufferedInput = input.markSupported() ? input : new BufferedInputStream(input);
+    try {
+      return CompressedDiffFile.readHeader(bufferedInput)
+          ? CompressedDiffFile.createDeserializingIterator(bufferedInput)
+          : createDelimitedDeserializingIterator(bufferedInput);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Return an iterator of {@link ImmutableObject} instances deserialized from a stream of delimited
+   * protocol buffers for raw datastore entities, as written by {@link #serializeEntity}.
+   */
+  static Iterator<ImmutableObject> createDelimitedDeserializingIterator(final InputStream input) {
     return new AbstractIterator<ImmutableObject>() {
       @Override
       protected ImmutableObject computeNext() {
-        EntityProto proto = new EntityProto();
-        if (proto.parseDelimitedFrom(input)) {  // False means end of stream; other errors throw.
-          return ofy().load().<ImmutableObject>fromEntity(EntityTranslator.createFromPb(proto));
-        }
-        return endOfData();
+        ImmutableObject entity = deserializeEntity(input);
+        return entity == null ? endOfData() : entity;
       }};
   }
 
+  /**
+   * Reads one delimited protocol buffer for a raw datastore entity from the given stream and
+   * Ofy-loads it, or returns null at the end of the stream.
+   */
+  @Nullable
+  static ImmutableObject deserializeEntity(InputStream input) {
+    EntityProto proto = new EntityProto();
+    if (proto.parseDelimitedFrom(input)) {  // False means end of stream; other errors throw.
+      return ofy().load().<ImmutableObject>fromEntity(EntityTranslator.createFromPb(proto));
+    }
+    return null;
+  }
+
   public static ImmutableList<ImmutableObject> deserializeEntities(byte[] bytes) {
     return ImmutableList.copyOf(createDeserializingIterator(new ByteArrayInputStream(bytes)));
   }
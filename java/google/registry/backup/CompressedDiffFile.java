@@ -0,0 +1,169 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.backup;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Verify.verifyNotNull;
+import static google.registry.backup.BackupUtils.createDelimitedDeserializingIterator;
+import static google.registry.backup.BackupUtils.deserializeEntity;
+import static google.registry.backup.BackupUtils.serializeEntity;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.common.io.ByteStreams;
+import google.registry.model.ImmutableObject;
+import google.registry.model.ofy.CommitLogCheckpoint;
+import google.registry.model.ofy.CommitLogManifest;
+import google.registry.model.ofy.CommitLogMutation;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reading and writing of commit log diff files in the compressed format.
+ *
+ * <p>A diff file in this format consists of:
+ *
+ * <ol>
+ *   <li>A header of magic bytes and the format version.
+ *   <li>The upper bound checkpoint, as a delimited protocol buffer for a raw datastore entity.
+ *   <li>Any number of blocks, each holding whole transactions (a manifest followed by its
+ *       mutations) serialized as in the legacy format and then deflated, and each preceded by its
+ *       compressed length as an int.
+ *   <li>An int 0, marking the end of the blocks.
+ * </ol>
+ *
+ * <p>Restores read the file from start to end, one block at a time.
+ */
+final class CompressedDiffFile {
+
+  static final byte FORMAT_VERSION = 2;
+
+  /**
+   * Magic bytes at the start of a file in this format, which are followed by the format version.
+   *
+   * <p>A legacy diff file starts with the delimited proto of a checkpoint, whose length is never
+   * 0, so the leading zero byte tells the two formats apart.
+   */
+  private static final byte[] HEADER_MAGIC = {0, 'N', 'D', 'I', 'F'};
+
+  private CompressedDiffFile() {}
+
+  /** Writer of a diff file in this format, which is complete once {@link #finish} is called. */
+  static final class Writer {
+
+    private final DataOutputStream output;
+
+    /** Starts a diff file on the given stream, by writing the header and the checkpoint. */
+    Writer(OutputStream output, CommitLogCheckpoint checkpoint) throws IOException {
+      this.output = new DataOutputStream(output);
+      this.output.write(HEADER_MAGIC);
+      this.output.write(FORMAT_VERSION);
+      serializeEntity(checkpoint, this.output);
+    }
+
+    /**
+     * Writes a block of transactions, each a {@link CommitLogManifest} followed by its
+     * {@link CommitLogMutation} entities.
+     */
+    void writeBlock(List<? extends ImmutableObject> entities) throws IOException {
+      if (entities.isEmpty()) {
+        return;
+      }
+      checkArgument(
+          entities.get(0) instanceof CommitLogManifest, "Block must start with a manifest");
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      try (DeflaterOutputStream deflater = new DeflaterOutputStream(compressed)) {
+        for (ImmutableObject entity : entities) {
+          serializeEntity(entity, deflater);
+        }
+      }
+      output.writeInt(compressed.size());
+      compressed.writeTo(output);
+    }
+
+    /** Ends the blocks, which completes the diff file. */
+    void finish() throws IOException {
+      output.writeInt(0);
+      output.flush();
+    }
+  }
+
+  /**
+   * Returns whether the given stream is at the start of a diff file in this format, in which case
+   * the header is consumed. Otherwise, the stream is reset to where it was.
+   *
+   * @param input a stream that supports {@link InputStream#mark}
+   */
+  static boolean readHeader(InputStream input) throws IOException {
+    checkArgument(input.markSupported(), "Stream must support mark");
+    input.mark(HEADER_MAGIC.length + 1);
+    byte[] header = new byte[HEADER_MAGIC.length + 1];
+    if (ByteStreams.read(input, header, 0, header.length) == header.length
+        && Arrays.equals(Arrays.copyOf(header, HEADER_MAGIC.length), HEADER_MAGIC)) {
+      checkState(
+          header[HEADER_MAGIC.length] == FORMAT_VERSION,
+          "Unsupported diff file format version %s",
+          header[HEADER_MAGIC.length]);
+      return true;
+    }
+    input.reset();
+    return false;
+  }
+
+  /**
+   * Returns an iterator of the checkpoint followed by all the entities of all the blocks, read in
+   * order from a stream positioned just after the header.
+   *
+   * <p>The iterator reads from the stream on demand, one block at a time, and as such will fail if
+   * the stream is closed.
+   */
+  static Iterator<ImmutableObject> createDeserializingIterator(InputStream input) {
+    final DataInputStream dataInput = new DataInputStream(input);
+    ImmutableObject checkpoint = verifyNotNull(deserializeEntity(dataInput));
+    Iterator<Iterator<ImmutableObject>> blocks = new AbstractIterator<Iterator<ImmutableObject>>() {
+      @Override
+      protected Iterator<ImmutableObject> computeNext() {
+        try {
+          int compressedLength = dataInput.readInt();
+          return compressedLength == 0
+              ? endOfData()
+              : readBlockContents(dataInput, compressedLength).iterator();
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }};
+    return Iterators.concat(Iterators.singletonIterator(checkpoint), blocks);
+  }
+
+  private static ImmutableList<ImmutableObject> readBlockContents(
+      DataInputStream input, int compressedLength) throws IOException {
+    byte[] compressed = new byte[compressedLength];
+    input.readFully(compressed);
+    return ImmutableList.copyOf(createDelimitedDeserializingIterator(
+        new InflaterInputStream(new ByteArrayInputStream(compressed))));
+  }
+}
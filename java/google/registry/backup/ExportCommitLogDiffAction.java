@@ -16,29 +16,30 @@ package google.registry.backup;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Verify.verifyNotNull;
-import static com.google.common.collect.Iterables.concat;
-import static com.google.common.collect.Lists.partition;
+import static com.google.common.collect.Iterators.concat;
+import static com.google.common.collect.Iterators.mergeSorted;
+import static com.google.common.collect.Iterators.partition;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.LOWER_BOUND_CHECKPOINT;
-import static google.registry.backup.BackupUtils.GcsMetadataKeys.NUM_TRANSACTIONS;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.UPPER_BOUND_CHECKPOINT;
-import static google.registry.backup.BackupUtils.serializeEntity;
 import static google.registry.model.ofy.CommitLogBucket.getBucketKey;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
 import static google.registry.util.DateTimeUtils.isAtOrAfter;
 import static google.registry.util.FormattingLogger.getLoggerForCallerClass;
 import static java.nio.channels.Channels.newOutputStream;
-import static java.util.Arrays.asList;
 
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
 import com.google.appengine.tools.cloudstorage.GcsFileOptions;
 import com.google.appengine.tools.cloudstorage.GcsFilename;
 import com.google.appengine.tools.cloudstorage.GcsService;
-import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ComparisonChain;
-import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
+import com.googlecode.objectify.cmd.Query;
 import google.registry.config.ConfigModule.Config;
 import google.registry.model.ImmutableObject;
 import google.registry.model.ofy.CommitLogBucket;
@@ -50,8 +51,9 @@ import google.registry.request.Parameter;
 import google.registry.util.FormattingLogger;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import javax.annotation.Nullable;
@@ -73,6 +75,17 @@ public final class ExportCommitLogDiffAction implements Runnable {
 
   public static final String DIFF_FILE_PREFIX = "commit_diff_until_";
 
+  /** Orders manifest keys by timestamp (which is encoded in the id as millis), then by bucket. */
+  private static final Comparator<Key<CommitLogManifest>> DIFF_KEY_ORDERING =
+      new Comparator<Key<CommitLogManifest>>() {
+        @Override
+        public int compare(Key<CommitLogManifest> a, Key<CommitLogManifest> b) {
+          return ComparisonChain.start()
+              .compare(a.getId(), b.getId())
+              .compare(a.getParent().getId(), b.getParent().getId())
+              .result();
+        }};
+
   @Inject GcsService gcsService;
   @Inject @Config("commitLogGcsBucket") String gcsBucket;
   @Inject @Config("commitLogDiffExportBatchSize") int batchSize;
@@ -92,88 +105,109 @@ public final class ExportCommitLogDiffAction implements Runnable {
     CommitLogCheckpoint upperCheckpoint =
         verifyNotNull(ofy().load().key(CommitLogCheckpoint.createKey(upperCheckpointTime)).now());
 
-    // Load the keys of all the manifests to include in this diff.
-    List<Key<CommitLogManifest>> sortedKeys = loadAllDiffKeys(lowerCheckpoint, upperCheckpoint);
-    logger.infofmt("Found %d manifests to export", sortedKeys.size());
+    // Stream the keys of the manifests to include in this diff in order, so that a busy period with
+    // many transactions doesn't need all of them in memory at once.
+    Iterator<List<Key<CommitLogManifest>>> keyChunks =
+        partition(loadSortedDiffKeys(lowerCheckpoint, upperCheckpoint), batchSize);
+    int numManifests = 0;
     // Open an output channel to GCS, wrapped in a stream for convenience.
     try (OutputStream gcsStream = newOutputStream(gcsService.createOrReplace(
         new GcsFilename(gcsBucket, DIFF_FILE_PREFIX + upperCheckpointTime),
         new GcsFileOptions.Builder()
             .addUserMetadata(LOWER_BOUND_CHECKPOINT, lowerCheckpointTime.toString())
             .addUserMetadata(UPPER_BOUND_CHECKPOINT, upperCheckpointTime.toString())
-            .addUserMetadata(NUM_TRANSACTIONS, Integer.toString(sortedKeys.size()))
             .build()))) {
-      // Export the upper checkpoint itself.
-      serializeEntity(upperCheckpoint, gcsStream);
-      // If there are no manifests to export, stop early, now that we've written out the file with
-      // the checkpoint itself (which is needed for restores, even if it's empty).
-      if (sortedKeys.isEmpty()) {
-        return;
-      }
-      // Export to GCS in chunks, one per fixed batch of commit logs.  While processing one batch,
-      // asynchronously load the entities for the next one.
-      List<List<Key<CommitLogManifest>>> keyChunks = partition(sortedKeys, batchSize);
-      // Objectify's map return type is asynchronous. Calling .values() will block until it loads.
-      Map<?, CommitLogManifest> nextChunkToExport = ofy().load().keys(keyChunks.get(0));
-      for (int i = 0; i < keyChunks.size(); i++) {
-        // Force the async load to finish.
-        Collection<CommitLogManifest> chunkValues = nextChunkToExport.values();
-        logger.infofmt("Loaded %d manifests", chunkValues.size());
+      // Export the upper checkpoint itself, which is needed for restores even if the file has no
+      // manifests in it.
+      CompressedDiffFile.Writer diffFile =
+          new CompressedDiffFile.Writer(gcsStream, upperCheckpoint);
+      // Export to GCS in chunks, one per fixed batch of commit logs, each of which is written as
+      // one compressed block of the diff file. While processing one batch, asynchronously load the
+      // manifests and mutations for the next one.
+      Supplier<ImmutableList<ImmutableObject>> nextChunkToExport =
+          keyChunks.hasNext() ? loadChunkAsync(keyChunks.next()) : null;
+      while (nextChunkToExport != null) {
+        // Force the async loads to finish.
+        ImmutableList<ImmutableObject> chunk = nextChunkToExport.get();
         // Since there is no hard bound on how much data this might be, take care not to let the
-        // Objectify session cache fill up and potentially run out of memory. This is the only safe
-        // point to do this since at this point there is no async load in progress.
+        // Objectify session cache fill up and potentially run out of memory. This is the only
+        // safe point to do this since at this point there is no async load in progress.
         ofy().clearSessionCache();
-        // Kick off the next async load, which can happen in parallel to the current GCS export.
-        if (i + 1 < keyChunks.size()) {
-          nextChunkToExport = ofy().load().keys(keyChunks.get(i + 1));
-        }
-        exportChunk(gcsStream, chunkValues);
-        logger.infofmt("Exported %d manifests", chunkValues.size());
+        // Kick off the next async loads, which can happen in parallel to the current GCS export.
+        nextChunkToExport = keyChunks.hasNext() ? loadChunkAsync(keyChunks.next()) : null;
+        diffFile.writeBlock(chunk);
+        numManifests += countManifests(chunk);
+        logger.infofmt("Exported %d commit log entities", chunk.size());
       }
+      // Mark the end of the blocks, which completes the file.
+      diffFile.finish();
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
-    logger.infofmt("Exported %d manifests in total", sortedKeys.size());
+    logger.infofmt("Exported %d manifests in total", numManifests);
   }
 
   /**
-   * Loads all the diff keys, sorted in a transaction-consistent chronological order.
+   * Lazily merges the diff keys of all the buckets, sorted in a transaction-consistent
+   * chronological order.
    *
    * @param lowerCheckpoint exclusive lower bound on keys in this diff, or null if no lower bound
    * @param upperCheckpoint inclusive upper bound on keys in this diff
    */
-  private ImmutableList<Key<CommitLogManifest>> loadAllDiffKeys(
-      @Nullable final CommitLogCheckpoint lowerCheckpoint,
-      final CommitLogCheckpoint upperCheckpoint) {
-    // Fetch the keys (no data) between these checkpoints, and sort by timestamp. This ordering is
+  private Iterator<Key<CommitLogManifest>> loadSortedDiffKeys(
+      @Nullable CommitLogCheckpoint lowerCheckpoint, CommitLogCheckpoint upperCheckpoint) {
+    // Each bucket's keys are already sorted by timestamp. The merged ordering is
     // transaction-consistent by virtue of our checkpoint strategy and our customized Ofy; see
     // CommitLogCheckpointStrategy for the proof. We break ties by sorting on bucket ID to ensure
     // a deterministic order.
-    return FluentIterable.from(upperCheckpoint.getBucketTimestamps().keySet())
-        .transformAndConcat(new Function<Integer, Iterable<Key<CommitLogManifest>>>() {
-          @Override
-          public Iterable<Key<CommitLogManifest>> apply(Integer bucketNum) {
-            return loadDiffKeysFromBucket(lowerCheckpoint, upperCheckpoint, bucketNum);
-          }})
-        .toSortedList(new Comparator<Key<CommitLogManifest>>() {
-          @Override
-          public int compare(Key<CommitLogManifest> a, Key<CommitLogManifest> b) {
-            // Compare keys by timestamp (which is encoded in the id as millis), then by bucket id.
-            return ComparisonChain.start()
-                .compare(a.getId(), b.getId())
-                .compare(a.getParent().getId(), b.getParent().getId())
-                .result();
-          }});
+    ImmutableList.Builder<Iterator<Key<CommitLogManifest>>> bucketKeys =
+        new ImmutableList.Builder<>();
+    for (int bucketNum : upperCheckpoint.getBucketTimestamps().keySet()) {
+      Optional<Query<CommitLogManifest>> query =
+          createDiffKeysQueryForBucket(lowerCheckpoint, upperCheckpoint, bucketNum);
+      if (query.isPresent()) {
+        bucketKeys.add(loadKeysInPages(query.get()));
+      }
+    }
+    return mergeSorted(bucketKeys.build(), DIFF_KEY_ORDERING);
   }
 
   /**
-   * Loads the diff keys for one bucket.
+   * Returns the keys of a query in order, loaded a page of {@code batchSize} keys at a time.
+   *
+   * <p>Each page is read in full as soon as it's needed, and the next page starts from the cursor
+   * at the end of the last one, so that no query is left open while chunks are written to GCS.
+   */
+  private Iterator<Key<CommitLogManifest>> loadKeysInPages(final Query<CommitLogManifest> query) {
+    return concat(new AbstractIterator<Iterator<Key<CommitLogManifest>>>() {
+      @Nullable private Cursor cursor;
+      private boolean lastPage;
+
+      @Override
+      protected Iterator<Key<CommitLogManifest>> computeNext() {
+        if (lastPage) {
+          return endOfData();
+        }
+        Query<CommitLogManifest> pageQuery = query.limit(batchSize);
+        if (cursor != null) {
+          pageQuery = pageQuery.startAt(cursor);
+        }
+        QueryResultIterator<Key<CommitLogManifest>> keys = pageQuery.keys().iterator();
+        ImmutableList<Key<CommitLogManifest>> page = ImmutableList.copyOf(keys);
+        cursor = keys.getCursor();
+        lastPage = page.size() < batchSize;
+        return page.isEmpty() ? endOfData() : page.iterator();
+      }};
+  }
+
+  /**
+   * Returns the query for the diff keys of one bucket, or absent if there can't be any.
    *
    * @param lowerCheckpoint exclusive lower bound on keys in this diff, or null if no lower bound
    * @param upperCheckpoint inclusive upper bound on keys in this diff
    * @param bucketNum the bucket to load diff keys from
    */
-  private Iterable<Key<CommitLogManifest>> loadDiffKeysFromBucket(
+  private Optional<Query<CommitLogManifest>> createDiffKeysQueryForBucket(
       @Nullable CommitLogCheckpoint lowerCheckpoint,
       CommitLogCheckpoint upperCheckpoint,
       int bucketNum) {
@@ -187,29 +221,51 @@ public final class ExportCommitLogDiffAction implements Runnable {
     DateTime upperBound = upperCheckpoint.getBucketTimestamps().get(bucketNum).plusMillis(1);
     // If the lower and upper bounds are equal, there can't be any results, so skip the query.
     if (lowerBound.equals(upperBound)) {
-      return ImmutableSet.of();
+      return Optional.absent();
     }
     Key<CommitLogBucket> bucketKey = getBucketKey(bucketNum);
-    return ofy().load()
+    return Optional.of(ofy().load()
         .type(CommitLogManifest.class)
         .ancestor(bucketKey)
         .filterKey(">=", CommitLogManifest.createKey(bucketKey, lowerBound))
         .filterKey("<", CommitLogManifest.createKey(bucketKey, upperBound))
-        .keys();
+        .chunk(batchSize));
   }
 
-  /** Writes a chunks-worth of manifests and associated mutations to GCS. */
-  private void exportChunk(OutputStream gcsStream, Collection<CommitLogManifest> chunk)
-      throws IOException {
-    // Kickoff async loads for all the manifests in the chunk.
-    ImmutableList.Builder<Iterable<? extends ImmutableObject>> entities =
-        new ImmutableList.Builder<>();
-    for (CommitLogManifest manifest : chunk) {
-      entities.add(asList(manifest));
-      entities.add(ofy().load().type(CommitLogMutation.class).ancestor(manifest));
+  private static int countManifests(List<ImmutableObject> entities) {
+    int numManifests = 0;
+    for (ImmutableObject entity : entities) {
+      if (entity instanceof CommitLogManifest) {
+        numManifests++;
+      }
     }
-    for (ImmutableObject entity : concat(entities.build())) {
-      serializeEntity(entity, gcsStream);
+    return numManifests;
+  }
+
+  /**
+   * Starts asynchronously loading a chunk's worth of manifests and their mutations, and returns a
+   * supplier of them in export order that blocks until they are loaded.
+   */
+  private static Supplier<ImmutableList<ImmutableObject>> loadChunkAsync(
+      final List<Key<CommitLogManifest>> keys) {
+    // Objectify's map and list return types are asynchronous, and block when they are accessed.
+    final Map<Key<CommitLogManifest>, CommitLogManifest> manifests = ofy().load().keys(keys);
+    final List<List<CommitLogMutation>> mutations = new ArrayList<>();
+    for (Key<CommitLogManifest> key : keys) {
+      mutations.add(ofy().load().type(CommitLogMutation.class).ancestor(key).list());
     }
+    return new Supplier<ImmutableList<ImmutableObject>>() {
+      @Override
+      public ImmutableList<ImmutableObject> get() {
+        ImmutableList.Builder<ImmutableObject> entities = new ImmutableList.Builder<>();
+        for (int i = 0; i < keys.size(); i++) {
+          CommitLogManifest manifest = manifests.get(keys.get(i));
+          if (manifest != null) {
+            entities.add(manifest);
+            entities.addAll(mutations.get(i));
+          }
+        }
+        return entities.build();
+      }};
   }
 }
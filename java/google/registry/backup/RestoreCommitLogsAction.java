@@ -14,31 +14,45 @@
 
 package google.registry.backup;
 
+import static com.google.appengine.api.ThreadManager.currentRequestThreadFactory;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.Iterators.peekingIterator;
+import static com.google.common.util.concurrent.Futures.getUnchecked;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+import static com.google.common.util.concurrent.Uninterruptibles.takeUninterruptibly;
 import static google.registry.backup.BackupUtils.createDeserializingIterator;
+import static google.registry.model.common.Cursor.CursorType.DOMAIN_REFERENCE_INDEX_BACKFILL;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static java.util.Arrays.asList;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
-import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.AsyncDatastoreService;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.EntityTranslator;
 import com.google.appengine.tools.cloudstorage.GcsFileMetadata;
 import com.google.appengine.tools.cloudstorage.GcsService;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.FluentIterable;
-import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.PeekingIterator;
 import com.googlecode.objectify.Key;
-import com.googlecode.objectify.Result;
-import com.googlecode.objectify.util.ResultNow;
 import google.registry.config.RegistryEnvironment;
 import google.registry.model.ImmutableObject;
+import google.registry.model.common.Cursor;
 import google.registry.model.ofy.CommitLogBucket;
 import google.registry.model.ofy.CommitLogCheckpoint;
 import google.registry.model.ofy.CommitLogCheckpointRoot;
 import google.registry.model.ofy.CommitLogManifest;
 import google.registry.model.ofy.CommitLogMutation;
+import google.registry.monitoring.metrics.EventMetric;
+import google.registry.monitoring.metrics.LabelDescriptor;
+import google.registry.monitoring.metrics.MetricRegistryImpl;
 import google.registry.request.Action;
 import google.registry.request.Parameter;
 import google.registry.util.FormattingLogger;
@@ -46,16 +60,39 @@ import google.registry.util.Retrier;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
 
-/** Restore Registry 2 commit logs from GCS to datastore. */
+/**
+ * Restore Registry 2 commit logs from GCS to datastore.
+ *
+ * <p>The restore is pipelined in three stages that run at the same time. Diff files are read from
+ * GCS and decoded one transaction at a time on a background thread, which stays up to
+ * {@link #MAX_PREFETCHED_ENTITIES} entities ahead of the request thread. The request thread groups
+ * consecutive transactions into a single batched write, as long as no entity is saved or deleted
+ * twice in the batch, and sends the batch to datastore asynchronously. It then builds the next
+ * batch while the previous one is being written, and only sends it once the previous one has
+ * completed, so that every entity still ends up in the state written by the last transaction that
+ * touched it. The checkpoint of each diff file is saved once all of its transactions are written.
+ */
 @Action(
     path = RestoreCommitLogsAction.PATH,
     method = Action.Method.POST,
@@ -66,14 +103,32 @@ public class RestoreCommitLogsAction implements Runnable {
 
   static final int BLOCK_SIZE = 1024 * 1024;  // Buffer 1mb at a time, for no particular reason.
 
+  /** Maximum number of entities saved, and of entities deleted, in a single batched write. */
+  static final int MAX_BATCH_SIZE = 500;
+
+  /** How many entities to save are read and decoded ahead of the batch being built. */
+  static final int MAX_PREFETCHED_ENTITIES = 10 * MAX_BATCH_SIZE;
+
   static final String PATH = "/_dr/task/restoreCommitLogs";
   static final String DRY_RUN_PARAM = "dryRun";
   static final String FROM_TIME_PARAM = "fromTime";
 
+  /** Transactions restored per second by each restore, over the whole restore. */
+  @VisibleForTesting
+  static final EventMetric throughput =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/backup/restore/throughput",
+              "Transactions restored per second by each commit log restore.",
+              "transactions/second",
+              ImmutableSet.of(
+                  LabelDescriptor.create("dry_run", "Whether the restore was a dry run.")),
+              EventMetric.DEFAULT_FITTER);
+
   @Inject GcsService gcsService;
   @Inject @Parameter(DRY_RUN_PARAM) boolean dryRun;
   @Inject @Parameter(FROM_TIME_PARAM) DateTime fromTime;
-  @Inject DatastoreService datastoreService;
+  @Inject AsyncDatastoreService datastoreService;
   @Inject GcsDiffFileLister diffLister;
   @Inject Retrier retrier;
   @Inject RestoreCommitLogsAction() {}
@@ -92,22 +147,54 @@ public class RestoreCommitLogsAction implements Runnable {
       logger.info("Nothing to restore");
       return;
     }
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    Stopwatch readWaitStopwatch = Stopwatch.createUnstarted();
     Map<Integer, DateTime> bucketTimestamps = new HashMap<>();
     CommitLogCheckpoint lastCheckpoint = null;
-    for (GcsFileMetadata metadata : diffFiles) {
-      logger.info("Restoring: " + metadata.getFilename().getObjectName());
-      try (InputStream input = Channels.newInputStream(
-          gcsService.openPrefetchingReadChannel(metadata.getFilename(), 0, BLOCK_SIZE))) {
-        PeekingIterator<ImmutableObject> commitLogs =
-            peekingIterator(createDeserializingIterator(input));
-        lastCheckpoint = (CommitLogCheckpoint) commitLogs.next();
-        saveOfy(asList(lastCheckpoint));  // Save the checkpoint itself.
-        while (commitLogs.hasNext()) {
-          CommitLogManifest manifest = restoreOneTransaction(commitLogs);
-          bucketTimestamps.put(manifest.getBucketId(), manifest.getCommitTime());
+    int transactionCount = 0;
+    // Outside of App Engine, e.g. in tests, diff files are read on the request thread instead.
+    ThreadFactory threadFactory = currentRequestThreadFactory();
+    ExecutorService readExecutor =
+        threadFactory == null ? null : newSingleThreadExecutor(threadFactory);
+    try {
+      Iterator<DecodedEntry> entries = readExecutor == null
+          ? readDiffFiles(diffFiles)
+          : prefetch(readDiffFiles(diffFiles), readExecutor);
+      TransactionBatch batch = new TransactionBatch();
+      PendingWrite previousWrite = new PendingWrite(
+          ImmutableList.<Entity>of(), ImmutableSet.<Key<?>>of());
+      while (true) {
+        readWaitStopwatch.start();
+        DecodedEntry entry = entries.hasNext() ? entries.next() : null;
+        readWaitStopwatch.stop();
+        if (entry == null) {
+          break;
+        }
+        if (entry.transaction != null) {
+          if (!batch.canAdd(entry.transaction)) {
+            previousWrite = batch.write(previousWrite);
+            batch = new TransactionBatch();
+          }
+          batch.add(entry.transaction);
+          bucketTimestamps.put(
+              entry.transaction.manifest.getBucketId(),
+              entry.transaction.manifest.getCommitTime());
+          transactionCount++;
+        } else {
+          // Only save the checkpoint once all of the transactions of its diff file are written.
+          previousWrite = batch.write(previousWrite);
+          batch = new TransactionBatch();
+          lastCheckpoint = entry.checkpoint;
+          previousWrite = writeAsync(
+              previousWrite,
+              ImmutableList.of(ofy().save().toEntity(lastCheckpoint)),
+              ImmutableSet.<Key<?>>of());
         }
-      } catch (IOException e) {
-        throw new RuntimeException(e);
+      }
+      previousWrite.awaitCompletion();
+    } finally {
+      if (readExecutor != null) {
+        readExecutor.shutdownNow();
       }
     }
     // Restore the CommitLogCheckpointRoot and CommitLogBuckets.
@@ -121,73 +208,172 @@ public class RestoreCommitLogsAction implements Runnable {
                 .build();
           }})
         .append(CommitLogCheckpointRoot.create(lastCheckpoint.getCheckpointTime())));
+    // The DomainReferenceIndex entries aren't commit logged, so the index can't be relied on until
+    // it has been backfilled again, which sets the cursor again once it's done.
+    deleteOfy(Cursor.createGlobalKey(DOMAIN_REFERENCE_INDEX_BACKFILL));
+    long elapsedMillis = Math.max(1, stopwatch.elapsed(MILLISECONDS));
+    double transactionsPerSecond = transactionCount * 1000.0 / elapsedMillis;
+    throughput.record(transactionsPerSecond, String.valueOf(dryRun));
+    logger.infofmt(
+        "Restored %d transactions from %d diff files in %s (%.1f transactions/second), "
+            + "of which %s was spent waiting for diff files to be read",
+        transactionCount,
+        diffFiles.size(),
+        stopwatch,
+        transactionsPerSecond,
+        readWaitStopwatch);
+  }
+
+  /**
+   * Returns the transactions of the diff files in order, each file's followed by its checkpoint.
+   *
+   * <p>Only one diff file is open at a time, and its transactions are read from GCS and decoded one
+   * at a time as they are iterated over.
+   */
+  private Iterator<DecodedEntry> readDiffFiles(final List<GcsFileMetadata> diffFiles) {
+    return new AbstractIterator<DecodedEntry>() {
+      final Iterator<GcsFileMetadata> filesToRead = diffFiles.iterator();
+      InputStream input;
+      PeekingIterator<ImmutableObject> commitLogs;
+      CommitLogCheckpoint checkpoint;
+
+      @Override
+      protected DecodedEntry computeNext() {
+        try {
+          if (commitLogs == null) {
+            if (!filesToRead.hasNext()) {
+              return endOfData();
+            }
+            GcsFileMetadata metadata = filesToRead.next();
+            logger.info("Restoring: " + metadata.getFilename().getObjectName());
+            input = Channels.newInputStream(
+                gcsService.openPrefetchingReadChannel(metadata.getFilename(), 0, BLOCK_SIZE));
+            commitLogs = peekingIterator(createDeserializingIterator(input));
+            checkpoint = (CommitLogCheckpoint) commitLogs.next();
+          }
+          if (commitLogs.hasNext()) {
+            return new DecodedEntry(decodeOneTransaction(commitLogs), null);
+          }
+          input.close();
+          commitLogs = null;
+          return new DecodedEntry(null, checkpoint);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }};
+  }
+
+  /**
+   * Reads entries ahead on a background thread, holding up to {@link #MAX_PREFETCHED_ENTITIES}
+   * entities to save that haven't been taken yet.
+   *
+   * <p>If reading fails, the returned iterator throws once it reaches the failure.
+   */
+  private static Iterator<DecodedEntry> prefetch(
+      final Iterator<DecodedEntry> entries, ExecutorService executor) {
+    // An absent entry marks the end of the entries, whether or not reading them succeeded.
+    final BlockingQueue<Optional<DecodedEntry>> buffer = new LinkedBlockingQueue<>();
+    final Semaphore bufferSpace = new Semaphore(MAX_PREFETCHED_ENTITIES);
+    final Future<?> reader = executor.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws InterruptedException {
+        try {
+          while (entries.hasNext()) {
+            DecodedEntry entry = entries.next();
+            bufferSpace.acquire(entry.getBufferSize());
+            buffer.add(Optional.of(entry));
+          }
+        } finally {
+          buffer.add(Optional.<DecodedEntry>absent());
+        }
+        return null;
+      }});
+    return new AbstractIterator<DecodedEntry>() {
+      @Override
+      protected DecodedEntry computeNext() {
+        Optional<DecodedEntry> entry = takeUninterruptibly(buffer);
+        if (!entry.isPresent()) {
+          try {
+            getUninterruptibly(reader);
+          } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+          }
+          return endOfData();
+        }
+        bufferSpace.release(entry.get().getBufferSize());
+        return entry.get();
+      }};
   }
 
   /**
-   * Restore the contents of one transaction to datastore.
+   * Decode the contents of one transaction into the entities to restore to datastore.
    *
    * <p>The objects to delete are listed in the {@link CommitLogManifest}, which will be the first
    * object in the iterable. The objects to save follow, each as a {@link CommitLogMutation}. We
    * restore by deleting the deletes and recreating the saves from their proto form. We also save
    * the commit logs themselves back to datastore, so that the commit log system itself is
    * transparently restored alongside the data.
-   *
-   * @return the manifest, for use in restoring the {@link CommitLogBucket}.
    */
-  private CommitLogManifest restoreOneTransaction(PeekingIterator<ImmutableObject> commitLogs) {
-    final CommitLogManifest manifest = (CommitLogManifest) commitLogs.next();
-    Result<?> deleteResult = deleteAsync(manifest.getDeletions());
-    List<Entity> entitiesToSave = Lists.newArrayList(ofy().save().toEntity(manifest));
+  private static DecodedTransaction decodeOneTransaction(
+      PeekingIterator<ImmutableObject> commitLogs) {
+    CommitLogManifest manifest = (CommitLogManifest) commitLogs.next();
+    ImmutableList.Builder<Entity> entitiesToSave = new ImmutableList.Builder<>();
+    entitiesToSave.add(ofy().save().toEntity(manifest));
     while (commitLogs.hasNext() && commitLogs.peek() instanceof CommitLogMutation) {
       CommitLogMutation mutation = (CommitLogMutation) commitLogs.next();
       entitiesToSave.add(ofy().save().toEntity(mutation));
       entitiesToSave.add(EntityTranslator.createFromPbBytes(mutation.getEntityProtoBytes()));
     }
-    saveRaw(entitiesToSave);
-    try {
-      deleteResult.now();
-    } catch (Exception e) {
-      retry(new Runnable() {
-        @Override
-        public void run() {
-          deleteAsync(manifest.getDeletions()).now();
-        }});
-    }
-    return manifest;
+    return new DecodedTransaction(manifest, entitiesToSave.build());
   }
 
-  private void saveRaw(final List<Entity> entitiesToSave) {
+  private void saveOfy(final Iterable<? extends ImmutableObject> objectsToSave) {
     if (dryRun) {
-      logger.info("Would have saved " + entitiesToSave);
+      logger.info("Would have saved " + asList(objectsToSave));
       return;
     }
     retry(new Runnable() {
       @Override
       public void run() {
-        datastoreService.put(entitiesToSave);
+        ofy().saveWithoutBackup().entities(objectsToSave).now();
       }});
   }
 
-  private void saveOfy(final Iterable<? extends ImmutableObject> objectsToSave) {
+  private void deleteOfy(final Key<?> keyToDelete) {
     if (dryRun) {
-      logger.info("Would have saved " + asList(objectsToSave));
+      logger.info("Would have deleted " + keyToDelete);
       return;
     }
     retry(new Runnable() {
       @Override
       public void run() {
-        ofy().saveWithoutBackup().entities(objectsToSave).now();
+        ofy().deleteWithoutBackup().key(keyToDelete).now();
       }});
   }
 
-  private Result<?> deleteAsync(Set<Key<?>> keysToDelete) {
+  /**
+   * Sends saves and deletes to datastore without waiting for them to complete, once the previous
+   * write has completed.
+   *
+   * <p>The entities saved and deleted must all be different, since they are written in parallel.
+   */
+  private PendingWrite writeAsync(
+      PendingWrite previousWrite, List<Entity> entitiesToSave, Set<Key<?>> keysToDelete) {
+    previousWrite.awaitCompletion();
+    PendingWrite write = new PendingWrite(entitiesToSave, keysToDelete);
     if (dryRun) {
+      logger.info("Would have saved " + entitiesToSave);
       logger.info("Would have deleted " + keysToDelete);
+      return write;
+    }
+    if (!keysToDelete.isEmpty()) {
+      write.results.add(datastoreService.delete(write.getRawKeys()));
     }
-    return dryRun || keysToDelete.isEmpty()
-        ? new ResultNow<Void>(null)
-        : ofy().deleteWithoutBackup().entities(keysToDelete);
-   }
+    if (!entitiesToSave.isEmpty()) {
+      write.results.add(datastoreService.put(entitiesToSave));
+    }
+    return write;
+  }
 
   /** Retrier for saves and deletes, since we can't proceed with any failures. */
   private void retry(final Runnable runnable) {
@@ -200,4 +386,133 @@ public class RestoreCommitLogsAction implements Runnable {
           }},
         RuntimeException.class);
   }
+
+  /**
+   * A transaction decoded from a diff file, or the checkpoint of a diff file once all of its
+   * transactions have been decoded.
+   */
+  private static final class DecodedEntry {
+    @Nullable final DecodedTransaction transaction;
+    @Nullable final CommitLogCheckpoint checkpoint;
+
+    DecodedEntry(
+        @Nullable DecodedTransaction transaction, @Nullable CommitLogCheckpoint checkpoint) {
+      this.transaction = transaction;
+      this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Returns how much of the prefetch buffer this entry takes up, which is never more than the
+     * whole buffer, so that a transaction too large for the buffer can still be read on its own.
+     */
+    int getBufferSize() {
+      return transaction == null
+          ? 1
+          : Math.min(transaction.entitiesToSave.size(), MAX_PREFETCHED_ENTITIES);
+    }
+  }
+
+  /** A transaction, decoded into the entities to save and the keys to delete. */
+  private static final class DecodedTransaction {
+    final CommitLogManifest manifest;
+    final ImmutableList<Entity> entitiesToSave;
+
+    /** Keys of every entity saved or deleted by this transaction. */
+    final ImmutableSet<com.google.appengine.api.datastore.Key> touchedKeys;
+
+    DecodedTransaction(CommitLogManifest manifest, ImmutableList<Entity> entitiesToSave) {
+      this.manifest = manifest;
+      this.entitiesToSave = entitiesToSave;
+      ImmutableSet.Builder<com.google.appengine.api.datastore.Key> touchedKeys =
+          new ImmutableSet.Builder<>();
+      for (Entity entity : entitiesToSave) {
+        touchedKeys.add(entity.getKey());
+      }
+      for (Key<?> key : manifest.getDeletions()) {
+        touchedKeys.add(key.getRaw());
+      }
+      this.touchedKeys = touchedKeys.build();
+    }
+  }
+
+  /**
+   * Consecutive transactions that are restored together, in one save and one delete.
+   *
+   * <p>A transaction is only added if none of the entities it saves or deletes are already saved or
+   * deleted in the batch. The order of the writes within a batch doesn't matter then, and every
+   * entity is left in the state of the last transaction to touch it, as batches are written in
+   * order.
+   */
+  private final class TransactionBatch {
+    final List<Entity> entitiesToSave = new ArrayList<>();
+    final Set<Key<?>> keysToDelete = new HashSet<>();
+    final Set<com.google.appengine.api.datastore.Key> touchedKeys = new HashSet<>();
+
+    boolean canAdd(DecodedTransaction transaction) {
+      if (touchedKeys.isEmpty()) {
+        return true;  // A transaction is always restored, even if it exceeds the batch size.
+      }
+      return entitiesToSave.size() + transaction.entitiesToSave.size() <= MAX_BATCH_SIZE
+          && keysToDelete.size() + transaction.manifest.getDeletions().size() <= MAX_BATCH_SIZE
+          && Collections.disjoint(touchedKeys, transaction.touchedKeys);
+    }
+
+    void add(DecodedTransaction transaction) {
+      entitiesToSave.addAll(transaction.entitiesToSave);
+      keysToDelete.addAll(transaction.manifest.getDeletions());
+      touchedKeys.addAll(transaction.touchedKeys);
+    }
+
+    /** Sends the batch to datastore once the previous write has completed, if it's not empty. */
+    PendingWrite write(PendingWrite previousWrite) {
+      return touchedKeys.isEmpty()
+          ? previousWrite
+          : writeAsync(previousWrite, entitiesToSave, keysToDelete);
+    }
+  }
+
+  /** Saves and deletes sent to datastore by {@link #writeAsync}, which may not have completed. */
+  private final class PendingWrite {
+    final List<Entity> entitiesToSave;
+    final Set<Key<?>> keysToDelete;
+
+    /** The results of the writes that are still outstanding, if any. */
+    final List<Future<?>> results = new ArrayList<>();
+
+    PendingWrite(List<Entity> entitiesToSave, Set<Key<?>> keysToDelete) {
+      this.entitiesToSave = entitiesToSave;
+      this.keysToDelete = keysToDelete;
+    }
+
+    /** Waits for the write to complete, and writes again, with retries, if it failed. */
+    void awaitCompletion() {
+      try {
+        for (Future<?> result : results) {
+          getUninterruptibly(result);
+        }
+      } catch (ExecutionException | RuntimeException e) {
+        logger.warningfmt(e, "Failed to write a batch, retrying");
+        retry(new Runnable() {
+          @Override
+          public void run() {
+            if (!keysToDelete.isEmpty()) {
+              getUnchecked(datastoreService.delete(getRawKeys()));
+            }
+            if (!entitiesToSave.isEmpty()) {
+              getUnchecked(datastoreService.put(entitiesToSave));
+            }
+          }});
+      } finally {
+        results.clear();
+      }
+    }
+
+    private List<com.google.appengine.api.datastore.Key> getRawKeys() {
+      List<com.google.appengine.api.datastore.Key> rawKeys = new ArrayList<>();
+      for (Key<?> key : keysToDelete) {
+        rawKeys.add(key.getRaw());
+      }
+      return rawKeys;
+    }
+  }
 }
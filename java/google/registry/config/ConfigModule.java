@@ -848,7 +848,31 @@ public final class ConfigModule {
   }
 
   /**
-   * The reporting interval, for BigQueryMetricsEnqueuer to be sent to a {@link
+   * Maximum number of TimeSeries.Create API calls to Stackdriver that can be in flight at once.
+   * All of them are subject to the {@code stackdriverMaxQps} limit.
+   *
+   * @see google.registry.monitoring.metrics.StackdriverWriter
+   */
+  @Provides
+  @Config("stackdriverMaxInFlightRequests")
+  public static int provideStackdriverMaxInFlightRequests() {
+    return 4;
+  }
+
+  /**
+   * Maximum number of times a TimeSeries.Create API call to Stackdriver is retried after a
+   * transient failure, before its points are dropped.
+   *
+   * @see google.registry.monitoring.metrics.StackdriverWriter
+   */
+  @Provides
+  @Config("stackdriverMaxRetries")
+  public static int provideStackdriverMaxRetries() {
+    return 3;
+  }
+
+  /**
+   * The reporting interval, for metrics to be sent to a {@link
    * google.registry.monitoring.metrics.MetricWriter}.
    *
    * @see google.registry.monitoring.metrics.MetricReporter
@@ -859,6 +883,39 @@ public final class ConfigModule {
     return Duration.standardSeconds(60);
   }
 
+  /**
+   * Maximum number of rows that are streamed to a BigQuery metrics table in one insert.
+   *
+   * @see google.registry.monitoring.whitebox.BigQueryMetricsBatcher
+   */
+  @Provides
+  @Config("bigQueryMetricsMaxBatchSize")
+  public static int provideBigQueryMetricsMaxBatchSize() {
+    return 500;
+  }
+
+  /**
+   * Maximum time that a metric is buffered before it's streamed to BigQuery.
+   *
+   * @see google.registry.monitoring.whitebox.BigQueryMetricsBatcher
+   */
+  @Provides
+  @Config("bigQueryMetricsFlushInterval")
+  public static Duration provideBigQueryMetricsFlushInterval() {
+    return Duration.standardSeconds(5);
+  }
+
+  /**
+   * Maximum number of metrics buffered on an instance before new ones are dropped.
+   *
+   * @see google.registry.monitoring.whitebox.BigQueryMetricsBatcher
+   */
+  @Provides
+  @Config("bigQueryMetricsBufferSize")
+  public static int provideBigQueryMetricsBufferSize() {
+    return 5000;
+  }
+
   /**
    * The time between a contact transfer request and its expiration date.
    *
@@ -879,6 +936,36 @@ public final class ConfigModule {
     return 50;
   }
 
+  /**
+   * Returns whether EPP requests are pretty printed in the request logs.
+   *
+   * <p>Pretty printing re-parses every request, which is a noticeable cost for high-volume checks.
+   * If this is disabled, requests are logged as they were sent instead, and can be pretty printed
+   * offline from the base64 encoded bytes that are always logged alongside them.
+   *
+   * @see google.registry.flows.FlowRunner
+   */
+  @Provides
+  @Config("prettyPrintEppRequestLogs")
+  public static boolean providePrettyPrintEppRequestLogs() {
+    return true;
+  }
+
+  /**
+   * Returns whether the time spent in each stage of handling an EPP request is recorded.
+   *
+   * <p>This is off by default. Enabling it records one point per stage into the
+   * {@code /epp/stage_time} metric for every EPP request. If this is disabled, the stages marked on
+   * the request path cost a thread-local lookup each.
+   *
+   * @see google.registry.util.StageTimer
+   */
+  @Provides
+  @Config("eppStageTimingEnabled")
+  public static boolean provideEppStageTimingEnabled() {
+    return false;
+  }
+
   /**
    * Returns the delay before executing async delete flow mapreduces.
    *
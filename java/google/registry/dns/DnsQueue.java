@@ -15,6 +15,7 @@
 package google.registry.dns;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.Lists.partition;
 import static google.registry.dns.DnsConstants.DNS_PULL_QUEUE_NAME;
 import static google.registry.dns.DnsConstants.DNS_TARGET_NAME_PARAM;
 import static google.registry.dns.DnsConstants.DNS_TARGET_TYPE_PARAM;
@@ -53,6 +54,9 @@ public class DnsQueue {
 
   long writeBatchSize = QueueConstants.maxLeaseCount();
 
+  /** The most tasks deleted in a single call, which is as many as can be leased in one call. */
+  int deleteBatchSize = (int) QueueConstants.maxLeaseCount();
+
   /**
    * Enqueues the given task type with the given target name to the DNS queue.
    */
@@ -119,10 +123,17 @@ public class DnsQueue {
     }
   }
 
-  /** Delete a list of tasks, removing them from the queue permanently. */
+  /**
+   * Delete a list of tasks, removing them from the queue permanently.
+   *
+   * <p>The tasks are deleted in batches of at most {@link #deleteBatchSize}, so that any number of
+   * tasks can be deleted without going over the limit of a single call.
+   */
   public void deleteTasks(List<TaskHandle> tasks) {
     try {
-      queue.deleteTask(tasks);
+      for (List<TaskHandle> batch : partition(tasks, deleteBatchSize)) {
+        queue.deleteTask(batch);
+      }
     } catch (TransientFailureException | DeadlineExceededException e) {
       logger.severe(e, "Failed deleting tasks too fast");
     }
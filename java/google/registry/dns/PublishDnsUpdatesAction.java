@@ -14,23 +14,34 @@
 
 package google.registry.dns;
 
+import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.server.Lock.executeWithLocks;
 import static google.registry.request.Action.Method.POST;
 import static google.registry.util.CollectionUtils.nullToEmpty;
 
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.net.InternetDomainName;
+import com.googlecode.objectify.Key;
 import google.registry.config.ConfigModule.Config;
 import google.registry.dns.DnsMetrics.Status;
 import google.registry.dns.writer.DnsWriter;
+import google.registry.model.EppResource;
+import google.registry.model.domain.DomainResource;
+import google.registry.model.host.HostResource;
+import google.registry.model.index.ForeignKeyIndex;
 import google.registry.request.Action;
 import google.registry.request.HttpException.ServiceUnavailableException;
 import google.registry.request.Parameter;
 import google.registry.request.RequestParameters;
+import google.registry.util.Clock;
 import google.registry.util.DomainNameUtils;
 import google.registry.util.FormattingLogger;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import javax.inject.Inject;
+import org.joda.time.DateTime;
 import org.joda.time.Duration;
 
 /** Task that sends domain and host updates to the DNS server. */
@@ -46,6 +57,7 @@ public final class PublishDnsUpdatesAction implements Runnable, Callable<Void> {
   @Inject DnsQueue dnsQueue;
   @Inject DnsWriterProxy dnsWriterProxy;
   @Inject DnsMetrics dnsMetrics;
+  @Inject Clock clock;
   @Inject @Config("dnsWriteLockTimeout") Duration timeout;
   @Inject @Parameter(RequestParameters.PARAM_TLD) String tld;
   @Inject @Parameter(DOMAINS_PARAM) Set<String> domains;
@@ -74,27 +86,79 @@ public final class PublishDnsUpdatesAction implements Runnable, Callable<Void> {
 
   /** Steps through the domain and host refreshes contained in the parameters and processes them. */
   private void processBatch() {
+    ImmutableSet.Builder<String> domainsToPublish = new ImmutableSet.Builder<>();
+    for (String domain : nullToEmpty(domains)) {
+      if (!DomainNameUtils.isUnder(
+          InternetDomainName.from(domain), InternetDomainName.from(tld))) {
+        dnsMetrics.incrementPublishDomainRequests(tld, Status.REJECTED);
+        logger.severefmt("%s: skipping domain %s not under tld", tld, domain);
+      } else {
+        dnsMetrics.incrementPublishDomainRequests(tld, Status.ACCEPTED);
+        domainsToPublish.add(domain);
+      }
+    }
+    ImmutableSet.Builder<String> hostsToPublish = new ImmutableSet.Builder<>();
+    for (String host : nullToEmpty(hosts)) {
+      if (!DomainNameUtils.isUnder(
+          InternetDomainName.from(host), InternetDomainName.from(tld))) {
+        dnsMetrics.incrementPublishHostRequests(tld, Status.REJECTED);
+        logger.severefmt("%s: skipping host %s not under tld", tld, host);
+      } else {
+        dnsMetrics.incrementPublishHostRequests(tld, Status.ACCEPTED);
+        hostsToPublish.add(host);
+      }
+    }
+    prefetchResources(domainsToPublish.build(), hostsToPublish.build());
     try (DnsWriter writer = dnsWriterProxy.getForTld(tld)) {
-      for (String domain : nullToEmpty(domains)) {
-        if (!DomainNameUtils.isUnder(
-            InternetDomainName.from(domain), InternetDomainName.from(tld))) {
-          dnsMetrics.incrementPublishDomainRequests(tld, Status.REJECTED);
-          logger.severefmt("%s: skipping domain %s not under tld", tld, domain);
-        } else {
-          dnsMetrics.incrementPublishDomainRequests(tld, Status.ACCEPTED);
-          writer.publishDomain(domain);
-        }
+      for (String domain : domainsToPublish.build()) {
+        writer.publishDomain(domain);
+      }
+      for (String host : hostsToPublish.build()) {
+        writer.publishHost(host);
       }
-      for (String host : nullToEmpty(hosts)) {
-        if (!DomainNameUtils.isUnder(
-            InternetDomainName.from(host), InternetDomainName.from(tld))) {
-          dnsMetrics.incrementPublishHostRequests(tld, Status.REJECTED);
-          logger.severefmt("%s: skipping host %s not under tld", tld, host);
-        } else {
-          dnsMetrics.incrementPublishHostRequests(tld, Status.ACCEPTED);
-          writer.publishHost(host);
-        }
+    }
+  }
+
+  /**
+   * Loads the domains that are about to be published, and the hosts that they reference, into the
+   * Objectify session cache with a few batch loads.
+   *
+   * <p>The DNS writers load each domain and host individually by foreign key while publishing, and
+   * would otherwise make several Datastore round trips per name. Publishing a host publishes its
+   * superordinate domain, so those domains are loaded as well.
+   */
+  private void prefetchResources(ImmutableSet<String> domainNames, ImmutableSet<String> hostNames) {
+    DateTime now = clock.nowUtc();
+    int tldPartCount = InternetDomainName.from(tld).parts().size();
+    ImmutableSet.Builder<String> domainsToLoad =
+        new ImmutableSet.Builder<String>().addAll(domainNames);
+    for (String hostName : hostNames) {
+      List<String> parts = InternetDomainName.from(hostName).parts();
+      if (parts.size() > tldPartCount + 1) {
+        domainsToLoad.add(
+            Joiner.on('.').join(parts.subList(parts.size() - tldPartCount - 1, parts.size())));
       }
     }
+    ImmutableSet.Builder<Key<HostResource>> hostKeys = new ImmutableSet.Builder<>();
+    ImmutableSet.Builder<String> subordinateHostNames = new ImmutableSet.Builder<>();
+    for (DomainResource domain
+        : ofy().load().keys(loadResourceKeys(DomainResource.class, domainsToLoad.build(), now))
+            .values()) {
+      hostKeys.addAll(domain.getNameservers());
+      subordinateHostNames.addAll(domain.getSubordinateHosts());
+    }
+    // Glue records are published for subordinate hosts, which are loaded by foreign key.
+    hostKeys.addAll(loadResourceKeys(HostResource.class, subordinateHostNames.build(), now));
+    ofy().load().keys(hostKeys.build());  // Asynchronously load the hosts into the session cache.
+  }
+
+  /** Loads the keys of the resources with the given foreign keys, in a single batch. */
+  private static <E extends EppResource> ImmutableSet<Key<E>> loadResourceKeys(
+      Class<E> clazz, ImmutableSet<String> foreignKeys, DateTime now) {
+    ImmutableSet.Builder<Key<E>> keys = new ImmutableSet.Builder<>();
+    for (ForeignKeyIndex<E> index : ForeignKeyIndex.load(clazz, foreignKeys, now).values()) {
+      keys.add(index.getResourceKey());
+    }
+    return keys.build();
   }
 }
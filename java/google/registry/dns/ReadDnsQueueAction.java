@@ -69,6 +69,15 @@ public final class ReadDnsQueueAction implements Runnable {
   public static final String KEEP_TASKS_PARAM = "keepTasks";
 
   private static final String JITTER_SECONDS_PARAM = "jitterSeconds";
+
+  /**
+   * The maximum number of batches of tasks to lease from the pull queue per run.
+   *
+   * <p>Leasing several batches at once means that repeated refresh requests for the same name,
+   * which are common when many hosts or domains are updated together, are coalesced into a single
+   * publish even when they end up in different batches.
+   */
+  private static final int MAX_LEASE_BATCHES = 10;
   private static final Random random = new Random();
   private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
 
@@ -101,12 +110,28 @@ public final class ReadDnsQueueAction implements Runnable {
     }
   }
 
+  /**
+   * Leases up to {@link #MAX_LEASE_BATCHES} batches of tasks from the pull queue, stopping early
+   * once it has been drained.
+   */
+  private ImmutableList<TaskHandle> leaseTasks() {
+    ImmutableList.Builder<TaskHandle> tasks = new ImmutableList.Builder<>();
+    for (int i = 0; i < MAX_LEASE_BATCHES; i++) {
+      List<TaskHandle> batch = dnsQueue.leaseTasks(writeLockTimeout);
+      tasks.addAll(batch);
+      if (batch.size() < dnsQueue.writeBatchSize) {
+        break;
+      }
+    }
+    return tasks.build();
+  }
+
   /** Leases all tasks from the pull queue and creates per-tld update actions for them. */
   @Override
   public void run() {
     Set<String> tldsOfInterest = getTlds();
 
-    List<TaskHandle> tasks = dnsQueue.leaseTasks(writeLockTimeout);
+    List<TaskHandle> tasks = leaseTasks();
     if (tasks.isEmpty()) {
       return;
     }
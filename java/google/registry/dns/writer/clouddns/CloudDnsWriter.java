@@ -24,13 +24,16 @@ import com.google.api.services.dns.model.Change;
 import com.google.api.services.dns.model.ResourceRecordSet;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSet.Builder;
 import com.google.common.net.InternetDomainName;
 import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import google.registry.config.ConfigModule.Config;
 import google.registry.dns.writer.DnsWriter;
 import google.registry.dns.writer.DnsWriterZone;
@@ -39,14 +42,18 @@ import google.registry.model.domain.secdns.DelegationSignerData;
 import google.registry.model.host.HostResource;
 import google.registry.model.registry.Registries;
 import google.registry.util.Clock;
+import google.registry.util.Concurrent;
 import google.registry.util.FormattingLogger;
 import google.registry.util.Retrier;
 import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import javax.inject.Inject;
@@ -56,6 +63,12 @@ import org.joda.time.Duration;
 /**
  * {@link DnsWriter} implementation that talks to Google Cloud DNS.
  *
+ * <p>The existing records of the published names are fetched concurrently, so that large publishes
+ * are limited by the Cloud DNS rate limit rather than by the latency of each request. The changes
+ * are split into several {@link Change}s to stay within the Cloud DNS limits on the number of
+ * record sets in a change, keeping each domain and its glue records in a single change, and only
+ * the changes that fail because the zone was modified concurrently are retried.
+ *
  * @see <a href="https://cloud.google.com/dns/docs/">Google Cloud DNS Documentation</a>
  */
 public class CloudDnsWriter implements DnsWriter {
@@ -70,8 +83,15 @@ public class CloudDnsWriter implements DnsWriter {
   private static final ImmutableSet<String> RETRYABLE_EXCEPTION_REASONS =
       ImmutableSet.of("preconditionFailed", "notFound", "alreadyExists");
 
+  /**
+   * The most record sets that a single published name (a domain or a host) adds or deletes, since
+   * only its NS and DS, or A and AAAA, records are ever published.
+   */
+  private static final int MAX_RECORD_SETS_PER_NAME = 2;
+
   private final Clock clock;
   private final RateLimiter rateLimiter;
+  private final int maxRecordSetsPerChange;
   // TODO(shikhman): This uses @Config("transientFailureRetries") which may not be tuned for this
   // application.
   private final Retrier retrier;
@@ -79,8 +99,8 @@ public class CloudDnsWriter implements DnsWriter {
   private final String projectId;
   private final String zoneName;
   private final Dns dnsConnection;
-  private final ImmutableMap.Builder<String, ImmutableSet<ResourceRecordSet>>
-      desiredRecordsBuilder = new ImmutableMap.Builder<>();
+  private final Map<String, ImmutableSet<ResourceRecordSet>> desiredRecords =
+      new LinkedHashMap<>();
 
   @Inject
   CloudDnsWriter(
@@ -89,6 +109,7 @@ public class CloudDnsWriter implements DnsWriter {
       @DnsWriterZone String zoneName,
       @Config("dnsDefaultTtl") Duration defaultTtl,
       @Named("cloudDns") RateLimiter rateLimiter,
+      @Named("cloudDnsMaxRecordSetsPerChange") int maxRecordSetsPerChange,
       Clock clock,
       Retrier retrier) {
     this.dnsConnection = dnsConnection;
@@ -96,6 +117,7 @@ public class CloudDnsWriter implements DnsWriter {
     this.zoneName = zoneName;
     this.defaultTtl = defaultTtl;
     this.rateLimiter = rateLimiter;
+    this.maxRecordSetsPerChange = maxRecordSetsPerChange;
     this.clock = clock;
     this.retrier = retrier;
   }
@@ -111,10 +133,10 @@ public class CloudDnsWriter implements DnsWriter {
         Optional.fromNullable(loadByForeignKey(DomainResource.class, domainName, clock.nowUtc()));
 
     // Return early if no DNS records should be published.
-    // desiredRecordsBuilder is populated with an empty set to indicate that all existing records
+    // desiredRecords is populated with an empty set to indicate that all existing records
     // should be deleted.
     if (!domainResource.isPresent() || !domainResource.get().shouldPublishToDns()) {
-      desiredRecordsBuilder.put(absoluteDomainName, ImmutableSet.<ResourceRecordSet>of());
+      desiredRecords.put(absoluteDomainName, ImmutableSet.<ResourceRecordSet>of());
       return;
     }
 
@@ -164,7 +186,7 @@ public class CloudDnsWriter implements DnsWriter {
       }
     }
 
-    desiredRecordsBuilder.put(absoluteDomainName, domainRecords.build());
+    desiredRecords.put(absoluteDomainName, domainRecords.build());
     logger.finefmt(
         "Will write %s records for domain %s", domainRecords.build().size(), absoluteDomainName);
   }
@@ -182,7 +204,7 @@ public class CloudDnsWriter implements DnsWriter {
 
     // Return early if the host is deleted.
     if (!host.isPresent()) {
-      desiredRecordsBuilder.put(absoluteHostName, ImmutableSet.<ResourceRecordSet>of());
+      desiredRecords.put(absoluteHostName, ImmutableSet.<ResourceRecordSet>of());
       return;
     }
 
@@ -220,7 +242,7 @@ public class CloudDnsWriter implements DnsWriter {
               .setRrdatas(ImmutableList.copyOf(aaaaRrData)));
     }
 
-    desiredRecordsBuilder.put(absoluteHostName, domainRecords.build());
+    desiredRecords.put(absoluteHostName, domainRecords.build());
   }
 
   /**
@@ -265,13 +287,70 @@ public class CloudDnsWriter implements DnsWriter {
    */
   @Override
   public void close() {
-    close(desiredRecordsBuilder.build());
+    close(ImmutableMap.copyOf(desiredRecords));
   }
 
   @VisibleForTesting
   void close(ImmutableMap<String, ImmutableSet<ResourceRecordSet>> desiredRecords) {
-    retrier.callWithRetry(getMutateZoneCallback(desiredRecords), ZoneStateException.class);
-    logger.info("Wrote to Cloud DNS");
+    ImmutableList<ImmutableMap<String, ImmutableSet<ResourceRecordSet>>> batches =
+        splitIntoBatches(desiredRecords);
+    for (ImmutableMap<String, ImmutableSet<ResourceRecordSet>> batch : batches) {
+      retrier.callWithRetry(getMutateZoneCallback(batch), ZoneStateException.class);
+    }
+    logger.infofmt(
+        "Wrote %d names to Cloud DNS in %d changes", desiredRecords.size(), batches.size());
+  }
+
+  /**
+   * Splits the desired records into batches that are each small enough to be written in a single
+   * {@link Change}, without splitting the records of a domain and its subordinate hosts.
+   *
+   * <p>The size of a batch is bounded by the most record sets its names could add or delete. Glue
+   * records of nameservers that are no longer used by a domain are also deleted, so a change can
+   * exceed the limit slightly when many of those are removed at once.
+   */
+  private ImmutableList<ImmutableMap<String, ImmutableSet<ResourceRecordSet>>> splitIntoBatches(
+      ImmutableMap<String, ImmutableSet<ResourceRecordSet>> desiredRecords) {
+    // Group each subordinate host with its superordinate domain, which is always published along
+    // with it.
+    Map<String, Map<String, ImmutableSet<ResourceRecordSet>>> zoneCuts = new LinkedHashMap<>();
+    for (Map.Entry<String, ImmutableSet<ResourceRecordSet>> entry : desiredRecords.entrySet()) {
+      String domainName = getPublishedSuperordinateName(entry.getKey(), desiredRecords.keySet());
+      if (!zoneCuts.containsKey(domainName)) {
+        zoneCuts.put(domainName, new LinkedHashMap<String, ImmutableSet<ResourceRecordSet>>());
+      }
+      zoneCuts.get(domainName).put(entry.getKey(), entry.getValue());
+    }
+    int maxNamesPerBatch = Math.max(1, maxRecordSetsPerChange / MAX_RECORD_SETS_PER_NAME);
+    List<ImmutableMap<String, ImmutableSet<ResourceRecordSet>>> batches = new ArrayList<>();
+    Map<String, ImmutableSet<ResourceRecordSet>> batch = new LinkedHashMap<>();
+    for (Map<String, ImmutableSet<ResourceRecordSet>> zoneCut : zoneCuts.values()) {
+      if (!batch.isEmpty() && batch.size() + zoneCut.size() > maxNamesPerBatch) {
+        batches.add(ImmutableMap.copyOf(batch));
+        batch.clear();
+      }
+      batch.putAll(zoneCut);
+    }
+    if (!batch.isEmpty()) {
+      batches.add(ImmutableMap.copyOf(batch));
+    }
+    return ImmutableList.copyOf(batches);
+  }
+
+  /**
+   * Returns the shortest of the {@code publishedNames} that {@code name} is equal to or a
+   * subdomain of, which is the domain for a subordinate host.
+   */
+  private static String getPublishedSuperordinateName(String name, Set<String> publishedNames) {
+    String superordinateName = name;
+    for (int dot = name.indexOf('.'); dot >= 0 && dot < name.length() - 1;
+        dot = name.indexOf('.', dot + 1)) {
+      String parentName = name.substring(dot + 1);
+      if (publishedNames.contains(parentName)) {
+        superordinateName = parentName;
+      }
+    }
+    return superordinateName;
   }
 
   /**
@@ -285,22 +364,8 @@ public class CloudDnsWriter implements DnsWriter {
       public Void call() throws IOException, ZoneStateException {
         // Fetch all existing records for names that this writer is trying to modify
         Builder<ResourceRecordSet> existingRecords = new Builder<>();
-        for (String domainName : desiredRecords.keySet()) {
-          List<ResourceRecordSet> existingRecordsForDomain =
-              getResourceRecordsForDomain(domainName);
-          existingRecords.addAll(existingRecordsForDomain);
-
-          // Fetch glue records for in-bailiwick nameservers
-          for (ResourceRecordSet record : existingRecordsForDomain) {
-            if (!record.getType().equals("NS")) {
-              continue;
-            }
-            for (String hostName : record.getRrdatas()) {
-              if (hostName.endsWith(domainName) && !hostName.equals(domainName)) {
-                existingRecords.addAll(getResourceRecordsForDomain(hostName));
-              }
-            }
-          }
+        for (List<ResourceRecordSet> records : getExistingRecords(desiredRecords.keySet())) {
+          existingRecords.addAll(records);
         }
 
         // Flatten the desired records into one set.
@@ -316,6 +381,50 @@ public class CloudDnsWriter implements DnsWriter {
     };
   }
 
+  /**
+   * Concurrently fetches the existing records for each of the given names, along with the glue
+   * records for their in-bailiwick nameservers.
+   */
+  private ImmutableList<List<ResourceRecordSet>> getExistingRecords(ImmutableSet<String> names)
+      throws IOException {
+    try {
+      return Concurrent.transform(
+          names,
+          new Function<String, List<ResourceRecordSet>>() {
+            @Override
+            public List<ResourceRecordSet> apply(String domainName) {
+              try {
+                return getResourceRecordsForDomainAndGlue(domainName);
+              } catch (IOException e) {
+                throw new UncheckedExecutionException(e);
+              }
+            }});
+    } catch (UncheckedExecutionException e) {
+      for (Throwable cause : Throwables.getCausalChain(e)) {
+        Throwables.propagateIfInstanceOf(cause, IOException.class);
+      }
+      throw e;
+    }
+  }
+
+  private List<ResourceRecordSet> getResourceRecordsForDomainAndGlue(String domainName)
+      throws IOException {
+    List<ResourceRecordSet> existingRecordsForDomain = getResourceRecordsForDomain(domainName);
+    List<ResourceRecordSet> existingRecords = new ArrayList<>(existingRecordsForDomain);
+    // Fetch glue records for in-bailiwick nameservers
+    for (ResourceRecordSet record : existingRecordsForDomain) {
+      if (!record.getType().equals("NS")) {
+        continue;
+      }
+      for (String hostName : record.getRrdatas()) {
+        if (hostName.endsWith(domainName) && !hostName.equals(domainName)) {
+          existingRecords.addAll(getResourceRecordsForDomain(hostName));
+        }
+      }
+    }
+    return existingRecords;
+  }
+
   /**
    * Fetch the {@link ResourceRecordSet}s for the given domain name under this zone.
    *
@@ -68,4 +68,12 @@ public final class CloudDnsWriterModule {
     int cloudDnsMaxQps = 20;
     return RateLimiter.create(cloudDnsMaxQps);
   }
+
+  @Provides
+  @Named("cloudDnsMaxRecordSetsPerChange")
+  static int provideMaxRecordSetsPerChange() {
+    // This is the default Cloud DNS quota for both additions and deletions of record sets in a
+    // single change.
+    return 100;
+  }
 }
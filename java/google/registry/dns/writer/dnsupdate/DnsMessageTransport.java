@@ -20,13 +20,17 @@ import static com.google.common.base.Verify.verify;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.primitives.Ints;
 import google.registry.config.ConfigModule.Config;
+import google.registry.util.FormattingLogger;
+import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.net.SocketFactory;
 import org.joda.time.Duration;
@@ -38,8 +42,15 @@ import org.xbill.DNS.Opcode;
  * s and the message framing defined in <a href="https://tools.ietf.org/html/rfc1035">RFC 1035</a>.
  * We would like use the dnsjava library's {@link org.xbill.DNS.SimpleResolver} class for this, but
  * it requires {@link java.nio.channels.SocketChannel} which is not supported on AppEngine.
+ *
+ * <p>A single connection to the server is opened on the first send and reused for the following
+ * ones, until the transport is closed or an exchange fails. A failure on a reused connection is
+ * retried once on a new connection, since the server may have closed the idle connection in the
+ * meantime; this is safe for the registry's UPDATE messages, which are idempotent.
  */
-public class DnsMessageTransport {
+public class DnsMessageTransport implements Closeable {
+
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
 
   /**
    * Size of message length field for DNS TCP transport.
@@ -60,6 +71,9 @@ public class DnsMessageTransport {
   private final String updateHost;
   private final int updateTimeout;
 
+  /** The connection to the DNS server, or null if there is no open connection. */
+  @Nullable private Socket socket;
+
   /**
    * Class constructor.
    *
@@ -87,12 +101,48 @@ public class DnsMessageTransport {
    * @throws IllegalArgumentException if the query is too large to be sent (> 65535 bytes)
    */
   public Message send(Message query) throws IOException {
-    try (Socket socket = factory.createSocket(InetAddress.getByName(updateHost), DNS_PORT)) {
-      socket.setSoTimeout(updateTimeout);
+    boolean reusingConnection = socket != null;
+    try {
+      return exchange(query);
+    } catch (IOException e) {
+      if (!reusingConnection || e instanceof SocketTimeoutException) {
+        throw e;
+      }
+      logger.infofmt(e, "Retrying DNS message on a new connection to %s", updateHost);
+      return exchange(query);
+    }
+  }
+
+  /** Sends a query and reads its response, discarding the connection if anything goes wrong. */
+  private Message exchange(Message query) throws IOException {
+    boolean succeeded = false;
+    try {
+      if (socket == null) {
+        socket = factory.createSocket(InetAddress.getByName(updateHost), DNS_PORT);
+        socket.setSoTimeout(updateTimeout);
+      }
       writeMessage(socket.getOutputStream(), query);
       Message response = readMessage(socket.getInputStream());
       checkValidResponse(query, response);
+      succeeded = true;
       return response;
+    } finally {
+      if (!succeeded) {
+        close();
+      }
+    }
+  }
+
+  /** Closes the connection to the DNS server, if there is one. */
+  @Override
+  public void close() {
+    if (socket != null) {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        logger.warningfmt(e, "Failed to close connection to %s", updateHost);
+      }
+      socket = null;
     }
   }
 
@@ -42,6 +42,17 @@ public class DnsUpdateConfigModule {
     return Duration.standardSeconds(30);
   }
 
+  /**
+   * Maximum size in bytes of the DNS update messages sent by the registry. Publish requests are
+   * batched into messages of up to this size, which must be less than the 65535 bytes that DNS over
+   * TCP allows.
+   */
+  @Provides
+  @Config("dnsUpdateMaxMessageSize")
+  public static int provideDnsUpdateMaxMessageSize() {
+    return 32 * 1024;
+  }
+
   /**
    * The DNS time-to-live (TTL) for resource records created by the registry.
    */
@@ -35,6 +35,10 @@ import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import javax.inject.Inject;
 import org.joda.time.Duration;
 import org.xbill.DNS.AAAARecord;
@@ -46,6 +50,8 @@ import org.xbill.DNS.NSRecord;
 import org.xbill.DNS.Name;
 import org.xbill.DNS.RRset;
 import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
 import org.xbill.DNS.TextParseException;
 import org.xbill.DNS.Type;
 import org.xbill.DNS.Update;
@@ -54,9 +60,11 @@ import org.xbill.DNS.Update;
  * A DnsWriter that implements the DNS UPDATE protocol as specified in
  * <a href="https://tools.ietf.org/html/rfc2136">RFC 2136</a>. Publishes changes in the
  * domain-registry to a (capable) external DNS server, sometimes called a "hidden master". DNS
- * UPDATE messages are sent via a supplied "transport" class. For each publish call, a single
- * UPDATE message is created containing the records required to "synchronize" the DNS with the
- * current (at the time of processing) state of the registry, for the supplied domain/host.
+ * UPDATE messages are sent via a supplied "transport" class. For each publish call, the records
+ * required to "synchronize" the DNS with the current (at the time of processing) state of the
+ * registry, for the supplied domain/host, are added to a pending UPDATE message for its zone. The
+ * pending messages are sent when the writer is closed, so that a batch of publish calls costs a
+ * handful of round trips to the server rather than one per name.
  *
  * <p>The general strategy of the publish methods is to delete <em>all</em> resource records of any
  * <em>type</em> that match the exact domain/host name supplied. And then for create/update cases,
@@ -67,11 +75,13 @@ import org.xbill.DNS.Update;
  * <p>Only NS, DS, A, and AAAA records are published, and in particular no DNSSEC signing is done
  * assuming that this will be done by a third party DNS provider.
  *
- * <p>Each publish call is treated as an atomic update to the DNS. If an update fails an exception
- * is thrown, expecting the caller to retry the update later. The SOA record serial number is
- * implicitly incremented by the server on each UPDATE message, as required by RFC 2136. Care must
- * be taken to make sure the SOA serial number does not go backwards if the entire TLD (zone) is
- * "reset" to empty and republished.
+ * <p>The records of a publish call are never split across messages, so each publish call is still
+ * an atomic update to the DNS, but a message is sent early once adding another publish call to it
+ * would take it over the configured maximum size. If an update fails an exception is thrown, from
+ * {@link #close} or from the publish call that sent the message early, expecting the caller to
+ * retry the whole batch later. The SOA record serial number is implicitly incremented by the
+ * server on each UPDATE message, as required by RFC 2136. Care must be taken to make sure the SOA
+ * serial number does not go backwards if the entire TLD (zone) is "reset" to empty and republished.
  */
 public class DnsUpdateWriter implements DnsWriter {
 
@@ -82,22 +92,30 @@ public class DnsUpdateWriter implements DnsWriter {
   public static final String NAME = "DnsUpdateWriter";
 
   private final Duration dnsTimeToLive;
+  private final int maxMessageSize;
   private final DnsMessageTransport transport;
   private final Clock clock;
 
+  /** The UPDATE messages that have yet to be sent, keyed by zone. */
+  private final Map<Name, PendingUpdate> pendingUpdates = new LinkedHashMap<>();
+
   /**
    * Class constructor.
    *
    * @param dnsTimeToLive TTL used for any created resource records
+   * @param maxMessageSize maximum size in bytes of the UPDATE messages sent, unless the records of
+   *     a single publish call need more
    * @param transport the transport used to send/receive the UPDATE messages
    * @param clock a source of time
    */
   @Inject
   public DnsUpdateWriter(
       @Config("dnsUpdateTimeToLive") Duration dnsTimeToLive,
+      @Config("dnsUpdateMaxMessageSize") int maxMessageSize,
       DnsMessageTransport transport,
       Clock clock) {
     this.dnsTimeToLive = dnsTimeToLive;
+    this.maxMessageSize = maxMessageSize;
     this.transport = transport;
     this.clock = clock;
   }
@@ -113,7 +131,8 @@ public class DnsUpdateWriter implements DnsWriter {
   private void publishDomain(String domainName, String requestingHostName) {
     DomainResource domain = loadByForeignKey(DomainResource.class, domainName, clock.nowUtc());
     try {
-      Update update = new Update(toAbsoluteName(findTldFromName(domainName)));
+      Name zone = toAbsoluteName(findTldFromName(domainName));
+      Update update = new Update(zone);
       update.delete(toAbsoluteName(domainName), Type.ANY);
       if (domain != null) {
         // As long as the domain exists, orphan glues should be cleaned.
@@ -124,17 +143,49 @@ public class DnsUpdateWriter implements DnsWriter {
           update.add(makeDelegationSignerSet(domain));
         }
       }
-      Message response = transport.send(update);
-      verify(
-          response.getRcode() == Rcode.NOERROR,
-          "DNS server failed domain update for '%s' rcode: %s",
-          domainName,
-          Rcode.string(response.getRcode()));
+      addToPendingUpdate(zone, domainName, update);
     } catch (IOException e) {
       throw new RuntimeException("publishDomain failed: " + domainName, e);
     }
   }
 
+  /**
+   * Appends the records of a single publish call to the pending UPDATE message for the zone,
+   * first sending that message if the records would take it over the maximum size.
+   */
+  private void addToPendingUpdate(Name zone, String domainName, Update update) throws IOException {
+    Record[] records = update.getSectionArray(Section.UPDATE);
+    // Names are compressed when the message is written out, so the uncompressed record sizes are
+    // an upper bound on how much the records add to the message.
+    int recordsSize = 0;
+    for (Record record : records) {
+      recordsSize += record.toWire(Section.UPDATE).length;
+    }
+    PendingUpdate pending = pendingUpdates.get(zone);
+    if (pending != null && pending.size + recordsSize > maxMessageSize) {
+      send(pending);
+      pending = null;
+    }
+    if (pending == null) {
+      pending = new PendingUpdate(zone);
+      pendingUpdates.put(zone, pending);
+    }
+    for (Record record : records) {
+      pending.update.addRecord(record, Section.UPDATE);
+    }
+    pending.size += recordsSize;
+    pending.domainNames.add(domainName);
+  }
+
+  private void send(PendingUpdate pending) throws IOException {
+    Message response = transport.send(pending.update);
+    verify(
+        response.getRcode() == Rcode.NOERROR,
+        "DNS server failed update for %s rcode: %s",
+        pending.domainNames,
+        Rcode.string(response.getRcode()));
+  }
+
   @Override
   public void publishDomain(String domainName) {
     publishDomain(domainName, null);
@@ -162,11 +213,38 @@ public class DnsUpdateWriter implements DnsWriter {
     publishDomain(domain, hostName);
   }
 
-  /**
-   * Does nothing. Publish calls are synchronous and atomic.
-   */
+  /** Sends the pending UPDATE messages, and closes the connection to the DNS server. */
   @Override
-  public void close() {}
+  public void close() {
+    try {
+      for (PendingUpdate pending : pendingUpdates.values()) {
+        try {
+          send(pending);
+        } catch (IOException e) {
+          throw new RuntimeException("DNS update failed for " + pending.domainNames, e);
+        }
+      }
+    } finally {
+      pendingUpdates.clear();
+      transport.close();
+    }
+  }
+
+  /** An UPDATE message for a zone that has yet to be sent. */
+  private static final class PendingUpdate {
+    final Update update;
+
+    /** The domains published in the message, for error messages. */
+    final List<String> domainNames = new ArrayList<>();
+
+    /** Upper bound on the size of the message in bytes. */
+    int size;
+
+    PendingUpdate(Name zone) {
+      update = new Update(zone);
+      size = update.toWire().length;
+    }
+  }
 
   private RRset makeDelegationSignerSet(DomainResource domain) throws TextParseException {
     RRset signerSet = new RRset();
@@ -15,15 +15,16 @@
 package google.registry.flows;
 
 import static com.google.common.base.Strings.nullToEmpty;
-import static com.google.common.io.BaseEncoding.base64;
 import static google.registry.flows.EppXmlTransformer.unmarshal;
-import static java.nio.charset.StandardCharsets.UTF_8;
+import static google.registry.model.registry.Registries.findTldForName;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.net.InternetDomainName;
 import google.registry.flows.FlowModule.EppExceptionInProviderException;
 import google.registry.model.eppcommon.Trid;
 import google.registry.model.eppinput.EppInput;
@@ -31,9 +32,10 @@ import google.registry.model.eppoutput.EppOutput;
 import google.registry.model.eppoutput.EppResponse;
 import google.registry.model.eppoutput.Result;
 import google.registry.model.eppoutput.Result.Code;
-import google.registry.monitoring.whitebox.BigQueryMetricsEnqueuer;
+import google.registry.monitoring.whitebox.BigQueryMetricsBatcher;
 import google.registry.monitoring.whitebox.EppMetric;
 import google.registry.util.FormattingLogger;
+import google.registry.util.StageTimer;
 import javax.inject.Inject;
 import org.json.simple.JSONValue;
 
@@ -49,7 +51,7 @@ public final class EppController {
   @Inject FlowComponent.Builder flowComponentBuilder;
   @Inject EppMetric.Builder metricBuilder;
   @Inject EppMetrics eppMetrics;
-  @Inject BigQueryMetricsEnqueuer bigQueryMetricsEnqueuer;
+  @Inject BigQueryMetricsBatcher bigQueryMetricsBatcher;
   @Inject EppController() {}
 
   /** Reads EPP XML, executes the matching flow, and returns an {@link EppOutput}. */
@@ -67,6 +69,8 @@ public final class EppController {
       try {
         eppInput = unmarshal(EppInput.class, inputXmlBytes);
       } catch (EppException e) {
+        // The request couldn't be parsed, so there's no point in trying to pretty print it.
+        EppRequestLog requestLog = new EppRequestLog(inputXmlBytes, false);
         // Log the unmarshalling error, with the raw bytes (in base64) to help with debugging.
         logger.infofmt(
             e,
@@ -77,15 +81,18 @@ public final class EppController {
                     "clientId", nullToEmpty(sessionMetadata.getClientId()),
                     "resultCode", e.getResult().getCode().code,
                     "resultMessage", e.getResult().getCode().msg,
-                    "xmlBytes", base64().encode(inputXmlBytes))),
+                    "xmlBytes", requestLog.getXmlBase64())),
             Strings.repeat("=", 40),
-            new String(inputXmlBytes, UTF_8).trim(), // Charset decoding failures are swallowed.
+            requestLog.getXml(),
             Strings.repeat("=", 40));
         // Return early by sending an error message, with no clTRID since we couldn't unmarshal it.
         metricBuilder.setStatus(e.getResult().getCode());
         return getErrorResponse(e.getResult(), Trid.create(null));
       }
       metricBuilder.setCommandName(eppInput.getCommandName());
+      if (StageTimer.isTimingRequest()) {
+        StageTimer.setLabels(eppInput.getCommandName(), getTld(eppInput.getTargetIds()));
+      }
       if (!eppInput.getTargetIds().isEmpty()) {
         metricBuilder.setEppTarget(Joiner.on(',').join(eppInput.getTargetIds()));
       }
@@ -106,7 +113,7 @@ public final class EppController {
       return output;
     } finally {
       EppMetric metric = metricBuilder.build();
-      bigQueryMetricsEnqueuer.export(metric);
+      bigQueryMetricsBatcher.export(metric);
       eppMetrics.incrementEppRequests(metric);
       eppMetrics.recordProcessingTime(metric);
     }
@@ -127,6 +134,24 @@ public final class EppController {
     }
   }
 
+  /**
+   * Returns the TLD that all of the target ids fall under, or an empty string if they don't share
+   * one, for instance because they are contact ids.
+   */
+  private static String getTld(ImmutableList<String> targetIds) {
+    String tld = null;
+    for (String targetId : targetIds) {
+      Optional<InternetDomainName> targetTld = InternetDomainName.isValid(targetId)
+          ? findTldForName(InternetDomainName.from(targetId))
+          : Optional.<InternetDomainName>absent();
+      if (!targetTld.isPresent() || (tld != null && !tld.equals(targetTld.get().toString()))) {
+        return "";
+      }
+      tld = targetTld.get().toString();
+    }
+    return nullToEmpty(tld);
+  }
+
   /** Creates a response indicating an EPP failure. */
   @VisibleForTesting
   static EppOutput getErrorResponse(Result result, Trid trid) {
@@ -21,8 +21,10 @@ import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
 
 import com.google.common.net.MediaType;
+import google.registry.config.ConfigModule.Config;
 import google.registry.request.Response;
 import google.registry.util.FormattingLogger;
+import google.registry.util.StageTimer;
 import javax.inject.Inject;
 
 /** Handle an EPP request and response. */
@@ -35,6 +37,7 @@ public class EppRequestHandler {
 
   @Inject EppController eppController;
   @Inject Response response;
+  @Inject @Config("eppStageTimingEnabled") boolean stageTimingEnabled;
   @Inject EppRequestHandler() {}
 
   /** Handle an EPP request and write out a servlet response. */
@@ -45,6 +48,9 @@ public class EppRequestHandler {
       boolean isDryRun,
       boolean isSuperuser,
       byte[] inputXmlBytes) {
+    if (stageTimingEnabled) {
+      StageTimer.startRequest();
+    }
     try {
       response.setPayload(new String(
           marshalWithLenientRetry(
@@ -66,6 +72,8 @@ public class EppRequestHandler {
     } catch (Exception e) {
       logger.warning(e, "handleEppCommand general exception");
       response.setStatus(SC_BAD_REQUEST);
+    } finally {
+      StageTimer.endRequest();
     }
   }
 }
@@ -0,0 +1,68 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.flows;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.io.BaseEncoding.base64;
+import static google.registry.xml.XmlTransformer.prettyPrint;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+
+/**
+ * The representations of a raw EPP request that are written to the request logs.
+ *
+ * <p>Each representation is computed at most once, and only if a log line actually uses it, so
+ * that the several log lines written for a request don't each re-encode its bytes.
+ */
+final class EppRequestLog {
+
+  private final Supplier<String> xml;
+  private final Supplier<String> xmlBase64;
+
+  /**
+   * Creates the log representations of the given request bytes.
+   *
+   * @param prettyPrintXml whether to pretty print the XML in the logs. Pretty printing re-parses
+   *     and re-serializes the whole request, so it can be turned off in favor of logging the XML as
+   *     sent and pretty printing it offline in reporting, which always has the exact bytes from
+   *     {@link #getXmlBase64} anyway.
+   */
+  EppRequestLog(final byte[] xmlBytes, final boolean prettyPrintXml) {
+    checkNotNull(xmlBytes, "xmlBytes");
+    this.xml = Suppliers.memoize(new Supplier<String>() {
+      @Override
+      public String get() {
+        // Charset decoding failures are swallowed.
+        return prettyPrintXml ? prettyPrint(xmlBytes) : new String(xmlBytes, UTF_8).trim();
+      }});
+    this.xmlBase64 = Suppliers.memoize(new Supplier<String>() {
+      @Override
+      public String get() {
+        return base64().encode(xmlBytes);
+      }});
+  }
+
+  /** Returns the request XML as text, pretty printed if so configured. */
+  String getXml() {
+    return xml.get();
+  }
+
+  /** Returns the exact request bytes, base64 encoded. */
+  String getXmlBase64() {
+    return xmlBase64.get();
+  }
+}
@@ -35,6 +35,7 @@ import google.registry.model.eppoutput.EppOutput;
 import google.registry.model.host.InetAddressAdapter.IpVersionMismatchException;
 import google.registry.model.translators.CurrencyUnitAdapter.UnknownCurrencyException;
 import google.registry.util.FormattingLogger;
+import google.registry.util.StageTimer;
 import google.registry.xml.ValidationMode;
 import google.registry.xml.XmlException;
 import google.registry.xml.XmlTransformer;
@@ -83,7 +84,7 @@ public class EppXmlTransformer  {
    * @see <a href="http://errorprone.info/bugpattern/TypeParameterUnusedInFormals">TypeParameterUnusedInFormals</a>
    */
   public static <T> T unmarshal(Class<T> clazz, byte[] bytes) throws EppException {
-    try {
+    try (StageTimer.Stage stage = StageTimer.start("unmarshal")) {
       return INPUT_TRANSFORMER.unmarshal(clazz, new ByteArrayInputStream(bytes));
     } catch (XmlException e) {
       // If this XmlException is wrapping a known type find it. If not, it's a syntax error.
@@ -108,9 +109,11 @@ public class EppXmlTransformer  {
       XmlTransformer transformer,
       ImmutableObject root,
       ValidationMode validation) throws XmlException {
-    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-    transformer.marshal(root, byteArrayOutputStream, UTF_8, validation);
-    return byteArrayOutputStream.toByteArray();
+    try (StageTimer.Stage stage = StageTimer.start("marshal")) {
+      ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+      transformer.marshal(root, byteArrayOutputStream, UTF_8, validation);
+      return byteArrayOutputStream.toByteArray();
+    }
   }
 
   public static byte[] marshal(EppOutput root, ValidationMode validation) throws XmlException {
@@ -34,6 +34,7 @@ import google.registry.model.eppinput.ResourceCommand.SingleResourceCommand;
 import google.registry.model.eppoutput.EppResponse;
 import google.registry.model.eppoutput.Result;
 import google.registry.model.reporting.HistoryEntry;
+import google.registry.util.StageTimer;
 import java.lang.annotation.Documented;
 import javax.inject.Qualifier;
 
@@ -170,7 +171,7 @@ public class FlowModule {
   @Provides
   @FlowScope
   static Class<? extends Flow> provideFlowClass(EppInput eppInput) {
-    try {
+    try (StageTimer.Stage stage = StageTimer.start("flow_selection")) {
       return FlowPicker.getFlowClass(eppInput);
     } catch (EppException e) {
       throw new EppExceptionInProviderException(e);
@@ -15,13 +15,12 @@
 package google.registry.flows;
 
 import static com.google.common.base.Throwables.getStackTraceAsString;
-import static com.google.common.io.BaseEncoding.base64;
 import static google.registry.model.ofy.ObjectifyService.ofy;
-import static google.registry.xml.XmlTransformer.prettyPrint;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import com.googlecode.objectify.Work;
+import google.registry.config.ConfigModule.Config;
 import google.registry.flows.FlowModule.ClientId;
 import google.registry.flows.FlowModule.DryRun;
 import google.registry.flows.FlowModule.InputXml;
@@ -31,6 +30,7 @@ import google.registry.model.eppcommon.Trid;
 import google.registry.model.eppoutput.EppOutput;
 import google.registry.monitoring.whitebox.EppMetric;
 import google.registry.util.FormattingLogger;
+import google.registry.util.StageTimer;
 import javax.inject.Inject;
 import javax.inject.Provider;
 import org.json.simple.JSONValue;
@@ -57,6 +57,7 @@ public class FlowRunner {
   @Inject EppRequestSource eppRequestSource;
   @Inject Provider<Flow> flowProvider;
   @Inject @InputXml byte[] inputXmlBytes;
+  @Inject @Config("prettyPrintEppRequestLogs") boolean prettyPrintRequestLogs;
   @Inject @DryRun boolean isDryRun;
   @Inject @Superuser boolean isSuperuser;
   @Inject @Transactional boolean isTransactional;
@@ -66,8 +67,7 @@ public class FlowRunner {
   @Inject FlowRunner() {}
 
   public EppOutput run() throws EppException {
-    String prettyXml = prettyPrint(inputXmlBytes);
-    String xmlBase64 = base64().encode(inputXmlBytes);
+    EppRequestLog requestLog = new EppRequestLog(inputXmlBytes, prettyPrintRequestLogs);
     // This log line is very fragile since it's used for ICANN reporting - DO NOT CHANGE.
     // New data to be logged should be added only to the JSON log statement below.
     // TODO(b/20725722): remove this log statement entirely once we've transitioned to using the
@@ -77,7 +77,7 @@ public class FlowRunner {
         trid.getServerTransactionId(),
         clientId,
         sessionMetadata,
-        prettyXml.replaceAll("\n", "\n\t"),
+        requestLog.getXml().replaceAll("\n", "\n\t"),
         credentials,
         eppRequestSource,
         isDryRun ? "DRY_RUN" : "LIVE",
@@ -90,8 +90,15 @@ public class FlowRunner {
         JSONValue.toJSONString(ImmutableMap.<String, Object>of(
             "trid", trid.getServerTransactionId(),
             "clientId", clientId,
-            "xml", prettyXml,
-            "xmlBytes", xmlBase64)));
+            "xml", requestLog.getXml(),
+            "xmlBytes", requestLog.getXmlBase64())));
+    try (StageTimer.Stage stage = StageTimer.start("flow")) {
+      return runFlow();
+    }
+  }
+
+  /** Runs the flow, in a transaction if it's transactional. */
+  private EppOutput runFlow() throws EppException {
     if (!isTransactional) {
       metric.incrementAttempts();
       return EppOutput.create(flowProvider.get().run());
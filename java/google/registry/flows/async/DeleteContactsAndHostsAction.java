@@ -44,12 +44,15 @@ import com.google.appengine.api.taskqueue.TransientFailureException;
 import com.google.appengine.tools.mapreduce.Mapper;
 import com.google.appengine.tools.mapreduce.Reducer;
 import com.google.appengine.tools.mapreduce.ReducerInput;
+import com.google.appengine.tools.mapreduce.inputs.InMemoryInput;
 import com.google.auto.value.AutoValue;
 import com.google.common.base.Optional;
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Multiset;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.Work;
@@ -65,6 +68,7 @@ import google.registry.model.contact.ContactResource;
 import google.registry.model.domain.DomainBase;
 import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.host.HostResource;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.poll.PollMessage;
 import google.registry.model.reporting.HistoryEntry;
 import google.registry.model.transfer.TransferStatus;
@@ -76,15 +80,19 @@ import google.registry.util.Retrier;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import javax.inject.Inject;
 import javax.inject.Named;
 import org.joda.time.DateTime;
 
 /**
- * A mapreduce that processes batch asynchronous deletions of contact and host resources by mapping
- * over all domains and domain applications and checking for any references to the contacts/hosts in
- * pending deletion.
+ * A mapreduce that processes batch asynchronous deletions of contact and host resources by checking
+ * the domains and domain applications listed in the {@link DomainReferenceIndex} of each
+ * contact/host in pending deletion for references to it.
+ *
+ * <p>Until the index has been backfilled for domains written before it existed, this maps over all
+ * domains and domain applications instead.
  */
 @Action(path = "/_dr/task/deleteContactsAndHosts")
 public class DeleteContactsAndHostsAction implements Runnable {
@@ -102,6 +110,7 @@ public class DeleteContactsAndHostsAction implements Runnable {
   private static final FormattingLogger logger = getLoggerForCallerClass();
   private static final int MAX_REDUCE_SHARDS = 50;
   private static final int DELETES_PER_SHARD = 5;
+  private static final int DOMAINS_PER_BATCH = 50;
 
   @Inject Clock clock;
   @Inject MapreduceRunner mrRunner;
@@ -173,17 +182,27 @@ public class DeleteContactsAndHostsAction implements Runnable {
     try {
       int numReducers =
           Math.min(MAX_REDUCE_SHARDS, divide(deletionRequests.size(), DELETES_PER_SHARD, CEILING));
-      response.sendJavaScriptRedirect(createJobPath(mrRunner
+      mrRunner
           .setJobName("Check for EPP resource references and then delete")
           .setModuleName("backend")
-          .setDefaultReduceShards(numReducers)
-          .runMapreduce(
-              new DeleteContactsAndHostsMapper(deletionRequests),
-              new DeleteEppResourceReducer(),
-              ImmutableList.of(
-                  // Add an extra shard that maps over a null domain. See the mapper code for why.
-                  new NullInput<DomainBase>(),
-                  EppResourceInputs.createEntityInput(DomainBase.class)))));
+          .setDefaultReduceShards(numReducers);
+      String jobId;
+      if (DomainReferenceIndex.isComplete()) {
+        jobId = mrRunner.runMapreduce(
+            new CheckReferenceIndexMapper(),
+            new DeleteEppResourceReducer(),
+            ImmutableList.of(
+                new InMemoryInput<>(Lists.partition(deletionRequests, DELETES_PER_SHARD))));
+      } else {
+        jobId = mrRunner.runMapreduce(
+            new DeleteContactsAndHostsMapper(deletionRequests),
+            new DeleteEppResourceReducer(),
+            ImmutableList.of(
+                // Add an extra shard that maps over a null domain. See the mapper code for why.
+                new NullInput<DomainBase>(),
+                EppResourceInputs.createEntityInput(DomainBase.class)));
+      }
+      response.sendJavaScriptRedirect(createJobPath(jobId));
     } catch (Throwable t) {
       logger.severefmt(t, "Error while kicking off mapreduce to delete contacts/hosts");
     }
@@ -226,16 +245,56 @@ public class DeleteContactsAndHostsAction implements Runnable {
         getContext().incrementCounter("domains processed");
       }
     }
+  }
 
-    /** Determine whether the target resource is a linked resource on the domain. */
-    private boolean isLinked(DomainBase domain, Key<? extends EppResource> resourceKey) {
-      if (resourceKey.getKind().equals(KIND_CONTACT)) {
-        return domain.getReferencedContacts().contains(resourceKey);
-      } else if (resourceKey.getKind().equals(KIND_HOST)) {
-        return domain.getNameservers().contains(resourceKey);
-      } else {
-        throw new IllegalStateException("EPP resource key of unknown type: " + resourceKey);
+  /**
+   * A mapper that checks whether the resources to delete are referenced by any domain.
+   *
+   * <p>For each deletion request it looks up the domains that reference the target resource in the
+   * resource's {@link DomainReferenceIndex}, and emits the request and {@code true} if any of them
+   * was active and linked to the resource as of its last update, or {@code false} otherwise, so
+   * that the reducer runs exactly once for each requested deletion.
+   */
+  public static class CheckReferenceIndexMapper
+      extends Mapper<DeletionRequest, DeletionRequest, Boolean> {
+
+    private static final long serialVersionUID = 2783315435346463162L;
+
+    @Override
+    public void map(DeletionRequest deletionRequest) {
+      emit(deletionRequest, hasActiveReferences(deletionRequest));
+    }
+
+    /** Determine whether any active domain references the target resource. */
+    private boolean hasActiveReferences(DeletionRequest deletionRequest) {
+      Key<? extends EppResource> resourceKey = deletionRequest.key();
+      List<Key<DomainBase>> skippedDomainKeys = new ArrayList<>();
+      for (List<Key<DomainBase>> batch : Iterables.partition(
+          DomainReferenceIndex.loadReferencingDomainKeys(resourceKey), DOMAINS_PER_BATCH)) {
+        try {
+          Map<Key<DomainBase>, DomainBase> domains = ofy().load().keys(batch);
+          for (Key<DomainBase> domainKey : batch) {
+            DomainBase domain = domains.get(domainKey);
+            getContext().incrementCounter("domains processed");
+            if (domain != null
+                && isActive(domain, deletionRequest.lastUpdateTime())
+                && isLinked(domain, resourceKey)) {
+              getContext().incrementCounter(
+                  String.format("active Domain-%s links found", resourceKey.getKind()));
+              // The resource stays, so remove the entries that its later lookups would skip.
+              // Otherwise all of its entries are deleted along with it.
+              for (Key<DomainBase> skippedDomainKey : skippedDomainKeys) {
+                DomainReferenceIndex.deleteIfUnused(resourceKey, skippedDomainKey);
+              }
+              return true;
+            }
+            skippedDomainKeys.add(domainKey);
+          }
+        } finally {
+          ofy().clearSessionCache();  // Try not to leak memory.
+        }
       }
+      return false;
     }
   }
 
@@ -262,6 +321,10 @@ public class DeleteContactsAndHostsAction implements Runnable {
           getQueue(QUEUE_ASYNC_DELETE).deleteTask(deletionRequest.task());
           return deletionResult;
         }});
+      if (result.type() == Type.DELETED) {
+        // The index entries of a deleted resource will never be needed again.
+        DomainReferenceIndex.deleteForResource(deletionRequest.key());
+      }
       String resourceNamePlural = deletionRequest.key().getKind() + "s";
       getContext().incrementCounter(result.type().renderCounterText(resourceNamePlural));
       logger.infofmt(
@@ -454,6 +517,17 @@ public class DeleteContactsAndHostsAction implements Runnable {
     }
   }
 
+  /** Determine whether the target resource is a linked resource on the domain. */
+  private static boolean isLinked(DomainBase domain, Key<? extends EppResource> resourceKey) {
+    if (resourceKey.getKind().equals(KIND_CONTACT)) {
+      return domain.getReferencedContacts().contains(resourceKey);
+    } else if (resourceKey.getKind().equals(KIND_HOST)) {
+      return domain.getNameservers().contains(resourceKey);
+    } else {
+      throw new IllegalStateException("EPP resource key of unknown type: " + resourceKey);
+    }
+  }
+
   static boolean doesResourceStateAllowDeletion(EppResource resource, DateTime now) {
     Key<EppResource> key = Key.create(resource);
     if (isDeleted(resource, now)) {
@@ -79,6 +79,7 @@ public final class ClaimsCheckFlow implements Flow {
     List<String> targetIds = ((Check) resourceCommand).getTargetIds();
     verifyTargetIdCount(targetIds, maxChecks);
     Set<String> seenTlds = new HashSet<>();
+    ClaimsListShard claimsList = ClaimsListShard.get();
     ImmutableList.Builder<LaunchCheck> launchChecksBuilder = new ImmutableList.Builder<>();
     for (String targetId : ImmutableSet.copyOf(targetIds)) {
       InternetDomainName domainName = validateDomainName(targetId);
@@ -97,7 +98,7 @@ public final class ClaimsCheckFlow implements Flow {
           verifyClaimsPeriodNotEnded(registry, now);
         }
       }
-      String claimKey = ClaimsListShard.get().getClaimKey(domainName.parts().get(0));
+      String claimKey = claimsList.getClaimKey(domainName.parts().get(0));
       launchChecksBuilder.add(
           LaunchCheck.create(
               LaunchCheckName.create(claimKey != null, targetId), claimKey));
@@ -77,6 +77,7 @@ import google.registry.model.eppinput.EppInput;
 import google.registry.model.eppinput.ResourceCommand;
 import google.registry.model.eppoutput.CreateData.DomainCreateData;
 import google.registry.model.eppoutput.EppResponse;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.ForeignKeyIndex;
 import google.registry.model.ofy.ObjectifyService;
@@ -184,6 +185,7 @@ public class DomainAllocateFlow implements TransactionalFlow {
         updateApplication(application),
         ForeignKeyIndex.create(newDomain, newDomain.getDeletionTime()),
         EppResourceIndex.create(Key.create(newDomain)));
+    DomainReferenceIndex.saveForAddedReferences(null, newDomain);
     // Anchor tenant registrations override LRP.
     String authInfoToken = authInfo.getPw().getValue();
     if (hasLrpToken(domainName, registry, authInfoToken, now)) {
@@ -88,6 +88,7 @@ import google.registry.model.eppoutput.CreateData.DomainCreateData;
 import google.registry.model.eppoutput.EppResponse;
 import google.registry.model.eppoutput.EppResponse.ResponseExtension;
 import google.registry.model.index.DomainApplicationIndex;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.ofy.ObjectifyService;
 import google.registry.model.registry.Registry;
@@ -267,6 +268,7 @@ public final class DomainApplicationCreateFlow implements TransactionalFlow {
         historyEntry,
         DomainApplicationIndex.createUpdatedInstance(newApplication),
         EppResourceIndex.create(Key.create(newApplication)));
+    DomainReferenceIndex.saveForAddedReferences(null, newApplication);
     // Anchor tenant registrations override LRP, and landrush applications can skip it.
     // If a token is passed in outside of an LRP phase, it is simply ignored (i.e. never redeemed).
     if (registry.getLrpPeriod().contains(now) && !isAnchorTenant) {
@@ -72,6 +72,7 @@ import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.eppinput.EppInput;
 import google.registry.model.eppinput.ResourceCommand;
 import google.registry.model.eppoutput.EppResponse;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.registry.Registry;
 import google.registry.model.reporting.HistoryEntry;
 import javax.inject.Inject;
@@ -162,6 +163,7 @@ public class DomainApplicationUpdateFlow implements TransactionalFlow {
     validateNewApplication(newApplication);
     handleExtraFlowLogic(newApplication.getTld(), historyEntry, newApplication, now);
     ofy().save().<ImmutableObject>entities(newApplication, historyEntry);
+    DomainReferenceIndex.saveForAddedReferences(existingApplication, newApplication);
     return responseBuilder.build();
   }
 
@@ -16,16 +16,17 @@ package google.registry.flows.domain;
 
 import static google.registry.flows.FlowUtils.validateClientIsLoggedIn;
 import static google.registry.flows.ResourceFlowUtils.verifyTargetIdCount;
+import static com.google.common.base.Functions.toStringFunction;
 import static google.registry.flows.domain.DomainFlowUtils.checkAllowedAccessToTld;
-import static google.registry.flows.domain.DomainFlowUtils.getReservationType;
+import static google.registry.flows.domain.DomainFlowUtils.getReservationTypes;
 import static google.registry.flows.domain.DomainFlowUtils.handleFeeRequest;
 import static google.registry.flows.domain.DomainFlowUtils.validateDomainName;
 import static google.registry.flows.domain.DomainFlowUtils.validateDomainNameWithIdnTables;
 import static google.registry.flows.domain.DomainFlowUtils.verifyNotInPredelegation;
+import static google.registry.flows.domain.DomainPricingLogic.getPrices;
 import static google.registry.model.EppResourceUtils.checkResourcesExist;
-import static google.registry.model.index.DomainApplicationIndex.loadActiveApplicationsByDomainName;
+import static google.registry.model.index.DomainApplicationIndex.loadActiveApplicationsByDomainNames;
 import static google.registry.model.registry.label.ReservationType.UNRESERVED;
-import static google.registry.pricing.PricingEngineProxy.isDomainPremium;
 
 import com.google.common.base.Predicate;
 import com.google.common.collect.FluentIterable;
@@ -57,13 +58,16 @@ import google.registry.model.eppoutput.CheckData.DomainCheck;
 import google.registry.model.eppoutput.CheckData.DomainCheckData;
 import google.registry.model.eppoutput.EppResponse;
 import google.registry.model.eppoutput.EppResponse.ResponseExtension;
+import google.registry.model.pricing.PremiumPricingEngine.DomainPrices;
 import google.registry.model.registry.Registry;
 import google.registry.model.registry.Registry.TldState;
 import google.registry.model.registry.label.ReservationType;
 import google.registry.util.Clock;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
 
@@ -123,18 +127,21 @@ public final class DomainCheckFlow implements Flow {
     verifyTargetIdCount(targetIds, maxChecks);
     DateTime now = clock.nowUtc();
     ImmutableMap.Builder<String, InternetDomainName> domains = new ImmutableMap.Builder<>();
-    // Only check that the registrar has access to a TLD the first time it is encountered
-    Set<String> seenTlds = new HashSet<>();
+    // Only check that the registrar has access to a TLD the first time it is encountered, and
+    // only look up each TLD once for all of the names on it.
+    Map<String, Registry> registries = new HashMap<>();
     for (String targetId : ImmutableSet.copyOf(targetIds)) {
       InternetDomainName domainName = validateDomainName(targetId);
       validateDomainNameWithIdnTables(domainName);
       // This validation is moderately expensive, so cache the results.
       domains.put(targetId, domainName);
       String tld = domainName.parent().toString();
-      if (seenTlds.add(tld)) {
+      if (!registries.containsKey(tld)) {
         checkAllowedAccessToTld(clientId, tld);
+        Registry registry = Registry.get(tld);
+        registries.put(tld, registry);
         if (!isSuperuser) {
-          verifyNotInPredelegation(Registry.get(tld), now);
+          verifyNotInPredelegation(registry, now);
         }
       }
     }
@@ -146,9 +153,29 @@ public final class DomainCheckFlow implements Flow {
             .setAsOfDate(now)
             .build());
     Set<String> existingIds = checkResourcesExist(DomainResource.class, targetIds, now);
+    // Resolve the reservations and pending applications of all the names in batches up front,
+    // rather than making separate lookups for each name.
+    ImmutableMap<InternetDomainName, ReservationType> reservationTypes =
+        getReservationTypes(domainNames.values());
+    ImmutableSet<String> namesWithPossiblePendingApplications =
+        getNamesWithPossiblePendingApplications(domainNames.values(), existingIds, registries, now);
+    ImmutableMap<String, ImmutableSet<DomainApplication>> applications =
+        loadActiveApplicationsByDomainNames(namesWithPossiblePendingApplications, now);
+    // Likewise price all of the names that might be premium at once, which looks up the registry
+    // and premium list of each TLD only once.
+    ImmutableMap<String, DomainPrices> prices = getPrices(
+        getNamesToCheckForPremium(domainNames.values(), existingIds, reservationTypes), now);
     ImmutableList.Builder<DomainCheck> checks = new ImmutableList.Builder<>();
     for (String targetId : targetIds) {
-      String message = getMessageForCheck(domainNames.get(targetId), existingIds, now);
+      InternetDomainName domainName = domainNames.get(targetId);
+      String message = getMessageForCheck(
+          domainName,
+          existingIds,
+          registries.get(domainName.parent().toString()),
+          reservationTypes.get(domainName),
+          applications.get(domainName.toString()),
+          prices.get(domainName.toString()),
+          now);
       checks.add(DomainCheck.create(message == null, targetId, message));
     }
     BeforeResponseReturnData responseData =
@@ -164,14 +191,57 @@ public final class DomainCheckFlow implements Flow {
         .build();
   }
 
+  /**
+   * Returns the names that aren't in use and are on TLDs in a phase in which pending applications
+   * make a name unavailable, which are the only ones whose applications need to be loaded.
+   */
+  private static ImmutableSet<String> getNamesWithPossiblePendingApplications(
+      Iterable<InternetDomainName> domainNames,
+      Set<String> existingIds,
+      Map<String, Registry> registries,
+      DateTime now) {
+    ImmutableSet.Builder<String> names = new ImmutableSet.Builder<>();
+    for (InternetDomainName domainName : domainNames) {
+      Registry registry = registries.get(domainName.parent().toString());
+      if (!existingIds.contains(domainName.toString())
+          && PENDING_ALLOCATION_TLD_STATES.contains(registry.getTldState(now))) {
+        names.add(domainName.toString());
+      }
+    }
+    return names.build();
+  }
+
+  /**
+   * Returns the names that aren't in use and aren't reserved, which are the only ones whose
+   * availability depends on whether they are premium.
+   */
+  private static ImmutableSet<String> getNamesToCheckForPremium(
+      Iterable<InternetDomainName> domainNames,
+      Set<String> existingIds,
+      Map<InternetDomainName, ReservationType> reservationTypes) {
+    ImmutableSet.Builder<String> names = new ImmutableSet.Builder<>();
+    for (InternetDomainName domainName : domainNames) {
+      if (!existingIds.contains(domainName.toString())
+          && reservationTypes.get(domainName) == UNRESERVED) {
+        names.add(domainName.toString());
+      }
+    }
+    return names.build();
+  }
+
   private String getMessageForCheck(
-      InternetDomainName domainName, Set<String> existingIds, DateTime now) {
+      InternetDomainName domainName,
+      Set<String> existingIds,
+      Registry registry,
+      ReservationType reservationType,
+      @Nullable ImmutableSet<DomainApplication> activeApplications,
+      @Nullable DomainPrices prices,
+      DateTime now) {
     if (existingIds.contains(domainName.toString())) {
       return "In use";
     }
-    Registry registry = Registry.get(domainName.parent().toString());
-    if (PENDING_ALLOCATION_TLD_STATES.contains(registry.getTldState(now))
-        && FluentIterable.from(loadActiveApplicationsByDomainName(domainName.toString(), now))
+    if (activeApplications != null
+        && FluentIterable.from(activeApplications)
             .anyMatch(new Predicate<DomainApplication>() {
               @Override
               public boolean apply(DomainApplication input) {
@@ -179,9 +249,8 @@ public final class DomainCheckFlow implements Flow {
               }})) {
       return "Pending allocation";
     }
-    ReservationType reservationType = getReservationType(domainName);
     if (reservationType == UNRESERVED
-        && isDomainPremium(domainName.toString(), now)
+        && prices.isPremium()
         && registry.getPremiumPriceAckRequired()
         && eppInput.getSingleExtension(FeeCheckCommandExtension.class) == null) {
       return "Premium names require EPP ext.";
@@ -199,7 +268,17 @@ public final class DomainCheckFlow implements Flow {
     }
     ImmutableList.Builder<FeeCheckResponseExtensionItem> responseItems =
         new ImmutableList.Builder<>();
+    // Price all of the names at once for each effective date, rather than once per fee check item
+    // and name.
+    Map<DateTime, ImmutableMap<String, DomainPrices>> pricesByDate = new HashMap<>();
     for (FeeCheckCommandExtensionItem feeCheckItem : feeCheck.getItems()) {
+      DateTime priceDate = feeCheckItem.getEffectiveDate().or(now);
+      ImmutableMap<String, DomainPrices> prices = pricesByDate.get(priceDate);
+      if (prices == null) {
+        prices = getPrices(
+            FluentIterable.from(domainNames.values()).transform(toStringFunction()), priceDate);
+        pricesByDate.put(priceDate, prices);
+      }
       for (String domainName : getDomainNamesToCheckForFee(feeCheckItem, domainNames.keySet())) {
         FeeCheckResponseExtensionItem.Builder<?> builder = feeCheckItem.createResponseBuilder();
         handleFeeRequest(
@@ -210,7 +289,8 @@ public final class DomainCheckFlow implements Flow {
             feeCheck.getCurrency(),
             now,
             eppInput,
-            pricingLogic);
+            pricingLogic,
+            prices.get(domainNames.get(domainName).toString()));
         responseItems.add(builder.setDomainNameIfSupported(domainName).build());
       }
     }
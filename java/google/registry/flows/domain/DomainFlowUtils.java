@@ -27,6 +27,7 @@ import static google.registry.model.EppResourceUtils.loadByForeignKey;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.registry.Registries.findTldForName;
 import static google.registry.model.registry.label.ReservedList.getReservation;
+import static google.registry.model.registry.label.ReservedList.getReservations;
 import static google.registry.pricing.PricingEngineProxy.isDomainPremium;
 import static google.registry.tldconfig.idn.IdnLabelValidator.findValidIdnTableForTld;
 import static google.registry.util.CollectionUtils.nullToEmpty;
@@ -35,12 +36,15 @@ import static google.registry.util.DateTimeUtils.isAtOrAfter;
 import static google.registry.util.DomainNameUtils.ACE_PREFIX;
 
 import com.google.common.base.CharMatcher;
+import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multimaps;
 import com.google.common.collect.Sets;
 import com.google.common.net.InternetDomainName;
 import com.googlecode.objectify.Key;
@@ -102,6 +106,7 @@ import google.registry.model.mark.ProtectedMark;
 import google.registry.model.mark.Trademark;
 import google.registry.model.poll.PendingActionNotificationResponse.DomainPendingActionNotificationResponse;
 import google.registry.model.poll.PollMessage;
+import google.registry.model.pricing.PremiumPricingEngine.DomainPrices;
 import google.registry.model.registrar.Registrar;
 import google.registry.model.registry.Registry;
 import google.registry.model.registry.Registry.TldState;
@@ -386,6 +391,35 @@ public class DomainFlowUtils {
     return getReservation(domainName.parts().get(0), domainName.parent().toString());
   }
 
+  /**
+   * Returns the reservation types of the given domain names, as per {@link #getReservationType},
+   * looking up the reserved lists of each TLD only once.
+   */
+  static ImmutableMap<InternetDomainName, ReservationType> getReservationTypes(
+      Iterable<InternetDomainName> domainNames) {
+    ImmutableListMultimap<String, InternetDomainName> domainNamesByTld = Multimaps.index(
+        ImmutableSet.copyOf(domainNames),
+        new Function<InternetDomainName, String>() {
+          @Override
+          public String apply(InternetDomainName domainName) {
+            return domainName.parent().toString();
+          }});
+    ImmutableMap.Builder<InternetDomainName, ReservationType> reservationTypes =
+        new ImmutableMap.Builder<>();
+    for (String tld : domainNamesByTld.keySet()) {
+      ImmutableList<InternetDomainName> tldDomainNames = domainNamesByTld.get(tld);
+      ImmutableList.Builder<String> labels = new ImmutableList.Builder<>();
+      for (InternetDomainName domainName : tldDomainNames) {
+        labels.add(domainName.parts().get(0));
+      }
+      ImmutableMap<String, ReservationType> reservations = getReservations(labels.build(), tld);
+      for (InternetDomainName domainName : tldDomainNames) {
+        reservationTypes.put(domainName, reservations.get(domainName.parts().get(0)));
+      }
+    }
+    return reservationTypes.build();
+  }
+
   /** Verifies that a launch extension's specified phase matches the specified registry's phase. */
   static void verifyLaunchPhaseMatchesRegistryPhase(
       Registry registry, LaunchExtension launchExtension, DateTime now) throws EppException {
@@ -581,6 +615,9 @@ public class DomainFlowUtils {
   /**
    * Validates a {@link FeeQueryCommandExtensionItem} and sets the appropriate fields on a {@link
    * FeeQueryResponseExtensionItem} builder.
+   *
+   * @param prices the prices of the domain at the effective date of the request, if they were
+   *     already looked up with {@link DomainPricingLogic#getPrices}, or null to look them up
    */
   static void handleFeeRequest(
       FeeQueryCommandExtensionItem feeRequest,
@@ -590,7 +627,8 @@ public class DomainFlowUtils {
       @Nullable CurrencyUnit topLevelCurrency,
       DateTime currentDate,
       EppInput eppInput,
-      DomainPricingLogic pricingLogic)
+      DomainPricingLogic pricingLogic,
+      @Nullable DomainPrices prices)
       throws EppException {
     DateTime now = currentDate;
     // Use the custom effective date specified in the fee check request, if there is one.
@@ -617,7 +655,9 @@ public class DomainFlowUtils {
         .setCommand(feeRequest.getCommandName(), feeRequest.getPhase(), feeRequest.getSubphase())
         .setCurrencyIfSupported(registry.getCurrency())
         .setPeriod(feeRequest.getPeriod())
-        .setClass(TldSpecificLogicProxy.getFeeClass(domainNameString, now).orNull());
+        .setClass((prices != null)
+            ? prices.getFeeClass().orNull()
+            : TldSpecificLogicProxy.getFeeClass(domainNameString, now).orNull());
 
     ImmutableList<Fee> fees = ImmutableList.of();
     switch (feeRequest.getCommandName()) {
@@ -628,7 +668,10 @@ public class DomainFlowUtils {
           builder.setReasonIfSupported("reserved");
         } else {
           builder.setAvailIfSupported(true);
-          fees = pricingLogic.getCreatePrice(registry, domainNameString, now, years).getFees();
+          fees = ((prices != null)
+                  ? pricingLogic.getCreatePrice(registry, domainNameString, now, years, prices)
+                  : pricingLogic.getCreatePrice(registry, domainNameString, now, years))
+              .getFees();
         }
         break;
       case RENEW:
@@ -153,7 +153,8 @@ public final class DomainInfoFlow implements Flow {
           null,
           now,
           eppInput,
-          pricingLogic);
+          pricingLogic,
+          null);
       extensions.add(builder.build());
     }
     // If the TLD uses the flags extension, add it to the info response.
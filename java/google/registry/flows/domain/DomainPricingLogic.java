@@ -17,14 +17,16 @@ package google.registry.flows.domain;
 import static com.google.common.base.Preconditions.checkArgument;
 import static google.registry.model.EppResourceUtils.loadByForeignKey;
 import static google.registry.model.ofy.ObjectifyService.ofy;
-import static google.registry.pricing.PricingEngineProxy.getDomainCreateCost;
 import static google.registry.pricing.PricingEngineProxy.getDomainFeeClass;
 import static google.registry.pricing.PricingEngineProxy.getDomainRenewCost;
+import static google.registry.pricing.PricingEngineProxy.getPricesForDomainName;
+import static google.registry.pricing.PricingEngineProxy.getPricesForDomainNames;
 import static google.registry.util.CollectionUtils.nullToEmpty;
 import static google.registry.util.PreconditionsUtils.checkArgumentNotNull;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.net.InternetDomainName;
 import com.googlecode.objectify.Key;
 import google.registry.flows.EppException;
@@ -41,7 +43,9 @@ import google.registry.model.domain.fee.BaseFee.FeeType;
 import google.registry.model.domain.fee.Credit;
 import google.registry.model.domain.fee.Fee;
 import google.registry.model.eppinput.EppInput;
+import google.registry.model.pricing.PremiumPricingEngine.DomainPrices;
 import google.registry.model.registry.Registry;
+import google.registry.util.StageTimer;
 import java.util.List;
 import javax.inject.Inject;
 import org.joda.money.CurrencyUnit;
@@ -146,14 +150,49 @@ public final class DomainPricingLogic {
     }
   }
 
+  /**
+   * Returns the prices of the given domain names at the given time, keyed by domain name.
+   *
+   * <p>The registry and premium list of each TLD are looked up once for all of its names, so this
+   * is cheaper than looking up the prices of many names one at a time.
+   */
+  public static ImmutableMap<String, DomainPrices> getPrices(
+      Iterable<String> domainNames, DateTime date) {
+    try (StageTimer.Stage stage = StageTimer.start("pricing")) {
+      return getPricesForDomainNames(domainNames, date);
+    }
+  }
+
   /** Returns a new create price for the Pricer. */
   public EppCommandOperations getCreatePrice(
       Registry registry, String domainName, DateTime date, int years) throws EppException {
+    try (StageTimer.Stage stage = StageTimer.start("pricing")) {
+      return computeCreatePrice(
+          registry, domainName, date, years, getPricesForDomainName(domainName, date));
+    }
+  }
+
+  /**
+   * Returns a new create price for the Pricer, from prices of the domain at the same date that
+   * were already looked up with {@link #getPrices}.
+   */
+  public EppCommandOperations getCreatePrice(
+      Registry registry, String domainName, DateTime date, int years, DomainPrices prices)
+      throws EppException {
+    try (StageTimer.Stage stage = StageTimer.start("pricing")) {
+      return computeCreatePrice(registry, domainName, date, years, prices);
+    }
+  }
+
+  private EppCommandOperations computeCreatePrice(
+      Registry registry, String domainName, DateTime date, int years, DomainPrices prices)
+      throws EppException {
+    checkArgument(years > 0, "Number of years must be positive");
     CurrencyUnit currency = registry.getCurrency();
 
     // Get the vanilla create cost.
     BaseFee createFeeOrCredit =
-        Fee.create(getDomainCreateCost(domainName, date, years).getAmount(), FeeType.CREATE);
+        Fee.create(prices.getCreateCost().multipliedBy(years).getAmount(), FeeType.CREATE);
 
     // Apply custom logic to the create fee, if any.
     createFeeOrCredit =
@@ -189,6 +228,19 @@ public final class DomainPricingLogic {
       int years,
       EppInput eppInput)
       throws EppException {
+    try (StageTimer.Stage stage = StageTimer.start("pricing")) {
+      return computeRenewFeeOrCredit(registry, domainName, clientId, date, years, eppInput);
+    }
+  }
+
+  private static BaseFee computeRenewFeeOrCredit(
+      Registry registry,
+      String domainName,
+      String clientId,
+      DateTime date,
+      int years,
+      EppInput eppInput)
+      throws EppException {
     Optional<RegistryExtraFlowLogic> extraFlowLogic =
         RegistryExtraFlowLogicProxy.newInstanceForTld(registry.getTldStr());
     if (extraFlowLogic.isPresent()) {
@@ -244,6 +296,14 @@ public final class DomainPricingLogic {
   public static EppCommandOperations getUpdatePrice(
       Registry registry, String domainName, String clientId, DateTime date, EppInput eppInput)
       throws EppException {
+    try (StageTimer.Stage stage = StageTimer.start("pricing")) {
+      return computeUpdatePrice(registry, domainName, clientId, date, eppInput);
+    }
+  }
+
+  private static EppCommandOperations computeUpdatePrice(
+      Registry registry, String domainName, String clientId, DateTime date, EppInput eppInput)
+      throws EppException {
     CurrencyUnit currency = registry.getCurrency();
 
     // If there is extra flow logic, it may specify an update price. Otherwise, there is none.
@@ -272,6 +332,18 @@ public final class DomainPricingLogic {
       DateTime date,
       EppInput eppInput)
       throws EppException {
+    try (StageTimer.Stage stage = StageTimer.start("pricing")) {
+      return computeApplicationUpdatePrice(registry, application, clientId, date, eppInput);
+    }
+  }
+
+  private static EppCommandOperations computeApplicationUpdatePrice(
+      Registry registry,
+      DomainApplication application,
+      String clientId,
+      DateTime date,
+      EppInput eppInput)
+      throws EppException {
     CurrencyUnit currency = registry.getCurrency();
 
     // If there is extra flow logic, it may specify an update price. Otherwise, there is none.
@@ -76,6 +76,7 @@ import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.eppinput.EppInput;
 import google.registry.model.eppinput.ResourceCommand;
 import google.registry.model.eppoutput.EppResponse;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.registry.Registry;
 import google.registry.model.reporting.HistoryEntry;
 import javax.inject.Inject;
@@ -182,6 +183,7 @@ public final class DomainUpdateFlow implements TransactionalFlow {
     handleExtraFlowLogic(existingDomain, historyEntry, now);
     ImmutableSet.Builder<ImmutableObject> entitiesToSave = new ImmutableSet.Builder<>();
     entitiesToSave.add(newDomain, historyEntry);
+    DomainReferenceIndex.saveForAddedReferences(existingDomain, newDomain);
     Optional<BillingEvent.OneTime> statusUpdateBillingEvent =
         createBillingEventForStatusUpdates(existingDomain, newDomain, historyEntry, now);
     if (statusUpdateBillingEvent.isPresent()) {
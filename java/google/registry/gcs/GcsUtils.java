@@ -58,7 +58,17 @@ public class GcsUtils {
   /** Opens a GCS file for reading as an {@link InputStream} with prefetching. */
   @CheckReturnValue
   public InputStream openInputStream(GcsFilename filename) {
-    return Channels.newInputStream(gcsService.openPrefetchingReadChannel(filename, 0, bufferSize));
+    return openInputStream(filename, 0);
+  }
+
+  /**
+   * Opens a GCS file for reading from the given byte offset as an {@link InputStream} with
+   * prefetching.
+   */
+  @CheckReturnValue
+  public InputStream openInputStream(GcsFilename filename, long position) {
+    return Channels.newInputStream(
+        gcsService.openPrefetchingReadChannel(filename, position, bufferSize));
   }
 
   /** Opens a GCS file for writing as an {@link OutputStream}, overwriting existing files. */
@@ -21,6 +21,7 @@ import com.google.appengine.api.datastore.Cursor;
 import com.google.appengine.api.datastore.QueryResultIterator;
 import com.google.appengine.tools.mapreduce.InputReader;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.cmd.Query;
@@ -133,6 +134,31 @@ abstract class EppResourceBaseReader<T> extends InputReader<T> {
     }
   }
 
+  /**
+   * Get the resource keys of up to {@code max} next {@link EppResourceIndex} entries from the
+   * query, for readers that load resources ahead of the mapper.
+   *
+   * <p>These don't count towards the progress until they are passed to {@link #countLoaded}.
+   *
+   * @return the keys, which are only empty if there are no more elements
+   */
+  ImmutableList<Key<? extends EppResource>> nextEriKeys(int max) {
+    ImmutableList.Builder<Key<? extends EppResource>> keys = new ImmutableList.Builder<>();
+    try {
+      for (int i = 0; i < max && queryIterator.hasNext(); i++) {
+        keys.add(queryIterator.next().getKey());
+      }
+    } finally {
+      ofy().clearSessionCache();  // Try not to leak memory.
+    }
+    return keys.build();
+  }
+
+  /** Counts an entry got from {@link #nextEriKeys} as processed by the mapper. */
+  void countLoaded() {
+    loaded++;
+  }
+
   static <R extends EppResource> ImmutableSet<String> varargsToKinds(
       ImmutableSet<Class<? extends R>> resourceClasses) {
     // Ignore EppResource when finding kinds, since it doesn't have one and doesn't imply filtering.
@@ -29,14 +29,16 @@ class EppResourceEntityInput<R extends EppResource> extends EppResourceBaseInput
   private static final long serialVersionUID = 8162607479124406226L;
 
   private final ImmutableSet<Class<? extends R>> resourceClasses;
+  private final int pageSize;
 
-  public EppResourceEntityInput(ImmutableSet<Class<? extends R>> resourceClasses) {
+  public EppResourceEntityInput(ImmutableSet<Class<? extends R>> resourceClasses, int pageSize) {
     this.resourceClasses = resourceClasses;
+    this.pageSize = pageSize;
     checkNoInheritanceRelationships(ImmutableSet.<Class<?>>copyOf(resourceClasses));
   }
 
   @Override
   protected InputReader<R> bucketToReader(Key<EppResourceIndexBucket> bucketKey) {
-    return new EppResourceEntityReader<R>(bucketKey, resourceClasses);
+    return new EppResourceEntityReader<R>(bucketKey, resourceClasses, pageSize);
   }
 }
@@ -14,21 +14,74 @@
 
 package google.registry.mapreduce.inputs;
 
+import static com.google.appengine.api.datastore.DatastoreServiceFactory.getAsyncDatastoreService;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
 import static google.registry.model.ofy.ObjectifyService.ofy;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.tools.mapreduce.InputReader;
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.googlecode.objectify.Key;
 import google.registry.model.EppResource;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.EppResourceIndexBucket;
+import google.registry.monitoring.metrics.EventMetric;
+import google.registry.monitoring.metrics.IncrementableMetric;
+import google.registry.monitoring.metrics.LabelDescriptor;
+import google.registry.monitoring.metrics.MetricRegistryImpl;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import javax.annotation.Nullable;
 
-/** Reader that maps over {@link EppResourceIndex} and returns resources. */
+/**
+ * Reader that maps over {@link EppResourceIndex} and returns resources.
+ *
+ * <p>Resources are loaded in pages of a configurable size, with one batch get per page. The next
+ * page is loaded asynchronously while the mapper works on the current one, so that the mapper
+ * doesn't have to wait for datastore between resources.
+ */
 class EppResourceEntityReader<R extends EppResource> extends EppResourceBaseReader<R> {
 
   private static final long serialVersionUID = -8042933349899971801L;
 
+  /** Number of resources loaded by each batch get, unless specified otherwise. */
+  static final int DEFAULT_PAGE_SIZE = 100;
+
+  /** Estimated memory used by each loaded resource, which is typically a few KB. */
+  private static final long RESOURCE_MEMORY_ESTIMATE = 10 * 1024;
+
+  private static final ImmutableSet<LabelDescriptor> LABEL_DESCRIPTORS =
+      ImmutableSet.of(
+          LabelDescriptor.create("resource_types", "The resource types read by the reader."));
+
+  private static final IncrementableMetric resourcesLoaded =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/mapreduce/epp_resource_reader/resources_loaded",
+              "Count of resources loaded by mapreduce input readers.",
+              "count",
+              LABEL_DESCRIPTORS);
+
+  private static final EventMetric pageWaitTime =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/mapreduce/epp_resource_reader/page_wait_time",
+              "Time mapreduce input readers waited for a page of resources to be loaded.",
+              "milliseconds",
+              LABEL_DESCRIPTORS,
+              EventMetric.DEFAULT_FITTER);
+
   /**
    * The resource classes to postfilter for.
    *
@@ -38,14 +91,68 @@ class EppResourceEntityReader<R extends EppResource> extends EppResourceBaseRead
    */
   private final ImmutableSet<Class<? extends R>> resourceClasses;
 
+  private final int pageSize;
+
+  /** Value of the resource types metric label. */
+  private final String resourceTypes;
+
+  /**
+   * Keys read from the index that the mapper hasn't got the resources of yet.
+   *
+   * <p>This is only used to carry the loaded pages over to the next slice.
+   */
+  private ImmutableList<Key<? extends EppResource>> unreadKeys = ImmutableList.of();
+
+  private transient Page currentPage;
+  private transient Page nextPage;
+
   public EppResourceEntityReader(
       Key<EppResourceIndexBucket> bucketKey,
       ImmutableSet<Class<? extends R>> resourceClasses) {
+    this(bucketKey, resourceClasses, DEFAULT_PAGE_SIZE);
+  }
+
+  public EppResourceEntityReader(
+      Key<EppResourceIndexBucket> bucketKey,
+      ImmutableSet<Class<? extends R>> resourceClasses,
+      int pageSize) {
     super(
         bucketKey,
-        ONE_MB * 2,  // Estimate 2MB of memory for this reader, since it loads a (max 1MB) entity.
+        // Estimate 2MB of memory for this reader, since it loads a (max 1MB) entity, plus the
+        // resources of the two pages it holds at a time.
+        ONE_MB * 2 + 2 * pageSize * RESOURCE_MEMORY_ESTIMATE,
         varargsToKinds(resourceClasses));
     this.resourceClasses = resourceClasses;
+    this.pageSize = pageSize;
+    this.resourceTypes = Joiner.on(',').join(
+        FluentIterable.from(resourceClasses).transform(new Function<Class<?>, String>() {
+          @Override
+          public String apply(Class<?> resourceClass) {
+            return resourceClass.getSimpleName();
+          }}));
+  }
+
+  /** Called every time we are deserialized. Resumes loading the pages of the last slice. */
+  @Override
+  public void beginSlice() {
+    super.beginSlice();
+    currentPage = new Page(unreadKeys);
+    nextPage = null;
+    unreadKeys = ImmutableList.of();
+  }
+
+  /** Called before we are serialized. Saves the keys of the pages that haven't been read. */
+  @Override
+  public void endSlice() {
+    ImmutableList.Builder<Key<? extends EppResource>> keys = new ImmutableList.Builder<>();
+    if (currentPage != null) {
+      keys.addAll(currentPage.getUnreadKeys());
+    }
+    if (nextPage != null) {
+      keys.addAll(nextPage.getUnreadKeys());
+    }
+    unreadKeys = keys.build();
+    super.endSlice();
   }
 
   /**
@@ -56,12 +163,21 @@ class EppResourceEntityReader<R extends EppResource> extends EppResourceBaseRead
    */
   @Override
   public R next() throws NoSuchElementException {
-    // Loop until we find a value, or nextEri() throws a NoSuchElementException.
+    // Loop until we find a value, or we run out of pages.
     while (true) {
-      Key<? extends EppResource> key = nextEri().getKey();
-      EppResource resource = ofy().load().key(key).now();
+      ofy().clearSessionCache();  // Try not to leak memory.
+      if (!currentPage.hasNext()) {
+        currentPage = nextPage == null ? new Page(nextEriKeys(pageSize)) : nextPage;
+        nextPage = null;
+        if (!currentPage.hasNext()) {
+          throw new NoSuchElementException();
+        }
+        // Start loading the page after this one while the mapper works on this one.
+        nextPage = new Page(nextEriKeys(pageSize));
+      }
+      countLoaded();
+      EppResource resource = currentPage.next();
       if (resource == null) {
-        logger.severefmt("EppResourceIndex key %s points at a missing resource", key);
         continue;
       }
       // Postfilter to distinguish polymorphic types (e.g. DomainBase and DomainResource).
@@ -74,4 +190,62 @@ class EppResourceEntityReader<R extends EppResource> extends EppResourceBaseRead
       }
     }
   }
+
+  /** Resources of consecutive index entries, loaded by one asynchronous batch get. */
+  private class Page {
+    private final ImmutableList<Key<? extends EppResource>> keys;
+    private final Future<Map<com.google.appengine.api.datastore.Key, Entity>> entitiesFuture;
+    private Map<com.google.appengine.api.datastore.Key, Entity> entities;
+    private int position;
+
+    Page(ImmutableList<Key<? extends EppResource>> keys) {
+      this.keys = keys;
+      this.entitiesFuture = keys.isEmpty()
+          ? Futures.<Map<com.google.appengine.api.datastore.Key, Entity>>immediateFuture(
+              ImmutableMap.<com.google.appengine.api.datastore.Key, Entity>of())
+          : getAsyncDatastoreService().get(
+              FluentIterable.from(keys).transform(TO_RAW_KEY).toList());
+    }
+
+    boolean hasNext() {
+      return position < keys.size();
+    }
+
+    /** Returns the next resource, or null if the index entry points at a missing resource. */
+    @Nullable
+    EppResource next() {
+      Key<? extends EppResource> key = keys.get(position++);
+      Entity entity = getEntities().get(key.getRaw());
+      if (entity == null) {
+        logger.severefmt("EppResourceIndex key %s points at a missing resource", key);
+        return null;
+      }
+      return ofy().load().fromEntity(entity);
+    }
+
+    ImmutableList<Key<? extends EppResource>> getUnreadKeys() {
+      return keys.subList(position, keys.size());
+    }
+
+    private Map<com.google.appengine.api.datastore.Key, Entity> getEntities() {
+      if (entities == null) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        try {
+          entities = getUninterruptibly(entitiesFuture);
+        } catch (ExecutionException e) {
+          throw new UncheckedExecutionException(e.getCause());
+        }
+        pageWaitTime.record(stopwatch.elapsed(MILLISECONDS), resourceTypes);
+        resourcesLoaded.incrementBy(entities.size(), resourceTypes);
+      }
+      return entities;
+    }
+  }
+
+  private static final Function<Key<?>, com.google.appengine.api.datastore.Key> TO_RAW_KEY =
+      new Function<Key<?>, com.google.appengine.api.datastore.Key>() {
+        @Override
+        public com.google.appengine.api.datastore.Key apply(Key<?> key) {
+          return key.getRaw();
+        }};
 }
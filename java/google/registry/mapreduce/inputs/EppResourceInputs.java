@@ -56,7 +56,26 @@ public final class EppResourceInputs {
       Class<? extends R> resourceClass,
       Class<? extends R>... moreResourceClasses) {
     return new EppResourceEntityInput<R>(
-        ImmutableSet.copyOf(asList(resourceClass, moreResourceClasses)));
+        ImmutableSet.copyOf(asList(resourceClass, moreResourceClasses)),
+        EppResourceEntityReader.DEFAULT_PAGE_SIZE);
+  }
+
+  /**
+   * Returns a MapReduce {@link Input} that loads all {@link EppResource} objects of a given type,
+   * including deleted resources, loading {@code pageSize} of them from datastore at a time.
+   *
+   * <p>Larger pages mean fewer, larger datastore round trips, at the cost of memory per shard.
+   *
+   * @see #createEntityInput(Class, Class...)
+   */
+  @SafeVarargs
+  public static <R extends EppResource> Input<R> createEntityInput(
+      int pageSize,
+      Class<? extends R> resourceClass,
+      Class<? extends R>... moreResourceClasses) {
+    checkArgument(pageSize > 0, "pageSize must be positive");
+    return new EppResourceEntityInput<R>(
+        ImmutableSet.copyOf(asList(resourceClass, moreResourceClasses)), pageSize);
   }
 
 
@@ -32,6 +32,8 @@ import google.registry.model.domain.LrpTokenEntity;
 import google.registry.model.export.LogsExportCursor;
 import google.registry.model.host.HostResource;
 import google.registry.model.index.DomainApplicationIndex;
+import google.registry.model.index.DomainReferenceIndex;
+import google.registry.model.index.DomainReferenceIndexBucket;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.EppResourceIndexBucket;
 import google.registry.model.index.ForeignKeyIndex;
@@ -80,6 +82,8 @@ public final class EntityClasses {
           DomainApplication.class,
           DomainApplicationIndex.class,
           DomainBase.class,
+          DomainReferenceIndex.class,
+          DomainReferenceIndexBucket.class,
           DomainResource.class,
           EntityGroupRoot.class,
           EppResourceIndex.class,
@@ -24,6 +24,9 @@ import static google.registry.util.DateTimeUtils.isBeforeOrAt;
 import static google.registry.util.DateTimeUtils.latestOf;
 
 import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.Result;
 import com.googlecode.objectify.util.ResultNow;
@@ -37,6 +40,7 @@ import google.registry.model.domain.DomainApplication;
 import google.registry.model.domain.DomainBase;
 import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.host.HostResource;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.index.ForeignKeyIndex;
 import google.registry.model.ofy.CommitLogManifest;
 import google.registry.model.ofy.CommitLogMutation;
@@ -44,6 +48,7 @@ import google.registry.model.transfer.TransferData;
 import google.registry.model.transfer.TransferStatus;
 import google.registry.util.FormattingLogger;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import javax.annotation.Nullable;
@@ -55,6 +60,9 @@ public final class EppResourceUtils {
 
   private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
 
+  /** Number of domains loaded at a time when looking for domains referencing a resource. */
+  private static final int REFERENCING_DOMAINS_BATCH_SIZE = 50;
+
   /** Returns the full domain repoId of the format HEX-TLD for the specified long id and tld. */
   public static String createDomainRoid(long repoId, String tld) {
     return createRoid(repoId, getRoidSuffixForTld(tld));
@@ -341,7 +349,10 @@ public final class EppResourceUtils {
   /**
    * Find keys of domains or applications that reference a specified contact or host.
    *
-   * <p>This is an eventually consistent query.
+   * <p>Once the {@link DomainReferenceIndex} is complete, this uses the strongly consistent index
+   * of the contact or host. The indexed domains are loaded in batches to skip the ones that are
+   * deleted or that no longer reference the contact or host, so a domain that is changed
+   * concurrently may or may not be found. Until then, this is an eventually consistent query.
    *
    * @param clazz the referent type (contact or host)
    * @param key the referent key
@@ -351,17 +362,45 @@ public final class EppResourceUtils {
   public static List<Key<DomainBase>> queryDomainsUsingResource(
       Class<? extends EppResource> clazz, Key<? extends EppResource> key, DateTime now, int limit) {
     checkArgument(ContactResource.class.equals(clazz) || HostResource.class.equals(clazz));
-    return ofy()
-        .load()
-        .type(DomainBase.class)
-        .filter(clazz.equals(ContactResource.class) ? "allContacts.contact" : "nsHosts", key)
-        .filter("deletionTime >", now)
-        .limit(limit)
-        .keys()
-        .list();
+    if (!DomainReferenceIndex.isComplete()) {
+      return ofy()
+          .load()
+          .type(DomainBase.class)
+          .filter(clazz.equals(ContactResource.class) ? "allContacts.contact" : "nsHosts", key)
+          .filter("deletionTime >", now)
+          .limit(limit)
+          .keys()
+          .list();
+    }
+    ImmutableList.Builder<Key<DomainBase>> domainKeys = new ImmutableList.Builder<>();
+    int found = 0;
+    for (List<Key<DomainBase>> batch : Iterables.partition(
+        DomainReferenceIndex.loadReferencingDomainKeys(key), REFERENCING_DOMAINS_BATCH_SIZE)) {
+      Map<Key<DomainBase>, DomainBase> domains = ofy().load().keys(batch);
+      for (Key<DomainBase> domainKey : batch) {
+        DomainBase domain = domains.get(domainKey);
+        Set<? extends Key<?>> references = domain == null
+            ? ImmutableSet.<Key<?>>of()
+            : ContactResource.class.equals(clazz)
+                ? domain.getReferencedContacts()
+                : domain.getNameservers();
+        if (domain == null
+            || !now.isBefore(domain.getDeletionTime())
+            || !references.contains(key)) {
+          // Remove the entry, so that later lookups don't have to skip the domain again.
+          DomainReferenceIndex.deleteIfUnused(key, domainKey);
+        } else {
+          domainKeys.add(domainKey);
+          if (++found == limit) {
+            return domainKeys.build();
+          }
+        }
+      }
+    }
+    return domainKeys.build();
   }
 
-  /** Clone a contact or host with an eventually-consistent notion of LINKED. */
+  /** Clone a contact or host with LINKED set if any active domain references it. */
   public static EppResource cloneResourceWithLinkedStatus(EppResource resource, DateTime now) {
     Builder<?, ?> builder = resource.asBuilder();
     if (queryDomainsUsingResource(resource.getClass(), Key.create(resource), now, 1).isEmpty()) {
@@ -41,6 +41,14 @@ public class Cursor extends ImmutableObject {
     /** Cursor for ensuring rolling transactional isolation of BRDA staging operation. */
     BRDA(Registry.class),
 
+    /**
+     * Cursor marking that every domain written before {@code DomainReferenceIndex} existed has been
+     * indexed, so that lookups of the domains referencing a contact or host can rely on the index.
+     * The value is the time that the backfill finished. Commit log restores delete it, since the
+     * index entries aren't commit logged.
+     */
+    DOMAIN_REFERENCE_INDEX_BACKFILL(EntityGroupRoot.class),
+
     /** Cursor for ensuring rolling transactional isolation of RDE report operation. */
     RDE_REPORT(Registry.class),
 
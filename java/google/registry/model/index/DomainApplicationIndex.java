@@ -21,6 +21,7 @@ import static google.registry.model.ofy.Ofy.RECOMMENDED_MEMCACHE_EXPIRATION;
 import static google.registry.util.CollectionUtils.isNullOrEmpty;
 import static google.registry.util.DateTimeUtils.latestOf;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Cache;
@@ -29,6 +30,7 @@ import com.googlecode.objectify.annotation.Id;
 import google.registry.model.BackupGroupRoot;
 import google.registry.model.domain.DomainApplication;
 import google.registry.util.CollectionUtils;
+import java.util.Map;
 import java.util.Set;
 import javax.annotation.Nullable;
 import org.joda.time.DateTime;
@@ -91,8 +93,53 @@ public class DomainApplicationIndex extends BackupGroupRoot {
     if (index == null) {
       return ImmutableSet.of();
     }
+    return filterActiveApplications(ofy().load().keys(index.getKeys()).values(), now);
+  }
+
+  /**
+   * Returns the active DomainApplications for each of the given fully qualified domain names, as
+   * per {@link #loadActiveApplicationsByDomainName}, keyed by domain name.
+   *
+   * <p>All of the indexes are loaded in a single batch, followed by all of the applications that
+   * they reference in a second batch, rather than making two round trips per domain name.
+   */
+  public static ImmutableMap<String, ImmutableSet<DomainApplication>>
+      loadActiveApplicationsByDomainNames(
+          Iterable<String> fullyQualifiedDomainNames, DateTime now) {
+    ImmutableSet<String> domainNames = ImmutableSet.copyOf(fullyQualifiedDomainNames);
+    Map<String, DomainApplicationIndex> indexes =
+        ofy().load().type(DomainApplicationIndex.class).ids(domainNames);
+    ImmutableSet.Builder<Key<DomainApplication>> keys = new ImmutableSet.Builder<>();
+    for (DomainApplicationIndex index : indexes.values()) {
+      keys.addAll(index.getKeys());
+    }
+    Map<Key<DomainApplication>, DomainApplication> applications =
+        ofy().load().keys(keys.build());
+    ImmutableMap.Builder<String, ImmutableSet<DomainApplication>> result =
+        new ImmutableMap.Builder<>();
+    for (String domainName : domainNames) {
+      DomainApplicationIndex index = indexes.get(domainName);
+      ImmutableSet.Builder<DomainApplication> indexedApplications = new ImmutableSet.Builder<>();
+      if (index != null) {
+        for (Key<DomainApplication> key : index.getKeys()) {
+          if (applications.containsKey(key)) {
+            indexedApplications.add(applications.get(key));
+          }
+        }
+      }
+      result.put(domainName, filterActiveApplications(indexedApplications.build(), now));
+    }
+    return result.build();
+  }
+
+  /**
+   * Returns the given applications that don't have a deletion time before the supplied DateTime,
+   * projected to that time.
+   */
+  private static ImmutableSet<DomainApplication> filterActiveApplications(
+      Iterable<DomainApplication> applications, DateTime now) {
     ImmutableSet.Builder<DomainApplication> apps = new ImmutableSet.Builder<>();
-    for (DomainApplication app : ofy().load().keys(index.getKeys()).values()) {
+    for (DomainApplication app : applications) {
       DateTime forwardedNow = latestOf(now, app.getUpdateAutoTimestamp().getTimestamp());
       if (app.getDeletionTime().isAfter(forwardedNow)) {
         apps.add(app.cloneProjectedAtTime(forwardedNow));
@@ -0,0 +1,276 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.index;
+
+import static com.google.common.collect.Sets.difference;
+import static google.registry.model.common.Cursor.CursorType.DOMAIN_REFERENCE_INDEX_BACKFILL;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.Work;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+import google.registry.model.EppResource;
+import google.registry.model.ImmutableObject;
+import google.registry.model.common.Cursor;
+import google.registry.model.domain.DomainBase;
+import google.registry.util.FormattingLogger;
+import java.util.Set;
+import javax.annotation.Nullable;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+
+/**
+ * Entity recording that a domain or domain application references a contact or host.
+ *
+ * <p>There is one of these for each contact and host that a domain references, so that all the
+ * domains referencing a contact or host can be found with strongly consistent ancestor queries
+ * instead of by looking at every domain. The entries of each contact or host are split between the
+ * entity groups of its {@link DomainReferenceIndexBucket}s, so that neither the contact or host nor
+ * a single index entity group limits how often domains referencing it can be written.
+ *
+ * <p>The domain flows write the entries for added references outside of the domain's transaction,
+ * but before it commits, so that they don't count toward its entity group limit. Since the flows
+ * load the referenced contacts and hosts in the transaction to check that they aren't pending
+ * deletion, a domain can't start referencing a contact or host that is being deleted without the
+ * deletion seeing its entry. Entries are written without commit logs, so restoring from commit
+ * logs marks the index as incomplete until it has been backfilled again.
+ *
+ * <p>Entries aren't removed by the flows when a domain stops referencing a contact or host, or is
+ * deleted, and may be written for domains whose transaction then fails, so callers need to load the
+ * domains and check that they are active and still reference the contact or host. Callers then
+ * remove the entries of the domains that they skip with {@link #deleteIfUnused}, so that each
+ * unused entry is only walked over once. The entries of a contact or host are removed when it's
+ * deleted.
+ */
+@Entity
+public class DomainReferenceIndex extends ImmutableObject {
+
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
+  /**
+   * How long an entry is kept after it's written even if its domain doesn't use it, since the
+   * transaction of the flow that wrote it may not have committed yet.
+   */
+  @VisibleForTesting
+  static final Duration UNUSED_ENTRY_GRACE_PERIOD = Duration.standardMinutes(10);
+
+  /** The bucket of the referenced contact or host that this entry is in. */
+  @Parent
+  Key<DomainReferenceIndexBucket> bucket;
+
+  /** The web-safe string of the referencing domain's key. */
+  @Id
+  String id;
+
+  /** The referenced contact or host. */
+  Key<? extends EppResource> reference;
+
+  Key<? extends DomainBase> domain;
+
+  /** When the entry was last written. */
+  DateTime writeTime;
+
+  public Key<? extends EppResource> getReferencedResourceKey() {
+    return reference;
+  }
+
+  public Key<? extends DomainBase> getDomainKey() {
+    return domain;
+  }
+
+  public static DomainReferenceIndex create(
+      Key<? extends EppResource> referencedResourceKey,
+      Key<? extends DomainBase> domainKey,
+      DateTime writeTime) {
+    DomainReferenceIndex instance = new DomainReferenceIndex();
+    instance.bucket = DomainReferenceIndexBucket.getBucketKey(referencedResourceKey, domainKey);
+    instance.id = domainKey.getString();
+    instance.reference = referencedResourceKey;
+    instance.domain = domainKey;
+    instance.writeTime = writeTime;
+    return instance;
+  }
+
+  public static Key<DomainReferenceIndex> createKey(
+      Key<? extends EppResource> referencedResourceKey, Key<? extends DomainBase> domainKey) {
+    return Key.create(
+        DomainReferenceIndexBucket.getBucketKey(referencedResourceKey, domainKey),
+        DomainReferenceIndex.class,
+        domainKey.getString());
+  }
+
+  /**
+   * Returns the index entries for the contacts and hosts that a new or updated domain references
+   * but the existing domain doesn't.
+   *
+   * @param existingDomain the domain before the change, or null if it's being created
+   * @param writeTime when the entries are written, no earlier than the start of the transaction
+   *     that saves the domain, if any
+   */
+  public static ImmutableSet<DomainReferenceIndex> createForAddedReferences(
+      @Nullable DomainBase existingDomain, DomainBase newDomain, DateTime writeTime) {
+    Key<DomainBase> domainKey = Key.create(newDomain);
+    ImmutableSet.Builder<DomainReferenceIndex> indexes = new ImmutableSet.Builder<>();
+    for (Key<? extends EppResource> resourceKey : difference(
+        getReferencedResources(newDomain), getReferencedResources(existingDomain))) {
+      indexes.add(create(resourceKey, domainKey, writeTime));
+    }
+    return indexes.build();
+  }
+
+  /**
+   * Saves the index entries for the contacts and hosts that a new or updated domain references but
+   * the existing domain doesn't.
+   *
+   * <p>This must be called in the domain's transaction, after loading the referenced contacts and
+   * hosts. The entries are saved outside of the transaction, so they are saved even if the
+   * transaction fails.
+   *
+   * @param existingDomain the domain before the change, or null if it's being created
+   */
+  public static void saveForAddedReferences(
+      @Nullable DomainBase existingDomain, DomainBase newDomain) {
+    final ImmutableSet<DomainReferenceIndex> indexes =
+        createForAddedReferences(existingDomain, newDomain, ofy().getTransactionTime());
+    if (indexes.isEmpty()) {
+      return;
+    }
+    ofy().doTransactionless(new VoidWork() {
+      @Override
+      public void vrun() {
+        ofy().saveWithoutBackup().entities(indexes).now();
+      }});
+  }
+
+  /**
+   * Returns the keys of all index entries of a contact or host, which are loaded lazily as they are
+   * iterated over.
+   */
+  public static FluentIterable<Key<DomainReferenceIndex>> loadIndexKeys(
+      final Key<? extends EppResource> referencedResourceKey) {
+    // Query outside of any transaction, since each bucket is a separate entity group.
+    return ofy().doTransactionless(new Work<FluentIterable<Key<DomainReferenceIndex>>>() {
+      @Override
+      public FluentIterable<Key<DomainReferenceIndex>> run() {
+        ImmutableList.Builder<Iterable<Key<DomainReferenceIndex>>> bucketQueries =
+            new ImmutableList.Builder<>();
+        for (Key<DomainReferenceIndexBucket> bucketKey
+            : DomainReferenceIndexBucket.getAllBuckets(referencedResourceKey)) {
+          bucketQueries.add(
+              ofy().load().type(DomainReferenceIndex.class).ancestor(bucketKey).keys());
+        }
+        return FluentIterable.from(Iterables.concat(bucketQueries.build()));
+      }});
+  }
+
+  /**
+   * Returns the keys of all domains and domain applications indexed as referencing a contact or
+   * host, which are loaded lazily as they are iterated over.
+   *
+   * <p>These are strongly consistent ancestor queries, but they include deleted domains, so callers
+   * should check the loaded domains.
+   */
+  public static FluentIterable<Key<DomainBase>> loadReferencingDomainKeys(
+      Key<? extends EppResource> referencedResourceKey) {
+    return loadIndexKeys(referencedResourceKey)
+        .transform(new Function<Key<DomainReferenceIndex>, Key<DomainBase>>() {
+          @Override
+          public Key<DomainBase> apply(Key<DomainReferenceIndex> indexKey) {
+            // The id of the index entry is the domain key, so there's no need to load the entry.
+            return Key.create(indexKey.getName());
+          }});
+  }
+
+  /** Deletes all index entries of a contact or host that has been deleted. */
+  public static void deleteForResource(final Key<? extends EppResource> referencedResourceKey) {
+    ofy().doTransactionless(new VoidWork() {
+      @Override
+      public void vrun() {
+        ofy().deleteWithoutBackup().keys(loadIndexKeys(referencedResourceKey)).now();
+      }});
+  }
+
+  /**
+   * Deletes the entry of a domain if the domain doesn't exist, has been deleted or no longer
+   * references the contact or host.
+   *
+   * <p>The entry and the domain are checked in a cross-group transaction, which fails if a flow
+   * rewrites the entry or commits the domain in the meantime. Entries written less than
+   * {@link #UNUSED_ENTRY_GRACE_PERIOD} ago are kept, since the flow that wrote one may still commit
+   * the domain after the check. Failures are logged rather than thrown, since the entry is checked
+   * again the next time that it's walked over.
+   */
+  public static void deleteIfUnused(
+      final Key<? extends EppResource> referencedResourceKey,
+      final Key<? extends DomainBase> domainKey) {
+    try {
+      ofy().transactNew(new VoidWork() {
+        @Override
+        public void vrun() {
+          DateTime now = ofy().getTransactionTime();
+          Key<DomainReferenceIndex> indexKey = createKey(referencedResourceKey, domainKey);
+          DomainReferenceIndex index = ofy().load().key(indexKey).now();
+          if (index == null
+              || (index.writeTime != null
+                  && now.isBefore(index.writeTime.plus(UNUSED_ENTRY_GRACE_PERIOD)))) {
+            return;
+          }
+          DomainBase domain = ofy().load().key(domainKey).now();
+          if (domain == null
+              || !now.isBefore(domain.getDeletionTime())
+              || !getReferencedResources(domain).contains(referencedResourceKey)) {
+            ofy().deleteWithoutBackup().key(indexKey);
+          }
+        }});
+    } catch (RuntimeException e) {
+      logger.warningfmt(
+          e, "Failed to delete unused index entry of %s for %s", referencedResourceKey, domainKey);
+    }
+  }
+
+  /**
+   * Returns whether every domain has been indexed, so that the index can be relied on to find all
+   * domains referencing a contact or host.
+   *
+   * <p>This is false until the backfill of domains written before the index existed has finished.
+   */
+  public static boolean isComplete() {
+    // Load outside of any transaction, to not enlist the cross-TLD entity group.
+    return ofy().doTransactionless(new Work<Boolean>() {
+      @Override
+      public Boolean run() {
+        return ofy().load().key(Cursor.createGlobalKey(DOMAIN_REFERENCE_INDEX_BACKFILL)).now()
+            != null;
+      }});
+  }
+
+  private static Set<Key<? extends EppResource>> getReferencedResources(
+      @Nullable DomainBase domain) {
+    return domain == null
+        ? ImmutableSet.<Key<? extends EppResource>>of()
+        : Sets.<Key<? extends EppResource>>union(
+            domain.getNameservers(), domain.getReferencedContacts());
+  }
+}
@@ -0,0 +1,75 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.index;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import google.registry.model.EppResource;
+import google.registry.model.ImmutableObject;
+import google.registry.model.annotations.VirtualEntity;
+import google.registry.model.domain.DomainBase;
+
+/**
+ * A virtual entity to represent the buckets that the {@link DomainReferenceIndex} entries of a
+ * contact or host are split between.
+ *
+ * <p>Each bucket is its own entity group, so that domains referencing a popular contact or host can
+ * be written concurrently, and so that writing the index doesn't touch the contact or host itself.
+ */
+@Entity
+@VirtualEntity
+public class DomainReferenceIndexBucket extends ImmutableObject {
+
+  /**
+   * The number of buckets for each contact or host.
+   *
+   * <p>Changing this moves existing entries to other buckets, so the index has to be backfilled
+   * again afterwards.
+   */
+  static final int NUM_BUCKETS = 16;
+
+  /** The web-safe string of the referenced resource's key, followed by the bucket number. */
+  @Id
+  String id;
+
+  /** Gets the key of the bucket holding the entry for a domain referencing a contact or host. */
+  static Key<DomainReferenceIndexBucket> getBucketKey(
+      Key<? extends EppResource> referencedResourceKey, Key<? extends DomainBase> domainKey) {
+    return getBucketKey(
+        referencedResourceKey,
+        Hashing.consistentHash(domainKey.getString().hashCode(), NUM_BUCKETS));
+  }
+
+  /** Gets the specified numbered bucket key of a contact or host. */
+  static Key<DomainReferenceIndexBucket> getBucketKey(
+      Key<? extends EppResource> referencedResourceKey, int bucketId) {
+    return Key.create(
+        DomainReferenceIndexBucket.class,
+        String.format("%s:%d", referencedResourceKey.getString(), bucketId));
+  }
+
+  /** Returns the keys to all buckets of a contact or host. */
+  static ImmutableList<Key<DomainReferenceIndexBucket>> getAllBuckets(
+      Key<? extends EppResource> referencedResourceKey) {
+    ImmutableList.Builder<Key<DomainReferenceIndexBucket>> builder = new ImmutableList.Builder<>();
+    for (int bucketId = 0; bucketId < NUM_BUCKETS; bucketId++) {
+      builder.add(getBucketKey(referencedResourceKey, bucketId));
+    }
+    return builder.build();
+  }
+}
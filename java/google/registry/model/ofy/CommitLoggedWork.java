@@ -15,17 +15,14 @@
 package google.registry.model.ofy;
 
 import static com.google.common.base.Preconditions.checkState;
-import static com.google.common.base.Predicates.in;
-import static com.google.common.base.Predicates.not;
-import static com.google.common.collect.Maps.filterKeys;
 import static com.google.common.collect.Sets.difference;
-import static com.google.common.collect.Sets.union;
 import static com.googlecode.objectify.ObjectifyService.ofy;
 import static google.registry.model.ofy.CommitLogBucket.loadBucket;
 import static google.registry.util.DateTimeUtils.isBeforeOrAt;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
-import com.google.common.base.Function;
-import com.google.common.collect.FluentIterable;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
@@ -33,16 +30,40 @@ import com.googlecode.objectify.VoidWork;
 import com.googlecode.objectify.Work;
 import google.registry.model.BackupGroupRoot;
 import google.registry.model.ImmutableObject;
+import google.registry.monitoring.metrics.EventMetric;
+import google.registry.monitoring.metrics.LabelDescriptor;
+import google.registry.monitoring.metrics.MetricRegistryImpl;
 import google.registry.util.Clock;
+import google.registry.util.StageTimer;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.joda.time.DateTime;
 
 /** Wrapper for {@link Work} that associates a time with each attempt. */
 class CommitLoggedWork<R> extends VoidWork {
 
+  private static final EventMetric commitLogStageTime =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/ofy/commit_log/stage_time",
+              "Time spent in each stage of saving the commit log of a transaction.",
+              "milliseconds",
+              ImmutableSet.of(LabelDescriptor.create("stage", "The stage of saving the log.")),
+              EventMetric.DEFAULT_FITTER);
+
+  /**
+   * Whether each kind is a {@link BackupGroupRoot}, by kind name.
+   *
+   * <p>This is cached because every key touched or read by a transaction is walked up to its root,
+   * and looking up the entity class of a kind in the Objectify metadata is comparatively slow.
+   */
+  private static final Map<String, Boolean> backupGroupRootKinds = new ConcurrentHashMap<>();
+
   private final Work<R> work;
   private final Clock clock;
 
@@ -73,7 +94,7 @@ class CommitLoggedWork<R> extends VoidWork {
    *
    * <p>These are used along with the manifest to determine whether a transaction succeeded.
    */
-  protected ImmutableSet<ImmutableObject> mutations = ImmutableSet.of();
+  protected ImmutableList<ImmutableObject> mutations = ImmutableList.of();
 
   /** Lifecycle marker to track whether {@link #vrun} has been called. */
   private boolean vrunCalled;
@@ -103,7 +124,7 @@ class CommitLoggedWork<R> extends VoidWork {
 
   ImmutableSet<ImmutableObject> getMutations() {
     checkState(vrunCalled, "Cannot call getMutations() before vrun()");
-    return mutations;
+    return ImmutableSet.copyOf(mutations);
   }
 
   @Override
@@ -114,7 +135,9 @@ class CommitLoggedWork<R> extends VoidWork {
     try {
       Ofy.TRANSACTION_INFO.set(createNewTransactionInfo());
       result = work.run();
-      saveCommitLog(Ofy.TRANSACTION_INFO.get());
+      try (StageTimer.Stage stage = StageTimer.start("commit_log")) {
+        saveCommitLog(Ofy.TRANSACTION_INFO.get());
+      }
     } finally {
       Ofy.TRANSACTION_INFO.set(previous);
     }
@@ -123,44 +146,69 @@ class CommitLoggedWork<R> extends VoidWork {
 
   /** Records all mutations enrolled by this transaction to a {@link CommitLogManifest} entry. */
   private void saveCommitLog(TransactionInfo info) {
-    ImmutableSet<Key<?>> touchedKeys = info.getTouchedKeys();
-    if (touchedKeys.isEmpty()) {
+    ImmutableMap<Key<?>, Object> changes = info.getChanges();
+    if (changes.isEmpty()) {
       return;
     }
+    Stopwatch stopwatch = Stopwatch.createStarted();
     CommitLogBucket bucket = loadBucket(info.bucketKey);
     // Enforce unique monotonic property on CommitLogBucket.getLastWrittenTime().
     if (isBeforeOrAt(info.transactionTime, bucket.getLastWrittenTime())) {
       throw new TimestampInversionException(info.transactionTime, bucket.getLastWrittenTime());
     }
-    Map<Key<BackupGroupRoot>, BackupGroupRoot> rootsForTouchedKeys =
-        getBackupGroupRoots(touchedKeys);
-    Map<Key<BackupGroupRoot>, BackupGroupRoot> rootsForUntouchedKeys =
-        getBackupGroupRoots(difference(getObjectifySessionCacheKeys(), touchedKeys));
+    recordStageTime("load_bucket", stopwatch);
+    // Find the roots of all keys in the transaction, whether touched or merely read, and load them
+    // in a single batch.
+    Set<Key<BackupGroupRoot>> rootKeysForTouchedKeys = getBackupGroupRootKeys(changes.keySet());
+    Set<Key<BackupGroupRoot>> rootKeys = new HashSet<>(rootKeysForTouchedKeys);
+    rootKeys.addAll(
+        getBackupGroupRootKeys(difference(getObjectifySessionCacheKeys(), changes.keySet())));
+    Map<Key<BackupGroupRoot>, BackupGroupRoot> roots = ofy().load().keys(rootKeys);
     // Check the update timestamps of all keys in the transaction, whether touched or merely read.
-    checkBackupGroupRootTimestamps(
-        info.transactionTime,
-        union(rootsForUntouchedKeys.entrySet(), rootsForTouchedKeys.entrySet()));
+    checkBackupGroupRootTimestamps(info.transactionTime, roots.entrySet());
     // Find any BGRs that have children which were touched but were not themselves touched.
-    Set<BackupGroupRoot> untouchedRootsWithTouchedChildren =
-        ImmutableSet.copyOf(filterKeys(rootsForTouchedKeys, not(in(touchedKeys))).values());
-    manifest = CommitLogManifest.create(info.bucketKey, info.transactionTime, info.getDeletes());
-    final Key<CommitLogManifest> manifestKey = Key.create(manifest);
-    mutations = FluentIterable
-        .from(union(info.getSaves(), untouchedRootsWithTouchedChildren))
-        .transform(new Function<Object, ImmutableObject>() {
-            @Override
-            public CommitLogMutation apply(Object saveEntity) {
-              return CommitLogMutation.create(manifestKey, saveEntity);
-            }})
-        .toSet();
+    List<BackupGroupRoot> untouchedRootsWithTouchedChildren = new ArrayList<>();
+    for (Key<BackupGroupRoot> rootKey : rootKeysForTouchedKeys) {
+      if (!changes.containsKey(rootKey) && roots.containsKey(rootKey)) {
+        untouchedRootsWithTouchedChildren.add(roots.get(rootKey));
+      }
+    }
+    recordStageTime("check_roots", stopwatch);
+    ImmutableSet.Builder<Key<?>> deletes = new ImmutableSet.Builder<>();
+    List<Object> saves = new ArrayList<>();
+    for (Entry<Key<?>, Object> change : changes.entrySet()) {
+      if (TransactionInfo.isDelete(change.getValue())) {
+        deletes.add(change.getKey());
+      } else {
+        saves.add(change.getValue());
+      }
+    }
+    saves.addAll(untouchedRootsWithTouchedChildren);
+    manifest = CommitLogManifest.create(info.bucketKey, info.transactionTime, deletes.build());
+    Key<CommitLogManifest> manifestKey = Key.create(manifest);
+    ImmutableList.Builder<ImmutableObject> mutationsBuilder = new ImmutableList.Builder<>();
+    for (Object saveEntity : saves) {
+      mutationsBuilder.add(CommitLogMutation.create(manifestKey, saveEntity));
+    }
+    mutations = mutationsBuilder.build();
+    recordStageTime("create_mutations", stopwatch);
+    // Use a list rather than a set, since the entities are known to be distinct and hashing them
+    // would reflect over all of their fields.
     ofy().save()
-      .entities(new ImmutableSet.Builder<>()
+      .entities(new ImmutableList.Builder<>()
           .add(manifest)
           .add(bucket.asBuilder().setLastWrittenTime(info.transactionTime).build())
           .addAll(mutations)
           .addAll(untouchedRootsWithTouchedChildren)
           .build())
       .now();
+    recordStageTime("save", stopwatch);
+  }
+
+  /** Records the time elapsed on the stopwatch for a stage of saving the commit log, and resets. */
+  private static void recordStageTime(String stage, Stopwatch stopwatch) {
+    commitLogStageTime.record(stopwatch.elapsed(MILLISECONDS), stage);
+    stopwatch.reset().start();
   }
 
   /**
@@ -190,13 +238,11 @@ class CommitLoggedWork<R> extends VoidWork {
     }
   }
 
-  /** Find the set of {@link BackupGroupRoot} ancestors of the given keys. */
-  private Map<Key<BackupGroupRoot>, BackupGroupRoot> getBackupGroupRoots(Iterable<Key<?>> keys) {
+  /** Find the set of keys of the {@link BackupGroupRoot} ancestors of the given keys. */
+  private static Set<Key<BackupGroupRoot>> getBackupGroupRootKeys(Iterable<Key<?>> keys) {
     Set<Key<BackupGroupRoot>> rootKeys = new HashSet<>();
     for (Key<?> key : keys) {
-      while (key != null
-          && !BackupGroupRoot.class
-              .isAssignableFrom(ofy().factory().getMetadata(key).getEntityClass())) {
+      while (key != null && !isBackupGroupRootKind(key)) {
         key = key.getParent();
       }
       if (key != null) {
@@ -205,6 +251,17 @@ class CommitLoggedWork<R> extends VoidWork {
         rootKeys.add(rootKey);
       }
     }
-    return ImmutableMap.copyOf(ofy().load().keys(rootKeys));
+    return rootKeys;
+  }
+
+  /** Returns whether the kind of the key is a {@link BackupGroupRoot}. */
+  private static boolean isBackupGroupRootKind(Key<?> key) {
+    Boolean isRoot = backupGroupRootKinds.get(key.getKind());
+    if (isRoot == null) {
+      isRoot = BackupGroupRoot.class
+          .isAssignableFrom(ofy().factory().getMetadata(key).getEntityClass());
+      backupGroupRootKinds.put(key.getKind(), isRoot);
+    }
+    return isRoot;
   }
 }
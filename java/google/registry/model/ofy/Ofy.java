@@ -45,6 +45,7 @@ import google.registry.util.Clock;
 import google.registry.util.FormattingLogger;
 import google.registry.util.NonFinalForTesting;
 import google.registry.util.Sleeper;
+import google.registry.util.StageTimer;
 import google.registry.util.SystemClock;
 import google.registry.util.SystemSleeper;
 import java.lang.annotation.Annotation;
@@ -195,7 +196,12 @@ public class Ofy {
   /** Execute a transaction. */
   public <R> R transact(Work<R> work) {
     // If we are already in a transaction, don't wrap in a CommitLoggedWork.
-    return inTransaction() ? work.run() : transactNew(work);
+    if (inTransaction()) {
+      return work.run();
+    }
+    try (StageTimer.Stage stage = StageTimer.start("transaction")) {
+      return transactNew(work);
+    }
   }
 
   /** Pause the current transaction (if any) and complete this one before returning to it. */
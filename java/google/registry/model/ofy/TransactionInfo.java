@@ -16,16 +16,13 @@ package google.registry.model.ofy;
 
 import static com.google.common.base.Functions.constant;
 import static com.google.common.base.Preconditions.checkState;
-import static com.google.common.collect.Maps.filterValues;
 import static com.google.common.collect.Maps.toMap;
 import static com.googlecode.objectify.ObjectifyService.ofy;
 import static google.registry.model.ofy.CommitLogBucket.getArbitraryBucketId;
 
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
-import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
 import java.util.Map;
 import org.joda.time.DateTime;
@@ -79,18 +76,13 @@ class TransactionInfo {
     changesBuilder.putAll(toMap(keys, constant(TransactionInfo.Delete.SENTINEL)));
   }
 
-  ImmutableSet<Key<?>> getTouchedKeys() {
-    return ImmutableSet.copyOf(changesBuilder.build().keySet());
+  /** Returns the saves and deletes of the transaction, with deletes mapped to a sentinel. */
+  ImmutableMap<Key<?>, Object> getChanges() {
+    return changesBuilder.build();
   }
 
-  ImmutableSet<Key<?>> getDeletes() {
-    return ImmutableSet.copyOf(filterValues(changesBuilder.build(), IS_DELETE).keySet());
-  }
-
-  ImmutableSet<Object> getSaves() {
-    return FluentIterable
-        .from(changesBuilder.build().values())
-        .filter(Predicates.not(IS_DELETE))
-        .toSet();
+  /** Returns whether a value in {@link #getChanges} represents a delete. */
+  static boolean isDelete(Object change) {
+    return IS_DELETE.apply(change);
   }
 }
@@ -15,6 +15,7 @@
 package google.registry.model.pricing;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
 import org.joda.money.Money;
 import org.joda.time.DateTime;
 
@@ -34,6 +35,16 @@ public interface PremiumPricingEngine {
    */
   public DomainPrices getDomainPrices(String fullyQualifiedDomainName, DateTime priceTime);
 
+  /**
+   * Returns the prices for the given fully qualified domain names, which must all be on the given
+   * TLD, at the given time, keyed by domain name.
+   *
+   * <p>This returns the same prices as {@link #getDomainPrices(String, DateTime)} does for each of
+   * the names, but it lets the engine look up what it needs for the TLD once for all of them.
+   */
+  public ImmutableMap<String, DomainPrices> getAllDomainPrices(
+      String tld, Iterable<String> fullyQualifiedDomainNames, DateTime priceTime);
+
   /**
    * A class containing information on premium prices for a specific domain name.
    *
@@ -24,6 +24,8 @@ import static google.registry.util.DomainNameUtils.getTldFromDomainName;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.net.InternetDomainName;
 import google.registry.model.registry.Registry;
 import google.registry.model.registry.label.PremiumList;
@@ -42,15 +44,46 @@ public final class StaticPremiumListPricingEngine implements PremiumPricingEngin
   @Override
   public DomainPrices getDomainPrices(String fullyQualifiedDomainName, DateTime priceTime) {
     String tld = getTldFromDomainName(fullyQualifiedDomainName);
-    String label = InternetDomainName.from(fullyQualifiedDomainName).parts().get(0);
     Registry registry = Registry.get(checkNotNull(tld, "tld"));
-    Optional<Money> premiumPrice = Optional.<Money>absent();
-    if (registry.getPremiumList() != null) {
-      String listName = registry.getPremiumList().getName();
-      Optional<PremiumList> premiumList = PremiumList.get(listName);
-      checkState(premiumList.isPresent(), "Could not load premium list: %s", listName);
-      premiumPrice = premiumList.get().getPremiumPrice(label);
+    return getDomainPrices(
+        registry, loadPremiumList(registry), fullyQualifiedDomainName, priceTime);
+  }
+
+  @Override
+  public ImmutableMap<String, DomainPrices> getAllDomainPrices(
+      String tld, Iterable<String> fullyQualifiedDomainNames, DateTime priceTime) {
+    Registry registry = Registry.get(checkNotNull(tld, "tld"));
+    Optional<PremiumList> premiumList = loadPremiumList(registry);
+    ImmutableMap.Builder<String, DomainPrices> prices = new ImmutableMap.Builder<>();
+    for (String fullyQualifiedDomainName : ImmutableSet.copyOf(fullyQualifiedDomainNames)) {
+      prices.put(
+          fullyQualifiedDomainName,
+          getDomainPrices(registry, premiumList, fullyQualifiedDomainName, priceTime));
     }
+    return prices.build();
+  }
+
+  /** Returns the premium list of the given TLD, or absent if it doesn't have one. */
+  private static Optional<PremiumList> loadPremiumList(Registry registry) {
+    if (registry.getPremiumList() == null) {
+      return Optional.<PremiumList>absent();
+    }
+    String listName = registry.getPremiumList().getName();
+    Optional<PremiumList> premiumList = PremiumList.get(listName);
+    checkState(premiumList.isPresent(), "Could not load premium list: %s", listName);
+    return premiumList;
+  }
+
+  private static DomainPrices getDomainPrices(
+      Registry registry,
+      Optional<PremiumList> premiumList,
+      String fullyQualifiedDomainName,
+      DateTime priceTime) {
+    String tld = registry.getTldStr();
+    String label = InternetDomainName.from(fullyQualifiedDomainName).parts().get(0);
+    Optional<Money> premiumPrice = premiumList.isPresent()
+        ? premiumList.get().getPremiumPrice(label)
+        : Optional.<Money>absent();
     boolean isNameCollisionInSunrise =
         registry.getTldState(priceTime).equals(SUNRISE)
             && getReservation(label, tld) == NAME_COLLISION;
@@ -25,13 +25,11 @@ import static google.registry.util.CollectionUtils.nullToEmptyImmutableCopy;
 import static google.registry.util.DateTimeUtils.END_OF_TIME;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
 import static google.registry.util.PreconditionsUtils.checkArgumentNotNull;
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.joda.money.CurrencyUnit.USD;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
-import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableSet;
@@ -209,11 +207,11 @@ public class Registry extends ImmutableObject implements Buildable {
   }
 
   /** A cache that loads the {@link Registry} for a given tld. */
-  private static final LoadingCache<String, Optional<Registry>> CACHE = CacheBuilder.newBuilder()
-        .expireAfterWrite(
-            RegistryEnvironment.get().config().getSingletonCacheRefreshDuration().getMillis(),
-            MILLISECONDS)
-        .build(new CacheLoader<String, Optional<Registry>>() {
+  private static final LoadingCache<String, Optional<Registry>> CACHE =
+      RegistryCaches.newRefreshingCache(
+          "registry",
+          RegistryEnvironment.get().config().getSingletonCacheRefreshDuration(),
+          new CacheLoader<String, Optional<Registry>>() {
             @Override
             public Optional<Registry> load(final String tld) {
               // Enter a transactionless context briefly; we don't want to enroll every TLD in a
@@ -0,0 +1,263 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.registry;
+
+import static com.google.appengine.api.ThreadManager.backgroundThreadFactory;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.model.registry.Registries.getTlds;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.joda.time.Duration.ZERO;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+import google.registry.model.registry.label.PremiumList;
+import google.registry.model.registry.label.ReservedList;
+import google.registry.monitoring.metrics.EventMetric;
+import google.registry.monitoring.metrics.LabelDescriptor;
+import google.registry.monitoring.metrics.Metric;
+import google.registry.monitoring.metrics.MetricRegistryImpl;
+import google.registry.util.FormattingLogger;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import org.joda.time.Duration;
+
+/**
+ * The in-memory caches of {@link Registry} entities and of the premium and reserved lists that they
+ * use, all of which are read on every domain check and create.
+ *
+ * <p>Entries are refreshed in the background once they are older than the configured duration,
+ * and the stale value keeps being served until the refresh completes, so a cache expiry never
+ * blocks a request on a Datastore load. Only one refresh of an entry is in flight at a time, and
+ * if it fails the stale value is kept and the refresh retried on the next lookup. Since refreshes
+ * are only triggered by lookups, entries that haven't been refreshed for
+ * {@link #EXPIRATION_MULTIPLE} times the refresh duration are dropped instead, so that an idle
+ * instance doesn't serve arbitrarily old data.
+ */
+public final class RegistryCaches {
+
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
+  /** How many refresh durations an entry lives for without being refreshed. */
+  private static final int EXPIRATION_MULTIPLE = 2;
+
+  /** All caches created by this class, keyed by name, for reporting their statistics. */
+  private static final Map<String, Cache<?, ?>> caches = new ConcurrentHashMap<>();
+
+  /** The number of background threads shared by all caches for refreshing entries. */
+  private static final int REFRESH_THREADS = 2;
+
+  private static final LabelDescriptor CACHE_LABEL =
+      LabelDescriptor.create("cache", "The name of the cache.");
+
+  private static final EventMetric loadTime =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/registry/cache/load_time",
+              "Time to load or refresh an entry of a TLD or label list cache.",
+              "milliseconds",
+              ImmutableSet.of(CACHE_LABEL),
+              EventMetric.DEFAULT_FITTER);
+
+  @SuppressWarnings("unused")
+  private static final Metric<Long> lookups =
+      MetricRegistryImpl.getDefault()
+          .newGauge(
+              "/registry/cache/lookups",
+              "Count of lookups in a TLD or label list cache since the instance started.",
+              "count",
+              ImmutableSet.of(
+                  CACHE_LABEL,
+                  LabelDescriptor.create("result", "Whether the lookup was a hit or a miss.")),
+              new Supplier<ImmutableMap<ImmutableList<String>, Long>>() {
+                @Override
+                public ImmutableMap<ImmutableList<String>, Long> get() {
+                  ImmutableMap.Builder<ImmutableList<String>, Long> counts =
+                      new ImmutableMap.Builder<>();
+                  for (Map.Entry<String, Cache<?, ?>> entry : caches.entrySet()) {
+                    CacheStats stats = entry.getValue().stats();
+                    counts.put(ImmutableList.of(entry.getKey(), "hit"), stats.hitCount());
+                    counts.put(ImmutableList.of(entry.getKey(), "miss"), stats.missCount());
+                  }
+                  return counts.build();
+                }
+              },
+              Long.class);
+
+  /**
+   * The pool of background threads that refreshes run on, or absent where background threads
+   * aren't available, e.g. outside of App Engine.
+   *
+   * <p>This is created on first use, since background threads can only be created from a thread
+   * that App Engine knows about.
+   */
+  private static final Supplier<Optional<Executor>> backgroundExecutor =
+      Suppliers.memoize(new Supplier<Optional<Executor>>() {
+        @Override
+        public Optional<Executor> get() {
+          ThreadFactory threadFactory;
+          try {
+            threadFactory = backgroundThreadFactory();
+          } catch (RuntimeException e) {
+            threadFactory = null;
+          }
+          return threadFactory == null
+              ? Optional.<Executor>absent()
+              : Optional.<Executor>of(Executors.newFixedThreadPool(REFRESH_THREADS, threadFactory));
+        }});
+
+  /**
+   * Runs refreshes on the shared pool of background threads, so that they don't hold up or have to
+   * finish within the request that triggered them. Where there is no pool, the refresh runs inline
+   * instead.
+   */
+  private static final Executor REFRESH_EXECUTOR = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      Optional<Executor> executor = backgroundExecutor.get();
+      if (executor.isPresent()) {
+        executor.get().execute(command);
+      } else {
+        command.run();
+      }
+    }};
+
+  /**
+   * Returns a new cache that is refreshed in the background every {@code refreshDuration}.
+   *
+   * <p>A zero duration disables caching altogether, which tests rely on to see their changes
+   * immediately. Refreshes already run in the background, so a loader that overrides
+   * {@link CacheLoader#reload} to reuse the stale value should do so synchronously.
+   *
+   * <p>Every load and refresh runs with a fresh Objectify session cache. The background threads
+   * otherwise keep one session each for as long as they live, so refreshes would keep returning
+   * whatever entity their thread's session first loaded, and a load on a request thread would
+   * return whatever the request had already loaded.
+   */
+  public static <K, V> LoadingCache<K, V> newRefreshingCache(
+      final String name, Duration refreshDuration, final CacheLoader<K, V> loader) {
+    CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().recordStats();
+    if (refreshDuration.isEqual(ZERO)) {
+      builder.expireAfterWrite(0, MILLISECONDS);
+    } else {
+      builder
+          .refreshAfterWrite(refreshDuration.getMillis(), MILLISECONDS)
+          .expireAfterWrite(refreshDuration.getMillis() * EXPIRATION_MULTIPLE, MILLISECONDS);
+    }
+    LoadingCache<K, V> cache = builder.build(CacheLoader.asyncReloading(
+        new CacheLoader<K, V>() {
+          @Override
+          public V load(final K key) throws Exception {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            try {
+              return callWithFreshSessionCache(new Callable<V>() {
+                @Override
+                public V call() throws Exception {
+                  return loader.load(key);
+                }});
+            } finally {
+              loadTime.record(stopwatch.elapsed(MILLISECONDS), name);
+            }
+          }
+
+          /** Passes the stale value on, so that the loader can reuse it to refresh the entry. */
+          @Override
+          public ListenableFuture<V> reload(final K key, final V oldValue) throws Exception {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            try {
+              return callWithFreshSessionCache(new Callable<ListenableFuture<V>>() {
+                @Override
+                public ListenableFuture<V> call() throws Exception {
+                  return loader.reload(key, oldValue);
+                }});
+            } finally {
+              loadTime.record(stopwatch.elapsed(MILLISECONDS), name);
+            }
+          }},
+        REFRESH_EXECUTOR));
+    caches.put(name, cache);
+    return cache;
+  }
+
+  /** Calls a loader with a fresh session cache, passing on whatever it throws. */
+  private static <V> V callWithFreshSessionCache(final Callable<V> callable) throws Exception {
+    try {
+      return ofy().doWithFreshSessionCache(new Work<V>() {
+        @Override
+        public V run() {
+          try {
+            return callable.call();
+          } catch (Exception e) {
+            throw new LoaderException(e);
+          }
+        }});
+    } catch (LoaderException e) {
+      throw e.exception;
+    }
+  }
+
+  /** Carries an exception thrown by a loader out of a {@link Work}, which can't throw it. */
+  private static class LoaderException extends RuntimeException {
+    final Exception exception;
+
+    LoaderException(Exception exception) {
+      super(exception);
+      this.exception = exception;
+    }
+  }
+
+  /**
+   * Loads every TLD and the premium and reserved lists it uses into the caches.
+   *
+   * <p>This is called when an instance starts up, so that the first requests it serves don't have
+   * to wait for these loads. Failures are logged rather than thrown, since the caches will load
+   * anything that is missing on demand anyway.
+   */
+  public static void warmUp() {
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    for (String tld : getTlds()) {
+      try {
+        Registry registry = Registry.get(tld);
+        if (registry.getPremiumList() != null) {
+          PremiumList.get(registry.getPremiumList().getName());
+        }
+        for (Key<ReservedList> reservedList : registry.getReservedLists()) {
+          ReservedList.load(reservedList);
+        }
+      } catch (RuntimeException e) {
+        logger.warningfmt(e, "Failed to warm up the caches for TLD %s", tld);
+      }
+    }
+    logger.infofmt("Warmed up the TLD and label list caches in %s", stopwatch);
+  }
+
+  private RegistryCaches() {}
+}
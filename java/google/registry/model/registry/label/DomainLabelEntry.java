@@ -47,6 +47,16 @@ public abstract class DomainLabelEntry<T extends Comparable<?>, D extends Domain
    */
   public abstract T getValue();
 
+  /**
+   * Returns whether this entry has the same content as another, ignoring where it is stored.
+   *
+   * <p>This is used when diffing two versions of a list, whose entries may be stored under
+   * different parents.
+   */
+  boolean hasSameContentAs(D other) {
+    return equals(other);
+  }
+
   @Override
   @SuppressWarnings("unchecked")
   public int compareTo(D other) {
@@ -0,0 +1,109 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.registry.label;
+
+import com.google.common.base.Equivalence;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.MapDifference;
+import com.google.common.collect.MapDifference.ValueDifference;
+import com.google.common.collect.Maps;
+import google.registry.model.registry.label.PremiumList.PremiumListEntry;
+import java.util.Map;
+
+/**
+ * The labels added, removed and changed between two versions of the entries of a
+ * {@link BaseDomainLabelList}.
+ *
+ * @param <R> The type of domain label entry being diffed, e.g. {@link PremiumListEntry}.
+ */
+public final class DomainLabelListDiff<R extends DomainLabelEntry<?, R>> {
+
+  private final ImmutableMap<String, R> added;
+  private final ImmutableMap<String, R> removed;
+  private final ImmutableMap<String, R> changed;
+
+  private DomainLabelListDiff(
+      ImmutableMap<String, R> added,
+      ImmutableMap<String, R> removed,
+      ImmutableMap<String, R> changed) {
+    this.added = added;
+    this.removed = removed;
+    this.changed = changed;
+  }
+
+  /** Computes the diff between an old and a new set of entries, keyed by label. */
+  public static <R extends DomainLabelEntry<?, R>> DomainLabelListDiff<R> create(
+      Map<String, R> oldEntries, Map<String, R> newEntries) {
+    MapDifference<String, R> difference =
+        Maps.difference(oldEntries, newEntries, new Equivalence<R>() {
+          @Override
+          protected boolean doEquivalent(R entry, R other) {
+            return entry.hasSameContentAs(other);
+          }
+
+          @Override
+          protected int doHash(R entry) {
+            return entry.getLabel().hashCode();
+          }});
+    ImmutableMap.Builder<String, R> changed = new ImmutableMap.Builder<>();
+    for (Map.Entry<String, ValueDifference<R>> entry : difference.entriesDiffering().entrySet()) {
+      changed.put(entry.getKey(), entry.getValue().rightValue());
+    }
+    return new DomainLabelListDiff<>(
+        ImmutableMap.copyOf(difference.entriesOnlyOnRight()),
+        ImmutableMap.copyOf(difference.entriesOnlyOnLeft()),
+        changed.build());
+  }
+
+  /** Returns the entries whose labels are only in the new version. */
+  public ImmutableMap<String, R> getAdded() {
+    return added;
+  }
+
+  /** Returns the old entries whose labels are no longer in the new version. */
+  public ImmutableMap<String, R> getRemoved() {
+    return removed;
+  }
+
+  /** Returns the new versions of entries whose labels are in both versions but have changed. */
+  public ImmutableMap<String, R> getChanged() {
+    return changed;
+  }
+
+  /** Returns all labels that were added, removed or changed. */
+  public ImmutableSet<String> getLabels() {
+    return new ImmutableSet.Builder<String>()
+        .addAll(added.keySet())
+        .addAll(removed.keySet())
+        .addAll(changed.keySet())
+        .build();
+  }
+
+  /** Returns the total number of labels that were added, removed or changed. */
+  public int size() {
+    return added.size() + removed.size() + changed.size();
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "%d added, %d removed, %d changed", added.size(), removed.size(), changed.size());
+  }
+}
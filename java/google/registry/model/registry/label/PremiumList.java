@@ -19,24 +19,31 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.collect.Iterables.partition;
+import static com.google.common.collect.Sets.difference;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
 import static google.registry.model.common.EntityGroupRoot.getCrossTldKey;
 import static google.registry.model.ofy.ObjectifyService.allocateId;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.ofy.Ofy.RECOMMENDED_MEMCACHE_EXPIRATION;
+import static google.registry.model.registry.RegistryCaches.newRefreshingCache;
 import static google.registry.util.CollectionUtils.nullToEmpty;
-import static google.registry.util.CollectionUtils.nullToEmptyImmutableCopy;
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Splitter;
-import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.VoidWork;
@@ -45,7 +52,6 @@ import com.googlecode.objectify.annotation.Cache;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.annotation.Ignore;
-import com.googlecode.objectify.annotation.OnLoad;
 import com.googlecode.objectify.annotation.Parent;
 import com.googlecode.objectify.cmd.Query;
 import google.registry.config.RegistryEnvironment;
@@ -53,9 +59,12 @@ import google.registry.model.Buildable;
 import google.registry.model.ImmutableObject;
 import google.registry.model.annotations.VirtualEntity;
 import google.registry.model.registry.Registry;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ExecutionException;
 import javax.annotation.Nullable;
 import org.joda.money.Money;
@@ -74,9 +83,38 @@ public final class PremiumList extends BaseDomainLabelList<Money, PremiumList.Pr
   /** Stores the revision key for the set of currently used premium list entry entities. */
   Key<PremiumListRevision> revisionKey;
 
+  /**
+   * The labels whose entries the latest save of this list wrote or deleted in place, in the current
+   * revision, if that save edited the version of the list last updated at {@link #deltaBaseTime}.
+   */
+  Set<String> deltaLabels;
+
+  /**
+   * The update time of the version of this list that {@link #deltaLabels} were applied to, or null
+   * if the latest save wrote a new revision.
+   */
+  DateTime deltaBaseTime;
+
+  /**
+   * A hash of the comments of the entries of the current version of this list.
+   *
+   * <p>The price index doesn't hold comments, so this is how a save tells whether they changed
+   * without loading the existing entries.
+   */
+  String commentsHash;
+
+  /**
+   * The entries of a list that was built in memory and hasn't been saved yet.
+   *
+   * <p>This is null for lists loaded from Datastore, which only hold {@link #premiumPriceIndex}.
+   */
   @Ignore
   Map<String, PremiumListEntry> premiumListMap;
 
+  /** A compact index of the prices in this list, used for all price lookups. */
+  @Ignore
+  PremiumPriceIndex premiumPriceIndex;
+
   /** Virtual parent entity for premium list entry entities associated with a single revision. */
   @Entity
   @VirtualEntity
@@ -95,25 +133,48 @@ public final class PremiumList extends BaseDomainLabelList<Money, PremiumList.Pr
     }
   }
 
-  private static LoadingCache<String, PremiumList> cache = CacheBuilder
-      .newBuilder()
-      .expireAfterWrite(
-          RegistryEnvironment.get().config().getDomainLabelListCacheDuration().getMillis(),
-          MILLISECONDS)
-      .build(new CacheLoader<String, PremiumList>() {
+  private static LoadingCache<String, PremiumList> cache = newRefreshingCache(
+      "premium_list",
+      RegistryEnvironment.get().config().getDomainLabelListCacheDuration(),
+      new CacheLoader<String, PremiumList>() {
+        @Override
+        public PremiumList load(String listName) {
+          return loadWithPriceIndex(listName, null);
+        }
+
         @Override
-        public PremiumList load(final String listName) {
-          return ofy().doTransactionless(new Work<PremiumList>() {
-            @Override
-            public PremiumList run() {
-              return ofy().load()
-                  .type(PremiumList.class)
-                  .parent(getCrossTldKey())
-                  .id(listName)
-                  .now();
-            }});
+        public ListenableFuture<PremiumList> reload(String listName, PremiumList oldValue) {
+          return immediateFuture(loadWithPriceIndex(listName, oldValue));
         }});
 
+  /**
+   * Loads the list with the given name along with its price index, or returns null if there is no
+   * such list.
+   *
+   * <p>If the cached version of the list is given, and the list has only been edited in place
+   * since, then the cached price index is updated with just the edited entries, rather than being
+   * rebuilt from all of the entries of the list.
+   */
+  @VisibleForTesting
+  @Nullable
+  static PremiumList loadWithPriceIndex(
+      final String listName, @Nullable final PremiumList cachedList) {
+    return ofy().doTransactionless(new Work<PremiumList>() {
+      @Override
+      public PremiumList run() {
+        PremiumList premiumList = ofy().load()
+            .type(PremiumList.class)
+            .parent(getCrossTldKey())
+            .id(listName)
+            .now();
+        if (premiumList == null) {
+          return null;
+        }
+        premiumList.premiumPriceIndex = premiumList.loadPremiumPriceIndex(cachedList);
+        return premiumList;
+      }});
+  }
+
   /**
    * Gets the premium price for the specified label on the specified tld, or returns Optional.absent
    * if there is no premium price.
@@ -131,32 +192,105 @@ public final class PremiumList extends BaseDomainLabelList<Money, PremiumList.Pr
     return premiumList.get().getPremiumPrice(label);
   }
 
-  @OnLoad
-  private void loadPremiumListMap() {
+  /**
+   * Loads the price index of this list, reusing the index of the given cached version of the list
+   * where possible.
+   *
+   * <p>A full load streams the entries of the current revision straight into the index rather
+   * than retaining them, so that a loaded list doesn't hold on to an entity and a {@link Money} for
+   * every label.
+   */
+  private PremiumPriceIndex loadPremiumPriceIndex(@Nullable PremiumList cachedList) {
+    if (cachedList != null
+        && cachedList.premiumPriceIndex != null
+        && Objects.equals(revisionKey, cachedList.revisionKey)) {
+      if (Objects.equals(lastUpdateTime, cachedList.lastUpdateTime)) {
+        return cachedList.premiumPriceIndex;
+      }
+      if (deltaBaseTime != null && deltaBaseTime.equals(cachedList.lastUpdateTime)) {
+        return applyDelta(cachedList.premiumPriceIndex);
+      }
+    }
     try {
-      ImmutableMap.Builder<String, PremiumListEntry> entriesMap = new ImmutableMap.Builder<>();
+      PremiumPriceIndex.Builder index = new PremiumPriceIndex.Builder();
       if (revisionKey != null) {
         for (PremiumListEntry entry : loadEntriesForCurrentRevision()) {
-          entriesMap.put(entry.getLabel(), entry);
+          index.put(entry.getLabel(), entry.getValue());
         }
       }
-      premiumListMap = entriesMap.build();
+      return index.build();
     } catch (Exception e) {
       throw new RuntimeException("Could not retrieve entries for premium list " + name, e);
     }
   }
 
+  /**
+   * Returns the given index of the previous version of this list, updated with the entries that
+   * were written or deleted in place by the latest save.
+   *
+   * <p>Applying the same entries again leaves the index unchanged, so this is also correct for an
+   * index that already included some of them.
+   */
+  private PremiumPriceIndex applyDelta(PremiumPriceIndex index) {
+    if (nullToEmpty(deltaLabels).isEmpty()) {
+      return index;
+    }
+    ImmutableList.Builder<Key<PremiumListEntry>> keys = new ImmutableList.Builder<>();
+    for (String label : nullToEmpty(deltaLabels)) {
+      keys.add(Key.create(revisionKey, PremiumListEntry.class, label));
+    }
+    Map<String, Money> updatedPrices = new HashMap<>();
+    for (PremiumListEntry entry : ofy().load().keys(keys.build()).values()) {
+      updatedPrices.put(entry.getLabel(), entry.getValue());
+    }
+    return index.withChanges(
+        updatedPrices, difference(nullToEmpty(deltaLabels), updatedPrices.keySet()));
+  }
+
+  /**
+   * Returns the price index of this list.
+   *
+   * <p>Lists loaded through {@link #get} always have their index, but a list loaded from Datastore
+   * some other way loads it on first use.
+   */
+  private PremiumPriceIndex getPremiumPriceIndex() {
+    if (premiumPriceIndex == null) {
+      premiumPriceIndex = loadPremiumPriceIndex(null);
+    }
+    return premiumPriceIndex;
+  }
+
   /**
    * Gets the premium price for the specified label in the current PremiumList, or returns
    * Optional.absent if there is no premium price.
    */
   public Optional<Money> getPremiumPrice(String label) {
-    return Optional.fromNullable(
-        premiumListMap.containsKey(label) ? premiumListMap.get(label).getValue() : null);
+    return getPremiumPriceIndex().getPrice(label);
   }
 
-  public Map<String, PremiumListEntry> getPremiumListEntries() {
-    return nullToEmptyImmutableCopy(premiumListMap);
+  /**
+   * Returns the entries of this list.
+   *
+   * <p>Lists loaded from Datastore don't retain their entries, so this loads all of them from
+   * Datastore on every call, and callers should hold on to the result rather than calling it again.
+   * It is intended for tools, not for the price lookup path.
+   */
+  public Map<String, PremiumListEntry> loadPremiumListEntries() {
+    if (premiumListMap != null) {
+      return ImmutableMap.copyOf(premiumListMap);
+    }
+    ImmutableMap.Builder<String, PremiumListEntry> entriesMap = new ImmutableMap.Builder<>();
+    if (revisionKey != null) {
+      for (PremiumListEntry entry : loadEntriesForCurrentRevision()) {
+        entriesMap.put(entry.getLabel(), entry);
+      }
+    }
+    return entriesMap.build();
+  }
+
+  /** Returns the number of entries in this list, without loading them. */
+  public int getPremiumListEntryCount() {
+    return getPremiumPriceIndex().size();
   }
 
   public Key<PremiumListRevision> getRevisionKey() {
@@ -180,7 +314,7 @@ public final class PremiumList extends BaseDomainLabelList<Money, PremiumList.Pr
    */
   public static boolean exists(String name) {
     try {
-      // Use DatastoreService to bypass the @OnLoad method that loads the premium list entries.
+      // Use DatastoreService to bypass Objectify's session and memcache caches.
       getDatastoreService().get(Key.create(getCrossTldKey(), PremiumList.class, name).getRaw());
       return true;
     } catch (EntityNotFoundException e) {
@@ -207,6 +341,14 @@ public final class PremiumList extends BaseDomainLabelList<Money, PremiumList.Pr
       return price;
     }
 
+    @Override
+    boolean hasSameContentAs(PremiumListEntry other) {
+      // Entries of different revisions of a list differ in their parent, which isn't content.
+      return Objects.equals(label, other.label)
+          && Objects.equals(price, other.price)
+          && Objects.equals(comment, other.comment);
+    }
+
     @Override
     public Builder asBuilder() {
       return new Builder(clone(this));
@@ -258,18 +400,47 @@ public final class PremiumList extends BaseDomainLabelList<Money, PremiumList.Pr
    * <p> The flow here is: save the new premium list entries parented on that revision entity,
    * save/update the PremiumList, and then delete the old premium list entries associated with the
    * old revision.
+   *
+   * <p>If the entries differ from those of the existing list in at most
+   * {@link #TRANSACTION_BATCH_SIZE} labels, then only those labels are written, in place in the
+   * existing revision. The entries are in the entity group of the PremiumList, so they are written
+   * in the same transaction as it, and readers see either all of the edit or none of it. The
+   * edited labels are recorded on the PremiumList, so that other instances refreshing their cached
+   * copy load just those entries into its price index. This keeps the cost of small edits to large
+   * lists proportional to the size of the edit.
+   *
+   * <p>The edited labels are found by comparing the price indexes of the existing and new lists,
+   * without loading the existing entries. Comments aren't in the price index, so if any comment
+   * changed, which {@link #commentsHash} tells, then all of the entries are written instead.
    */
   public PremiumList saveAndUpdateEntries() {
     final Optional<PremiumList> oldPremiumList = get(name);
     // Only update entries if there's actually a new revision of the list to save (which there will
     // be if the list content changes, vs just the description/metadata).
-    boolean entriesToUpdate =
+    final boolean entriesToUpdate =
         !oldPremiumList.isPresent()
             || !Objects.equals(oldPremiumList.get().revisionKey, this.revisionKey);
-    // If needed, save the new child entities in a series of transactions.
-    if (entriesToUpdate) {
+    Map<String, PremiumListEntry> newEntries =
+        entriesToUpdate ? loadPremiumListEntries() : ImmutableMap.<String, PremiumListEntry>of();
+    // Compare the price indexes of the two versions, which are both in memory, rather than loading
+    // the existing entries. If any comment changed, the whole list is written instead.
+    Optional<ImmutableSet<String>> changedLabels = Optional.absent();
+    if (entriesToUpdate
+        && oldPremiumList.isPresent()
+        && premiumListMap != null
+        && Objects.equals(commentsHash, oldPremiumList.get().commentsHash)) {
+      changedLabels = oldPremiumList.get().getPremiumPriceIndex()
+          .getChangedLabels(getPremiumPriceIndex(), TRANSACTION_BATCH_SIZE);
+    }
+    // A small diff is applied to the existing revision, so the list keeps its revision key.
+    final PremiumList toSave = changedLabels.isPresent()
+        ? withRevisionKey(oldPremiumList.get().revisionKey)
+        : this;
+    final ImmutableSet<String> editedLabels = changedLabels.orNull();
+    // If needed, save all of the new child entities in a series of transactions.
+    if (entriesToUpdate && editedLabels == null) {
       for (final List<PremiumListEntry> batch
-          : partition(premiumListMap.values(), TRANSACTION_BATCH_SIZE)) {
+          : partition(newEntries.values(), TRANSACTION_BATCH_SIZE)) {
         ofy().transactNew(new VoidWork() {
           @Override
           public void vrun() {
@@ -284,27 +455,108 @@ public final class PremiumList extends BaseDomainLabelList<Money, PremiumList.Pr
           DateTime now = ofy().getTransactionTime();
           // Assert that the premium list hasn't been changed since we started this process.
           checkState(
-              Objects.equals(
+              isSameSavedVersion(
                   ofy().load().type(PremiumList.class).parent(getCrossTldKey()).id(name).now(),
                   oldPremiumList.orNull()),
               "PremiumList was concurrently edited");
-          PremiumList newList = PremiumList.this.asBuilder()
+          Builder newListBuilder = toSave.asBuilder()
               .setLastUpdateTime(now)
               .setCreationTime(
-                  oldPremiumList.isPresent() ? oldPremiumList.get().creationTime : now)
-              .build();
+                  oldPremiumList.isPresent() ? oldPremiumList.get().creationTime : now);
+          if (editedLabels != null) {
+            toSave.saveDiff(editedLabels);
+            newListBuilder.setDelta(oldPremiumList.get().lastUpdateTime, editedLabels);
+          } else if (oldPremiumList.isPresent() && !entriesToUpdate) {
+            // Only the metadata changed, so cached price indexes of the old version still apply.
+            newListBuilder.setDelta(
+                oldPremiumList.get().lastUpdateTime, ImmutableSet.<String>of());
+          } else {
+            newListBuilder.setDelta(null, ImmutableSet.<String>of());
+          }
+          PremiumList newList = newListBuilder.build();
           ofy().save().entity(newList);
           return newList;
         }});
-    // Update the cache.
-    PremiumList.cache.put(name, updated);
+    // Update the cache, unless this list was loaded without its price index.
+    if (updated.premiumPriceIndex != null) {
+      PremiumList.cache.put(name, updated.withoutEntries());
+    } else {
+      PremiumList.cache.invalidate(name);
+    }
     // If needed and there are any, delete the entities under the old PremiumList.
-    if (entriesToUpdate && oldPremiumList.isPresent()) {
+    if (entriesToUpdate && editedLabels == null && oldPremiumList.isPresent()) {
       oldPremiumList.get().deleteEntries();
     }
     return updated;
   }
 
+  /**
+   * Saves the entries of the given changed labels that are in this list and deletes the others,
+   * all in the current revision. Must be called from within the transaction that saves the
+   * PremiumList.
+   */
+  private void saveDiff(ImmutableSet<String> changedLabels) {
+    ofy().assertInTransaction();
+    ImmutableList.Builder<PremiumListEntry> entriesToSave = new ImmutableList.Builder<>();
+    ImmutableList.Builder<Key<PremiumListEntry>> keysToDelete = new ImmutableList.Builder<>();
+    for (String label : changedLabels) {
+      if (premiumListMap.containsKey(label)) {
+        entriesToSave.add(premiumListMap.get(label));
+      } else {
+        keysToDelete.add(Key.create(revisionKey, PremiumListEntry.class, label));
+      }
+    }
+    ofy().save().entities(entriesToSave.build());
+    ofy().delete().keys(keysToDelete.build());
+  }
+
+  /** Returns a hash of the labels and comments of the given entries that have a comment. */
+  private static String hashComments(Map<String, PremiumListEntry> entries) {
+    Hasher hasher = Hashing.sha256().newHasher();
+    for (PremiumListEntry entry : new TreeMap<>(entries).values()) {
+      if (entry.comment != null) {
+        hasher.putInt(entry.label.length()).putString(entry.label, UTF_8);
+        hasher.putInt(entry.comment.length()).putString(entry.comment, UTF_8);
+      }
+    }
+    return hasher.hash().toString();
+  }
+
+  /** Returns a copy of this list whose entries are parented on the given revision. */
+  private PremiumList withRevisionKey(Key<PremiumListRevision> revisionKey) {
+    PremiumList copy = clone(this);
+    copy.revisionKey = revisionKey;
+    // Building with the entries unchanged keeps the revision key and re-parents the entries on it.
+    return copy.asBuilder().build();
+  }
+
+  /**
+   * Returns whether two instances of a list correspond to the same saved version of it.
+   *
+   * <p>This can't use {@link #equals}, since a list that was just built in memory holds its entries
+   * whereas the same list loaded from Datastore only holds its price index. Every save through
+   * {@link #saveAndUpdateEntries} sets a new update time, so that together with the revision
+   * identifies the version.
+   */
+  private static boolean isSameSavedVersion(
+      @Nullable PremiumList list, @Nullable PremiumList other) {
+    if (list == null || other == null) {
+      return list == other;
+    }
+    return Objects.equals(list.revisionKey, other.revisionKey)
+        && Objects.equals(list.lastUpdateTime, other.lastUpdateTime);
+  }
+
+  /** Returns a copy of this list that only retains its price index, for caching. */
+  private PremiumList withoutEntries() {
+    if (premiumListMap == null) {
+      return this;
+    }
+    PremiumList copy = clone(this);
+    copy.premiumListMap = null;
+    return copy;
+  }
+
   @Override
   public boolean refersToKey(Registry registry, Key<? extends BaseDomainLabelList<?, ?>> key) {
     return Objects.equals(registry.getPremiumList(), key);
@@ -356,6 +608,13 @@ public final class PremiumList extends BaseDomainLabelList<Money, PremiumList.Pr
 
     private boolean entriesWereUpdated;
 
+    /** Records the labels edited in place by this save, and the version of the list they edit. */
+    private Builder setDelta(@Nullable DateTime deltaBaseTime, ImmutableSet<String> deltaLabels) {
+      getInstance().deltaBaseTime = deltaBaseTime;
+      getInstance().deltaLabels = deltaLabels;
+      return this;
+    }
+
     public Builder setPremiumListMap(ImmutableMap<String, PremiumListEntry> premiumListMap) {
       entriesWereUpdated = true;
       getInstance().premiumListMap = premiumListMap;
@@ -370,17 +629,29 @@ public final class PremiumList extends BaseDomainLabelList<Money, PremiumList.Pr
     @Override
     public PremiumList build() {
       final PremiumList instance = getInstance();
+      // A list loaded from Datastore doesn't have its entries, and its price index (if it has been
+      // loaded) still applies if the entries weren't replaced.
+      boolean rebuildIndex =
+          instance.premiumListMap != null || instance.revisionKey == null || entriesWereUpdated;
       if (getInstance().revisionKey == null || entriesWereUpdated) {
         getInstance().revisionKey = PremiumListRevision.createKey(instance);
       }
-      // When we build an instance, make sure all entries are parented on its revisionKey.
-      instance.premiumListMap = Maps.transformValues(
-          nullToEmpty(instance.premiumListMap),
-          new Function<PremiumListEntry, PremiumListEntry>() {
-            @Override
-            public PremiumListEntry apply(PremiumListEntry entry) {
-              return entry.asBuilder().setParent(instance.revisionKey).build();
-            }});
+      if (rebuildIndex) {
+        // When we build an instance, make sure all entries are parented on its revisionKey.
+        instance.premiumListMap = Maps.transformValues(
+            nullToEmpty(instance.premiumListMap),
+            new Function<PremiumListEntry, PremiumListEntry>() {
+              @Override
+              public PremiumListEntry apply(PremiumListEntry entry) {
+                return entry.asBuilder().setParent(instance.revisionKey).build();
+              }});
+        PremiumPriceIndex.Builder index = new PremiumPriceIndex.Builder();
+        for (PremiumListEntry entry : instance.premiumListMap.values()) {
+          index.put(entry.getLabel(), entry.getValue());
+        }
+        instance.premiumPriceIndex = index.build();
+        instance.commentsHash = hashComments(instance.premiumListMap);
+      }
       return super.build();
     }
   }
@@ -0,0 +1,310 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.registry.label;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.common.primitives.UnsignedBytes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import org.joda.money.CurrencyUnit;
+import org.joda.money.Money;
+
+/**
+ * A compact, read-optimized index of the premium prices in a {@link PremiumList}.
+ *
+ * <p>Labels are stored UTF-8 encoded and sorted in a single packed byte array, and prices are
+ * stored as minor-unit amounts in a parallel {@code long} array, so a list with hundreds of
+ * thousands of labels is held in a handful of arrays rather than one entity and {@link Money} per
+ * label. A bloom filter sits in front of the binary search so that most non-premium labels, which
+ * are by far the common case on a check, are rejected without touching the label array.
+ *
+ * <p>Lists almost always have a single currency, in which case no per-label currency is stored.
+ */
+@Immutable
+final class PremiumPriceIndex {
+
+  /** False positive rate of the prefilter; a false positive only costs a binary search. */
+  private static final double PREFILTER_FALSE_POSITIVE_RATE = 0.01;
+
+  /** Comparator on encoded labels, which orders them by code point like the binary search. */
+  private static final Comparator<byte[]> LABEL_ORDERING =
+      UnsignedBytes.lexicographicalComparator();
+
+  /** All labels, UTF-8 encoded and concatenated in sorted order. */
+  private final byte[] labels;
+
+  /** Start offset of each label in {@link #labels}, plus a trailing end offset. */
+  private final int[] labelOffsets;
+
+  /** Price of each label, in the minor units of its currency. */
+  private final long[] amountsMinor;
+
+  /** The distinct currencies used in this index. */
+  private final CurrencyUnit[] currencies;
+
+  /** Index into {@link #currencies} for each label, or null if there is only one currency. */
+  @Nullable
+  private final byte[] currencyIndexes;
+
+  private final BloomFilter<CharSequence> prefilter;
+
+  private PremiumPriceIndex(
+      byte[] labels,
+      int[] labelOffsets,
+      long[] amountsMinor,
+      CurrencyUnit[] currencies,
+      @Nullable byte[] currencyIndexes,
+      BloomFilter<CharSequence> prefilter) {
+    this.labels = labels;
+    this.labelOffsets = labelOffsets;
+    this.amountsMinor = amountsMinor;
+    this.currencies = currencies;
+    this.currencyIndexes = currencyIndexes;
+    this.prefilter = prefilter;
+  }
+
+  /** Returns the premium price of the given label, or absent if the label isn't premium. */
+  Optional<Money> getPrice(String label) {
+    if (amountsMinor.length == 0 || !prefilter.mightContain(label)) {
+      return Optional.<Money>absent();
+    }
+    int index = find(label.getBytes(UTF_8));
+    return index < 0
+        ? Optional.<Money>absent()
+        : Optional.of(Money.ofMinor(getCurrency(index), amountsMinor[index]));
+  }
+
+  /** Returns the number of labels in this index. */
+  int size() {
+    return amountsMinor.length;
+  }
+
+  /**
+   * Returns a copy of this index with the prices of the given labels added or replaced, and with
+   * the given removed labels left out.
+   */
+  PremiumPriceIndex withChanges(Map<String, Money> updatedPrices, Set<String> removedLabels) {
+    Builder builder = new Builder();
+    for (int i = 0; i < size(); i++) {
+      String label = getLabel(i);
+      if (!updatedPrices.containsKey(label) && !removedLabels.contains(label)) {
+        builder.put(label, Money.ofMinor(getCurrency(i), amountsMinor[i]));
+      }
+    }
+    for (Map.Entry<String, Money> entry : updatedPrices.entrySet()) {
+      builder.put(entry.getKey(), entry.getValue());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Returns the labels that are only in one of this index and another, or whose prices differ
+   * between the two, or absent if there are more than {@code maxLabels} of them.
+   *
+   * <p>This walks both sorted indexes side by side, so it costs time linear in their sizes.
+   */
+  Optional<ImmutableSet<String>> getChangedLabels(PremiumPriceIndex other, int maxLabels) {
+    ImmutableSet.Builder<String> changedLabels = new ImmutableSet.Builder<>();
+    int numChanged = 0;
+    int i = 0;
+    int j = 0;
+    while (i < size() || j < other.size()) {
+      int comparison = (i == size())
+          ? 1
+          : (j == other.size()) ? -1 : other.compareToLabelAt(getEncodedLabel(i), j);
+      String changedLabel = null;
+      if (comparison < 0) {
+        changedLabel = getLabel(i++);
+      } else if (comparison > 0) {
+        changedLabel = other.getLabel(j++);
+      } else {
+        if (amountsMinor[i] != other.amountsMinor[j]
+            || !getCurrency(i).equals(other.getCurrency(j))) {
+          changedLabel = getLabel(i);
+        }
+        i++;
+        j++;
+      }
+      if (changedLabel != null) {
+        if (++numChanged > maxLabels) {
+          return Optional.<ImmutableSet<String>>absent();
+        }
+        changedLabels.add(changedLabel);
+      }
+    }
+    return Optional.of(changedLabels.build());
+  }
+
+  private String getLabel(int index) {
+    return new String(getEncodedLabel(index), UTF_8);
+  }
+
+  private byte[] getEncodedLabel(int index) {
+    return Arrays.copyOfRange(labels, labelOffsets[index], labelOffsets[index + 1]);
+  }
+
+  private CurrencyUnit getCurrency(int index) {
+    return currencies[currencyIndexes == null ? 0 : currencyIndexes[index]];
+  }
+
+  /** Binary searches for the encoded label, returning its index or -1 if it isn't present. */
+  private int find(byte[] key) {
+    int low = 0;
+    int high = amountsMinor.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int comparison = compareToLabelAt(key, mid);
+      if (comparison > 0) {
+        low = mid + 1;
+      } else if (comparison < 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  private int compareToLabelAt(byte[] key, int index) {
+    int start = labelOffsets[index];
+    int length = labelOffsets[index + 1] - start;
+    int minLength = Math.min(key.length, length);
+    for (int i = 0; i < minLength; i++) {
+      int result = UnsignedBytes.compare(key[i], labels[start + i]);
+      if (result != 0) {
+        return result;
+      }
+    }
+    return key.length - length;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof PremiumPriceIndex)) {
+      return false;
+    }
+    PremiumPriceIndex that = (PremiumPriceIndex) other;
+    return Arrays.equals(labels, that.labels)
+        && Arrays.equals(labelOffsets, that.labelOffsets)
+        && Arrays.equals(amountsMinor, that.amountsMinor)
+        && Arrays.equals(currencies, that.currencies)
+        && Arrays.equals(currencyIndexes, that.currencyIndexes);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(labels) ^ Arrays.hashCode(amountsMinor);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "PremiumPriceIndex: {size=%d, currencies=%s}", size(), Arrays.toString(currencies));
+  }
+
+  /** A builder for {@link PremiumPriceIndex}, which accepts labels in any order. */
+  static final class Builder {
+
+    private final List<Entry> entries = new ArrayList<>();
+    private final Map<CurrencyUnit, Integer> currencyIndexes = new LinkedHashMap<>();
+
+    /** Adds a premium label and its price. */
+    Builder put(String label, Money price) {
+      checkNotNull(label, "label");
+      CurrencyUnit currency = checkNotNull(price, "price").getCurrencyUnit();
+      Integer currencyIndex = currencyIndexes.get(currency);
+      if (currencyIndex == null) {
+        checkState(
+            currencyIndexes.size() <= Byte.MAX_VALUE, "Too many currencies in premium list");
+        currencyIndex = currencyIndexes.size();
+        currencyIndexes.put(currency, currencyIndex);
+      }
+      entries.add(new Entry(label, price.getAmountMinorLong(), currencyIndex.byteValue()));
+      return this;
+    }
+
+    PremiumPriceIndex build() {
+      Collections.sort(entries);
+      int size = entries.size();
+      int totalLabelLength = 0;
+      for (Entry entry : entries) {
+        totalLabelLength += entry.encodedLabel.length;
+      }
+      byte[] labels = new byte[totalLabelLength];
+      int[] labelOffsets = new int[size + 1];
+      long[] amountsMinor = new long[size];
+      byte[] entryCurrencyIndexes = new byte[size];
+      BloomFilter<CharSequence> prefilter =
+          BloomFilter.create(Funnels.stringFunnel(UTF_8), size, PREFILTER_FALSE_POSITIVE_RATE);
+      int offset = 0;
+      for (int i = 0; i < size; i++) {
+        Entry entry = entries.get(i);
+        checkArgument(
+            i == 0 || entry.compareTo(entries.get(i - 1)) != 0,
+            "Duplicate label in premium list: %s", entry.label);
+        System.arraycopy(entry.encodedLabel, 0, labels, offset, entry.encodedLabel.length);
+        labelOffsets[i] = offset;
+        offset += entry.encodedLabel.length;
+        amountsMinor[i] = entry.amountMinor;
+        entryCurrencyIndexes[i] = entry.currencyIndex;
+        prefilter.put(entry.label);
+      }
+      labelOffsets[size] = offset;
+      return new PremiumPriceIndex(
+          labels,
+          labelOffsets,
+          amountsMinor,
+          currencyIndexes.keySet().toArray(new CurrencyUnit[currencyIndexes.size()]),
+          currencyIndexes.size() > 1 ? entryCurrencyIndexes : null,
+          prefilter);
+    }
+
+    /** A label and price awaiting sorting into the index. */
+    private static final class Entry implements Comparable<Entry> {
+      final String label;
+      final byte[] encodedLabel;
+      final long amountMinor;
+      final byte currencyIndex;
+
+      Entry(String label, long amountMinor, byte currencyIndex) {
+        this.label = label;
+        this.encodedLabel = label.getBytes(UTF_8);
+        this.amountMinor = amountMinor;
+        this.currencyIndex = currencyIndex;
+      }
+
+      @Override
+      public int compareTo(Entry other) {
+        return LABEL_ORDERING.compare(encodedLabel, other.encodedLabel);
+      }
+    }
+  }
+}
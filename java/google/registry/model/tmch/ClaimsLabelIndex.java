@@ -0,0 +1,303 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.tmch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.UnsignedBytes;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A compact, read-optimized index from claims labels to their claims keys.
+ *
+ * <p>Labels and keys are stored UTF-8 encoded and packed into two byte arrays in label order, so
+ * a claims list with millions of labels costs a few bytes of overhead per label rather than a map
+ * entry and two strings. Indexes of the individual shards of a claims list are built as the shards
+ * are loaded, and are then merged into a single index without materializing the whole list as a
+ * map.
+ */
+@Immutable
+final class ClaimsLabelIndex {
+
+  /** Comparator on encoded labels, which orders them by code point like the binary search. */
+  private static final Comparator<byte[]> LABEL_ORDERING =
+      UnsignedBytes.lexicographicalComparator();
+
+  private static final ClaimsLabelIndex EMPTY =
+      new ClaimsLabelIndex(new byte[0], new int[] {0}, new byte[0], new int[] {0});
+
+  /** All labels, UTF-8 encoded and concatenated in sorted order. */
+  private final byte[] labels;
+
+  /** Start offset of each label in {@link #labels}, plus a trailing end offset. */
+  private final int[] labelOffsets;
+
+  /** The claims key of each label, UTF-8 encoded and concatenated in the same order. */
+  private final byte[] claimKeys;
+
+  /** Start offset of each claims key in {@link #claimKeys}, plus a trailing end offset. */
+  private final int[] claimKeyOffsets;
+
+  private ClaimsLabelIndex(
+      byte[] labels, int[] labelOffsets, byte[] claimKeys, int[] claimKeyOffsets) {
+    this.labels = labels;
+    this.labelOffsets = labelOffsets;
+    this.claimKeys = claimKeys;
+    this.claimKeyOffsets = claimKeyOffsets;
+  }
+
+  /** Builds an index of the given labels and claims keys. */
+  static ClaimsLabelIndex create(Map<String, String> labelsToKeys) {
+    final byte[][] encodedLabels = new byte[labelsToKeys.size()][];
+    byte[][] encodedKeys = new byte[labelsToKeys.size()][];
+    Integer[] order = new Integer[labelsToKeys.size()];
+    int labelBytes = 0;
+    int keyBytes = 0;
+    int i = 0;
+    for (Map.Entry<String, String> entry : labelsToKeys.entrySet()) {
+      encodedLabels[i] = entry.getKey().getBytes(UTF_8);
+      encodedKeys[i] = entry.getValue().getBytes(UTF_8);
+      labelBytes += encodedLabels[i].length;
+      keyBytes += encodedKeys[i].length;
+      order[i] = i;
+      i++;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer left, Integer right) {
+        return LABEL_ORDERING.compare(encodedLabels[left], encodedLabels[right]);
+      }});
+    Builder builder = new Builder(order.length, labelBytes, keyBytes);
+    for (int index : order) {
+      builder.add(
+          encodedLabels[index], 0, encodedLabels[index].length,
+          encodedKeys[index], 0, encodedKeys[index].length);
+    }
+    return builder.build();
+  }
+
+  /**
+   * Merges the indexes of the shards of a claims list into a single index.
+   *
+   * <p>Shards are disjoint, but if a label does appear in more than one of them then the claims key
+   * from the first such shard is kept.
+   */
+  static ClaimsLabelIndex merge(List<ClaimsLabelIndex> shards) {
+    if (shards.isEmpty()) {
+      return EMPTY;
+    }
+    if (shards.size() == 1) {
+      return shards.get(0);
+    }
+    int size = 0;
+    int labelBytes = 0;
+    int keyBytes = 0;
+    PriorityQueue<Cursor> cursors = new PriorityQueue<>(shards.size());
+    for (int i = 0; i < shards.size(); i++) {
+      ClaimsLabelIndex shard = shards.get(i);
+      size += shard.size();
+      labelBytes += shard.labels.length;
+      keyBytes += shard.claimKeys.length;
+      if (shard.size() > 0) {
+        cursors.add(new Cursor(shard, i));
+      }
+    }
+    Builder builder = new Builder(size, labelBytes, keyBytes);
+    while (!cursors.isEmpty()) {
+      Cursor cursor = cursors.poll();
+      ClaimsLabelIndex shard = cursor.shard;
+      int position = cursor.position;
+      if (!builder.isLastLabel(
+          shard.labels, shard.labelOffsets[position], shard.labelOffsets[position + 1])) {
+        builder.add(
+            shard.labels, shard.labelOffsets[position], shard.labelOffsets[position + 1],
+            shard.claimKeys, shard.claimKeyOffsets[position], shard.claimKeyOffsets[position + 1]);
+      }
+      if (++cursor.position < shard.size()) {
+        cursors.add(cursor);
+      }
+    }
+    return builder.build();
+  }
+
+  /** Returns the claims key of the given label, or null if the label isn't claimed. */
+  @Nullable
+  String getClaimKey(String label) {
+    int index = find(label.getBytes(UTF_8));
+    return index < 0
+        ? null
+        : new String(
+            claimKeys,
+            claimKeyOffsets[index],
+            claimKeyOffsets[index + 1] - claimKeyOffsets[index],
+            UTF_8);
+  }
+
+  /** Returns the number of labels in this index. */
+  int size() {
+    return labelOffsets.length - 1;
+  }
+
+  /** Returns the contents of this index as a map, in label order. */
+  ImmutableMap<String, String> toMap() {
+    ImmutableMap.Builder<String, String> builder = new ImmutableMap.Builder<>();
+    for (int i = 0; i < size(); i++) {
+      builder.put(
+          new String(labels, labelOffsets[i], labelOffsets[i + 1] - labelOffsets[i], UTF_8),
+          new String(
+              claimKeys, claimKeyOffsets[i], claimKeyOffsets[i + 1] - claimKeyOffsets[i], UTF_8));
+    }
+    return builder.build();
+  }
+
+  /** Binary searches for the encoded label, returning its index or -1 if it isn't present. */
+  private int find(byte[] key) {
+    int low = 0;
+    int high = size() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int comparison =
+          compare(key, 0, key.length, labels, labelOffsets[mid], labelOffsets[mid + 1]);
+      if (comparison > 0) {
+        low = mid + 1;
+      } else if (comparison < 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /** Compares two byte ranges as unsigned bytes, which orders UTF-8 strings by code point. */
+  private static int compare(
+      byte[] left, int leftStart, int leftEnd, byte[] right, int rightStart, int rightEnd) {
+    int leftLength = leftEnd - leftStart;
+    int rightLength = rightEnd - rightStart;
+    int minLength = Math.min(leftLength, rightLength);
+    for (int i = 0; i < minLength; i++) {
+      int result = UnsignedBytes.compare(left[leftStart + i], right[rightStart + i]);
+      if (result != 0) {
+        return result;
+      }
+    }
+    return leftLength - rightLength;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof ClaimsLabelIndex)) {
+      return false;
+    }
+    ClaimsLabelIndex that = (ClaimsLabelIndex) other;
+    return Arrays.equals(labels, that.labels)
+        && Arrays.equals(labelOffsets, that.labelOffsets)
+        && Arrays.equals(claimKeys, that.claimKeys)
+        && Arrays.equals(claimKeyOffsets, that.claimKeyOffsets);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(labels) ^ Arrays.hashCode(claimKeys);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("ClaimsLabelIndex: {size=%d}", size());
+  }
+
+  /** A position within one shard's index during a merge, ordered by its current label. */
+  private static final class Cursor implements Comparable<Cursor> {
+    final ClaimsLabelIndex shard;
+    final int shardNumber;
+    int position;
+
+    Cursor(ClaimsLabelIndex shard, int shardNumber) {
+      this.shard = shard;
+      this.shardNumber = shardNumber;
+    }
+
+    /** Orders by label, then by shard so that earlier shards win ties. */
+    @Override
+    public int compareTo(Cursor other) {
+      int result = compare(
+          shard.labels,
+          shard.labelOffsets[position],
+          shard.labelOffsets[position + 1],
+          other.shard.labels,
+          other.shard.labelOffsets[other.position],
+          other.shard.labelOffsets[other.position + 1]);
+      return result != 0 ? result : shardNumber - other.shardNumber;
+    }
+  }
+
+  /** Appends labels, which must be added in sorted order, into preallocated packed arrays. */
+  private static final class Builder {
+
+    private final byte[] labels;
+    private final int[] labelOffsets;
+    private final byte[] claimKeys;
+    private final int[] claimKeyOffsets;
+    private int count;
+
+    Builder(int size, int labelBytes, int keyBytes) {
+      this.labels = new byte[labelBytes];
+      this.labelOffsets = new int[size + 1];
+      this.claimKeys = new byte[keyBytes];
+      this.claimKeyOffsets = new int[size + 1];
+    }
+
+    void add(
+        byte[] labelSource, int labelStart, int labelEnd,
+        byte[] keySource, int keyStart, int keyEnd) {
+      int labelOffset = labelOffsets[count];
+      int keyOffset = claimKeyOffsets[count];
+      System.arraycopy(labelSource, labelStart, labels, labelOffset, labelEnd - labelStart);
+      System.arraycopy(keySource, keyStart, claimKeys, keyOffset, keyEnd - keyStart);
+      count++;
+      labelOffsets[count] = labelOffset + labelEnd - labelStart;
+      claimKeyOffsets[count] = keyOffset + keyEnd - keyStart;
+    }
+
+    /** Returns whether the given label is the one that was added last. */
+    boolean isLastLabel(byte[] source, int start, int end) {
+      return count > 0
+          && compare(
+                  source, start, end, labels, labelOffsets[count - 1], labelOffsets[count])
+              == 0;
+    }
+
+    ClaimsLabelIndex build() {
+      if (count == 0) {
+        return EMPTY;
+      }
+      // Duplicate labels are skipped during merges, which can leave the arrays with unused space.
+      return count == labelOffsets.length - 1
+          ? new ClaimsLabelIndex(labels, labelOffsets, claimKeys, claimKeyOffsets)
+          : new ClaimsLabelIndex(
+              Arrays.copyOf(labels, labelOffsets[count]),
+              Arrays.copyOf(labelOffsets, count + 1),
+              Arrays.copyOf(claimKeys, claimKeyOffsets[count]),
+              Arrays.copyOf(claimKeyOffsets, count + 1));
+    }
+  }
+}
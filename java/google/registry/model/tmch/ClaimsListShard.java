@@ -45,7 +45,7 @@ import google.registry.model.common.CrossTldSingleton;
 import google.registry.util.CollectionUtils;
 import google.registry.util.Concurrent;
 import google.registry.util.NonFinalForTesting;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import javax.annotation.Nullable;
@@ -84,10 +84,19 @@ public class ClaimsListShard extends ImmutableObject {
   /** When the claims list was last updated. */
   DateTime creationTime;
 
-  /** A map from labels to claims keys. */
+  /**
+   * A map from labels to claims keys.
+   *
+   * <p>This is null for the combined list returned by {@link #get}, which holds its labels in
+   * {@link #labelIndex} instead.
+   */
   @EmbedMap
   Map<String, String> labelsToKeys;
 
+  /** A compact index from labels to claims keys, used instead of the map when it is non-null. */
+  @Ignore
+  ClaimsLabelIndex labelIndex;
+
   /** Indicates that this is a shard rather than a "full" list. */
   @Ignore
   boolean isShard = false;
@@ -103,53 +112,74 @@ public class ClaimsListShard extends ImmutableObject {
           // Find the most recent revision.
           Key<ClaimsListRevision> revisionKey = getCurrentRevision();
 
-          Map<String, String> combinedLabelsToKeys = new HashMap<>();
           DateTime creationTime = START_OF_TIME;
+          List<ClaimsLabelIndex> shardIndexes = new ArrayList<>();
           if (revisionKey != null) {
             // Grab all of the keys for the shards that belong to the current revision.
             final List<Key<ClaimsListShard>> shardKeys =
                 ofy().load().type(ClaimsListShard.class).ancestor(revisionKey).keys().list();
 
-            // Load all of the shards concurrently, each in a separate transaction.
-            List<ClaimsListShard> shards = Concurrent.transform(
-                shardKeys, new Function<Key<ClaimsListShard>, ClaimsListShard>() {
+            // Load all of the shards concurrently, each in a separate transaction, and compact each
+            // one into an index as soon as it is loaded. The loaded shards themselves may be shared
+            // through the session cache, so they are left as they are.
+            List<LoadedShard> shards = Concurrent.transform(
+                shardKeys, new Function<Key<ClaimsListShard>, LoadedShard>() {
                   @Override
-                  public ClaimsListShard apply(final Key<ClaimsListShard> key) {
-                    return ofy().transactNewReadOnly(new Work<ClaimsListShard>() {
+                  public LoadedShard apply(final Key<ClaimsListShard> key) {
+                    ClaimsListShard shard = ofy().transactNewReadOnly(new Work<ClaimsListShard>() {
                       @Override
                       public ClaimsListShard run() {
                         return ofy().load().key(key).now();
                       }});
+                    return new LoadedShard(
+                        shard.creationTime, ClaimsLabelIndex.create(shard.labelsToKeys));
                   }});
 
-            // Combine the shards together and return the concatenated ClaimsList.
+            // Merge the shards together into the index of the concatenated ClaimsList.
             if (!shards.isEmpty()) {
               creationTime = shards.get(0).creationTime;
-              for (ClaimsListShard shard : shards) {
-                combinedLabelsToKeys.putAll(shard.labelsToKeys);
+              for (LoadedShard shard : shards) {
+                shardIndexes.add(shard.labelIndex);
                 checkState(
                     creationTime.equals(shard.creationTime), "Inconsistent creation times.");
               }
             }
           }
-          return create(creationTime, ImmutableMap.copyOf(combinedLabelsToKeys));
+          ClaimsListShard instance = new ClaimsListShard();
+          instance.id = allocateId();
+          instance.creationTime = creationTime;
+          instance.labelIndex = ClaimsLabelIndex.merge(shardIndexes);
+          return instance;
         }});
 
+  /** The creation time and compacted index of a shard loaded by {@link #CACHE}. */
+  private static final class LoadedShard {
+    final DateTime creationTime;
+    final ClaimsLabelIndex labelIndex;
+
+    LoadedShard(DateTime creationTime, ClaimsLabelIndex labelIndex) {
+      this.creationTime = creationTime;
+      this.labelIndex = labelIndex;
+    }
+  }
+
   public DateTime getCreationTime() {
     return creationTime;
   }
 
+  /** Returns the claims key of the given label, or null if the label isn't in the claims list. */
+  @Nullable
   public String getClaimKey(String label) {
-    return labelsToKeys.get(label);
+    return labelIndex != null ? labelIndex.getClaimKey(label) : labelsToKeys.get(label);
   }
 
   public ImmutableMap<String, String> getLabelsToKeys() {
-    return ImmutableMap.copyOf(labelsToKeys);
+    return labelIndex != null ? labelIndex.toMap() : ImmutableMap.copyOf(labelsToKeys);
   }
 
   /** Returns the number of claims. */
   public int size() {
-    return labelsToKeys.size();
+    return labelIndex != null ? labelIndex.size() : labelsToKeys.size();
   }
 
   /**
@@ -162,7 +192,7 @@ public class ClaimsListShard extends ImmutableObject {
     final Key<ClaimsListRevision> parentKey = ClaimsListRevision.createKey();
 
     // Save the ClaimsList shards in separate transactions.
-    Concurrent.transform(CollectionUtils.partitionMap(labelsToKeys, shardSize),
+    Concurrent.transform(CollectionUtils.partitionMap(getLabelsToKeys(), shardSize),
         new Function<ImmutableMap<String, String>, ClaimsListShard>() {
           @Override
           public ClaimsListShard apply(final ImmutableMap<String, String> labelsToKeysShard) {
@@ -46,7 +46,6 @@ import google.registry.flows.async.AsyncFlowsModule;
 import google.registry.flows.async.DeleteContactsAndHostsAction;
 import google.registry.flows.async.RefreshDnsOnHostRenameAction;
 import google.registry.mapreduce.MapreduceModule;
-import google.registry.monitoring.whitebox.MetricsExportAction;
 import google.registry.monitoring.whitebox.VerifyEntityIntegrityAction;
 import google.registry.monitoring.whitebox.WhiteboxModule;
 import google.registry.rde.BrdaCopyAction;
@@ -100,7 +99,6 @@ interface BackendRequestComponent {
   ExportDomainListsAction exportDomainListsAction();
   ExportReservedTermsAction exportReservedTermsAction();
   LoadSnapshotAction loadSnapshotAction();
-  MetricsExportAction metricsExportAction();
   NordnUploadAction nordnUploadAction();
   NordnVerifyAction nordnVerifyAction();
   PublishDnsUpdatesAction publishDnsUpdatesAction();
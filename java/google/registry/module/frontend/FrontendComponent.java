@@ -15,6 +15,7 @@
 package google.registry.module.frontend;
 
 import dagger.Component;
+import google.registry.bigquery.BigqueryModule;
 import google.registry.braintree.BraintreeModule;
 import google.registry.config.ConfigModule;
 import google.registry.flows.custom.CustomLogicFactoryModule;
@@ -22,6 +23,7 @@ import google.registry.keyring.api.DummyKeyringModule;
 import google.registry.keyring.api.KeyModule;
 import google.registry.module.frontend.FrontendRequestComponent.FrontendRequestComponentModule;
 import google.registry.monitoring.metrics.MetricReporter;
+import google.registry.monitoring.whitebox.BigQueryMetricsBatcher;
 import google.registry.monitoring.whitebox.StackdriverModule;
 import google.registry.request.Modules.AppIdentityCredentialModule;
 import google.registry.request.Modules.Jackson2Module;
@@ -39,6 +41,7 @@ import javax.inject.Singleton;
 @Component(
     modules = {
         AppIdentityCredentialModule.class,
+        BigqueryModule.class,
         BraintreeModule.class,
         ConfigModule.class,
         ConsoleConfigModule.class,
@@ -59,4 +62,5 @@ import javax.inject.Singleton;
 interface FrontendComponent {
   FrontendRequestHandler requestHandler();
   MetricReporter metricReporter();
+  BigQueryMetricsBatcher bigQueryMetricsBatcher();
 }
@@ -14,7 +14,9 @@
 
 package google.registry.module.frontend;
 
+import google.registry.model.registry.RegistryCaches;
 import google.registry.monitoring.metrics.MetricReporter;
+import google.registry.monitoring.whitebox.BigQueryMetricsBatcher;
 import google.registry.util.FormattingLogger;
 import java.io.IOException;
 import java.security.Security;
@@ -31,6 +33,8 @@ public final class FrontendServlet extends HttpServlet {
   private static final FrontendComponent component = DaggerFrontendComponent.create();
   private static final FrontendRequestHandler requestHandler = component.requestHandler();
   private static final MetricReporter metricReporter = component.metricReporter();
+  private static final BigQueryMetricsBatcher bigQueryMetricsBatcher =
+      component.bigQueryMetricsBatcher();
   private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
 
   @Override
@@ -43,10 +47,27 @@ public final class FrontendServlet extends HttpServlet {
     } catch (TimeoutException timeoutException) {
       logger.severefmt("Failed to initialize MetricReporter: %s", timeoutException);
     }
+
+    try {
+      bigQueryMetricsBatcher.startAsync().awaitRunning(10, TimeUnit.SECONDS);
+      logger.info("Started up BigQueryMetricsBatcher");
+    } catch (TimeoutException timeoutException) {
+      logger.severefmt("Failed to initialize BigQueryMetricsBatcher: %s", timeoutException);
+    }
+
+    // Load the TLDs and label lists now, rather than on the first EPP requests to this instance.
+    RegistryCaches.warmUp();
   }
 
   @Override
   public void destroy() {
+    try {
+      bigQueryMetricsBatcher.stopAsync().awaitTerminated(10, TimeUnit.SECONDS);
+      logger.info("Shut down BigQueryMetricsBatcher");
+    } catch (TimeoutException timeoutException) {
+      logger.severefmt("Failed to stop BigQueryMetricsBatcher: %s", timeoutException);
+    }
+
     try {
       metricReporter.stopAsync().awaitTerminated(10, TimeUnit.SECONDS);
       logger.info("Shut down MetricReporter");
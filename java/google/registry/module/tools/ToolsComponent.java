@@ -15,6 +15,7 @@
 package google.registry.module.tools;
 
 import dagger.Component;
+import google.registry.bigquery.BigqueryModule;
 import google.registry.config.ConfigModule;
 import google.registry.export.DriveModule;
 import google.registry.flows.custom.CustomLogicFactoryModule;
@@ -25,6 +26,8 @@ import google.registry.groups.GroupssettingsModule;
 import google.registry.keyring.api.DummyKeyringModule;
 import google.registry.keyring.api.KeyModule;
 import google.registry.module.tools.ToolsRequestComponent.ToolsRequestComponentModule;
+import google.registry.monitoring.whitebox.BigQueryMetricsBatcher;
+import google.registry.monitoring.whitebox.StackdriverModule;
 import google.registry.request.Modules.AppIdentityCredentialModule;
 import google.registry.request.Modules.DatastoreServiceModule;
 import google.registry.request.Modules.GoogleCredentialModule;
@@ -42,6 +45,7 @@ import javax.inject.Singleton;
 @Component(
     modules = {
         AppIdentityCredentialModule.class,
+        BigqueryModule.class,
         ConfigModule.class,
         CustomLogicFactoryModule.class,
         DatastoreServiceModule.class,
@@ -55,6 +59,7 @@ import javax.inject.Singleton;
         Jackson2Module.class,
         KeyModule.class,
         ModulesServiceModule.class,
+        StackdriverModule.class,
         ToolsRequestComponentModule.class,
         UrlFetchTransportModule.class,
         UseAppIdentityCredentialForGoogleApisModule.class,
@@ -64,4 +69,5 @@ import javax.inject.Singleton;
     })
 interface ToolsComponent {
   ToolsRequestHandler requestHandler();
+  BigQueryMetricsBatcher bigQueryMetricsBatcher();
 }
@@ -44,6 +44,7 @@ import google.registry.tools.server.ResaveAllEppResourcesAction;
 import google.registry.tools.server.ToolsServerModule;
 import google.registry.tools.server.UpdatePremiumListAction;
 import google.registry.tools.server.VerifyOteAction;
+import google.registry.tools.server.javascrap.BackfillDomainReferenceIndexAction;
 import google.registry.tools.server.javascrap.RefreshAllDomainsAction;
 
 /** Dagger component with per-request lifetime for "tools" App Engine module. */
@@ -59,6 +60,7 @@ import google.registry.tools.server.javascrap.RefreshAllDomainsAction;
         WhiteboxModule.class,
     })
 interface ToolsRequestComponent {
+  BackfillDomainReferenceIndexAction backfillDomainReferenceIndexAction();
   CreateGroupsAction createGroupsAction();
   CreatePremiumListAction createPremiumListAction();
   DeleteEntityAction deleteEntityAction();
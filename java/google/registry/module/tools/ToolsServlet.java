@@ -14,8 +14,12 @@
 
 package google.registry.module.tools;
 
+import google.registry.monitoring.whitebox.BigQueryMetricsBatcher;
+import google.registry.util.FormattingLogger;
 import java.io.IOException;
 import java.security.Security;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -26,10 +30,30 @@ public final class ToolsServlet extends HttpServlet {
 
   private static final ToolsComponent component = DaggerToolsComponent.create();
   private static final ToolsRequestHandler requestHandler = component.requestHandler();
+  private static final BigQueryMetricsBatcher bigQueryMetricsBatcher =
+      component.bigQueryMetricsBatcher();
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
 
   @Override
   public void init() {
     Security.addProvider(new BouncyCastleProvider());
+
+    try {
+      bigQueryMetricsBatcher.startAsync().awaitRunning(10, TimeUnit.SECONDS);
+      logger.info("Started up BigQueryMetricsBatcher");
+    } catch (TimeoutException timeoutException) {
+      logger.severefmt("Failed to initialize BigQueryMetricsBatcher: %s", timeoutException);
+    }
+  }
+
+  @Override
+  public void destroy() {
+    try {
+      bigQueryMetricsBatcher.stopAsync().awaitTerminated(10, TimeUnit.SECONDS);
+      logger.info("Shut down BigQueryMetricsBatcher");
+    } catch (TimeoutException timeoutException) {
+      logger.severefmt("Failed to stop BigQueryMetricsBatcher: %s", timeoutException);
+    }
   }
 
   @Override
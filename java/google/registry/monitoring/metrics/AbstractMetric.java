@@ -16,8 +16,10 @@ package google.registry.monitoring.metrics;
 
 
 import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import google.registry.monitoring.metrics.MetricSchema.Kind;
+import org.joda.time.Instant;
 
 abstract class AbstractMetric<V> implements Metric<V> {
 
@@ -35,6 +37,32 @@ abstract class AbstractMetric<V> implements Metric<V> {
     this.valueClass = valueClass;
   }
 
+  /**
+   * Returns the latest {@link MetricPoint} instances for every label-value combination tracked for
+   * this metric, ending at the given timestamp.
+   */
+  abstract ImmutableList<MetricPoint<V>> getTimestampedValues(Instant endTimestamp);
+
+  /**
+   * Returns the {@link MetricPoint} instances for the label-value combinations whose values have
+   * changed since they were last returned by this method, ending at the given timestamp.
+   *
+   * <p>This is for {@link MetricReporter}, so that cumulative values that haven't changed aren't
+   * copied and written again at every interval. By default, every value is returned.
+   */
+  ImmutableList<MetricPoint<V>> getChangedTimestampedValues(Instant endTimestamp) {
+    return getTimestampedValues(endTimestamp);
+  }
+
+  /**
+   * Marks every label-value combination as unchanged, so that {@link #getChangedTimestampedValues}
+   * only returns the values that change from now on.
+   *
+   * <p>This is for {@link MetricReporter} to call right before writing every value with {@link
+   * #getTimestampedValues}. By default, this does nothing.
+   */
+  void clearChanges() {}
+
   /** Returns the schema of this metric. */
   @Override
   public final MetricSchema getMetricSchema() {
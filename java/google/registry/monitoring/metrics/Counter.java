@@ -22,10 +22,13 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.AtomicLongMap;
 import com.google.common.util.concurrent.Striped;
 import google.registry.monitoring.metrics.MetricSchema.Kind;
+import java.util.Iterator;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import javax.annotation.concurrent.ThreadSafe;
@@ -68,6 +71,13 @@ public final class Counter extends AbstractMetric<Long>
    */
   private final Striped<Lock> valueLocks = Striped.lock(DEFAULT_CONCURRENCY_LEVEL);
 
+  /**
+   * The label values whose value or start timestamp has changed since they were last returned by
+   * {@link #getChangedTimestampedValues}. These are added in the same critical section as the
+   * change.
+   */
+  private final Set<ImmutableList<String>> changedLabelValues = Sets.newConcurrentHashSet();
+
   Counter(
       String name,
       String description,
@@ -84,6 +94,7 @@ public final class Counter extends AbstractMetric<Long>
     try {
       values.addAndGet(labelValues, offset);
       valueStartTimestamps.putIfAbsent(labelValues, startTimestamp);
+      changedLabelValues.add(labelValues);
     } finally {
       lock.unlock();
     }
@@ -118,6 +129,7 @@ public final class Counter extends AbstractMetric<Long>
     return values.size();
   }
 
+  @Override
   @VisibleForTesting
   final ImmutableList<MetricPoint<Long>> getTimestampedValues(Instant endTimestamp) {
     ImmutableList.Builder<MetricPoint<Long>> timestampedValues = new ImmutableList.Builder<>();
@@ -145,6 +157,47 @@ public final class Counter extends AbstractMetric<Long>
     return timestampedValues.build();
   }
 
+  /**
+   * Returns the points for the label values that have changed since this was last called. Each
+   * value is read along with its start timestamp in a critical section.
+   */
+  @Override
+  final ImmutableList<MetricPoint<Long>> getChangedTimestampedValues(Instant endTimestamp) {
+    ImmutableList.Builder<MetricPoint<Long>> timestampedValues = new ImmutableList.Builder<>();
+    for (Iterator<ImmutableList<String>> changed = changedLabelValues.iterator();
+        changed.hasNext(); ) {
+      ImmutableList<String> labelValues = changed.next();
+      // Remove the label values before reading the value, so that a concurrent change is reported
+      // next time, rather than lost.
+      changed.remove();
+      Lock lock = valueLocks.get(labelValues);
+      lock.lock();
+
+      Instant startTimestamp;
+      long value;
+      try {
+        startTimestamp = valueStartTimestamps.get(labelValues);
+        value = values.get(labelValues);
+      } finally {
+        lock.unlock();
+      }
+
+      timestampedValues.add(
+          MetricPoint.create(
+              this,
+              labelValues,
+              startTimestamp,
+              Ordering.natural().max(startTimestamp, endTimestamp),
+              value));
+    }
+    return timestampedValues.build();
+  }
+
+  @Override
+  final void clearChanges() {
+    changedLabelValues.clear();
+  }
+
   @VisibleForTesting
   final void set(Long value, Instant startTimestamp, ImmutableList<String> labelValues) {
     Lock lock = valueLocks.get(labelValues);
@@ -153,6 +206,7 @@ public final class Counter extends AbstractMetric<Long>
     try {
       this.values.put(labelValues, value);
       valueStartTimestamps.putIfAbsent(labelValues, startTimestamp);
+      changedLabelValues.add(labelValues);
     } finally {
       lock.unlock();
     }
@@ -177,6 +231,7 @@ public final class Counter extends AbstractMetric<Long>
       for (ImmutableList<String> labelValues : values.asMap().keySet()) {
         this.values.put(labelValues, 0);
         this.valueStartTimestamps.put(labelValues, startTimestamp);
+        changedLabelValues.add(labelValues);
       }
     } finally {
       for (int i = 0; i < valueLocks.size(); i++) {
@@ -198,6 +253,7 @@ public final class Counter extends AbstractMetric<Long>
     try {
       this.values.put(labelValues, 0);
       this.valueStartTimestamps.put(labelValues, startTimestamp);
+      changedLabelValues.add(labelValues);
     } finally {
       lock.unlock();
     }
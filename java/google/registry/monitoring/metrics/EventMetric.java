@@ -21,11 +21,10 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Ordering;
-import com.google.common.util.concurrent.Striped;
 import google.registry.monitoring.metrics.MetricSchema.Kind;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Lock;
+import javax.annotation.concurrent.GuardedBy;
 import org.joda.time.Instant;
 
 /**
@@ -38,6 +37,10 @@ import org.joda.time.Instant;
  *
  * <p>The {@link MutableDistribution} values tracked by this metric can be reset with {@link
  * EventMetric#reset()}.
+ *
+ * <p>Each set of label values has its own cell, which holds the distribution and its start
+ * timestamp and is locked while either is read or modified. Finding the cell doesn't take a lock,
+ * so recording only contends with other recordings for the same label values.
  */
 public final class EventMetric extends AbstractMetric<Distribution> {
 
@@ -48,21 +51,27 @@ public final class EventMetric extends AbstractMetric<Distribution> {
    */
   public static final DistributionFitter DEFAULT_FITTER = ExponentialFitter.create(16, 4.0, 1.0);
 
-  private final ConcurrentHashMap<ImmutableList<String>, Instant> valueStartTimestamps =
-      newConcurrentHashMap(DEFAULT_CONCURRENCY_LEVEL);
-  private final ConcurrentHashMap<ImmutableList<String>, MutableDistribution> values =
+  /** The distribution and start timestamp of the metric for one set of label values. */
+  private static final class Cell {
+    @GuardedBy("this") MutableDistribution distribution;
+    @GuardedBy("this") Instant startTimestamp;
+
+    /** Whether the cell has changed since it was last returned by getChangedTimestampedValues. */
+    @GuardedBy("this") boolean changed;
+
+    Cell(MutableDistribution distribution, Instant startTimestamp) {
+      this.distribution = distribution;
+      this.startTimestamp = startTimestamp;
+    }
+  }
+
+  private final ConcurrentHashMap<ImmutableList<String>, Cell> values =
       newConcurrentHashMap(DEFAULT_CONCURRENCY_LEVEL);
 
   private final DistributionFitter distributionFitter;
 
-  /**
-   * A fine-grained lock to ensure that {@code values} and {@code valueStartTimestamps} are modified
-   * and read in a critical section. The initialization parameter is the concurrency level, set to
-   * match the default concurrency level of {@link ConcurrentHashMap}.
-   *
-   * @see Striped
-   */
-  private final Striped<Lock> valueLocks = Striped.lock(DEFAULT_CONCURRENCY_LEVEL);
+  /** Keeps {@link #reset()} calls from interleaving, so all values get the same timestamp. */
+  private final Object resetLock = new Object();
 
   EventMetric(
       String name,
@@ -85,23 +94,21 @@ public final class EventMetric extends AbstractMetric<Distribution> {
     return getTimestampedValues(Instant.now());
   }
 
+  @Override
   @VisibleForTesting
   final ImmutableList<MetricPoint<Distribution>> getTimestampedValues(Instant endTimestamp) {
     ImmutableList.Builder<MetricPoint<Distribution>> timestampedValues =
         new ImmutableList.Builder<>();
 
-    for (Entry<ImmutableList<String>, MutableDistribution> entry : values.entrySet()) {
+    for (Entry<ImmutableList<String>, Cell> entry : values.entrySet()) {
       ImmutableList<String> labelValues = entry.getKey();
-      Lock lock = valueLocks.get(labelValues);
-      lock.lock();
+      Cell cell = entry.getValue();
 
       Instant startTimestamp;
       ImmutableDistribution distribution;
-      try {
-        startTimestamp = valueStartTimestamps.get(labelValues);
-        distribution = ImmutableDistribution.copyOf(entry.getValue());
-      } finally {
-        lock.unlock();
+      synchronized (cell) {
+        startTimestamp = cell.startTimestamp;
+        distribution = ImmutableDistribution.copyOf(cell.distribution);
       }
 
       // There is an opportunity for endTimestamp to be less than startTimestamp if
@@ -117,6 +124,48 @@ public final class EventMetric extends AbstractMetric<Distribution> {
     return timestampedValues.build();
   }
 
+  /** Returns the points for the label values that have changed since this was last called. */
+  @Override
+  final ImmutableList<MetricPoint<Distribution>> getChangedTimestampedValues(
+      Instant endTimestamp) {
+    ImmutableList.Builder<MetricPoint<Distribution>> timestampedValues =
+        new ImmutableList.Builder<>();
+
+    for (Entry<ImmutableList<String>, Cell> entry : values.entrySet()) {
+      Cell cell = entry.getValue();
+
+      Instant startTimestamp;
+      ImmutableDistribution distribution;
+      synchronized (cell) {
+        if (!cell.changed) {
+          continue;
+        }
+        cell.changed = false;
+        startTimestamp = cell.startTimestamp;
+        distribution = ImmutableDistribution.copyOf(cell.distribution);
+      }
+
+      timestampedValues.add(
+          MetricPoint.create(
+              this,
+              entry.getKey(),
+              startTimestamp,
+              Ordering.natural().max(startTimestamp, endTimestamp),
+              distribution));
+    }
+
+    return timestampedValues.build();
+  }
+
+  @Override
+  final void clearChanges() {
+    for (Cell cell : values.values()) {
+      synchronized (cell) {
+        cell.changed = false;
+      }
+    }
+  }
+
   /**
    * Adds the given {@code sample} to the {@link Distribution} for the given {@code labelValues}.
    *
@@ -149,19 +198,27 @@ public final class EventMetric extends AbstractMetric<Distribution> {
   @VisibleForTesting
   final void recordMultiple(
       double sample, int count, Instant startTimestamp, ImmutableList<String> labelValues) {
-    Lock lock = valueLocks.get(labelValues);
-    lock.lock();
+    Cell cell = getOrCreateCell(labelValues, startTimestamp);
+    synchronized (cell) {
+      cell.distribution.add(sample, count);
+      cell.changed = true;
+    }
+  }
 
-    try {
-      if (!values.containsKey(labelValues)) {
-        values.put(labelValues, new MutableDistribution(distributionFitter));
+  /**
+   * Returns the cell for the given label values, creating it with an empty distribution starting
+   * at {@code startTimestamp} if there isn't one yet.
+   */
+  private Cell getOrCreateCell(ImmutableList<String> labelValues, Instant startTimestamp) {
+    Cell cell = values.get(labelValues);
+    if (cell == null) {
+      Cell newCell = new Cell(new MutableDistribution(distributionFitter), startTimestamp);
+      cell = values.putIfAbsent(labelValues, newCell);
+      if (cell == null) {
+        cell = newCell;
       }
-
-      values.get(labelValues).add(sample, count);
-      valueStartTimestamps.putIfAbsent(labelValues, startTimestamp);
-    } finally {
-      lock.unlock();
     }
+    return cell;
   }
 
   /**
@@ -176,20 +233,11 @@ public final class EventMetric extends AbstractMetric<Distribution> {
 
   @VisibleForTesting
   final void reset(Instant startTime) {
-    // Lock the entire set of values so that all existing values will have a consistent timestamp
-    // after this call, without the possibility of interleaving with another reset() call.
-    for (int i = 0; i < valueLocks.size(); i++) {
-      valueLocks.getAt(i).lock();
-    }
-
-    try {
-      for (ImmutableList<String> labelValues : values.keySet()) {
-        this.values.put(labelValues, new MutableDistribution(distributionFitter));
-        this.valueStartTimestamps.put(labelValues, startTime);
-      }
-    } finally {
-      for (int i = 0; i < valueLocks.size(); i++) {
-        valueLocks.getAt(i).unlock();
+    // Serialize resets so that all existing values will have a consistent timestamp after this
+    // call, without the possibility of interleaving with another reset() call.
+    synchronized (resetLock) {
+      for (Cell cell : values.values()) {
+        resetCell(cell, startTime);
       }
     }
   }
@@ -208,14 +256,18 @@ public final class EventMetric extends AbstractMetric<Distribution> {
 
   @VisibleForTesting
   final void reset(Instant startTimestamp, ImmutableList<String> labelValues) {
-    Lock lock = valueLocks.get(labelValues);
-    lock.lock();
-
-    try {
-      this.values.put(labelValues, new MutableDistribution(distributionFitter));
-      this.valueStartTimestamps.put(labelValues, startTimestamp);
-    } finally {
-      lock.unlock();
+    resetCell(getOrCreateCell(labelValues, startTimestamp), startTimestamp);
+  }
+
+  /**
+   * Resets a cell in place, rather than replacing it in the map, so that a concurrent recording
+   * can't be lost by adding to a cell that was just replaced.
+   */
+  private void resetCell(Cell cell, Instant startTimestamp) {
+    synchronized (cell) {
+      cell.distribution = new MutableDistribution(distributionFitter);
+      cell.startTimestamp = startTimestamp;
+      cell.changed = true;
     }
   }
 }
@@ -21,6 +21,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.AbstractScheduledService;
+import java.io.IOException;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executors;
@@ -32,6 +33,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.inject.Inject;
 import javax.inject.Named;
+import org.joda.time.Instant;
 
 /**
  * Engine to write metrics to a {@link MetricWriter} on a regular periodic basis.
@@ -43,6 +45,17 @@ public class MetricReporter extends AbstractScheduledService {
 
   private static final Logger logger = Logger.getLogger(MetricReporter.class.getName());
 
+  /**
+   * How many intervals pass between writes of every value, including the cumulative values that
+   * haven't changed.
+   *
+   * <p>In between, only changed values are written. Writing everything periodically keeps a recent
+   * point in the series of values that rarely change, and makes up for intervals that were dropped
+   * or failed to be written.
+   */
+  @VisibleForTesting
+  static final int FULL_WRITE_INTERVALS = 10;
+
   private final long writeInterval;
   private final MetricRegistry metricRegistry;
   private final BlockingQueue<Optional<ImmutableList<MetricPoint<?>>>> writeQueue;
@@ -50,6 +63,9 @@ public class MetricReporter extends AbstractScheduledService {
   private final MetricWriter metricWriter;
   private final ThreadFactory threadFactory;
 
+  /** The number of intervals since every value was written, only used by the reporting thread. */
+  private int intervalsSinceFullWrite = 0;
+
   /**
    * Returns a new MetricReporter.
    *
@@ -101,8 +117,27 @@ public class MetricReporter extends AbstractScheduledService {
     TODO(shikhman): Right now timestamps are recorded for each datapoint, which may use more storage
     on the backend than if one timestamp were recorded for a batch. This should be configurable.
      */
+    // All the points of an interval end at the same time, and cumulative values that haven't
+    // changed since the last interval are only written again every FULL_WRITE_INTERVALS intervals.
+    Instant endTimestamp = Instant.now();
+    boolean writeAllValues = ++intervalsSinceFullWrite >= FULL_WRITE_INTERVALS;
+    if (writeAllValues) {
+      intervalsSinceFullWrite = 0;
+    }
     for (Metric<?> metric : metricRegistry.getRegisteredMetrics()) {
-      points.addAll(metric.getTimestampedValues());
+      if (metric instanceof AbstractMetric) {
+        AbstractMetric<?> abstractMetric = (AbstractMetric<?>) metric;
+        if (writeAllValues) {
+          // Clear the changes before reading, so that a concurrent change is written again next
+          // time, rather than lost.
+          abstractMetric.clearChanges();
+          points.addAll(abstractMetric.getTimestampedValues(endTimestamp));
+        } else {
+          points.addAll(abstractMetric.getChangedTimestampedValues(endTimestamp));
+        }
+      } else {
+        points.addAll(metric.getTimestampedValues());
+      }
       logger.fine(String.format("Enqueued metric %s", metric));
       MetricMetrics.pushedPoints.increment(
           metric.getMetricSchema().kind().name(), metric.getValueClass().toString());
@@ -132,7 +167,16 @@ public class MetricReporter extends AbstractScheduledService {
           "Failed to shut down MetricExporter because it was FAILED",
           metricExporter.failureCause());
     } catch (TimeoutException exception) {
+      // The exporter may still be using the writer, so it can't be closed.
       logger.log(Level.SEVERE, "Failed to shut down MetricExporter within the timeout", exception);
+      return;
+    }
+
+    try {
+      metricWriter.close();
+      logger.info("Closed MetricWriter");
+    } catch (IOException exception) {
+      logger.log(Level.SEVERE, "Threw an exception while closing MetricWriter", exception);
     }
   }
 
@@ -14,11 +14,12 @@
 
 package google.registry.monitoring.metrics;
 
+import java.io.Closeable;
 import java.io.Flushable;
 import java.io.IOException;
 
 /** An interface for exporting Metrics. */
-public interface MetricWriter extends Flushable {
+public interface MetricWriter extends Flushable, Closeable {
 
   /**
    * Writes a {@link MetricPoint} to the writer's destination.
@@ -33,4 +34,11 @@ public interface MetricWriter extends Flushable {
   /** Forces the writer to synchronously write all buffered metric values. */
   @Override
   void flush() throws IOException;
+
+  /**
+   * Writes all buffered metric values and releases the writer's resources, such as background
+   * threads. The writer must not be used afterwards.
+   */
+  @Override
+  void close() throws IOException;
 }
@@ -22,9 +22,8 @@ import com.google.common.collect.ImmutableRangeMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.Range;
-import com.google.common.collect.TreeRangeMap;
 import com.google.common.primitives.Doubles;
-import java.util.Map;
+import java.util.Arrays;
 import javax.annotation.concurrent.NotThreadSafe;
 
 /**
@@ -32,16 +31,31 @@ import javax.annotation.concurrent.NotThreadSafe;
  * {@link MetricPoint} instances as {@link MetricPoint} instances are supposed to represent
  * immutable values.
  *
+ * <p>The interval counts are kept in a primitive array alongside the sorted boundaries of the
+ * fitter, so adding a value is a binary search and an array increment, without any boxing. The
+ * {@link #intervalCounts()} range map is only built when it's asked for.
+ *
  * @see ImmutableDistribution
  */
 @NotThreadSafe
 public final class MutableDistribution implements Distribution {
 
-  private final TreeRangeMap<Double, Long> intervalCounts;
   private final DistributionFitter distributionFitter;
+
+  /** The finite boundaries of the intervals, in ascending order. */
+  private final double[] boundaries;
+
+  /**
+   * The count of each interval. The first is the underflow interval below the first boundary, the
+   * last is the overflow interval at or above the last boundary, and the count at index {@code i}
+   * in between is for the interval from boundary {@code i - 1} (inclusive) to boundary {@code i}
+   * (exclusive).
+   */
+  private final long[] intervalCounts;
+
   private double sumOfSquaredDeviation = 0.0;
   private double mean = 0.0;
-  private int count = 0;
+  private long count = 0;
 
   /** Constructs an empty Distribution with the specified {@link DistributionFitter}. */
   public MutableDistribution(DistributionFitter distributionFitter) {
@@ -51,18 +65,8 @@ public final class MutableDistribution implements Distribution {
     checkArgument(boundaries.size() > 0);
     checkArgument(Ordering.natural().isOrdered(boundaries));
 
-    this.intervalCounts = TreeRangeMap.create();
-
-    double[] boundariesArray = Doubles.toArray(distributionFitter.boundaries());
-
-    // Add underflow and overflow intervals
-    this.intervalCounts.put(Range.lessThan(boundariesArray[0]), 0L);
-    this.intervalCounts.put(Range.atLeast(boundariesArray[boundariesArray.length - 1]), 0L);
-
-    // Add finite intervals
-    for (int i = 1; i < boundariesArray.length; i++) {
-      this.intervalCounts.put(Range.closedOpen(boundariesArray[i - 1], boundariesArray[i]), 0L);
-    }
+    this.boundaries = Doubles.toArray(boundaries);
+    this.intervalCounts = new long[this.boundaries.length + 1];
   }
 
   public void add(double value) {
@@ -73,8 +77,7 @@ public final class MutableDistribution implements Distribution {
     checkArgument(numSamples > 0, "numSamples must be greater than 0");
     checkDouble(value);
 
-    Map.Entry<Range<Double>, Long> entry = intervalCounts.getEntry(value);
-    intervalCounts.put(entry.getKey(), entry.getValue() + numSamples);
+    intervalCounts[getIntervalIndex(value)] += numSamples;
     this.count += numSamples;
 
     // Update mean and sumOfSquaredDeviation using Welford's method
@@ -84,6 +87,14 @@ public final class MutableDistribution implements Distribution {
     sumOfSquaredDeviation += delta * (value - mean) * numSamples;
   }
 
+  /** Returns the index in {@link #intervalCounts} of the interval containing the value. */
+  private int getIntervalIndex(double value) {
+    int index = Arrays.binarySearch(boundaries, value);
+    // A value equal to a boundary belongs to the interval that starts at it. Otherwise, the
+    // insertion point is the index of the boundary that ends the value's interval.
+    return index >= 0 ? index + 1 : -index - 1;
+  }
+
   @Override
   public double mean() {
     return mean;
@@ -101,7 +112,14 @@ public final class MutableDistribution implements Distribution {
 
   @Override
   public ImmutableRangeMap<Double, Long> intervalCounts() {
-    return ImmutableRangeMap.copyOf(intervalCounts);
+    ImmutableRangeMap.Builder<Double, Long> rangeMap = ImmutableRangeMap.builder();
+    int last = boundaries.length - 1;
+    rangeMap.put(Range.lessThan(boundaries[0]), intervalCounts[0]);
+    for (int i = 1; i <= last; i++) {
+      rangeMap.put(Range.closedOpen(boundaries[i - 1], boundaries[i]), intervalCounts[i]);
+    }
+    rangeMap.put(Range.atLeast(boundaries[last]), intervalCounts[last + 1]);
+    return rangeMap.build();
   }
 
   @Override
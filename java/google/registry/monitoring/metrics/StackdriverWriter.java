@@ -17,8 +17,10 @@ package google.registry.monitoring.metrics;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
 
 import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpResponseException;
 import com.google.api.services.monitoring.v3.Monitoring;
 import com.google.api.services.monitoring.v3.model.BucketOptions;
 import com.google.api.services.monitoring.v3.model.CreateTimeSeriesRequest;
@@ -36,6 +38,7 @@ import com.google.api.services.monitoring.v3.model.TimeSeries;
 import com.google.api.services.monitoring.v3.model.TypedValue;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -45,8 +48,21 @@ import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.concurrent.NotThreadSafe;
 import javax.inject.Inject;
@@ -63,10 +79,14 @@ import org.joda.time.format.ISODateTimeFormat;
  * CPU, it buffers points to be written until it has {@code maxPointsPerRequest} points buffered or
  * until {@link #flush()} is called.
  *
+ * <p>Full requests are sent in the background, with up to {@code maxInFlightRequests} requests in
+ * flight at once, so that a slow API call doesn't hold up encoding the rest of the points. Every
+ * request, including retries, goes through the same {@link RateLimiter}. Requests that fail with a
+ * transient error are retried with exponential backoff and full jitter.
+ *
  * @see <a href="https://cloud.google.com/monitoring/api/v3/">Introduction to the Stackdriver
  *     Monitoring API</a>
  */
-// TODO(shikhman): add retry logic
 @NotThreadSafe
 public class StackdriverWriter implements MetricWriter {
 
@@ -84,6 +104,58 @@ public class StackdriverWriter implements MetricWriter {
                   google.registry.monitoring.metrics.LabelDescriptor.create("kind", "Metric Kind"),
                   google.registry.monitoring.metrics.LabelDescriptor.create(
                       "valueType", "Metric Value Type")));
+
+  /**
+   * A counter representing the total number of points dropped after failing to write them. Has
+   * {@link MetricSchema.Kind} and metric value types as labels.
+   */
+  private static final IncrementableMetric droppedPoints =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/metrics/stackdriver/points_dropped",
+              "Count of points dropped after failing to push them to Stackdriver Monitoring API.",
+              "Points Dropped",
+              ImmutableSet.of(
+                  google.registry.monitoring.metrics.LabelDescriptor.create("kind", "Metric Kind"),
+                  google.registry.monitoring.metrics.LabelDescriptor.create(
+                      "valueType", "Metric Value Type")));
+
+  /** The latency of each attempt to push points, with whether it succeeded as a label. */
+  private static final EventMetric requestLatency =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/metrics/stackdriver/request_latency",
+              "Latency of requests to the Stackdriver Monitoring API.",
+              "milliseconds",
+              ImmutableSet.of(
+                  google.registry.monitoring.metrics.LabelDescriptor.create(
+                      "outcome", "Whether the request succeeded.")),
+              EventMetric.DEFAULT_FITTER);
+
+  /** The number of requests to the Stackdriver Monitoring API in flight, across all writers. */
+  private static final AtomicInteger inFlightRequests = new AtomicInteger();
+
+  /** A gauge representing a snapshot of the number of requests in flight. */
+  @SuppressWarnings("unused")
+  private static final google.registry.monitoring.metrics.Metric<Long> inFlightRequestsGauge =
+      MetricRegistryImpl.getDefault()
+          .newGauge(
+              "/metrics/stackdriver/requests_in_flight",
+              "Count of requests to the Stackdriver Monitoring API in flight.",
+              "Requests In Flight",
+              ImmutableSet.<google.registry.monitoring.metrics.LabelDescriptor>of(),
+              new Supplier<ImmutableMap<ImmutableList<String>, Long>>() {
+                @Override
+                public ImmutableMap<ImmutableList<String>, Long> get() {
+                  return ImmutableMap.of(
+                      ImmutableList.<String>of(), (long) inFlightRequests.get());
+                }
+              },
+              Long.class);
+
+  /** The base delay before retrying a failed request, which doubles with each attempt. */
+  private static final long RETRY_DELAY_MILLIS = 100;
+  private static final int MAX_RETRY_DELAY_DOUBLINGS = 10;
   private static final String METRIC_DOMAIN = "custom.googleapis.com";
   private static final String LABEL_VALUE_TYPE = "STRING";
   private static final DateTimeFormatter DATETIME_FORMATTER = ISODateTimeFormat.dateTime();
@@ -121,13 +193,55 @@ public class StackdriverWriter implements MetricWriter {
    */
   private final HashMap<google.registry.monitoring.metrics.Metric<?>, MetricDescriptor>
       registeredDescriptors = new HashMap<>();
+  /**
+   * A local cache of the encoded bucket options of each {@link DistributionFitter}, which are the
+   * same for every point of a distribution metric.
+   */
+  private final HashMap<DistributionFitter, BucketOptions> encodedBucketOptions = new HashMap<>();
   private final String projectResource;
   private final Monitoring monitoringClient;
   private final int maxPointsPerRequest;
   private final RateLimiter rateLimiter;
+  private final int maxRetries;
+  private final long retryDelayMillis;
+  private final ExecutorService requestExecutor;
+  private final Semaphore inFlightPermits;
+  /** The requests sent since the last time the writer waited for all of them to finish. */
+  private final List<Future<Void>> inFlightFutures = new ArrayList<>();
+  /** The time series of the points in {@link #inFlightFutures}. */
+  private final Set<Metric> inFlightTimeSeries = new HashSet<>();
+  /** The first failed request since the last flush, which the next flush rethrows. */
+  private IOException firstFailure;
 
   /**
-   * Constructs a StackdriverWriter.
+   * Constructs a StackdriverWriter that sends one request at a time on the calling thread, without
+   * retrying failed requests.
+   *
+   * <p>The monitoringClient must have read and write permissions to the Cloud Monitoring API v3 on
+   * the provided project.
+   */
+  public StackdriverWriter(
+      Monitoring monitoringClient,
+      String project,
+      MonitoredResource monitoredResource,
+      int maxQps,
+      int maxPointsPerRequest) {
+    this(
+        monitoringClient,
+        project,
+        monitoredResource,
+        maxQps,
+        maxPointsPerRequest,
+        1,
+        0,
+        RETRY_DELAY_MILLIS,
+        newDirectExecutorService());
+  }
+
+  /**
+   * Constructs a StackdriverWriter that sends up to {@code maxInFlightRequests} requests at once on
+   * threads from the provided factory, retrying each failed request up to {@code maxRetries} times.
+   * The threads are stopped by {@link #close}, which {@link MetricReporter} calls when it stops.
    *
    * <p>The monitoringClient must have read and write permissions to the Cloud Monitoring API v3 on
    * the provided project.
@@ -138,13 +252,45 @@ public class StackdriverWriter implements MetricWriter {
       String project,
       MonitoredResource monitoredResource,
       @Named("stackdriverMaxQps") int maxQps,
-      @Named("stackdriverMaxPointsPerRequest") int maxPointsPerRequest) {
+      @Named("stackdriverMaxPointsPerRequest") int maxPointsPerRequest,
+      @Named("stackdriverMaxInFlightRequests") int maxInFlightRequests,
+      @Named("stackdriverMaxRetries") int maxRetries,
+      @Named("metricsBackgroundThreadFactory") ThreadFactory threadFactory) {
+    this(
+        monitoringClient,
+        project,
+        monitoredResource,
+        maxQps,
+        maxPointsPerRequest,
+        maxInFlightRequests,
+        maxRetries,
+        RETRY_DELAY_MILLIS,
+        Executors.newFixedThreadPool(maxInFlightRequests, threadFactory));
+  }
+
+  @VisibleForTesting
+  StackdriverWriter(
+      Monitoring monitoringClient,
+      String project,
+      MonitoredResource monitoredResource,
+      int maxQps,
+      int maxPointsPerRequest,
+      int maxInFlightRequests,
+      int maxRetries,
+      long retryDelayMillis,
+      ExecutorService requestExecutor) {
+    checkArgument(maxInFlightRequests > 0, "maxInFlightRequests must be positive");
+    checkArgument(maxRetries >= 0, "maxRetries must not be negative");
     this.monitoringClient = checkNotNull(monitoringClient);
     this.projectResource = "projects/" + checkNotNull(project);
     this.monitoredResource = monitoredResource;
     this.maxPointsPerRequest = maxPointsPerRequest;
     this.timeSeriesBuffer = new ArrayDeque<>(maxPointsPerRequest);
     this.rateLimiter = RateLimiter.create(maxQps);
+    this.maxRetries = maxRetries;
+    this.retryDelayMillis = retryDelayMillis;
+    this.requestExecutor = checkNotNull(requestExecutor);
+    this.inFlightPermits = new Semaphore(maxInFlightRequests);
   }
 
   @VisibleForTesting
@@ -175,7 +321,13 @@ public class StackdriverWriter implements MetricWriter {
         .setMetricKind(ENCODED_METRIC_KINDS.get(metric.getMetricSchema().kind().name()));
   }
 
-  /** Encodes and writes a metric point to Stackdriver. The point may be buffered. */
+  /**
+   * Encodes and writes a metric point to Stackdriver. The point may be buffered.
+   *
+   * <p>Once {@code maxPointsPerRequest} points are buffered, they're sent to Stackdriver in the
+   * background. This blocks only if {@code maxInFlightRequests} requests are already in flight, or
+   * if one of them contains a point of the same time series, which must be written first.
+   */
   @Override
   public <V> void write(google.registry.monitoring.metrics.MetricPoint<V> point)
       throws IOException {
@@ -186,28 +338,144 @@ public class StackdriverWriter implements MetricWriter {
 
     logger.fine(String.format("Enqueued metric %s for writing", timeSeries.getMetric().getType()));
     if (timeSeriesBuffer.size() == maxPointsPerRequest) {
-      flush();
+      sendBuffer();
     }
   }
 
-  /** Flushes all buffered metric points to Stackdriver. This call is blocking. */
+  /**
+   * Flushes all buffered metric points to Stackdriver. This call is blocking.
+   *
+   * <p>Waits for all requests in flight to finish, and throws if any of them failed since the
+   * last flush, after exhausting its retries.
+   */
   @Override
   public void flush() throws IOException {
     checkState(timeSeriesBuffer.size() <= 200, FLUSH_OVERFLOW_ERROR);
 
-    // Return early; Stackdriver throws errors if we attempt to send empty requests.
+    // Stackdriver throws errors if we attempt to send empty requests.
     if (timeSeriesBuffer.isEmpty()) {
       logger.fine("Attempted to flush with no pending points, doing nothing");
-      return;
+    } else {
+      sendBuffer();
     }
+    awaitInFlightRequests();
+
+    IOException failure = firstFailure;
+    firstFailure = null;
+    if (failure != null) {
+      throw new IOException("Failed to write metrics to Stackdriver", failure);
+    }
+  }
 
-    ImmutableList<TimeSeries> timeSeriesList = ImmutableList.copyOf(timeSeriesBuffer);
+  /**
+   * Flushes all buffered metric points to Stackdriver, and then shuts down the request executor.
+   * Points written afterwards are counted as dropped.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      requestExecutor.shutdown();
+    }
+  }
+
+  /**
+   * Sends the buffered points to Stackdriver as a single request, on the request executor.
+   *
+   * <p>Stackdriver rejects points that are older than the last point written to their time series,
+   * so if a request in flight contains any of the same time series, this waits for the requests in
+   * flight to finish first.
+   */
+  private void sendBuffer() {
+    final ImmutableList<TimeSeries> timeSeriesList = ImmutableList.copyOf(timeSeriesBuffer);
     timeSeriesBuffer.clear();
 
-    CreateTimeSeriesRequest request = new CreateTimeSeriesRequest().setTimeSeries(timeSeriesList);
+    for (TimeSeries timeSeries : timeSeriesList) {
+      if (inFlightTimeSeries.contains(timeSeries.getMetric())) {
+        awaitInFlightRequests();
+        break;
+      }
+    }
+    for (TimeSeries timeSeries : timeSeriesList) {
+      inFlightTimeSeries.add(timeSeries.getMetric());
+    }
 
-    rateLimiter.acquire();
-    monitoringClient.projects().timeSeries().create(projectResource, request).execute();
+    inFlightPermits.acquireUninterruptibly();
+    inFlightRequests.incrementAndGet();
+    try {
+      inFlightFutures.add(
+          requestExecutor.submit(
+              new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                  try {
+                    sendWithRetries(timeSeriesList);
+                    return null;
+                  } finally {
+                    inFlightRequests.decrementAndGet();
+                    inFlightPermits.release();
+                  }
+                }
+              }));
+    } catch (RejectedExecutionException e) {
+      inFlightRequests.decrementAndGet();
+      inFlightPermits.release();
+      recordDroppedPoints(timeSeriesList, e);
+    }
+  }
+
+  /** Waits for all requests in flight to finish, and records the first failure. */
+  private void awaitInFlightRequests() {
+    boolean interrupted = false;
+    for (Future<Void> future : inFlightFutures) {
+      while (true) {
+        try {
+          future.get();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          if (firstFailure == null) {
+            firstFailure =
+                e.getCause() instanceof IOException
+                    ? (IOException) e.getCause()
+                    : new IOException(e.getCause());
+          }
+          break;
+        }
+      }
+    }
+    inFlightFutures.clear();
+    inFlightTimeSeries.clear();
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Sends a single request to Stackdriver, retrying transient failures with exponential backoff
+   * and full jitter. The points are counted as dropped if every attempt fails.
+   */
+  private void sendWithRetries(ImmutableList<TimeSeries> timeSeriesList) throws IOException {
+    CreateTimeSeriesRequest request = new CreateTimeSeriesRequest().setTimeSeries(timeSeriesList);
+    for (int attempt = 0; ; attempt++) {
+      rateLimiter.acquire();
+      long startNanos = System.nanoTime();
+      try {
+        monitoringClient.projects().timeSeries().create(projectResource, request).execute();
+        requestLatency.record(millisSince(startNanos), "SUCCESS");
+        break;
+      } catch (IOException | RuntimeException e) {
+        requestLatency.record(millisSince(startNanos), "FAILURE");
+        if (attempt >= maxRetries || !isRetriable(e)) {
+          recordDroppedPoints(timeSeriesList, e);
+          throw e;
+        }
+        logger.log(Level.WARNING, "Retrying failed write of metrics to Stackdriver", e);
+        sleepBeforeRetry(attempt);
+      }
+    }
 
     for (TimeSeries timeSeries : timeSeriesList) {
       pushedPoints.increment(timeSeries.getMetricKind(), timeSeries.getValueType());
@@ -215,6 +483,38 @@ public class StackdriverWriter implements MetricWriter {
     logger.info(String.format("Flushed %d metrics to Stackdriver", timeSeriesList.size()));
   }
 
+  /** Client errors other than rate limiting won't succeed on retry, so they aren't retried. */
+  private static boolean isRetriable(Exception e) {
+    if (e instanceof HttpResponseException) {
+      int statusCode = ((HttpResponseException) e).getStatusCode();
+      return statusCode == 429 || statusCode >= 500;
+    }
+    return e instanceof IOException;
+  }
+
+  private void sleepBeforeRetry(int attempt) {
+    long maxDelayMillis = retryDelayMillis << Math.min(attempt, MAX_RETRY_DELAY_DOUBLINGS);
+    try {
+      Thread.sleep((long) (ThreadLocalRandom.current().nextDouble() * maxDelayMillis));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void recordDroppedPoints(ImmutableList<TimeSeries> timeSeriesList, Exception e) {
+    logger.log(
+        Level.SEVERE,
+        String.format("Dropped %d metrics after failing to write them", timeSeriesList.size()),
+        e);
+    for (TimeSeries timeSeries : timeSeriesList) {
+      droppedPoints.increment(timeSeries.getMetricKind(), timeSeries.getValueType());
+    }
+  }
+
+  private static double millisSince(long startNanos) {
+    return (System.nanoTime() - startNanos) / 1e6;
+  }
+
   /**
    * Registers a metric's {@link MetricDescriptor} with the Monitoring API.
    *
@@ -311,13 +611,19 @@ public class StackdriverWriter implements MetricWriter {
     return distribution.intervalCounts().asMapOfRanges().values().asList();
   }
 
-  private static Distribution encodeDistribution(
+  private Distribution encodeDistribution(
       google.registry.monitoring.metrics.Distribution nativeDistribution) {
+    DistributionFitter fitter = nativeDistribution.distributionFitter();
+    BucketOptions bucketOptions = encodedBucketOptions.get(fitter);
+    if (bucketOptions == null) {
+      bucketOptions = encodeBucketOptions(fitter);
+      encodedBucketOptions.put(fitter, bucketOptions);
+    }
     return new Distribution()
         .setMean(nativeDistribution.mean())
         .setCount(nativeDistribution.count())
         .setSumOfSquaredDeviation(nativeDistribution.sumOfSquaredDeviation())
-        .setBucketOptions(encodeBucketOptions(nativeDistribution.distributionFitter()))
+        .setBucketOptions(bucketOptions)
         .setBucketCounts(encodeDistributionPoints(nativeDistribution));
   }
 
@@ -77,6 +77,7 @@ public class StoredMetric<V> extends AbstractMetric<V> implements SettableMetric
     return values.size();
   }
 
+  @Override
   @VisibleForTesting
   final ImmutableList<MetricPoint<V>> getTimestampedValues(Instant timestamp) {
     ImmutableList.Builder<MetricPoint<V>> timestampedValues = new Builder<>();
@@ -75,6 +75,7 @@ public final class VirtualMetric<V> extends AbstractMetric<V> {
     return cardinality;
   }
 
+  @Override
   @VisibleForTesting
   ImmutableList<MetricPoint<V>> getTimestampedValues(Instant timestamp) {
     ImmutableMap<ImmutableList<String>, V> values = valuesSupplier.get();
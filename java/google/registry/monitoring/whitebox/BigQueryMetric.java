@@ -21,7 +21,7 @@ import com.google.common.collect.ImmutableMap;
 /**
  * A metric which can be encoded into a BigQuery row.
  *
- * @see BigQueryMetricsEnqueuer
+ * @see BigQueryMetricsBatcher
  */
 public interface BigQueryMetric {
 
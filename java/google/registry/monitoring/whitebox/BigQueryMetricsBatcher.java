@@ -0,0 +1,282 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.monitoring.whitebox;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.api.services.bigquery.Bigquery;
+import com.google.api.services.bigquery.model.TableDataInsertAllRequest;
+import com.google.api.services.bigquery.model.TableDataInsertAllRequest.Rows;
+import com.google.api.services.bigquery.model.TableDataInsertAllResponse;
+import com.google.api.services.bigquery.model.TableDataInsertAllResponse.InsertErrors;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multimaps;
+import com.google.common.util.concurrent.AbstractExecutionThreadService;
+import google.registry.config.ConfigModule.Config;
+import google.registry.monitoring.metrics.IncrementableMetric;
+import google.registry.monitoring.metrics.LabelDescriptor;
+import google.registry.monitoring.metrics.MetricRegistryImpl;
+import google.registry.util.FormattingLogger;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.joda.time.Duration;
+
+/**
+ * Exporter that buffers {@link BigQueryMetric}s in memory and streams them to BigQuery in batches,
+ * with one multi-row insert per table.
+ *
+ * <p>This avoids a task and a single-row insert for every EPP command. A background thread
+ * flushes the buffer whenever it holds a full batch, or when the oldest buffered metric has waited
+ * for the flush interval. If the buffer is full, exporting waits briefly for the background thread
+ * to catch up, and then drops the metric rather than holding up the request. Exported, dropped and
+ * failed rows are counted by table in the {@code /bigquery/metrics/rows} metric.
+ *
+ * <p>The exporter is started and stopped along with the frontend and tools instances, and stopping
+ * it flushes everything that's still buffered. While it isn't running, like before the instance has
+ * started it or after it has stopped it, each metric is inserted on the calling thread instead.
+ */
+@Singleton
+public class BigQueryMetricsBatcher extends AbstractExecutionThreadService {
+
+  private static final FormattingLogger logger = FormattingLogger.getLoggerForCallerClass();
+
+  private static final String DATASET_ID = "metrics";
+
+  /** How long exporting a metric waits for room in a full buffer before dropping it. */
+  private static final long OFFER_TIMEOUT_MILLIS = 10;
+
+  private static final ImmutableSet<LabelDescriptor> LABEL_DESCRIPTORS =
+      ImmutableSet.of(
+          LabelDescriptor.create("table", "The BigQuery table of the metric."),
+          LabelDescriptor.create("outcome", "Whether the row was exported, dropped or failed."));
+
+  private static final IncrementableMetric rows =
+      MetricRegistryImpl.getDefault()
+          .newIncrementableMetric(
+              "/bigquery/metrics/rows",
+              "Count of BigQuery metric rows by outcome",
+              "count",
+              LABEL_DESCRIPTORS);
+
+  /**
+   * Marker put in the buffer to wake up the background thread when the exporter is stopped.
+   *
+   * <p>Every other element of the buffer is present.
+   */
+  private static final Optional<BigQueryMetric> STOP = Optional.absent();
+
+  private static final Function<BigQueryMetric, String> GET_TABLE_ID =
+      new Function<BigQueryMetric, String>() {
+        @Override
+        public String apply(BigQueryMetric metric) {
+          return metric.getTableId();
+        }};
+
+  private final Bigquery bigquery;
+  private final String projectId;
+  private final ThreadFactory threadFactory;
+  private final Supplier<String> idGenerator;
+  private final int maxBatchSize;
+  private final long flushIntervalMillis;
+  private final BlockingQueue<Optional<BigQueryMetric>> buffer;
+
+  @Inject
+  BigQueryMetricsBatcher(
+      Bigquery bigquery,
+      @Config("projectId") String projectId,
+      @Named("metricsBackgroundThreadFactory") ThreadFactory threadFactory,
+      @Config("bigQueryMetricsMaxBatchSize") int maxBatchSize,
+      @Config("bigQueryMetricsFlushInterval") Duration flushInterval,
+      @Config("bigQueryMetricsBufferSize") int bufferSize) {
+    this(
+        bigquery,
+        projectId,
+        threadFactory,
+        new Supplier<String>() {
+          @Override
+          public String get() {
+            return UUID.randomUUID().toString();
+          }},
+        maxBatchSize,
+        flushInterval,
+        bufferSize);
+  }
+
+  @VisibleForTesting
+  BigQueryMetricsBatcher(
+      Bigquery bigquery,
+      String projectId,
+      ThreadFactory threadFactory,
+      Supplier<String> idGenerator,
+      int maxBatchSize,
+      Duration flushInterval,
+      int bufferSize) {
+    checkArgument(maxBatchSize > 0, "maxBatchSize must be positive");
+    checkArgument(flushInterval.getMillis() > 0, "flushInterval must be positive");
+    checkArgument(bufferSize >= maxBatchSize, "bufferSize must be at least maxBatchSize");
+    this.bigquery = bigquery;
+    this.projectId = projectId;
+    this.threadFactory = threadFactory;
+    this.idGenerator = idGenerator;
+    this.maxBatchSize = maxBatchSize;
+    this.flushIntervalMillis = flushInterval.getMillis();
+    this.buffer = new ArrayBlockingQueue<>(bufferSize);
+  }
+
+  /** Buffers a metric to be exported by the background thread, or exports it if not running. */
+  public void export(BigQueryMetric metric) {
+    if (!isRunning()) {
+      insert(ImmutableList.of(metric));
+      return;
+    }
+    try {
+      if (buffer.offer(Optional.of(metric), OFFER_TIMEOUT_MILLIS, MILLISECONDS)) {
+        // If the exporter stopped while the metric was being buffered, the background thread may
+        // have already flushed the buffer for the last time, so flush it here instead.
+        if (!isRunning()) {
+          flushBuffer();
+        }
+        return;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    rows.increment(metric.getTableId(), "DROPPED");
+  }
+
+  @Override
+  protected void run() throws InterruptedException {
+    while (isRunning()) {
+      List<BigQueryMetric> batch = awaitBatch();
+      if (!batch.isEmpty()) {
+        insert(batch);
+      }
+    }
+    // Flush whatever was buffered before the exporter was stopped.
+    flushBuffer();
+  }
+
+  /** Wakes up the background thread, so that it doesn't wait out the flush interval. */
+  @Override
+  protected void triggerShutdown() {
+    buffer.offer(STOP);
+  }
+
+  /**
+   * Waits until there's a full batch of metrics, or until the flush interval has passed since the
+   * first metric of the batch arrived, and returns the batch.
+   *
+   * <p>Returns early if nothing arrives within the flush interval, or if the exporter is stopped,
+   * so that the background thread can check whether it should stop.
+   */
+  private List<BigQueryMetric> awaitBatch() throws InterruptedException {
+    List<BigQueryMetric> batch = new ArrayList<>(maxBatchSize);
+    Optional<BigQueryMetric> next = buffer.poll(flushIntervalMillis, MILLISECONDS);
+    long deadline = System.currentTimeMillis() + flushIntervalMillis;
+    while (next != null && next.isPresent()) {
+      batch.add(next.get());
+      long remainingMillis = deadline - System.currentTimeMillis();
+      if (batch.size() == maxBatchSize || remainingMillis <= 0) {
+        break;
+      }
+      next = buffer.poll(remainingMillis, MILLISECONDS);
+    }
+    return batch;
+  }
+
+  /**
+   * Inserts everything in the buffer on the calling thread.
+   *
+   * <p>This is safe to call from several threads at once, since each metric is only taken out of
+   * the buffer once.
+   */
+  private void flushBuffer() {
+    List<Optional<BigQueryMetric>> drained = new ArrayList<>(maxBatchSize);
+    while (buffer.drainTo(drained, maxBatchSize) > 0) {
+      insert(ImmutableList.copyOf(Optional.presentInstances(drained)));
+      drained.clear();
+    }
+  }
+
+  /** Inserts metrics into their tables, with one insert request per table. */
+  private void insert(Collection<BigQueryMetric> metrics) {
+    for (Map.Entry<String, Collection<BigQueryMetric>> table
+        : Multimaps.index(metrics, GET_TABLE_ID).asMap().entrySet()) {
+      insertIntoTable(table.getKey(), table.getValue());
+    }
+  }
+
+  private void insertIntoTable(String tableId, Collection<BigQueryMetric> metrics) {
+    ImmutableList.Builder<Rows> tableRows = new ImmutableList.Builder<>();
+    for (BigQueryMetric metric : metrics) {
+      tableRows.add(new Rows()
+          .setInsertId(idGenerator.get())
+          .setJson(ImmutableMap.<String, Object>copyOf(metric.getBigQueryRowEncoding())));
+    }
+    try {
+      TableDataInsertAllResponse response = bigquery.tabledata()
+          .insertAll(
+              projectId,
+              DATASET_ID,
+              tableId,
+              new TableDataInsertAllRequest().setRows(tableRows.build()))
+          .execute();
+      List<InsertErrors> insertErrors = response.getInsertErrors();
+      int failedRows = insertErrors == null ? 0 : insertErrors.size();
+      if (failedRows > 0) {
+        logger.warningfmt(
+            "Failed to insert %d of %d rows into %s: %s",
+            failedRows, metrics.size(), tableId, insertErrors);
+        rows.incrementBy(failedRows, tableId, "FAILED");
+      }
+      rows.incrementBy(metrics.size() - failedRows, tableId, "EXPORTED");
+    } catch (IOException | RuntimeException e) {
+      logger.warningfmt(e, "Failed to insert %d rows into %s", metrics.size(), tableId);
+      rows.incrementBy(metrics.size(), tableId, "FAILED");
+    }
+  }
+
+  @Override
+  protected Executor executor() {
+    return new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        threadFactory.newThread(command).start();
+      }};
+  }
+
+  @Override
+  protected String serviceName() {
+    return getClass().getSimpleName();
+  }
+}
@@ -29,7 +29,7 @@ import org.joda.time.DateTime;
 /**
  * A value class for recording attributes of an EPP metric.
  *
- * @see BigQueryMetricsEnqueuer
+ * @see BigQueryMetricsBatcher
  */
 @AutoValue
 public abstract class EppMetric implements BigQueryMetric {
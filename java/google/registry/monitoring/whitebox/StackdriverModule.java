@@ -59,7 +59,10 @@ public final class StackdriverModule {
       @Config("projectId") String projectId,
       ModulesService modulesService,
       @Config("stackdriverMaxQps") int maxQps,
-      @Config("stackdriverMaxPointsPerRequest") int maxPointsPerRequest) {
+      @Config("stackdriverMaxPointsPerRequest") int maxPointsPerRequest,
+      @Config("stackdriverMaxInFlightRequests") int maxInFlightRequests,
+      @Config("stackdriverMaxRetries") int maxRetries,
+      @Named("metricsBackgroundThreadFactory") ThreadFactory threadFactory) {
     // The MonitoredResource for GAE apps is not writable (and missing fields anyway) so we just
     // use the gce_instance resource type instead.
     return new StackdriverWriter(
@@ -81,7 +84,10 @@ public final class StackdriverModule {
                         + ":"
                         + modulesService.getCurrentInstanceId())),
         maxQps,
-        maxPointsPerRequest);
+        maxPointsPerRequest,
+        maxInFlightRequests,
+        maxRetries,
+        threadFactory);
   }
 
   @Provides
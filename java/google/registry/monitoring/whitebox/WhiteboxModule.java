@@ -14,8 +14,6 @@
 
 package google.registry.monitoring.whitebox;
 
-import static google.registry.request.RequestParameters.extractRequiredParameter;
-
 import com.google.api.services.bigquery.model.TableFieldSchema;
 import com.google.apphosting.api.ApiProxy;
 import com.google.common.base.Supplier;
@@ -24,11 +22,9 @@ import dagger.Module;
 import dagger.Provides;
 import dagger.multibindings.IntoMap;
 import dagger.multibindings.StringKey;
-import google.registry.request.Parameter;
 import google.registry.util.Clock;
 import java.util.UUID;
 import javax.inject.Named;
-import javax.servlet.http.HttpServletRequest;
 
 /**
  * Dagger module for injecting common settings for Whitebox tasks.
@@ -52,18 +48,6 @@ public class WhiteboxModule {
     return EntityIntegrityAlertsSchema.SCHEMA_FIELDS;
   }
 
-  @Provides
-  @Parameter("tableId")
-  static String provideTableId(HttpServletRequest req) {
-    return extractRequiredParameter(req, "tableId");
-  }
-
-  @Provides
-  @Parameter("insertId")
-  static String provideInsertId(HttpServletRequest req) {
-    return extractRequiredParameter(req, "insertId");
-  }
-
   @Provides
   @Named("insertIdGenerator")
   static Supplier<String> provideInsertIdGenerator() {
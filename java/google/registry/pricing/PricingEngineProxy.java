@@ -18,7 +18,12 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import static google.registry.util.DomainNameUtils.getTldFromDomainName;
 
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multimaps;
 import google.registry.model.pricing.PremiumPricingEngine;
 import google.registry.model.pricing.PremiumPricingEngine.DomainPrices;
 import google.registry.model.registry.Registry;
@@ -63,11 +68,39 @@ public final class PricingEngineProxy {
    * domain is under.
    */
   public static DomainPrices getPricesForDomainName(String domainName, DateTime priceTime) {
-    String tld = getTldFromDomainName(domainName);
+    return getPricingEngine(getTldFromDomainName(domainName))
+        .getDomainPrices(domainName, priceTime);
+  }
+
+  /**
+   * Returns the full {@link DomainPrices} details for each of the given domain names, keyed by
+   * domain name.
+   *
+   * <p>The names are grouped by TLD, and the {@link PremiumPricingEngine} of each TLD prices all
+   * of its names in one call, so the registry and premium list of a TLD are only looked up once.
+   */
+  public static ImmutableMap<String, DomainPrices> getPricesForDomainNames(
+      Iterable<String> domainNames, DateTime priceTime) {
+    ImmutableListMultimap<String, String> domainNamesByTld = Multimaps.index(
+        ImmutableSet.copyOf(domainNames),
+        new Function<String, String>() {
+          @Override
+          public String apply(String domainName) {
+            return getTldFromDomainName(domainName);
+          }});
+    ImmutableMap.Builder<String, DomainPrices> prices = new ImmutableMap.Builder<>();
+    for (String tld : domainNamesByTld.keySet()) {
+      prices.putAll(getPricingEngine(tld)
+          .getAllDomainPrices(tld, domainNamesByTld.get(tld), priceTime));
+    }
+    return prices.build();
+  }
+
+  private static PremiumPricingEngine getPricingEngine(String tld) {
     String clazz = Registry.get(tld).getPremiumPricingEngineClassName();
     PremiumPricingEngine engine = premiumPricingEngines.get(clazz);
     checkState(engine != null, "Could not load pricing engine %s for TLD %s", clazz, tld);
-    return engine.getDomainPrices(domainName, priceTime);
+    return engine;
   }
 
   private PricingEngineProxy() {}
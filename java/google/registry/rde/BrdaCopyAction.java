@@ -15,6 +15,7 @@
 package google.registry.rde;
 
 import static google.registry.model.rde.RdeMode.THIN;
+import static google.registry.rde.Ghostryde.MAX_QUEUED_CHUNKS;
 import static google.registry.request.Action.Method.POST;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -27,6 +28,7 @@ import google.registry.model.rde.RdeNamingUtils;
 import google.registry.request.Action;
 import google.registry.request.Parameter;
 import google.registry.request.RequestParameters;
+import google.registry.util.BackgroundOutputStream;
 import google.registry.util.FormattingLogger;
 import java.io.BufferedInputStream;
 import java.io.IOException;
@@ -68,6 +70,7 @@ public final class BrdaCopyAction implements Runnable {
   @Inject RydeTarOutputStreamFactory tarFactory;
   @Inject @Config("brdaBucket") String brdaBucket;
   @Inject @Config("rdeBucket") String stagingBucket;
+  @Inject @Config("rdeRydeBufferSize") int bufferSize;
   @Inject @Parameter(RequestParameters.PARAM_TLD) String tld;
   @Inject @Parameter(RdeModule.PARAM_WATERMARK) DateTime watermark;
   @Inject @Key("brdaReceiverKey") PGPPublicKey receiverKey;
@@ -103,7 +106,9 @@ public final class BrdaCopyAction implements Runnable {
         OutputStream gcsOutput = gcsUtils.openOutputStream(rydeFile);
         RydePgpSigningOutputStream signLayer = pgpSigningFactory.create(gcsOutput, signingKey)) {
       try (OutputStream encryptLayer = pgpEncryptionFactory.create(signLayer, receiverKey);
-          OutputStream compressLayer = pgpCompressionFactory.create(encryptLayer);
+          OutputStream handOff =
+              BackgroundOutputStream.create(encryptLayer, bufferSize, MAX_QUEUED_CHUNKS);
+          OutputStream compressLayer = pgpCompressionFactory.create(handOff);
           OutputStream fileLayer = pgpFileFactory.create(compressLayer, watermark, prefix + ".tar");
           OutputStream tarLayer =
               tarFactory.create(fileLayer, xmlLength, watermark, prefix + ".xml")) {
@@ -25,11 +25,13 @@ import static org.joda.time.DateTimeZone.UTC;
 
 import com.google.common.io.ByteStreams;
 import google.registry.config.ConfigModule.Config;
+import google.registry.util.BackgroundOutputStream;
 import google.registry.util.FormattingLogger;
 import google.registry.util.ImprovedInputStream;
 import google.registry.util.ImprovedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -102,10 +104,17 @@ import org.joda.time.DateTime;
  *     ByteStreams.copy(input, fileOutput);
  *   &rbrace;}</pre>
  *
+ * <p>In an App Engine request, data written to the {@link Compressor} is handed off to another
+ * thread for encryption, and the encrypted data to a third thread for writing to the upstream
+ * {@link OutputStream}, so that compression, encryption and I/O each get their own core. The
+ * handoffs are bounded queues of {@code bufferSize} chunks, so a slow upstream still slows down
+ * the writer. Closing each stream waits for the threads it handed off to.
+ *
  * <h2>Simple API</h2>
  *
  * <p>If you're writing test code or are certain your data can fit in memory, you might find these
- * static methods more convenient:
+ * static methods more convenient. They buffer the whole payload in memory, so they mustn't be used
+ * for deposits:
  *
  * <pre>   {@code
  *   byte[] data = "hello kitty".getBytes(UTF_8);
@@ -162,6 +171,16 @@ public final class Ghostryde {
    */
   static final String RANDOM_SOURCE = "NativePRNG";
 
+  /**
+   * Number of full chunks that may wait for the thread of the next layer when writing.
+   *
+   * <p>Four chunks are enough to smooth over uneven work of the layers, while keeping the memory
+   * of a pipeline at a few times its buffer size.
+   *
+   * @see BackgroundOutputStream
+   */
+  static final int MAX_QUEUED_CHUNKS = 4;
+
   /**
    * Creates a ghostryde file from an in-memory byte array.
    *
@@ -358,6 +377,36 @@ public final class Ghostryde {
     }
   }
 
+  /**
+   * Layer of a writing pipeline whose output is handed off to the thread of the next layer.
+   *
+   * <p>Closing it first closes the layer, which writes the end of its packet, and then waits for
+   * the next layer's thread to write everything.
+   */
+  @NotThreadSafe
+  private static final class HandOffLayer extends FilterOutputStream {
+    private final BackgroundOutputStream handOff;
+
+    HandOffLayer(OutputStream layer, BackgroundOutputStream handOff) {
+      super(layer);
+      this.handOff = handOff;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        out.close();
+      } finally {
+        handOff.close();
+      }
+    }
+  }
+
   private final int bufferSize;
 
   /** Constructs a new {@link Ghostryde} object. */
@@ -388,7 +437,10 @@ public final class Ghostryde {
            .setSecureRandom(getRandom())
            .setProvider(PROVIDER_NAME));
     encryptor.addMethod(new BcPublicKeyKeyEncryptionMethodGenerator(publicKey));
-    return new Encryptor(encryptor.open(os, new byte[bufferSize]));
+    BackgroundOutputStream handOff =
+        BackgroundOutputStream.create(os, bufferSize, MAX_QUEUED_CHUNKS);
+    return new Encryptor(
+        new HandOffLayer(encryptor.open(handOff, new byte[bufferSize]), handOff));
   }
 
   /** Does stuff. */
@@ -415,7 +467,10 @@ public final class Ghostryde {
   @CheckReturnValue
   public Compressor openCompressor(@WillNotClose Encryptor os) throws IOException, PGPException {
     PGPCompressedDataGenerator kompressor = new PGPCompressedDataGenerator(COMPRESSION_ALGORITHM);
-    return new Compressor(kompressor.open(os, new byte[bufferSize]));
+    BackgroundOutputStream handOff =
+        BackgroundOutputStream.create(os, bufferSize, MAX_QUEUED_CHUNKS);
+    return new Compressor(
+        new HandOffLayer(kompressor.open(handOff, new byte[bufferSize]), handOff));
   }
 
   /**
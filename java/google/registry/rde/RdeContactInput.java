@@ -30,9 +30,11 @@ import google.registry.config.ConfigModule;
 import google.registry.gcs.GcsUtils;
 import google.registry.model.contact.ContactResource;
 import google.registry.rde.RdeParser.RdeHeader;
+import google.registry.rde.RdeShardIndex.ShardStart;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
+import javax.annotation.Nullable;
 
 /**
  * A MapReduce {@link Input} that imports {@link ContactResource} objects from an escrow file.
@@ -91,9 +93,12 @@ public class RdeContactInput extends Input<ContactResource> {
     ImmutableList.Builder<RdeContactReader> builder = new ImmutableList.Builder<>();
     int contactsPerReader =
         Math.max(MINIMUM_RECORDS_PER_READER, divide(numberOfContacts, numReaders, CEILING));
+    ImmutableList<ShardStart> shardStarts = scanShardStarts(contactsPerReader);
     int offset = 0;
     for (int i = 0; i < numReaders; i++) {
-      builder = builder.add(newReader(offset, contactsPerReader));
+      // if the file has fewer contacts than its header says, a reader may not have a shard start
+      builder = builder.add(
+          newReader(offset, contactsPerReader, i < shardStarts.size() ? shardStarts.get(i) : null));
       offset += contactsPerReader;
     }
     return builder.build();
@@ -102,8 +107,24 @@ public class RdeContactInput extends Input<ContactResource> {
   /**
    * Creates a new instance of {@link RdeContactReader}
    */
-  private RdeContactReader newReader(int offset, int maxResults) {
-    return new RdeContactReader(importBucketName, importFileName, offset, maxResults);
+  private RdeContactReader newReader(
+      int offset, int maxResults, @Nullable ShardStart shardStart) {
+    return new RdeContactReader(importBucketName, importFileName, offset, maxResults, shardStart);
+  }
+
+  /**
+   * Scans the escrow file for where the contacts of each reader start
+   */
+  private ImmutableList<ShardStart> scanShardStarts(int contactsPerReader) {
+    GcsUtils utils = new GcsUtils(GCS_SERVICE, ConfigModule.provideGcsBufferSize());
+    GcsFilename filename = new GcsFilename(importBucketName, importFileName);
+    try {
+      return RdeShardIndex.scan(
+          utils, filename, RdeParser.RDE_CONTACT_URI, "contact", contactsPerReader);
+    } catch (Exception e) {
+      throw new InitializationException(
+          String.format("Error scanning rde file %s/%s", importBucketName, importFileName), e);
+    }
   }
 
   /**
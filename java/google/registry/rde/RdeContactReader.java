@@ -22,11 +22,12 @@ import com.google.appengine.tools.mapreduce.InputReader;
 import google.registry.config.ConfigModule;
 import google.registry.gcs.GcsUtils;
 import google.registry.model.contact.ContactResource;
+import google.registry.rde.RdeShardIndex.ShardStart;
 import google.registry.util.FormattingLogger;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.Serializable;
 import java.util.NoSuchElementException;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 /** Mapreduce {@link InputReader} for reading contacts from escrow files */
@@ -43,6 +44,7 @@ public class RdeContactReader extends InputReader<ContactResource> implements Se
   final String importFileName;
   final int offset;
   final int maxResults;
+  @Nullable final ShardStart shardStart;
 
   private int count = 0;
 
@@ -54,13 +56,19 @@ public class RdeContactReader extends InputReader<ContactResource> implements Se
   private RdeParser newParser() {
     GcsUtils utils = new GcsUtils(GCS_SERVICE, ConfigModule.provideGcsBufferSize());
     GcsFilename filename = new GcsFilename(importBucketName, importFileName);
-    InputStream xmlInput = utils.openInputStream(filename);
     try {
-      RdeParser parser = new RdeParser(xmlInput);
-      // skip the file offset and count
       // if count is greater than 0, the reader has been rehydrated after doing some work.
       // skip any already processed records.
-      parser.skipContacts(offset + count);
+      RdeParser parser;
+      if (shardStart == null) {
+        // without a shard start, parse from the beginning of the file and skip the file offset
+        parser = new RdeParser(utils.openInputStream(filename));
+        parser.skipContacts(offset + count);
+      } else {
+        parser = RdeParser.createWithoutHeader(
+            shardStart.toDocument(utils.openInputStream(filename, shardStart.position)));
+        parser.skipContacts(count);
+      }
       return parser;
     } catch (Exception e) {
       logger.severefmt(e, "Error opening rde file %s/%s", importBucketName, importFileName);
@@ -68,15 +76,37 @@ public class RdeContactReader extends InputReader<ContactResource> implements Se
     }
   }
 
+  /**
+   * Creates a reader that parses the file from the beginning, skipping {@code offset} contacts
+   * before reading any.
+   */
   public RdeContactReader(
       String importBucketName,
       String importFileName,
       int offset,
       int maxResults) {
+    this(importBucketName, importFileName, offset, maxResults, null);
+  }
+
+  /**
+   * Creates a reader that starts parsing the file at the first contact of its shard, if the
+   * shard start is known.
+   *
+   * @param offset index in the file of the first contact of the shard
+   * @param shardStart where the shard's first contact is in the file, or null to parse the file
+   *     from the beginning
+   */
+  RdeContactReader(
+      String importBucketName,
+      String importFileName,
+      int offset,
+      int maxResults,
+      @Nullable ShardStart shardStart) {
     this.importBucketName = importBucketName;
     this.importFileName = importFileName;
     this.offset = offset;
     this.maxResults = maxResults;
+    this.shardStart = shardStart;
   }
 
   @Override
@@ -28,9 +28,11 @@ import google.registry.config.ConfigModule;
 import google.registry.gcs.GcsUtils;
 import google.registry.model.host.HostResource;
 import google.registry.rde.RdeParser.RdeHeader;
+import google.registry.rde.RdeShardIndex.ShardStart;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
+import javax.annotation.Nullable;
 
 /**
  * A MapReduce {@link Input} that imports {@link HostResource} objects from an escrow file.
@@ -91,9 +93,12 @@ public class RdeHostInput extends Input<HostResource> {
     ImmutableList.Builder<RdeHostReader> builder = new ImmutableList.Builder<>();
     int hostsPerReader =
         Math.max(MINIMUM_RECORDS_PER_READER, (int) Math.ceil((double) numberOfHosts / numReaders));
+    ImmutableList<ShardStart> shardStarts = scanShardStarts(hostsPerReader);
     int offset = 0;
     for (int i = 0; i < numReaders; i++) {
-      builder = builder.add(createReader(offset, hostsPerReader));
+      // if the file has fewer hosts than its header says, a reader may not have a shard start
+      builder = builder.add(
+          createReader(offset, hostsPerReader, i < shardStarts.size() ? shardStarts.get(i) : null));
       offset += hostsPerReader;
     }
     return builder.build();
@@ -102,8 +107,23 @@ public class RdeHostInput extends Input<HostResource> {
   /**
    * Creates a new instance of {@link RdeHostReader}
    */
-  private RdeHostReader createReader(int offset, int maxResults) {
-    return new RdeHostReader(importBucketName, importFileName, offset, maxResults);
+  private RdeHostReader createReader(
+      int offset, int maxResults, @Nullable ShardStart shardStart) {
+    return new RdeHostReader(importBucketName, importFileName, offset, maxResults, shardStart);
+  }
+
+  /**
+   * Scans the escrow file for where the hosts of each reader start
+   */
+  private ImmutableList<ShardStart> scanShardStarts(int hostsPerReader) {
+    GcsUtils utils = new GcsUtils(GCS_SERVICE, ConfigModule.provideGcsBufferSize());
+    GcsFilename filename = new GcsFilename(importBucketName, importFileName);
+    try {
+      return RdeShardIndex.scan(utils, filename, RdeParser.RDE_HOST_URI, "host", hostsPerReader);
+    } catch (Exception e) {
+      throw new InitializationException(
+          String.format("Error scanning rde file %s/%s", importBucketName, importFileName), e);
+    }
   }
 
   /**
@@ -78,8 +78,8 @@ import javax.xml.stream.XMLStreamReader;
 public class RdeParser implements Closeable {
 
   private static final String RDE_DOMAIN_URI = "urn:ietf:params:xml:ns:rdeDomain-1.0";
-  private static final String RDE_HOST_URI = "urn:ietf:params:xml:ns:rdeHost-1.0";
-  private static final String RDE_CONTACT_URI = "urn:ietf:params:xml:ns:rdeContact-1.0";
+  static final String RDE_HOST_URI = "urn:ietf:params:xml:ns:rdeHost-1.0";
+  static final String RDE_CONTACT_URI = "urn:ietf:params:xml:ns:rdeContact-1.0";
   private static final String RDE_REGISTRAR_URI = "urn:ietf:params:xml:ns:rdeRegistrar-1.0";
   private static final String RDE_IDN_URI = "urn:ietf:params:xml:ns:rdeIDN-1.0";
   private static final String RDE_NNDN_URI = "urn:ietf:params:xml:ns:rdeNNDN-1.0";
@@ -166,10 +166,29 @@ public class RdeParser implements Closeable {
    * @throws JAXBException
    */
   public RdeParser(InputStream xmlInput) throws XMLStreamException, JAXBException {
+    this(xmlInput, true);
+  }
+
+  private RdeParser(InputStream xmlInput, boolean readHeader)
+      throws XMLStreamException, JAXBException {
     this.xmlInput = xmlInput;
     this.unmarshaller = JAXBContext.newInstance(JAXB_CONTEXT_PACKAGES).createUnmarshaller();
     this.reader = XMLInputFactory.newInstance().createXMLStreamReader(xmlInput);
-    this.header = new RdeHeader(readHeader());
+    this.header = readHeader ? new RdeHeader(readHeader()) : null;
+  }
+
+  /**
+   * Creates a new instance of {@link RdeParser} for part of an escrow deposit file, which doesn't
+   * include the RDE header.
+   *
+   * <p>{@link #getHeader} returns null for such a parser.
+   *
+   * @param xmlInput Contents of the part of the escrow deposit file, as a well-formed document
+   * @see RdeShardIndex
+   */
+  static RdeParser createWithoutHeader(InputStream xmlInput)
+      throws XMLStreamException, JAXBException {
+    return new RdeParser(xmlInput, false);
   }
 
   /**
@@ -0,0 +1,385 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.rde;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import google.registry.gcs.GcsUtils;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * Index of the byte offsets in an escrow deposit file at which the import shards of one type of
+ * element start.
+ *
+ * <p>The index is built by scanning the bytes of the whole deposit once. Each shard's reader can
+ * then open the file at its own first element, instead of parsing and skipping every element
+ * before it. The cost of an import then grows linearly with the size of the deposit, rather than
+ * with the size times the number of shards.
+ *
+ * <p>A parser can't start in the middle of an XML document, so each shard also records a prologue.
+ * This is the start tags of the elements enclosing the indexed elements, with the namespace
+ * declarations that are in scope for them. Read in front of the bytes from the shard's offset,
+ * the prologue makes the rest of the deposit a well-formed document again.
+ *
+ * <p>Up to the first indexed element, the scan tokenizes the markup to track the enclosing start
+ * tags and their namespace declarations, which is how it finds that element. From there on, it
+ * only looks for the start tag of the element, using the qualified name of its first occurrence.
+ * This relies on the same namespace prefix being used for all indexed elements, on them all having
+ * the same parents, and on their start tag not appearing in comments or CDATA sections, all of
+ * which hold for escrow deposits.
+ */
+final class RdeShardIndex {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final byte[] COMMENT_END = "-->".getBytes(UTF_8);
+  private static final byte[] CDATA_END = "]]>".getBytes(UTF_8);
+  private static final byte[] PROCESSING_INSTRUCTION_END = "?>".getBytes(UTF_8);
+
+  /** Matches the qualified name at the start of a start tag. */
+  private static final Pattern TAG_NAME = Pattern.compile("^[^\\s/>]+");
+
+  /** Matches an attribute of a start tag, capturing its name and its quoted value. */
+  private static final Pattern ATTRIBUTE =
+      Pattern.compile("([^\\s=]+)\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)')");
+
+  /** Where the reader of one shard of a deposit starts parsing it. */
+  static final class ShardStart implements Serializable {
+
+    private static final long serialVersionUID = -7103328915247126427L;
+
+    /** Byte offset in the deposit of the shard's first element. */
+    final long position;
+
+    /** Start tags of the elements enclosing the shard's elements. */
+    final String prologue;
+
+    ShardStart(long position, String prologue) {
+      this.position = position;
+      this.prologue = prologue;
+    }
+
+    /**
+     * Returns a well-formed document of the deposit from the shard's first element onwards.
+     *
+     * @param depositFromPosition the deposit's contents, starting at {@link #position}
+     */
+    InputStream toDocument(InputStream depositFromPosition) {
+      return new SequenceInputStream(
+          new ByteArrayInputStream(prologue.getBytes(UTF_8)), depositFromPosition);
+    }
+  }
+
+  private RdeShardIndex() {}
+
+  /**
+   * Scans a deposit for where the shards of one type of element start.
+   *
+   * @param uri namespace URI of the element
+   * @param name local name of the element
+   * @param elementsPerShard number of elements in each shard
+   * @return the start of each shard in order, which is empty if the deposit has no such elements
+   */
+  static ImmutableList<ShardStart> scan(
+      GcsUtils gcsUtils, GcsFilename filename, String uri, String name, int elementsPerShard)
+      throws IOException {
+    try (InputStream input = gcsUtils.openInputStream(filename)) {
+      DepositScanner scanner = new DepositScanner(input);
+      Optional<FirstElement> firstElement = findFirstElement(scanner, uri, name);
+      if (!firstElement.isPresent()) {
+        return ImmutableList.of();
+      }
+      ImmutableList.Builder<ShardStart> shardStarts = new ImmutableList.Builder<>();
+      for (long position : scanStartTagPositions(scanner, firstElement.get(), elementsPerShard)) {
+        shardStarts.add(new ShardStart(position, firstElement.get().prologue));
+      }
+      return shardStarts.build();
+    }
+  }
+
+  /** Where the first occurrence of an element is, its qualified name and its enclosing tags. */
+  private static final class FirstElement {
+    final long position;
+    final String qualifiedName;
+    final String prologue;
+
+    FirstElement(long position, String qualifiedName, String prologue) {
+      this.position = position;
+      this.qualifiedName = qualifiedName;
+      this.prologue = prologue;
+    }
+  }
+
+  /** A start tag enclosing the current position of the scan. */
+  private static final class EnclosingElement {
+
+    /** The start tag, with only its namespace declarations. */
+    final String startTag;
+
+    /** The namespace URIs declared by the start tag, keyed by prefix, which is empty by default. */
+    final ImmutableMap<String, String> namespaces;
+
+    EnclosingElement(String startTag, ImmutableMap<String, String> namespaces) {
+      this.startTag = startTag;
+      this.namespaces = namespaces;
+    }
+  }
+
+  /**
+   * Tokenizes a deposit up to the first occurrence of the element, if there is one, leaving the
+   * scanner just after its start tag.
+   */
+  private static Optional<FirstElement> findFirstElement(
+      DepositScanner scanner, String uri, String name) throws IOException {
+    Deque<EnclosingElement> enclosingElements = new ArrayDeque<>();
+    int b;
+    while ((b = scanner.next()) != -1) {
+      if (b != '<') {
+        continue;
+      }
+      long position = scanner.position() - 1;
+      b = scanner.next();
+      if (b == '?') {
+        scanner.skipPast(PROCESSING_INSTRUCTION_END);
+      } else if (b == '!') {
+        b = scanner.next();
+        if (b == '-') {
+          scanner.skipPast(COMMENT_END);
+        } else if (b == '[') {
+          scanner.skipPast(CDATA_END);
+        } else {
+          scanner.skipDeclaration();
+        }
+      } else if (b == '/') {
+        scanner.skipPast(new byte[] {'>'});
+        enclosingElements.pollFirst();
+      } else if (b != -1) {
+        Optional<String> tag = scanner.readTag(b);
+        if (!tag.isPresent()) {
+          break;
+        }
+        boolean isEmptyElement = tag.get().endsWith("/");
+        EnclosingElement element = parseStartTag(tag.get());
+        String qualifiedName = element.startTag.substring(1, getNameEnd(element.startTag));
+        int colon = qualifiedName.indexOf(':');
+        String prefix = colon < 0 ? "" : qualifiedName.substring(0, colon);
+        String localName = qualifiedName.substring(colon + 1);
+        if (name.equals(localName)
+            && uri.equals(resolvePrefix(prefix, element, enclosingElements))) {
+          StringBuilder prologue = new StringBuilder();
+          for (Iterator<EnclosingElement> it = enclosingElements.descendingIterator();
+              it.hasNext(); ) {
+            prologue.append(it.next().startTag);
+          }
+          return Optional.of(new FirstElement(position, qualifiedName, prologue.toString()));
+        }
+        if (!isEmptyElement) {
+          enclosingElements.addFirst(element);
+        }
+      }
+    }
+    return Optional.absent();
+  }
+
+  /** Returns the end of the qualified name in a start tag returned by {@link #parseStartTag}. */
+  private static int getNameEnd(String startTag) {
+    int space = startTag.indexOf(' ');
+    return space < 0 ? startTag.length() - 1 : space;
+  }
+
+  /**
+   * Parses the contents of a start tag, between its angle brackets, into the start tag with only
+   * its namespace declarations.
+   */
+  private static EnclosingElement parseStartTag(String tag) {
+    Matcher nameMatcher = TAG_NAME.matcher(tag);
+    checkArgument(nameMatcher.find(), "Start tag without a name: <%s>", tag);
+    StringBuilder startTag = new StringBuilder("<").append(nameMatcher.group());
+    ImmutableMap.Builder<String, String> namespaces = new ImmutableMap.Builder<>();
+    Matcher attributeMatcher = ATTRIBUTE.matcher(tag);
+    attributeMatcher.region(nameMatcher.end(), tag.length());
+    while (attributeMatcher.find()) {
+      String attributeName = attributeMatcher.group(1);
+      if (attributeName.equals("xmlns") || attributeName.startsWith("xmlns:")) {
+        // The value is kept escaped as it is in the deposit, except for any double quotes.
+        String value = attributeMatcher.group(2) != null
+            ? attributeMatcher.group(2)
+            : attributeMatcher.group(3).replace("\"", "&quot;");
+        namespaces.put(
+            attributeName.equals("xmlns") ? "" : attributeName.substring("xmlns:".length()),
+            value);
+        startTag.append(' ').append(attributeName).append("=\"").append(value).append('"');
+      }
+    }
+    return new EnclosingElement(startTag.append('>').toString(), namespaces.build());
+  }
+
+  /**
+   * Returns the namespace URI that a prefix is bound to on an element, or null if it isn't bound.
+   *
+   * <p>Namespace URIs are compared as they are written in the deposit, which is enough for the
+   * escrow namespaces, since they have no characters that need escaping.
+   */
+  @Nullable
+  private static String resolvePrefix(
+      String prefix, EnclosingElement element, Iterable<EnclosingElement> enclosingElements) {
+    if (element.namespaces.containsKey(prefix)) {
+      return element.namespaces.get(prefix);
+    }
+    for (EnclosingElement enclosingElement : enclosingElements) {
+      if (enclosingElement.namespaces.containsKey(prefix)) {
+        return enclosingElement.namespaces.get(prefix);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the byte offsets of every {@code elementsPerShard}th occurrence of the element,
+   * starting with the first, scanning the rest of the deposit after its first occurrence.
+   */
+  private static ImmutableList<Long> scanStartTagPositions(
+      DepositScanner scanner, FirstElement firstElement, int elementsPerShard)
+      throws IOException {
+    byte[] startTag = ("<" + firstElement.qualifiedName).getBytes(UTF_8);
+    ImmutableList.Builder<Long> positions = new ImmutableList.Builder<>();
+    positions.add(firstElement.position);
+    long elementCount = 1;
+    int matched = 0;
+    int b;
+    while ((b = scanner.next()) != -1) {
+      if (matched == startTag.length) {
+        // A longer name with the same prefix, like <rdeHost:hostname>, doesn't count.
+        if (b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == '>' || b == '/') {
+          if (elementCount % elementsPerShard == 0) {
+            positions.add(scanner.position() - 1 - startTag.length);
+          }
+          elementCount++;
+        }
+        matched = 0;
+      }
+      if (b == (startTag[matched] & 0xff)) {
+        matched++;
+      } else {
+        // The start tag only contains '<' at its start, so this can't skip over a match.
+        matched = b == '<' ? 1 : 0;
+      }
+    }
+    return positions.build();
+  }
+
+  /** Buffered, byte by byte reading of a deposit that keeps track of the position in it. */
+  private static final class DepositScanner {
+
+    private final InputStream input;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferLength;
+    private int index;
+
+    /** Byte offset in the deposit of the start of {@link #buffer}. */
+    private long bufferPosition;
+
+    DepositScanner(InputStream input) {
+      this.input = input;
+    }
+
+    /** Returns the next byte of the deposit, or -1 at its end. */
+    int next() throws IOException {
+      if (index == bufferLength) {
+        bufferPosition += bufferLength;
+        index = 0;
+        bufferLength = Math.max(input.read(buffer), 0);
+        if (bufferLength == 0) {
+          return -1;
+        }
+      }
+      return buffer[index++] & 0xff;
+    }
+
+    /** Returns the byte offset in the deposit of the byte that {@link #next} returns next. */
+    long position() {
+      return bufferPosition + index;
+    }
+
+    /** Skips up to and including the next occurrence of the given bytes. */
+    void skipPast(byte[] terminator) throws IOException {
+      byte[] window = new byte[terminator.length];
+      int b;
+      while ((b = next()) != -1) {
+        System.arraycopy(window, 1, window, 0, window.length - 1);
+        window[window.length - 1] = (byte) b;
+        if (Arrays.equals(window, terminator)) {
+          return;
+        }
+      }
+    }
+
+    /** Skips the rest of a markup declaration, like a DOCTYPE with an internal subset. */
+    void skipDeclaration() throws IOException {
+      int depth = 0;
+      int b;
+      while ((b = next()) != -1 && (b != '>' || depth > 0)) {
+        if (b == '[') {
+          depth++;
+        } else if (b == ']') {
+          depth--;
+        }
+      }
+    }
+
+    /**
+     * Reads the rest of a tag up to its closing angle bracket, which isn't included, or returns
+     * absent if the deposit ends first.
+     *
+     * @param first the first byte of the tag, after its opening angle bracket
+     */
+    Optional<String> readTag(int first) throws IOException {
+      ByteArrayOutputStream tag = new ByteArrayOutputStream();
+      tag.write(first);
+      int quote = 0;
+      int b;
+      while ((b = next()) != -1) {
+        if (quote != 0) {
+          if (b == quote) {
+            quote = 0;
+          }
+        } else if (b == '"' || b == '\'') {
+          quote = b;
+        } else if (b == '>') {
+          return Optional.of(new String(tag.toByteArray(), UTF_8).trim());
+        }
+        tag.write(b);
+      }
+      return Optional.absent();
+    }
+  }
+}
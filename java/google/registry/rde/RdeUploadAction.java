@@ -21,6 +21,7 @@ import static com.jcraft.jsch.ChannelSftp.OVERWRITE;
 import static google.registry.model.common.Cursor.getCursorTimeOrStartOfTime;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.rde.RdeMode.FULL;
+import static google.registry.rde.Ghostryde.MAX_QUEUED_CHUNKS;
 import static google.registry.request.Action.Method.POST;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
@@ -45,6 +46,7 @@ import google.registry.request.HttpException.ServiceUnavailableException;
 import google.registry.request.Parameter;
 import google.registry.request.RequestParameters;
 import google.registry.request.Response;
+import google.registry.util.BackgroundOutputStream;
 import google.registry.util.Clock;
 import google.registry.util.FormattingLogger;
 import google.registry.util.TaskEnqueuer;
@@ -95,6 +97,7 @@ public final class RdeUploadAction implements Runnable, EscrowTask {
   @Inject @Parameter(RequestParameters.PARAM_TLD) String tld;
   @Inject @Config("rdeBucket") String bucket;
   @Inject @Config("rdeInterval") Duration interval;
+  @Inject @Config("rdeRydeBufferSize") int bufferSize;
   @Inject @Config("rdeUploadLockTimeout") Duration timeout;
   @Inject @Config("rdeUploadSftpCooldown") Duration sftpCooldown;
   @Inject @Config("rdeUploadUrl") URI uploadUrl;
@@ -189,7 +192,9 @@ public final class RdeUploadAction implements Runnable, EscrowTask {
             TeeOutputStream teeOutput = new TeeOutputStream(asList(ftpOutput, gcsOutput));
             RydePgpSigningOutputStream signer = pgpSigningFactory.create(teeOutput, signingKey)) {
           try (OutputStream encryptLayer = pgpEncryptionFactory.create(signer, receiverKey);
-              OutputStream kompressor = pgpCompressionFactory.create(encryptLayer);
+              OutputStream handOff =
+                  BackgroundOutputStream.create(encryptLayer, bufferSize, MAX_QUEUED_CHUNKS);
+              OutputStream kompressor = pgpCompressionFactory.create(handOff);
               OutputStream fileLayer = pgpFileFactory.create(kompressor, watermark, name + ".tar");
               OutputStream tarLayer =
                   tarFactory.create(fileLayer, xmlLength, watermark, name + ".xml")) {
@@ -14,6 +14,7 @@
 
 package google.registry.request;
 
+import static com.google.appengine.api.datastore.DatastoreServiceFactory.getAsyncDatastoreService;
 import static com.google.appengine.api.datastore.DatastoreServiceFactory.getDatastoreService;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -24,6 +25,7 @@ import com.google.api.client.http.HttpRequestInitializer;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.appengine.api.datastore.AsyncDatastoreService;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.modules.ModulesService;
 import com.google.appengine.api.modules.ModulesServiceFactory;
@@ -48,15 +50,22 @@ import javax.inject.Singleton;
 /** Dagger modules for App Engine services and other vendor classes. */
 public final class Modules {
 
-  /** Dagger module for {@link DatastoreService}. */
+  /** Dagger module for {@link DatastoreService} and {@link AsyncDatastoreService}. */
   @Module
   public static final class DatastoreServiceModule {
     private static final DatastoreService datastoreService = getDatastoreService();
+    private static final AsyncDatastoreService asyncDatastoreService =
+        getAsyncDatastoreService();
 
     @Provides
     static DatastoreService provideDatastoreService() {
       return datastoreService;
     }
+
+    @Provides
+    static AsyncDatastoreService provideAsyncDatastoreService() {
+      return asyncDatastoreService;
+    }
   }
 
   /** Dagger module for {@link ModulesService}. */
@@ -65,6 +65,6 @@ final class DeletePremiumListCommand extends ConfirmingCommand implements Remote
     return String.format(
         "Deleted premium list %s with %d entries.\n",
         premiumList.getName(),
-        premiumList.getPremiumListEntries().size());
+        premiumList.getPremiumListEntryCount());
   }
 }
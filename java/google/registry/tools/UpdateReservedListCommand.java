@@ -21,8 +21,10 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import com.beust.jcommander.Parameters;
 import com.google.common.base.Optional;
 import com.google.common.base.Strings;
+import google.registry.model.registry.label.DomainLabelListDiff;
 import google.registry.model.registry.label.ReservedList;
 import google.registry.model.registry.label.ReservedList.Builder;
+import google.registry.model.registry.label.ReservedList.ReservedListEntry;
 import google.registry.util.SystemClock;
 import java.nio.file.Files;
 
@@ -30,6 +32,9 @@ import java.nio.file.Files;
 @Parameters(separators = " =", commandDescription = "Update a ReservedList in datastore.")
 final class UpdateReservedListCommand extends CreateOrUpdateReservedListCommand {
 
+  /** The changes to the entries of the list, which are summarized in the prompt. */
+  private DomainLabelListDiff<ReservedListEntry> diff;
+
   @Override
   protected void init() throws Exception {
     name = Strings.isNullOrEmpty(name) ? convertFilePathToName(input) : name;
@@ -43,6 +48,18 @@ final class UpdateReservedListCommand extends CreateOrUpdateReservedListCommand
     if (shouldPublish != null) {
       updated.setShouldPublish(shouldPublish);
     }
-    stageEntityChange(existing.get(), updated.build());
+    ReservedList updatedList = updated.build();
+    diff = DomainLabelListDiff.create(
+        existing.get().getReservedListEntries(), updatedList.getReservedListEntries());
+    // Don't rewrite the list, or churn the caches that hold it, if nothing about it has changed.
+    if (diff.isEmpty() && updatedList.getShouldPublish() == existing.get().getShouldPublish()) {
+      return;
+    }
+    stageEntityChange(existing.get(), updatedList);
+  }
+
+  @Override
+  protected String prompt() {
+    return String.format("Updating reserved list %s: %s\n%s", name, diff, super.prompt());
   }
 }
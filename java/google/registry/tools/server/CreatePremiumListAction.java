@@ -60,7 +60,7 @@ public class CreatePremiumListAction extends CreateOrUpdatePremiumListAction {
 
     logger.infofmt("Saved premium list %s with entries %s",
         premiumList.getName(),
-        premiumList.getPremiumListEntries());
+        premiumList.loadPremiumListEntries());
 
     response.setPayload(ImmutableMap.of("status", "success"));
   }
@@ -17,6 +17,7 @@ package google.registry.tools.server;
 import static com.google.appengine.tools.cloudstorage.GcsServiceFactory.createGcsService;
 import static com.google.common.base.Predicates.notNull;
 import static com.google.common.collect.Iterators.filter;
+import static com.google.common.collect.Sets.difference;
 import static com.google.common.io.BaseEncoding.base16;
 import static google.registry.mapreduce.inputs.EppResourceInputs.createEntityInput;
 import static google.registry.model.EppResourceUtils.loadAtPointInTime;
@@ -32,10 +33,14 @@ import com.google.appengine.tools.mapreduce.Mapper;
 import com.google.appengine.tools.mapreduce.Reducer;
 import com.google.appengine.tools.mapreduce.ReducerInput;
 import com.google.common.base.Function;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Result;
 import google.registry.config.ConfigModule.Config;
 import google.registry.gcs.GcsUtils;
 import google.registry.mapreduce.MapreduceRunner;
@@ -55,9 +60,12 @@ import java.io.PrintWriter;
 import java.io.Writer;
 import java.net.Inet4Address;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import javax.inject.Inject;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
@@ -170,9 +178,24 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
 
     private static final long serialVersionUID = 4647941823789859913L;
 
+    /**
+     * Maximum number of host names kept by {@link #nameserverNames}.
+     *
+     * <p>Only names are kept, so this can be large enough to hold all popular nameservers.
+     */
+    private static final int NAMESERVER_NAME_CACHE_SIZE = 100000;
+
     private final ImmutableSet<String> tlds;
     private final DateTime exportTime;
 
+    /**
+     * Fully qualified names at the export time of the nameservers seen by this shard.
+     *
+     * <p>Many domains share the same nameservers, so each of them is only loaded and rewound to
+     * the export time the first time a domain of the shard references it.
+     */
+    private transient Cache<Key<HostResource>, String> nameserverNames;
+
     GenerateBindFileMapper(ImmutableSet<String> tlds, DateTime exportTime) {
       this.tlds = tlds;
       this.exportTime = exportTime;
@@ -196,7 +219,7 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
       if (tlds.contains(domain.getTld())) {
         domain = loadAtPointInTime(domain, exportTime).now();
         if (domain != null) {  // A null means the domain was deleted (or not created) at this time.
-          String stanza = domainStanza(domain, exportTime);
+          String stanza = domainStanza(domain, getNameserverNames(domain));
           if (!stanza.isEmpty()) {
             emit(domain.getTld(), stanza);
             getContext().incrementCounter(domain.getTld() + " domains");
@@ -222,6 +245,41 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
         }
       }
     }
+
+    /** Returns the fully qualified names at the export time of a domain's nameservers. */
+    private ImmutableList<String> getNameserverNames(DomainResource domain) {
+      if (nameserverNames == null) {
+        nameserverNames = CacheBuilder.newBuilder().maximumSize(NAMESERVER_NAME_CACHE_SIZE).build();
+      }
+      Map<Key<HostResource>, String> names =
+          new HashMap<>(nameserverNames.getAllPresent(domain.getNameservers()));
+      Set<Key<HostResource>> uncached =
+          difference(domain.getNameservers(), names.keySet()).immutableCopy();
+      if (!uncached.isEmpty()) {
+        // Load the nameservers at the export time in case they've been renamed or deleted. All the
+        // point-in-time loads are launched before waiting on any of them.
+        List<Result<HostResource>> nameservers = new ArrayList<>();
+        for (HostResource nameserver : ofy().load().keys(uncached).values()) {
+          nameservers.add(loadAtPointInTime(nameserver, exportTime));
+        }
+        for (Result<HostResource> result : nameservers) {
+          HostResource nameserver = result.now();
+          if (nameserver != null) {
+            Key<HostResource> key = Key.create(nameserver);
+            names.put(key, nameserver.getFullyQualifiedHostName());
+            nameserverNames.put(key, nameserver.getFullyQualifiedHostName());
+          }
+        }
+      }
+      ImmutableList.Builder<String> domainNameserverNames = new ImmutableList.Builder<>();
+      for (Key<HostResource> key : domain.getNameservers()) {
+        // A nameserver that doesn't exist at the export time has no name to export.
+        if (names.containsKey(key)) {
+          domainNameserverNames.add(names.get(key));
+        }
+      }
+      return domainNameserverNames.build();
+    }
   }
 
   /** Reducer to write zone files to GCS. */
@@ -269,16 +327,17 @@ public class GenerateZoneFilesAction implements Runnable, JsonActionRunner.JsonA
    *   foo.tld 180 IN NS ns.example.com.
    *   foo.tld 86400 IN DS 1 2 3 000102
    * }
+   *
+   * @param nameserverNames the names of the domain's nameservers at the export time
    */
-  private static String domainStanza(DomainResource domain, DateTime exportTime) {
+  private static String domainStanza(DomainResource domain, Iterable<String> nameserverNames) {
     StringBuilder result = new StringBuilder();
-    for (HostResource nameserver : ofy().load().keys(domain.getNameservers()).values()) {
+    for (String nameserverName : nameserverNames) {
       result.append(String.format(
           NS_FORMAT,
           domain.getFullyQualifiedDomainName(),
           TTL_NS,
-          // Load the nameservers at the export time in case they've been renamed or deleted.
-          loadAtPointInTime(nameserver, exportTime).now().getFullyQualifiedHostName()));
+          nameserverName));
     }
     for (DelegationSignerData dsData : domain.getDsData()) {
       result.append(String.format(
@@ -27,8 +27,11 @@ import google.registry.config.RegistryEnvironment;
 import google.registry.mapreduce.MapreduceRunner;
 import google.registry.mapreduce.inputs.EppResourceInputs;
 import google.registry.model.EppResource;
+import google.registry.model.contact.ContactResource;
 import google.registry.model.domain.DomainApplication;
+import google.registry.model.host.HostResource;
 import google.registry.model.index.DomainApplicationIndex;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.ForeignKeyIndex;
 import google.registry.request.Action;
@@ -75,6 +78,7 @@ public class KillAllEppResourcesAction implements Runnable {
      *   <li>{@code HistoryEntry}
      *   <li>All {@code BillingEvent} types
      *   <li>All {@code PollMessage} types
+     *   <li>{@link DomainReferenceIndex}
      * </ul>
      */
     @Override
@@ -98,6 +102,13 @@ public class KillAllEppResourcesAction implements Runnable {
           ? DomainApplicationIndex.createKey((DomainApplication) resource)
           : ForeignKeyIndex.createKey(resource);
       emitAndIncrementCounter(indexKey, indexKey);
+      // Reference index entries are in entity groups of their own rather than descendants.
+      if (resource instanceof ContactResource || resource instanceof HostResource) {
+        for (Key<DomainReferenceIndex> referenceIndexKey
+            : DomainReferenceIndex.loadIndexKeys(Key.create(resource))) {
+          emitAndIncrementCounter(referenceIndexKey.getParent(), referenceIndexKey);
+        }
+      }
     }
 
     private void emitAndIncrementCounter(Key<?> ancestor, Key<?> child) {
@@ -21,8 +21,10 @@ import com.google.common.base.Optional;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableMap;
 import google.registry.model.registry.label.PremiumList;
+import google.registry.model.registry.label.PremiumList.PremiumListEntry;
 import google.registry.request.Action;
 import java.util.List;
+import java.util.Map;
 import javax.inject.Inject;
 
 /**
@@ -53,14 +55,13 @@ public class UpdatePremiumListAction extends CreateOrUpdatePremiumListAction {
         .build();
     premiumList.saveAndUpdateEntries();
 
-    logger.infofmt("Updated premium list %s with entries %s",
-        premiumList.getName(),
-        premiumList.getPremiumListEntries());
+    Map<String, PremiumListEntry> entries = premiumList.loadPremiumListEntries();
+    logger.infofmt("Updated premium list %s with entries %s", premiumList.getName(), entries);
 
     String message = String.format(
         "Saved premium list %s with %d entries.\n",
         premiumList.getName(),
-        premiumList.getPremiumListEntries().size());
+        entries.size());
     response.setPayload(ImmutableMap.of(
         "status", "success",
         "message", message));
@@ -0,0 +1,118 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools.server.javascrap;
+
+import static google.registry.mapreduce.inputs.EppResourceInputs.createEntityInput;
+import static google.registry.model.common.Cursor.CursorType.DOMAIN_REFERENCE_INDEX_BACKFILL;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.util.PipelineUtils.createJobPath;
+import static org.joda.time.DateTimeZone.UTC;
+
+import com.google.appengine.tools.mapreduce.Mapper;
+import com.google.appengine.tools.mapreduce.Reducer;
+import com.google.appengine.tools.mapreduce.ReducerInput;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.googlecode.objectify.VoidWork;
+import google.registry.mapreduce.MapreduceRunner;
+import google.registry.mapreduce.inputs.NullInput;
+import google.registry.model.common.Cursor;
+import google.registry.model.domain.DomainBase;
+import google.registry.model.index.DomainReferenceIndex;
+import google.registry.request.Action;
+import google.registry.request.Response;
+import javax.inject.Inject;
+import org.joda.time.DateTime;
+
+/**
+ * A mapreduce that writes the {@link DomainReferenceIndex} entries of all active domains and domain
+ * applications.
+ *
+ * <p>The domain flows keep the index up to date, but domains that were last written before the
+ * index existed need this to be run once before lookups of the domains referencing a contact or
+ * host can use the index. When every domain has been indexed, this sets the global
+ * {@code DOMAIN_REFERENCE_INDEX_BACKFILL} cursor, and until then lookups keep using queries and
+ * mapreduces over all domains. It is safe to run more than once.
+ */
+@Action(path = "/_dr/task/backfillDomainReferenceIndex")
+public class BackfillDomainReferenceIndexAction implements Runnable {
+
+  @Inject MapreduceRunner mrRunner;
+  @Inject Response response;
+  @Inject BackfillDomainReferenceIndexAction() {}
+
+  @Override
+  public void run() {
+    response.sendJavaScriptRedirect(
+        createJobPath(
+            mrRunner
+                .setJobName("Backfill domain reference index")
+                .setModuleName("tools")
+                .setDefaultReduceShards(1)
+                .runMapreduce(
+                    new BackfillDomainReferenceIndexMapper(),
+                    new BackfillDomainReferenceIndexReducer(),
+                    ImmutableList.of(
+                        // Add an extra shard that maps over a null domain, so that the reducer
+                        // runs once after all domains have been indexed.
+                        new NullInput<DomainBase>(),
+                        createEntityInput(DomainBase.class)))));
+  }
+
+  /** Mapper to write the reference index entries of each active domain and domain application. */
+  public static class BackfillDomainReferenceIndexMapper
+      extends Mapper<DomainBase, Boolean, Boolean> {
+
+    private static final long serialVersionUID = -3725719823745164539L;
+
+    @Override
+    public void map(DomainBase domain) {
+      if (domain == null) {
+        emit(true, true);
+        return;
+      }
+      // Domains that start referencing a contact or host from now on are indexed by the flows, so
+      // it doesn't matter if the domain changes concurrently.
+      DateTime now = DateTime.now(UTC);
+      if (!now.isBefore(domain.getDeletionTime())) {
+        getContext().incrementCounter("domains skipped");
+        return;
+      }
+      ImmutableSet<DomainReferenceIndex> indexes =
+          DomainReferenceIndex.createForAddedReferences(null, domain, now);
+      ofy().saveWithoutBackup().entities(indexes).now();
+      getContext().incrementCounter("domains indexed");
+      getContext().incrementCounter("index entries written", indexes.size());
+    }
+  }
+
+  /** Reducer that marks the index as complete, once every domain has been indexed. */
+  public static class BackfillDomainReferenceIndexReducer
+      extends Reducer<Boolean, Boolean, Void> {
+
+    private static final long serialVersionUID = 4513412587328406314L;
+
+    @Override
+    public void reduce(Boolean key, ReducerInput<Boolean> values) {
+      ofy().transact(new VoidWork() {
+        @Override
+        public void vrun() {
+          ofy().save().entity(
+              Cursor.createGlobal(DOMAIN_REFERENCE_INDEX_BACKFILL, ofy().getTransactionTime()));
+        }});
+      getContext().incrementCounter("index marked complete");
+    }
+  }
+}
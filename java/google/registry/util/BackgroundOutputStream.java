@@ -0,0 +1,262 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.util;
+
+import static com.google.appengine.api.ThreadManager.currentRequestThreadFactory;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.base.Throwables;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * {@link OutputStream} that hands off what's written to it to a background thread, which writes it
+ * to another output stream.
+ *
+ * <p>This lets a layer of a stream pipeline that's expensive to write to, like one that encrypts,
+ * run on a different core than the layer writing to it, like one that compresses. Written bytes
+ * are copied into chunks, and at most a fixed number of full chunks wait for the background thread
+ * at any time, which bounds both memory use and how far the writer can get ahead. The chunks are
+ * reused once the background thread has written them.
+ *
+ * <p>Failures of the background thread are rethrown by the next write, flush or close. Closing
+ * this stream waits for the background thread to write everything, but doesn't close the output
+ * stream it writes to.
+ *
+ * <p>If there's no thread factory, like when running in a command-line tool, everything is written
+ * on the calling thread instead, one chunk at a time.
+ */
+@NotThreadSafe
+public final class BackgroundOutputStream extends OutputStream {
+
+  /** Marks the end of the stream in the queue of chunks. */
+  private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+
+  /** How long to block at a time before checking whether the background thread has failed. */
+  private static final long POLL_MILLIS = 100;
+
+  private final OutputStream out;
+  private final int chunkSize;
+
+  /** Full chunks waiting for the background thread, or null if writing on the calling thread. */
+  @Nullable private final BlockingQueue<ByteBuffer> fullChunks;
+
+  /** Chunks the background thread is done with, to be reused. */
+  @Nullable private final BlockingQueue<byte[]> freeChunks;
+
+  @Nullable private final ExecutorService executor;
+  @Nullable private final Future<?> writer;
+
+  /** Guards {@link #chunksWritten}, and is notified when the background thread writes a chunk. */
+  private final Object lock = new Object();
+
+  private long chunksQueued;
+  private long chunksWritten;
+  private byte[] chunk;
+  private int chunkLength;
+  private boolean isClosed;
+
+  /**
+   * Returns a new stream that writes to {@code out} on a thread of the current request.
+   *
+   * @param chunkSize size in bytes of the chunks that are handed off to the background thread
+   * @param maxQueuedChunks number of full chunks that may wait for the background thread
+   */
+  public static BackgroundOutputStream create(
+      @WillNotClose OutputStream out, int chunkSize, int maxQueuedChunks) {
+    return new BackgroundOutputStream(
+        out, currentRequestThreadFactory(), chunkSize, maxQueuedChunks);
+  }
+
+  BackgroundOutputStream(
+      @WillNotClose OutputStream out,
+      @Nullable ThreadFactory threadFactory,
+      int chunkSize,
+      int maxQueuedChunks) {
+    checkArgument(chunkSize > 0, "chunkSize must be positive");
+    checkArgument(maxQueuedChunks > 0, "maxQueuedChunks must be positive");
+    this.out = checkNotNull(out, "out");
+    this.chunkSize = chunkSize;
+    this.chunk = new byte[chunkSize];
+    if (threadFactory == null) {
+      fullChunks = null;
+      freeChunks = null;
+      executor = null;
+      writer = null;
+      return;
+    }
+    fullChunks = new ArrayBlockingQueue<>(maxQueuedChunks);
+    freeChunks = new ArrayBlockingQueue<>(maxQueuedChunks + 1);
+    executor = newSingleThreadExecutor(threadFactory);
+    writer = executor.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws IOException, InterruptedException {
+        while (true) {
+          ByteBuffer fullChunk = fullChunks.take();
+          if (fullChunk == END_OF_STREAM) {
+            return null;
+          }
+          BackgroundOutputStream.this.out.write(fullChunk.array(), 0, fullChunk.limit());
+          freeChunks.offer(fullChunk.array());
+          synchronized (lock) {
+            chunksWritten++;
+            lock.notifyAll();
+          }
+        }
+      }});
+  }
+
+  /** @see java.io.OutputStream#write(int) */
+  @Override
+  public void write(int b) throws IOException {
+    checkState(!isClosed, "outputstream closed");
+    chunk[chunkLength++] = (byte) b;
+    if (chunkLength == chunkSize) {
+      handOff();
+    }
+  }
+
+  /** @see java.io.OutputStream#write(byte[], int, int) */
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    checkState(!isClosed, "outputstream closed");
+    while (len > 0) {
+      int copied = Math.min(len, chunkSize - chunkLength);
+      System.arraycopy(b, off, chunk, chunkLength, copied);
+      chunkLength += copied;
+      off += copied;
+      len -= copied;
+      if (chunkLength == chunkSize) {
+        handOff();
+      }
+    }
+  }
+
+  /** Waits for the background thread to write everything so far, and then flushes its output. */
+  @Override
+  public void flush() throws IOException {
+    checkState(!isClosed, "outputstream closed");
+    handOff();
+    if (writer != null) {
+      synchronized (lock) {
+        while (chunksWritten < chunksQueued) {
+          checkWriter();
+          try {
+            lock.wait(POLL_MILLIS);
+          } catch (InterruptedException e) {
+            throw interrupted(e);
+          }
+        }
+      }
+    }
+    // The background thread is idle now, so it's safe to use its output stream on this one.
+    out.flush();
+  }
+
+  /** Waits for the background thread to write everything, and then stops it. */
+  @Override
+  public void close() throws IOException {
+    if (isClosed) {
+      return;
+    }
+    try {
+      handOff();
+      if (writer != null) {
+        enqueue(END_OF_STREAM);
+        try {
+          getUninterruptibly(writer);
+        } catch (ExecutionException e) {
+          throw propagate(e);
+        }
+      }
+      out.flush();
+    } finally {
+      isClosed = true;
+      chunk = null;
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  /** Hands off the current chunk, if it isn't empty, and starts a new one. */
+  private void handOff() throws IOException {
+    if (chunkLength == 0) {
+      return;
+    }
+    if (writer == null) {
+      out.write(chunk, 0, chunkLength);
+      chunkLength = 0;
+      return;
+    }
+    enqueue(ByteBuffer.wrap(chunk, 0, chunkLength));
+    chunksQueued++;
+    byte[] freeChunk = freeChunks.poll();
+    chunk = freeChunk == null ? new byte[chunkSize] : freeChunk;
+    chunkLength = 0;
+  }
+
+  /** Waits for room in the queue of full chunks, unless the background thread has failed. */
+  private void enqueue(ByteBuffer fullChunk) throws IOException {
+    try {
+      while (!fullChunks.offer(fullChunk, POLL_MILLIS, MILLISECONDS)) {
+        checkWriter();
+      }
+    } catch (InterruptedException e) {
+      throw interrupted(e);
+    }
+  }
+
+  /** Rethrows the failure of the background thread, if it has stopped. */
+  private void checkWriter() throws IOException {
+    if (writer.isDone()) {
+      try {
+        getUninterruptibly(writer);
+      } catch (ExecutionException e) {
+        throw propagate(e);
+      }
+      throw new IOException("Background writer stopped before the end of the stream");
+    }
+  }
+
+  private static IOException propagate(ExecutionException e) throws IOException {
+    Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+    throw Throwables.propagate(e.getCause());
+  }
+
+  private static InterruptedIOException interrupted(InterruptedException e) {
+    Thread.currentThread().interrupt();
+    InterruptedIOException interrupted = new InterruptedIOException();
+    interrupted.initCause(e);
+    return interrupted;
+  }
+}
@@ -0,0 +1,148 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.util;
+
+import static com.google.common.base.Strings.nullToEmpty;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import google.registry.monitoring.metrics.EventMetric;
+import google.registry.monitoring.metrics.LabelDescriptor;
+import google.registry.monitoring.metrics.MetricRegistryImpl;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Times the stages of handling an EPP request on the current thread, such as unmarshalling the
+ * XML or running the transaction, and records them in the {@code /epp/stage_time} metric.
+ *
+ * <p>Code on the hot path wraps each stage in a try-with-resources block:
+ *
+ * <pre>   {@code
+ *   try (StageTimer.Stage stage = StageTimer.start("pricing")) {
+ *     ...
+ *   }}</pre>
+ *
+ * <p>Stages are only timed between {@link #startRequest} and {@link #endRequest} on the same
+ * thread. Anywhere else, {@link #start} costs a single thread-local lookup and returns a stage that
+ * does nothing, so stages can be marked in shared code like {@code Ofy} without affecting anything
+ * but EPP requests. Time spent in each stage is added up over the request, and recorded once at
+ * the end, labeled by the command name and TLD that were known by then. A stage that's entered
+ * again while it's already running, like a nested transaction, is only timed by its outermost
+ * entry. Different stages may overlap, so that the time spent in a transaction also counts toward
+ * the flow that runs it.
+ */
+public final class StageTimer {
+
+  @VisibleForTesting
+  static final EventMetric stageTime =
+      MetricRegistryImpl.getDefault()
+          .newEventMetric(
+              "/epp/stage_time",
+              "Time spent in each stage of handling an EPP request.",
+              "milliseconds",
+              ImmutableSet.of(
+                  LabelDescriptor.create("stage", "The stage of handling the request."),
+                  LabelDescriptor.create("command", "The name of the command."),
+                  LabelDescriptor.create("tld", "The TLD of the command, if any.")),
+              EventMetric.DEFAULT_FITTER);
+
+  /** The stage returned when the current thread isn't timing a request. */
+  private static final Stage NO_OP_STAGE = new Stage();
+
+  private static final ThreadLocal<RequestTimings> currentRequest = new ThreadLocal<>();
+
+  private StageTimer() {}
+
+  /** Starts timing the stages of a request on the current thread. */
+  public static void startRequest() {
+    currentRequest.set(new RequestTimings());
+  }
+
+  /** Returns whether the stages of a request are being timed on the current thread. */
+  public static boolean isTimingRequest() {
+    return currentRequest.get() != null;
+  }
+
+  /** Sets the command name and TLD to label the stages of the current request with. */
+  public static void setLabels(String commandName, String tld) {
+    RequestTimings request = currentRequest.get();
+    if (request != null) {
+      request.commandName = nullToEmpty(commandName);
+      request.tld = nullToEmpty(tld);
+    }
+  }
+
+  /** Starts timing a stage of the current request, which ends when the stage is closed. */
+  public static Stage start(String stageName) {
+    RequestTimings request = currentRequest.get();
+    if (request == null) {
+      return NO_OP_STAGE;
+    }
+    Stage stage = request.stages.get(stageName);
+    if (stage == null) {
+      stage = new Stage();
+      request.stages.put(stageName, stage);
+    }
+    if (stage.depth++ == 0) {
+      stage.startNanos = System.nanoTime();
+    }
+    return stage;
+  }
+
+  /**
+   * Records the time spent in each stage of the current request, and stops timing it.
+   *
+   * <p>Stages that are still running are not recorded.
+   */
+  public static void endRequest() {
+    RequestTimings request = currentRequest.get();
+    if (request == null) {
+      return;
+    }
+    currentRequest.remove();
+    for (Map.Entry<String, Stage> entry : request.stages.entrySet()) {
+      Stage stage = entry.getValue();
+      if (stage.depth == 0) {
+        stageTime.record(
+            stage.totalNanos / 1e6, entry.getKey(), request.commandName, request.tld);
+      }
+    }
+  }
+
+  /** A stage of a request, which is timed from when it's started until it's closed. */
+  public static final class Stage implements AutoCloseable {
+
+    private int depth;
+    private long startNanos;
+    private long totalNanos;
+
+    private Stage() {}
+
+    @Override
+    public void close() {
+      if (this != NO_OP_STAGE && --depth == 0) {
+        totalNanos += System.nanoTime() - startNanos;
+      }
+    }
+  }
+
+  /** The stages of the request that's being timed on a thread. */
+  private static final class RequestTimings {
+    final Map<String, Stage> stages = new LinkedHashMap<>();
+    String commandName = "";
+    String tld = "";
+  }
+}
@@ -34,7 +34,6 @@ import java.nio.charset.Charset;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import javax.annotation.Nullable;
 import javax.xml.XMLConstants;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
@@ -75,6 +74,24 @@ public class XmlTransformer {
   /** A {@link Schema} to validate XML. */
   private final Schema schema;
 
+  /**
+   * An idle {@link Unmarshaller} for each thread, so that one isn't created and bound to the schema
+   * on every call. Unmarshallers cache the validator handler for their schema, which is the
+   * expensive part. An unmarshaller is removed from here while it is in use, which makes reentrant
+   * calls safe, and it is only put back if it finished without error.
+   */
+  private final ThreadLocal<Unmarshaller> idleUnmarshallers = new ThreadLocal<>();
+
+  /**
+   * An idle validating {@link Marshaller} for each thread, used like {@link #idleUnmarshallers}.
+   * The schema is set once, when the marshaller is created, since setting it builds a new
+   * validator.
+   */
+  private final ThreadLocal<Marshaller> idleStrictMarshallers = new ThreadLocal<>();
+
+  /** An idle non-validating {@link Marshaller} for each thread. */
+  private final ThreadLocal<Marshaller> idleLenientMarshallers = new ThreadLocal<>();
+
   /**
    * Create a new XmlTransformer that validates using the given schemas, but uses the given classes
    * (rather than generated ones) for marshaling and unmarshaling.
@@ -144,8 +161,11 @@ public class XmlTransformer {
    */
   public <T> T unmarshal(Class<T> clazz, InputStream stream) throws XmlException {
     try (InputStream autoClosingStream = stream) {
-      return clazz.cast(getUnmarshaller().unmarshal(
+      Unmarshaller unmarshaller = takeUnmarshaller();
+      T result = clazz.cast(unmarshaller.unmarshal(
           XML_INPUT_FACTORY.createXMLStreamReader(new StreamSource(autoClosingStream, SYSTEM_ID))));
+      idleUnmarshallers.set(unmarshaller);
+      return result;
     } catch (UnmarshalException e) {
       // Plain old parsing exceptions have a SAXParseException with no further cause.
       if (e.getLinkedException() instanceof SAXParseException
@@ -190,10 +210,10 @@ public class XmlTransformer {
   public void marshal(Object root, Writer writer, ValidationMode validation) throws XmlException {
     try {
       // Omit XML declaration because character-oriented output prevents us from knowing.
-      getMarshaller(
-          STRICT.equals(validation) ? schema : null,
-          ImmutableMap.of(Marshaller.JAXB_FRAGMENT, true)).marshal(
-              checkNotNull(root, "root"), checkNotNull(writer, "writer"));
+      Marshaller marshaller =
+          takeMarshaller(validation, ImmutableMap.of(Marshaller.JAXB_FRAGMENT, true));
+      marshaller.marshal(checkNotNull(root, "root"), checkNotNull(writer, "writer"));
+      getIdleMarshallers(validation).set(marshaller);
     } catch (JAXBException e) {
       throw new XmlException(e);
     }
@@ -217,10 +237,10 @@ public class XmlTransformer {
   public void marshal(Object root, OutputStream out, Charset charset, ValidationMode validation)
       throws XmlException {
     try {
-      getMarshaller(
-          STRICT.equals(validation) ? schema : null,
-          ImmutableMap.of(Marshaller.JAXB_ENCODING, charset.toString())).marshal(
-              checkNotNull(root, "root"), checkNotNull(out, "out"));
+      Marshaller marshaller =
+          takeMarshaller(validation, ImmutableMap.of(Marshaller.JAXB_ENCODING, charset.toString()));
+      marshaller.marshal(checkNotNull(root, "root"), checkNotNull(out, "out"));
+      getIdleMarshallers(validation).set(marshaller);
     } catch (JAXBException e) {
       throw new XmlException(e);
     }
@@ -240,8 +260,9 @@ public class XmlTransformer {
    */
   public void marshalStrict(Object root, Result result) throws XmlException {
     try {
-      getMarshaller(schema, ImmutableMap.<String, Object>of())
-          .marshal(checkNotNull(root, "root"), checkNotNull(result, "result"));
+      Marshaller marshaller = takeMarshaller(STRICT, ImmutableMap.<String, Object>of());
+      marshaller.marshal(checkNotNull(root, "root"), checkNotNull(result, "result"));
+      idleStrictMarshallers.set(marshaller);
     } catch (JAXBException e) {
       throw new XmlException(e);
     }
@@ -274,9 +295,17 @@ public class XmlTransformer {
     return JAXBContext.newInstance(prefix + Joiner.on(':' + prefix).join(schemaNames));
   }
 
-  /** Get a {@link Unmarshaller} instance with the default configuration. */
-  private Unmarshaller getUnmarshaller() throws JAXBException {
-    Unmarshaller unmarshaller = jaxbContext.createUnmarshaller();
+  /**
+   * Takes this thread's idle {@link Unmarshaller}, or creates one with the default configuration
+   * if there isn't one.
+   */
+  private Unmarshaller takeUnmarshaller() throws JAXBException {
+    Unmarshaller unmarshaller = idleUnmarshallers.get();
+    if (unmarshaller != null) {
+      idleUnmarshallers.remove();
+      return unmarshaller;
+    }
+    unmarshaller = jaxbContext.createUnmarshaller();
     unmarshaller.setSchema(schema);
     // This handler was the default in JAXB 1.0. It fails on any exception thrown while
     // unmarshalling. In JAXB 2.0 some errors are considered recoverable and are ignored, which is
@@ -285,15 +314,32 @@ public class XmlTransformer {
     return unmarshaller;
   }
 
-  /** Get a {@link Marshaller} instance with the given configuration. */
-  private Marshaller getMarshaller(@Nullable Schema schemaParam, Map<String, ?> properties)
+  /** Returns the idle marshallers of each thread for the validation mode. */
+  private ThreadLocal<Marshaller> getIdleMarshallers(ValidationMode validation) {
+    return STRICT.equals(validation) ? idleStrictMarshallers : idleLenientMarshallers;
+  }
+
+  /**
+   * Takes this thread's idle {@link Marshaller} for the validation mode, or creates one if there
+   * isn't one, and configures it with the given properties.
+   */
+  private Marshaller takeMarshaller(ValidationMode validation, Map<String, ?> properties)
       throws JAXBException {
-    Marshaller marshaller = jaxbContext.createMarshaller();
+    ThreadLocal<Marshaller> idleMarshallers = getIdleMarshallers(validation);
+    Marshaller marshaller = idleMarshallers.get();
+    if (marshaller != null) {
+      idleMarshallers.remove();
+    } else {
+      marshaller = jaxbContext.createMarshaller();
+      marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+      marshaller.setSchema(STRICT.equals(validation) ? schema : null);
+    }
+    // Reset the properties that a previous use of this marshaller might have changed.
+    marshaller.setProperty(Marshaller.JAXB_FRAGMENT, false);
+    marshaller.setProperty(Marshaller.JAXB_ENCODING, UTF_8.name());
     for (Map.Entry<String, ?> entry : properties.entrySet()) {
       marshaller.setProperty(entry.getKey(), entry.getValue());
     }
-    marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-    marshaller.setSchema(schemaParam);
     return marshaller;
   }
 
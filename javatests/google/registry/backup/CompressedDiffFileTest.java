@@ -0,0 +1,142 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.backup;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.backup.BackupUtils.deserializeEntities;
+import static google.registry.backup.BackupUtils.serializeEntity;
+import static google.registry.model.ofy.CommitLogBucket.getBucketKey;
+import static org.joda.time.DateTimeZone.UTC;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.ObjectifyService;
+import google.registry.model.ImmutableObject;
+import google.registry.model.ofy.CommitLogCheckpoint;
+import google.registry.model.ofy.CommitLogManifest;
+import google.registry.model.ofy.CommitLogMutation;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.ExceptionRule;
+import google.registry.testing.TestObject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link CompressedDiffFile}. */
+@RunWith(JUnit4.class)
+public class CompressedDiffFileTest {
+
+  @Rule
+  public final AppEngineRule appEngine = AppEngineRule.builder()
+      .withDatastore()
+      .build();
+
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
+  private final DateTime now = DateTime.now(UTC);
+
+  private final CommitLogCheckpoint checkpoint =
+      CommitLogCheckpoint.create(now, ImmutableMap.of(1, now, 2, now, 3, now));
+  private final Key<CommitLogManifest> manifest1Key =
+      CommitLogManifest.createKey(getBucketKey(1), now.minusMinutes(3));
+  private final Key<CommitLogManifest> manifest2Key =
+      CommitLogManifest.createKey(getBucketKey(2), now.minusMinutes(2));
+  private final Key<CommitLogManifest> manifest3Key =
+      CommitLogManifest.createKey(getBucketKey(1), now.minusMinutes(1));
+
+  private ImmutableList<ImmutableObject> block1;
+  private ImmutableList<ImmutableObject> block2;
+
+  @Before
+  public void before() {
+    ObjectifyService.register(TestObject.class);
+    block1 = ImmutableList.<ImmutableObject>of(
+        CommitLogManifest.create(getBucketKey(1), now.minusMinutes(3), null),
+        CommitLogMutation.create(manifest1Key, TestObject.create("a")),
+        CommitLogManifest.create(
+            getBucketKey(2),
+            now.minusMinutes(2),
+            ImmutableSet.<Key<?>>of(CommitLogCheckpoint.createKey(now.minusDays(1)))),
+        CommitLogMutation.create(manifest2Key, TestObject.create("b")));
+    block2 = ImmutableList.<ImmutableObject>of(
+        CommitLogManifest.create(getBucketKey(1), now.minusMinutes(1), null),
+        CommitLogMutation.create(manifest3Key, TestObject.create("c")));
+  }
+
+  private byte[] writeDiffFile(ImmutableList<ImmutableList<ImmutableObject>> blocks)
+      throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    CompressedDiffFile.Writer writer = new CompressedDiffFile.Writer(output, checkpoint);
+    for (ImmutableList<ImmutableObject> block : blocks) {
+      writer.writeBlock(block);
+    }
+    writer.finish();
+    return output.toByteArray();
+  }
+
+  @Test
+  public void testDeserialize_readsAllBlocksInOrder() throws Exception {
+    assertThat(deserializeEntities(writeDiffFile(ImmutableList.of(block1, block2))))
+        .containsExactlyElementsIn(ImmutableList.builder()
+            .add(checkpoint)
+            .addAll(block1)
+            .addAll(block2)
+            .build())
+        .inOrder();
+  }
+
+  @Test
+  public void testDeserialize_noBlocks() throws Exception {
+    byte[] bytes = writeDiffFile(ImmutableList.<ImmutableList<ImmutableObject>>of());
+    assertThat(deserializeEntities(bytes)).containsExactly(checkpoint);
+  }
+
+  @Test
+  public void testDeserialize_legacyFormat() throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    serializeEntity(checkpoint, output);
+    for (ImmutableObject entity : block1) {
+      serializeEntity(entity, output);
+    }
+    assertThat(deserializeEntities(output.toByteArray()))
+        .containsExactlyElementsIn(ImmutableList.builder().add(checkpoint).addAll(block1).build())
+        .inOrder();
+  }
+
+  @Test
+  public void testDeserialize_unsupportedVersion_throws() throws Exception {
+    byte[] bytes = writeDiffFile(ImmutableList.of(block1));
+    bytes[5] = CompressedDiffFile.FORMAT_VERSION + 1;
+    thrown.expect(IllegalStateException.class, "Unsupported diff file format version 3");
+    deserializeEntities(bytes);
+  }
+
+  @Test
+  public void testFinish_endsFileAfterBlocks() throws Exception {
+    byte[] bytes = writeDiffFile(ImmutableList.of(block1, block2));
+    DataInputStream end =
+        new DataInputStream(new ByteArrayInputStream(bytes, bytes.length - 4, 4));
+    assertThat(end.readInt()).isEqualTo(0);
+  }
+}
@@ -17,7 +17,6 @@ package google.registry.backup;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.LOWER_BOUND_CHECKPOINT;
-import static google.registry.backup.BackupUtils.GcsMetadataKeys.NUM_TRANSACTIONS;
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.UPPER_BOUND_CHECKPOINT;
 import static google.registry.backup.BackupUtils.deserializeEntities;
 import static google.registry.testing.DatastoreHelper.persistResource;
@@ -106,9 +105,7 @@ public class ExportCommitLogDiffActionTest {
             LOWER_BOUND_CHECKPOINT,
             oneMinuteAgo.toString(),
             UPPER_BOUND_CHECKPOINT,
-            now.toString(),
-            NUM_TRANSACTIONS,
-            "0");
+            now.toString());
     List<ImmutableObject> exported =
         deserializeEntities(GcsTestingUtils.readGcsFile(gcsService, expectedFilename));
     assertThat(exported).containsExactly(upperCheckpoint);
@@ -161,9 +158,7 @@ public class ExportCommitLogDiffActionTest {
             LOWER_BOUND_CHECKPOINT,
             oneMinuteAgo.toString(),
             UPPER_BOUND_CHECKPOINT,
-            now.toString(),
-            NUM_TRANSACTIONS,
-            "4");
+            now.toString());
     List<ImmutableObject> exported =
         deserializeEntities(GcsTestingUtils.readGcsFile(gcsService, expectedFilename));
     assertThat(exported.get(0)).isEqualTo(upperCheckpoint);
@@ -213,9 +208,7 @@ public class ExportCommitLogDiffActionTest {
             LOWER_BOUND_CHECKPOINT,
             oneMinuteAgo.toString(),
             UPPER_BOUND_CHECKPOINT,
-            now.toString(),
-            NUM_TRANSACTIONS,
-            "4");
+            now.toString());
     List<ImmutableObject> exported =
         deserializeEntities(GcsTestingUtils.readGcsFile(gcsService, expectedFilename));
     assertThat(exported.get(0)).isEqualTo(upperCheckpoint);
@@ -268,9 +261,7 @@ public class ExportCommitLogDiffActionTest {
             LOWER_BOUND_CHECKPOINT,
             oneMinuteAgo.toString(),
             UPPER_BOUND_CHECKPOINT,
-            now.toString(),
-            NUM_TRANSACTIONS,
-            "6");
+            now.toString());
     List<ImmutableObject> exported =
         deserializeEntities(GcsTestingUtils.readGcsFile(gcsService, expectedFilename));
     assertThat(exported.get(0)).isEqualTo(upperCheckpoint);
@@ -298,6 +289,46 @@ public class ExportCommitLogDiffActionTest {
             .inOrder();
   }
 
+  @Test
+  public void testRun_severalPagesOfKeysInOneBucket_exportsInOrder() throws Exception {
+    task.batchSize = 1;
+    task.lowerCheckpointTime = oneMinuteAgo;
+    task.upperCheckpointTime = now;
+
+    persistResource(CommitLogCheckpoint.create(
+        oneMinuteAgo,
+        ImmutableMap.of(1, START_OF_TIME, 2, START_OF_TIME, 3, START_OF_TIME)));
+    CommitLogCheckpoint upperCheckpoint = persistResource(CommitLogCheckpoint.create(
+        now,
+        ImmutableMap.of(1, now, 2, now, 3, now)));
+
+    // Each manifest of bucket 1 is on its own page of keys.
+    persistManifestAndMutation(1, oneMinuteAgo);
+    persistManifestAndMutation(1, now.minusSeconds(30));
+    persistManifestAndMutation(2, now.minusSeconds(20));
+    persistManifestAndMutation(1, now);
+
+    task.run();
+
+    List<ImmutableObject> exported = deserializeEntities(GcsTestingUtils.readGcsFile(
+        gcsService, new GcsFilename("gcs bucket", "commit_diff_until_" + now)));
+    CommitLogManifest manifest1 = createManifest(1, oneMinuteAgo);
+    CommitLogManifest manifest2 = createManifest(1, now.minusSeconds(30));
+    CommitLogManifest manifest3 = createManifest(2, now.minusSeconds(20));
+    CommitLogManifest manifest4 = createManifest(1, now);
+    assertThat(exported).containsExactly(
+        upperCheckpoint,
+        manifest1,
+        createMutation(manifest1),
+        manifest2,
+        createMutation(manifest2),
+        manifest3,
+        createMutation(manifest3),
+        manifest4,
+        createMutation(manifest4))
+            .inOrder();
+  }
+
   @Test
   public void testRun_checkpointDiffWithNeverTouchedBuckets_exportsCorrectly() throws Exception {
     task.lowerCheckpointTime = oneMinuteAgo;
@@ -323,9 +354,7 @@ public class ExportCommitLogDiffActionTest {
             LOWER_BOUND_CHECKPOINT,
             oneMinuteAgo.toString(),
             UPPER_BOUND_CHECKPOINT,
-            now.toString(),
-            NUM_TRANSACTIONS,
-            "0");
+            now.toString());
     List<ImmutableObject> exported =
         deserializeEntities(GcsTestingUtils.readGcsFile(gcsService, expectedFilename));
     // We expect no manifests or mutations, only the upper checkpoint.
@@ -356,9 +385,7 @@ public class ExportCommitLogDiffActionTest {
             LOWER_BOUND_CHECKPOINT,
             START_OF_TIME.toString(),
             UPPER_BOUND_CHECKPOINT,
-            now.toString(),
-            NUM_TRANSACTIONS,
-            "3");
+            now.toString());
     List<ImmutableObject> exported =
         deserializeEntities(GcsTestingUtils.readGcsFile(gcsService, expectedFilename));
     assertThat(exported.get(0)).isEqualTo(upperCheckpoint);
@@ -23,6 +23,7 @@ import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorS
 import static google.registry.backup.BackupUtils.GcsMetadataKeys.LOWER_BOUND_CHECKPOINT;
 import static google.registry.backup.BackupUtils.serializeEntity;
 import static google.registry.backup.ExportCommitLogDiffAction.DIFF_FILE_PREFIX;
+import static google.registry.model.common.Cursor.CursorType.DOMAIN_REFERENCE_INDEX_BACKFILL;
 import static google.registry.model.ofy.CommitLogBucket.getBucketIds;
 import static google.registry.model.ofy.CommitLogBucket.getBucketKey;
 import static google.registry.model.ofy.ObjectifyService.ofy;
@@ -34,6 +35,7 @@ import com.google.appengine.tools.cloudstorage.GcsFileOptions;
 import com.google.appengine.tools.cloudstorage.GcsFilename;
 import com.google.appengine.tools.cloudstorage.GcsService;
 import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
@@ -42,11 +44,14 @@ import com.googlecode.objectify.Key;
 import com.googlecode.objectify.ObjectifyService;
 import google.registry.config.TestRegistryConfig;
 import google.registry.model.ImmutableObject;
+import google.registry.model.common.Cursor;
 import google.registry.model.ofy.CommitLogBucket;
 import google.registry.model.ofy.CommitLogCheckpoint;
 import google.registry.model.ofy.CommitLogCheckpointRoot;
 import google.registry.model.ofy.CommitLogManifest;
 import google.registry.model.ofy.CommitLogMutation;
+import google.registry.monitoring.metrics.Distribution;
+import google.registry.monitoring.metrics.MetricPoint;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.FakeClock;
 import google.registry.testing.FakeSleeper;
@@ -56,6 +61,7 @@ import google.registry.util.Retrier;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -89,7 +95,7 @@ public class RestoreCommitLogsActionTest {
     ObjectifyService.register(TestObject.class);
     action.gcsService = gcsService;
     action.dryRun = false;
-    action.datastoreService = DatastoreServiceFactory.getDatastoreService();
+    action.datastoreService = DatastoreServiceFactory.getAsyncDatastoreService();
     action.fromTime = now.minusMillis(1);
     action.retrier = new Retrier(new FakeSleeper(new FakeClock()), 1);
     action.diffLister = new GcsDiffFileLister();
@@ -153,6 +159,44 @@ public class RestoreCommitLogsActionTest {
     assertCommitLogBuckets(ImmutableMap.of(1, now.minusMinutes(1), 2, now.minusMinutes(2)));
   }
 
+  @Test
+  public void testRestore_legacyAndCompressedDiffFiles() throws Exception {
+    ofy().saveWithoutBackup().entity(TestObject.create("previous to delete")).now();
+    // The first diff file is in the legacy format, and the second in the compressed format with
+    // one transaction in each of its two blocks.
+    Key<CommitLogManifest> manifest1Key =
+        CommitLogManifest.createKey(getBucketKey(1), now.minusMinutes(3));
+    Key<CommitLogManifest> manifest2aKey =
+        CommitLogManifest.createKey(getBucketKey(2), now.minusMinutes(2));
+    Key<CommitLogManifest> manifest2bKey =
+        CommitLogManifest.createKey(getBucketKey(1), now.minusMinutes(1));
+    saveDiffFileNotToRestore(now.minusMinutes(2));
+    Iterable<ImmutableObject> file1CommitLogs = saveDiffFile(
+        createCheckpoint(now.minusMinutes(1)),
+        CommitLogManifest.create(getBucketKey(1), now.minusMinutes(3), null),
+        CommitLogMutation.create(manifest1Key, TestObject.create("a")));
+    Iterable<ImmutableObject> file2CommitLogs = saveCompressedDiffFile(
+        createCheckpoint(now),
+        ImmutableList.<ImmutableList<ImmutableObject>>of(
+            ImmutableList.<ImmutableObject>of(
+                CommitLogManifest.create(
+                    getBucketKey(2),
+                    now.minusMinutes(2),
+                    ImmutableSet.<Key<?>>of(Key.create(TestObject.create("previous to delete")))),
+                CommitLogMutation.create(manifest2aKey, TestObject.create("b"))),
+            ImmutableList.<ImmutableObject>of(
+                CommitLogManifest.create(getBucketKey(1), now.minusMinutes(1), null),
+                CommitLogMutation.create(manifest2bKey, TestObject.create("c")))));
+    action.fromTime = now.minusMinutes(1).minusMillis(1);
+    action.run();
+    ofy().clearSessionCache();
+    assertExpectedIds("a", "b", "c");
+    assertInDatastore(file1CommitLogs);
+    assertInDatastore(file2CommitLogs);
+    assertInDatastore(asList(CommitLogCheckpointRoot.create(now)));
+    assertCommitLogBuckets(ImmutableMap.of(1, now.minusMinutes(1), 2, now.minusMinutes(2)));
+  }
+
   @Test
   public void testRestore_noManifests() throws Exception {
     ofy().saveWithoutBackup().entity(
@@ -240,6 +284,82 @@ public class RestoreCommitLogsActionTest {
     assertCommitLogBuckets(ImmutableMap.of(1, now));
   }
 
+  @Test
+  public void testRestore_marksDomainReferenceIndexIncomplete() throws Exception {
+    ofy().saveWithoutBackup()
+        .entity(Cursor.createGlobal(DOMAIN_REFERENCE_INDEX_BACKFILL, now.minusDays(1)))
+        .now();
+    saveDiffFileNotToRestore(now.minusMinutes(1));
+    saveDiffFile(createCheckpoint(now));
+    action.run();
+    ofy().clearSessionCache();
+    assertThat(ofy().load().key(Cursor.createGlobalKey(DOMAIN_REFERENCE_INDEX_BACKFILL)).now())
+        .isNull();
+  }
+
+  @Test
+  public void testRestore_recordsThroughput() throws Exception {
+    long previousCount = getThroughputCount("false");
+    Key<CommitLogManifest> manifestKey = CommitLogManifest.createKey(getBucketKey(1), now);
+    saveDiffFileNotToRestore(now.minusMinutes(1));
+    saveDiffFile(
+        createCheckpoint(now),
+        CommitLogManifest.create(getBucketKey(1), now, null),
+        CommitLogMutation.create(manifestKey, TestObject.create("a")));
+    action.run();
+    assertThat(getThroughputCount("false")).isEqualTo(previousCount + 1);
+  }
+
+  @Test
+  public void testRestore_sameEntityInConsecutiveTransactions_restoredInOrder() throws Exception {
+    Key<CommitLogManifest> manifest1Key =
+        CommitLogManifest.createKey(getBucketKey(1), now.minusMinutes(3));
+    Key<CommitLogManifest> manifest3Key =
+        CommitLogManifest.createKey(getBucketKey(3), now.minusMinutes(1));
+    saveDiffFileNotToRestore(now.minusMinutes(1));
+    Iterable<ImmutableObject> commitLogs = saveDiffFile(
+        createCheckpoint(now),
+        CommitLogManifest.create(getBucketKey(1), now.minusMinutes(3), null),
+        CommitLogMutation.create(manifest1Key, TestObject.create("a", "first")),
+        CommitLogMutation.create(manifest1Key, TestObject.create("b", "first")),
+        CommitLogManifest.create(
+            getBucketKey(2),
+            now.minusMinutes(2),
+            ImmutableSet.<Key<?>>of(Key.create(TestObject.create("a")))),
+        CommitLogManifest.create(getBucketKey(3), now.minusMinutes(1), null),
+        CommitLogMutation.create(manifest3Key, TestObject.create("a", "third")));
+    action.run();
+    ofy().clearSessionCache();
+    assertExpectedIds("a", "b");
+    assertThat(ofy().load().entity(TestObject.create("a")).now().getField()).isEqualTo("third");
+    assertThat(ofy().load().entity(TestObject.create("b")).now().getField()).isEqualTo("first");
+    assertInDatastore(commitLogs);
+    assertCommitLogBuckets(
+        ImmutableMap.of(1, now.minusMinutes(3), 2, now.minusMinutes(2), 3, now.minusMinutes(1)));
+  }
+
+  @Test
+  public void testRestore_moreTransactionsThanFitInABatch() throws Exception {
+    List<ImmutableObject> commitLogs = new ArrayList<>();
+    DateTime commitTime = null;
+    for (int i = 0; i < RestoreCommitLogsAction.MAX_BATCH_SIZE; i++) {
+      commitTime = now.minusMinutes(1).plusMillis(i);
+      commitLogs.add(CommitLogManifest.create(getBucketKey(1), commitTime, null));
+      commitLogs.add(CommitLogMutation.create(
+          CommitLogManifest.createKey(getBucketKey(1), commitTime),
+          TestObject.create("object" + i)));
+    }
+    saveDiffFileNotToRestore(now.minusMinutes(1));
+    Iterable<ImmutableObject> savedCommitLogs =
+        saveDiffFile(createCheckpoint(now), commitLogs.toArray(new ImmutableObject[0]));
+    action.run();
+    ofy().clearSessionCache();
+    assertThat(ofy().load().type(TestObject.class).count())
+        .isEqualTo(RestoreCommitLogsAction.MAX_BATCH_SIZE);
+    assertInDatastore(savedCommitLogs);
+    assertCommitLogBuckets(ImmutableMap.of(1, commitTime));
+  }
+
   // This should be harmless; deletes are idempotent.
   @Test
   public void testRestore_deleteMissingEntity() throws Exception {
@@ -280,6 +400,27 @@ public class RestoreCommitLogsActionTest {
     return allEntities;
   }
 
+  private Iterable<ImmutableObject> saveCompressedDiffFile(
+      CommitLogCheckpoint checkpoint, List<ImmutableList<ImmutableObject>> blocks)
+      throws IOException {
+    DateTime now = checkpoint.getCheckpointTime();
+    List<ImmutableObject> allEntities = Lists.<ImmutableObject>newArrayList(checkpoint);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    CompressedDiffFile.Writer writer = new CompressedDiffFile.Writer(output, checkpoint);
+    for (ImmutableList<ImmutableObject> block : blocks) {
+      writer.writeBlock(block);
+      allEntities.addAll(block);
+    }
+    writer.finish();
+    gcsService.createOrReplace(
+        new GcsFilename(GCS_BUCKET, DIFF_FILE_PREFIX + now),
+        new GcsFileOptions.Builder()
+            .addUserMetadata(LOWER_BOUND_CHECKPOINT, now.minusMinutes(1).toString())
+            .build(),
+        ByteBuffer.wrap(output.toByteArray()));
+    return allEntities;
+  }
+
   private void saveDiffFileNotToRestore(DateTime now) throws Exception {
     saveDiffFile(
         createCheckpoint(now),
@@ -289,6 +430,17 @@ public class RestoreCommitLogsActionTest {
             TestObject.create("should not be restored")));
   }
 
+  /** Returns how many restores have recorded their throughput with the given dry run label. */
+  private static long getThroughputCount(String dryRun) {
+    for (MetricPoint<Distribution> point
+        : RestoreCommitLogsAction.throughput.getTimestampedValues()) {
+      if (point.labelValues().equals(ImmutableList.of(dryRun))) {
+        return point.value().count();
+      }
+    }
+    return 0;
+  }
+
   private void assertExpectedIds(String... ids) {
     assertThat(transform(
         ofy().load().type(TestObject.class),
@@ -15,13 +15,20 @@
 package google.registry.dns;
 
 import static com.google.appengine.api.taskqueue.QueueFactory.getQueue;
+import static com.google.common.truth.Truth.assertThat;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.TaskQueueHelper.assertNoTasksEnqueued;
 import static google.registry.testing.TaskQueueHelper.assertTasksEnqueued;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.TaskHandle;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.ExceptionRule;
 import google.registry.testing.TaskQueueHelper.TaskMatcher;
+import java.util.List;
+import org.joda.time.Duration;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -86,5 +93,24 @@ public class DnsQueueTest {
       assertNoTasksEnqueued("dns-pull");
     }
   }
+
+  @Test
+  public void test_deleteTasks_deletesInBatches() throws Exception {
+    createTld("tld");
+    for (int i = 0; i < 5; i++) {
+      dnsQueue.addDomainRefreshTask(String.format("domain%d.tld", i));
+    }
+    List<TaskHandle> tasks = dnsQueue.leaseTasks(Duration.standardMinutes(1));
+    assertThat(tasks).hasSize(5);
+    Queue queue = mock(Queue.class);
+    dnsQueue.queue = queue;
+    dnsQueue.deleteBatchSize = 2;
+
+    dnsQueue.deleteTasks(tasks);
+
+    verify(queue).deleteTask(tasks.subList(0, 2));
+    verify(queue).deleteTask(tasks.subList(2, 4));
+    verify(queue).deleteTask(tasks.subList(4, 5));
+  }
 }
 
@@ -80,6 +80,7 @@ public class PublishDnsUpdatesActionTest {
     action.domains = ImmutableSet.<String>of();
     action.dnsWriterProxy = new DnsWriterProxy(ImmutableMap.of("mock", dnsWriter));
     action.dnsMetrics = dnsMetrics;
+    action.clock = clock;
     return action;
   }
 
@@ -132,6 +133,20 @@ public class PublishDnsUpdatesActionTest {
     verifyNoMoreInteractions(dnsMetrics);
   }
 
+  @Test
+  public void testNonexistentNames_published() throws Exception {
+    action = createAction("xn--q9jyb4c");
+    action.domains = ImmutableSet.of("missing.xn--q9jyb4c");
+    action.hosts = ImmutableSet.of("ns1.missing.xn--q9jyb4c", "ns1.example.xn--q9jyb4c");
+    action.run();
+
+    verify(dnsWriter).publishDomain("missing.xn--q9jyb4c");
+    verify(dnsWriter).publishHost("ns1.missing.xn--q9jyb4c");
+    verify(dnsWriter).publishHost("ns1.example.xn--q9jyb4c");
+    verify(dnsWriter).close();
+    verifyNoMoreInteractions(dnsWriter);
+  }
+
   @Test
   public void testWrongTld_notPublished() throws Exception {
     action = createAction("xn--q9jyb4c");
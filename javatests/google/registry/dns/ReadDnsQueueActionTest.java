@@ -191,6 +191,24 @@ public class ReadDnsQueueActionTest {
             .param("hosts", "ns1.domain.com"));
   }
 
+  @Test
+  public void testSuccess_duplicatesAcrossLeaseBatches_areCoalesced() throws Exception {
+    dnsQueue.writeBatchSize = 2;
+    dnsQueue.addDomainRefreshTask("domain.com");
+    dnsQueue.addDomainRefreshTask("domain.com");
+    dnsQueue.addDomainRefreshTask("domain2.com");
+    dnsQueue.addDomainRefreshTask("domain.com");
+    run(false);
+    assertNoTasksEnqueued(DnsConstants.DNS_PULL_QUEUE_NAME);
+    assertTasksEnqueued(
+        DNS_PUBLISH_PUSH_QUEUE_NAME,
+        new TaskMatcher()
+            .url(PublishDnsUpdatesAction.PATH)
+            .param(RequestParameters.PARAM_TLD, "com")
+            .param("domains", "domain.com")
+            .param("domains", "domain2.com"));
+  }
+
   @Test
   public void testSuccess_manyDomainsAndHosts() throws Exception {
     List<TaskMatcher> expectedTasks = new ArrayList<>();
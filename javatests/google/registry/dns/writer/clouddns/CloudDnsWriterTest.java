@@ -21,6 +21,7 @@ import static google.registry.testing.DatastoreHelper.newDomainResource;
 import static google.registry.testing.DatastoreHelper.newHostResource;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -54,6 +55,7 @@ import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.Nullable;
 import org.joda.time.Duration;
 import org.junit.Before;
@@ -80,14 +82,12 @@ public class CloudDnsWriterTest {
 
   @Mock private Dns dnsConnection;
   @Mock private Dns.ResourceRecordSets resourceRecordSets;
-  @Mock private Dns.ResourceRecordSets.List listResourceRecordSetsRequest;
   @Mock private Dns.Changes changes;
   @Mock private Dns.Changes.Create createChangeRequest;
   @Mock private Callable<Void> mutateZoneCallable;
-  @Captor ArgumentCaptor<String> recordNameCaptor;
   @Captor ArgumentCaptor<Change> changeCaptor;
   private CloudDnsWriter writer;
-  private ImmutableSet<ResourceRecordSet> stubZone;
+  private volatile ImmutableSet<ResourceRecordSet> stubZone;
 
   @Rule public final ExceptionRule thrown = new ExceptionRule();
 
@@ -96,49 +96,21 @@ public class CloudDnsWriterTest {
   @Before
   public void setUp() throws Exception {
     createTld("tld");
-    writer =
-        new CloudDnsWriter(
-            dnsConnection,
-            "projectId",
-            "zoneName",
-            DEFAULT_TTL,
-            RateLimiter.create(20),
-            new SystemClock(),
-            new Retrier(new SystemSleeper(), 5));
+    writer = newWriter(100);
 
     // Create an empty zone.
     stubZone = ImmutableSet.of();
 
     when(dnsConnection.changes()).thenReturn(changes);
     when(dnsConnection.resourceRecordSets()).thenReturn(resourceRecordSets);
+    // Return a new request for each list call, since the writer lists records concurrently.
     when(resourceRecordSets.list(anyString(), anyString()))
-        .thenReturn(listResourceRecordSetsRequest);
-    when(listResourceRecordSetsRequest.setName(recordNameCaptor.capture()))
-        .thenReturn(listResourceRecordSetsRequest);
-    // Return records from our stub zone when a request to list the records is executed
-    when(listResourceRecordSetsRequest.execute())
         .thenAnswer(
-            new Answer<ResourceRecordSetsListResponse>() {
+            new Answer<Dns.ResourceRecordSets.List>() {
               @Override
-              public ResourceRecordSetsListResponse answer(InvocationOnMock invocationOnMock)
+              public Dns.ResourceRecordSets.List answer(InvocationOnMock invocationOnMock)
                   throws Throwable {
-                return new ResourceRecordSetsListResponse()
-                    .setRrsets(
-                        FluentIterable.from(stubZone)
-                            .filter(
-                                new Predicate<ResourceRecordSet>() {
-                                  @Override
-                                  public boolean apply(
-                                      @Nullable ResourceRecordSet resourceRecordSet) {
-                                    if (resourceRecordSet == null) {
-                                      return false;
-                                    }
-                                    return resourceRecordSet
-                                        .getName()
-                                        .equals(recordNameCaptor.getValue());
-                                  }
-                                })
-                            .toList());
+                return newListResourceRecordSetsRequest();
               }
             });
 
@@ -168,6 +140,58 @@ public class CloudDnsWriterTest {
             });
   }
 
+  private CloudDnsWriter newWriter(int maxRecordSetsPerChange) {
+    return new CloudDnsWriter(
+        dnsConnection,
+        "projectId",
+        "zoneName",
+        DEFAULT_TTL,
+        RateLimiter.create(20),
+        maxRecordSetsPerChange,
+        new SystemClock(),
+        new Retrier(new SystemSleeper(), 5));
+  }
+
+  /** Returns a request that lists the records in our stub zone with the name that is set on it. */
+  private Dns.ResourceRecordSets.List newListResourceRecordSetsRequest() throws Exception {
+    final Dns.ResourceRecordSets.List request = mock(Dns.ResourceRecordSets.List.class);
+    final AtomicReference<String> recordName = new AtomicReference<>();
+    when(request.setName(anyString()))
+        .thenAnswer(
+            new Answer<Dns.ResourceRecordSets.List>() {
+              @Override
+              public Dns.ResourceRecordSets.List answer(InvocationOnMock invocationOnMock) {
+                recordName.set((String) invocationOnMock.getArguments()[0]);
+                return request;
+              }
+            });
+    when(request.execute())
+        .thenAnswer(
+            new Answer<ResourceRecordSetsListResponse>() {
+              @Override
+              public ResourceRecordSetsListResponse answer(InvocationOnMock invocationOnMock) {
+                return new ResourceRecordSetsListResponse()
+                    .setRrsets(
+                        FluentIterable.from(stubZone)
+                            .filter(
+                                new Predicate<ResourceRecordSet>() {
+                                  @Override
+                                  public boolean apply(
+                                      @Nullable ResourceRecordSet resourceRecordSet) {
+                                    if (resourceRecordSet == null) {
+                                      return false;
+                                    }
+                                    return resourceRecordSet
+                                        .getName()
+                                        .equals(recordName.get());
+                                  }
+                                })
+                            .toList());
+              }
+            });
+    return request;
+  }
+
   private void verifyZone(ImmutableSet<ResourceRecordSet> expectedRecords) throws Exception {
     // Trigger zone changes
     writer.close();
@@ -413,6 +437,7 @@ public class CloudDnsWriterTest {
   @SuppressWarnings("unchecked")
   public void retryMutateZoneOnError() throws Exception {
     try (CloudDnsWriter spyWriter = spy(writer)) {
+      spyWriter.publishDomain("example.tld");
       when(mutateZoneCallable.call()).thenThrow(ZoneStateException.class).thenReturn(null);
       when(spyWriter.getMutateZoneCallback(
               Matchers.<ImmutableMap<String, ImmutableSet<ResourceRecordSet>>>any()))
@@ -422,6 +447,56 @@ public class CloudDnsWriterTest {
     verify(mutateZoneCallable, times(2)).call();
   }
 
+  @Test
+  public void testLoadDomains_splitIntoChangesWithinLimit() throws Exception {
+    // Leaves room for a single domain and its glue record in each change.
+    writer = newWriter(4);
+    stubZone =
+        Sets.union(
+                fakeDomainRecords("example1.tld", 1, 0, 0, 0),
+                fakeDomainRecords("example2.tld", 2, 0, 0, 0))
+            .immutableCopy();
+    persistResource(
+        fakeDomain(
+                "example1.tld",
+                ImmutableSet.of(persistResource(fakeHost("0.ip4.example1.tld", IPv4))),
+                1)
+            .asBuilder()
+            .addSubordinateHost("0.ip4.example1.tld")
+            .build());
+    persistResource(
+        fakeDomain(
+                "example2.tld",
+                ImmutableSet.of(persistResource(fakeHost("0.ip4.example2.tld", IPv4))),
+                0)
+            .asBuilder()
+            .addSubordinateHost("0.ip4.example2.tld")
+            .build());
+    writer.publishDomain("example1.tld");
+    writer.publishHost("1.ip4.example2.tld");
+
+    verifyZone(
+        Sets.union(
+                fakeDomainRecords("example1.tld", 1, 0, 0, 1),
+                fakeDomainRecords("example2.tld", 1, 0, 0, 0))
+            .immutableCopy());
+    assertThat(changeCaptor.getAllValues()).hasSize(2);
+    assertThat(changeCaptor.getAllValues().get(0).getAdditions())
+        .containsExactlyElementsIn(fakeDomainRecords("example1.tld", 1, 0, 0, 1));
+    assertThat(changeCaptor.getAllValues().get(1).getAdditions())
+        .containsExactlyElementsIn(fakeDomainRecords("example2.tld", 1, 0, 0, 0));
+  }
+
+  @Test
+  public void testLoadDomain_publishedTwice() throws Exception {
+    persistResource(
+        fakeDomain("example.tld", ImmutableSet.of(persistResource(fakeHost("0.external"))), 0));
+    writer.publishDomain("example.tld");
+    writer.publishDomain("example.tld");
+
+    verifyZone(fakeDomainRecords("example.tld", 0, 0, 1, 0));
+  }
+
   @Test
   public void testLoadDomain_withClientHold() throws Exception {
     persistResource(
@@ -18,6 +18,8 @@ import static com.google.common.io.BaseEncoding.base16;
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -187,6 +189,52 @@ public class DnsMessageTransportTest {
     resolver.send(simpleQuery);
   }
 
+  @Test
+  public void testConnectionReusedUntilClosed() throws Exception {
+    Message secondQuery =
+        Message.newQuery(Record.newRecord(Name.fromString("example.net."), Type.A, DClass.IN));
+    ByteArrayOutputStream responses = new ByteArrayOutputStream();
+    responses.write(messageToBytesWithLength(expectedResponse));
+    responses.write(
+        messageToBytesWithLength(responseMessageWithCode(secondQuery, Rcode.NOERROR)));
+    when(mockSocket.getInputStream())
+        .thenReturn(new ByteArrayInputStream(responses.toByteArray()));
+    when(mockSocket.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+
+    resolver.send(simpleQuery);
+    resolver.send(secondQuery);
+    verify(mockSocket, never()).close();
+    resolver.close();
+
+    verify(mockFactory, times(1))
+        .createSocket(InetAddress.getByName(UPDATE_HOST), DnsMessageTransport.DNS_PORT);
+    verify(mockSocket).close();
+  }
+
+  @Test
+  public void testFailureOnReusedConnection_retriedOnNewConnection() throws Exception {
+    when(mockSocket.getInputStream())
+        .thenReturn(new ByteArrayInputStream(messageToBytesWithLength(expectedResponse)));
+    when(mockSocket.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+    Socket secondSocket = mock(Socket.class);
+    Message secondQuery =
+        Message.newQuery(Record.newRecord(Name.fromString("example.net."), Type.A, DClass.IN));
+    Message secondResponse = responseMessageWithCode(secondQuery, Rcode.NOERROR);
+    when(secondSocket.getInputStream())
+        .thenReturn(new ByteArrayInputStream(messageToBytesWithLength(secondResponse)));
+    when(secondSocket.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+    when(mockFactory.createSocket(InetAddress.getByName(UPDATE_HOST), DnsMessageTransport.DNS_PORT))
+        .thenReturn(mockSocket, secondSocket);
+
+    resolver.send(simpleQuery);
+    // The first connection has no more responses to read, as if the server had closed it.
+    Message actualResponse = resolver.send(secondQuery);
+
+    assertThat(actualResponse.getHeader().getID()).isEqualTo(secondQuery.getHeader().getID());
+    verify(mockSocket).close();
+    verify(secondSocket, never()).close();
+  }
+
   private Message responseMessageWithCode(Message query, int responseCode) {
     Message message = new Message(query.getHeader().getID());
     message.getHeader().setOpcode(query.getHeader().getOpcode());
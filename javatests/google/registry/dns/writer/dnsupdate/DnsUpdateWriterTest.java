@@ -27,6 +27,8 @@ import static google.registry.testing.DatastoreHelper.persistDeletedDomain;
 import static google.registry.testing.DatastoreHelper.persistDeletedHost;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -46,6 +48,7 @@ import google.registry.testing.FakeClock;
 import google.registry.testing.InjectRule;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 import org.junit.Before;
@@ -97,7 +100,7 @@ public class DnsUpdateWriterTest {
     createTld("tld");
     when(mockResolver.send(any(Update.class))).thenReturn(messageWithResponseCode(Rcode.NOERROR));
 
-    writer = new DnsUpdateWriter(Duration.ZERO, mockResolver, clock);
+    writer = new DnsUpdateWriter(Duration.ZERO, 65535, mockResolver, clock);
   }
 
   @Test
@@ -112,6 +115,7 @@ public class DnsUpdateWriterTest {
     persistResource(domain);
 
     writer.publishDomain("example.tld");
+    writer.close();
 
     verify(mockResolver).send(updateCaptor.capture());
     Update update = updateCaptor.getValue();
@@ -134,6 +138,7 @@ public class DnsUpdateWriterTest {
     persistResource(domain);
 
     writer.publishDomain("example.tld");
+    writer.close();
 
     verify(mockResolver).send(updateCaptor.capture());
     Update update = updateCaptor.getValue();
@@ -155,6 +160,7 @@ public class DnsUpdateWriterTest {
     persistResource(domain);
 
     writer.publishDomain("example.tld");
+    writer.close();
 
     verify(mockResolver).send(updateCaptor.capture());
     Update update = updateCaptor.getValue();
@@ -168,6 +174,7 @@ public class DnsUpdateWriterTest {
     persistDeletedDomain("example.tld", clock.nowUtc().minusDays(1));
 
     writer.publishDomain("example.tld");
+    writer.close();
 
     verify(mockResolver).send(updateCaptor.capture());
     Update update = updateCaptor.getValue();
@@ -196,6 +203,7 @@ public class DnsUpdateWriterTest {
             .build());
 
     writer.publishHost("ns1.example.tld");
+    writer.close();
 
     verify(mockResolver).send(updateCaptor.capture());
     Update update = updateCaptor.getValue();
@@ -214,6 +222,7 @@ public class DnsUpdateWriterTest {
     persistActiveDomain("example.tld");
 
     writer.publishHost("ns1.example.tld");
+    writer.close();
 
     verify(mockResolver).send(updateCaptor.capture());
     Update update = updateCaptor.getValue();
@@ -233,6 +242,7 @@ public class DnsUpdateWriterTest {
             .build());
 
     writer.publishHost("ns1.example.tld");
+    writer.close();
 
     verify(mockResolver).send(updateCaptor.capture());
     Update update = updateCaptor.getValue();
@@ -266,6 +276,7 @@ public class DnsUpdateWriterTest {
             .build());
 
     writer.publishDomain("example.tld");
+    writer.close();
 
     verify(mockResolver).send(updateCaptor.capture());
     Update update = updateCaptor.getValue();
@@ -300,6 +311,7 @@ public class DnsUpdateWriterTest {
             .build());
 
     writer.publishDomain("example.tld");
+    writer.close();
 
     verify(mockResolver).send(updateCaptor.capture());
     Update update = updateCaptor.getValue();
@@ -325,6 +337,7 @@ public class DnsUpdateWriterTest {
     thrown.expect(VerifyException.class, "SERVFAIL");
 
     writer.publishDomain("example.tld");
+    writer.close();
   }
 
   @Test
@@ -339,6 +352,62 @@ public class DnsUpdateWriterTest {
     thrown.expect(VerifyException.class, "SERVFAIL");
 
     writer.publishHost("ns1.example.tld");
+    writer.close();
+  }
+
+  @Test
+  public void testPublishMultipleDomains_sentInOneUpdate() throws Exception {
+    persistResource(
+        persistActiveDomain("example.tld")
+            .asBuilder()
+            .setNameservers(ImmutableSet.of(Key.create(persistActiveHost("ns1.example.com"))))
+            .build());
+    persistDeletedDomain("deleted.tld", clock.nowUtc().minusDays(1));
+
+    writer.publishDomain("example.tld");
+    writer.publishDomain("deleted.tld");
+    verify(mockResolver, never()).send(any(Message.class));
+    writer.close();
+
+    verify(mockResolver).send(updateCaptor.capture());
+    verify(mockResolver).close();
+    Update update = updateCaptor.getValue();
+    assertThatUpdatedZoneIs(update, "tld.");
+    assertThatUpdateDeletes(update, "example.tld.", Type.ANY);
+    assertThatUpdateAdds(update, "example.tld.", Type.NS, "ns1.example.com.");
+    assertThatUpdateDeletes(update, "deleted.tld.", Type.ANY);
+    assertThatTotalUpdateSetsIs(update, 3);
+  }
+
+  @Test
+  public void testPublishMultipleDomains_splitWhenOverMaximumSize() throws Exception {
+    persistDeletedDomain("first.tld", clock.nowUtc().minusDays(1));
+    persistDeletedDomain("second.tld", clock.nowUtc().minusDays(1));
+    persistDeletedDomain("third.tld", clock.nowUtc().minusDays(1));
+    // Only leaves room for the records of a single deleted domain in each message.
+    writer = new DnsUpdateWriter(Duration.ZERO, 60, mockResolver, clock);
+
+    writer.publishDomain("first.tld");
+    writer.publishDomain("second.tld");
+    writer.publishDomain("third.tld");
+    writer.close();
+
+    verify(mockResolver, times(3)).send(updateCaptor.capture());
+    List<Update> updates = updateCaptor.getAllValues();
+    assertThatUpdateDeletes(updates.get(0), "first.tld.", Type.ANY);
+    assertThatTotalUpdateSetsIs(updates.get(0), 1);
+    assertThatUpdateDeletes(updates.get(1), "second.tld.", Type.ANY);
+    assertThatTotalUpdateSetsIs(updates.get(1), 1);
+    assertThatUpdateDeletes(updates.get(2), "third.tld.", Type.ANY);
+    assertThatTotalUpdateSetsIs(updates.get(2), 1);
+  }
+
+  @Test
+  public void testClose_withoutPublishing_sendsNothing() throws Exception {
+    writer.close();
+
+    verify(mockResolver, never()).send(any(Message.class));
+    verify(mockResolver).close();
   }
 
   private void assertThatUpdatedZoneIs(Update update, String zoneName) {
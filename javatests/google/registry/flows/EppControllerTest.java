@@ -27,7 +27,7 @@ import google.registry.model.eppoutput.EppOutput;
 import google.registry.model.eppoutput.EppResponse;
 import google.registry.model.eppoutput.Result;
 import google.registry.model.eppoutput.Result.Code;
-import google.registry.monitoring.whitebox.BigQueryMetricsEnqueuer;
+import google.registry.monitoring.whitebox.BigQueryMetricsBatcher;
 import google.registry.monitoring.whitebox.EppMetric;
 import google.registry.testing.AppEngineRule;
 import google.registry.testing.FakeClock;
@@ -54,7 +54,7 @@ public class EppControllerTest extends ShardableTestCase {
   @Mock SessionMetadata sessionMetadata;
   @Mock TransportCredentials transportCredentials;
   @Mock EppMetrics eppMetrics;
-  @Mock BigQueryMetricsEnqueuer metricsEnqueuer;
+  @Mock BigQueryMetricsBatcher metricsBatcher;
   @Mock FlowComponent.Builder flowComponentBuilder;
   @Mock FlowComponent flowComponent;
   @Mock FlowRunner flowRunner;
@@ -83,7 +83,7 @@ public class EppControllerTest extends ShardableTestCase {
 
     eppController = new EppController();
     eppController.metricBuilder = EppMetric.builderForRequest("request-id-1", clock);
-    eppController.bigQueryMetricsEnqueuer = metricsEnqueuer;
+    eppController.bigQueryMetricsBatcher = metricsBatcher;
     eppController.flowComponentBuilder = flowComponentBuilder;
     eppController.eppMetrics = eppMetrics;
   }
@@ -106,7 +106,7 @@ public class EppControllerTest extends ShardableTestCase {
         false,
         new byte[0]);
 
-    verify(metricsEnqueuer).export(metricCaptor.capture());
+    verify(metricsBatcher).export(metricCaptor.capture());
     EppMetric metric = metricCaptor.getValue();
     assertThat(metric.getRequestId()).isEqualTo("request-id-1");
     assertThat(metric.getStartTimestamp()).isEqualTo(startTime);
@@ -130,7 +130,7 @@ public class EppControllerTest extends ShardableTestCase {
         true,
         domainCreateXml.getBytes(UTF_8));
 
-    verify(metricsEnqueuer).export(metricCaptor.capture());
+    verify(metricsBatcher).export(metricCaptor.capture());
     EppMetric metric = metricCaptor.getValue();
     assertThat(metric.getRequestId()).isEqualTo("request-id-1");
     assertThat(metric.getStartTimestamp()).isEqualTo(startTime);
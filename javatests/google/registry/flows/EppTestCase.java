@@ -113,6 +113,7 @@ public class EppTestCase extends ShardableTestCase {
     EppRequestHandler handler = new EppRequestHandler();
     FakeResponse response = new FakeResponse();
     handler.response = response;
+    handler.stageTimingEnabled = true;
     handler.eppController = DaggerEppTestComponent.builder()
         .fakesAndMocksModule(new FakesAndMocksModule(clock))
         .build()
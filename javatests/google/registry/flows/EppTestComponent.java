@@ -25,7 +25,7 @@ import google.registry.config.ConfigModule;
 import google.registry.dns.DnsQueue;
 import google.registry.flows.custom.CustomLogicFactory;
 import google.registry.flows.custom.TestCustomLogicFactory;
-import google.registry.monitoring.whitebox.BigQueryMetricsEnqueuer;
+import google.registry.monitoring.whitebox.BigQueryMetricsBatcher;
 import google.registry.monitoring.whitebox.EppMetric;
 import google.registry.request.RequestScope;
 import google.registry.testing.FakeClock;
@@ -52,7 +52,7 @@ interface EppTestComponent {
     final FakeClock clock;
     final Sleeper sleeper;
     final DnsQueue dnsQueue;
-    final BigQueryMetricsEnqueuer metricsEnqueuer;
+    final BigQueryMetricsBatcher metricsBatcher;
     final EppMetric.Builder metricBuilder;
     final ModulesService modulesService;
 
@@ -62,7 +62,7 @@ interface EppTestComponent {
       this.dnsQueue = DnsQueue.create();
       this.metricBuilder = EppMetric.builderForRequest("request-id-1", clock);
       this.modulesService = mock(ModulesService.class);
-      this.metricsEnqueuer = mock(BigQueryMetricsEnqueuer.class);
+      this.metricsBatcher = mock(BigQueryMetricsBatcher.class);
     }
 
     @Provides
@@ -91,8 +91,8 @@ interface EppTestComponent {
     }
 
     @Provides
-    BigQueryMetricsEnqueuer provideBigQueryMetricsEnqueuer() {
-      return metricsEnqueuer;
+    BigQueryMetricsBatcher provideBigQueryMetricsBatcher() {
+      return metricsBatcher;
     }
 
     @Provides
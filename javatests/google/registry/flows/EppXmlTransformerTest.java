@@ -16,9 +16,15 @@
 package google.registry.flows;
 
 import static com.google.common.truth.Truth.assertThat;
+import static google.registry.flows.EppXmlTransformer.marshalInput;
 import static google.registry.flows.EppXmlTransformer.unmarshal;
 import static google.registry.util.ResourceUtils.readResourceBytes;
+import static google.registry.xml.ValidationMode.LENIENT;
+import static google.registry.xml.ValidationMode.STRICT;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.fail;
 
+import google.registry.flows.EppXmlTransformer.GenericSyntaxErrorException;
 import google.registry.model.eppinput.EppInput;
 import google.registry.model.eppoutput.EppOutput;
 import google.registry.testing.ExceptionRule;
@@ -48,4 +54,25 @@ public class EppXmlTransformerTest extends ShardableTestCase {
     EppXmlTransformer.unmarshal(
         EppOutput.class, readResourceBytes(getClass(), "testdata/contact_info.xml").read());
   }
+
+  @Test
+  public void testUnmarshaling_afterSyntaxError_succeeds() throws Exception {
+    try {
+      unmarshal(EppInput.class, "<epp>".getBytes(UTF_8));
+      fail("Expected GenericSyntaxErrorException");
+    } catch (GenericSyntaxErrorException expected) {}
+    EppInput input = unmarshal(
+        EppInput.class, readResourceBytes(getClass(), "testdata/contact_info.xml").read());
+    assertThat(input.getCommandName()).isEqualTo("Info");
+  }
+
+  @Test
+  public void testMarshalingInput_repeatedly_givesSameResult() throws Exception {
+    EppInput input = unmarshal(
+        EppInput.class, readResourceBytes(getClass(), "testdata/domain_create.xml").read());
+    byte[] strict = marshalInput(input, STRICT);
+    assertThat(new String(strict, UTF_8)).startsWith("<?xml");
+    assertThat(marshalInput(input, LENIENT)).isEqualTo(strict);
+    assertThat(marshalInput(input, STRICT)).isEqualTo(strict);
+  }
 }
@@ -76,6 +76,7 @@ public class FlowRunnerTest extends ShardableTestCase {
                 return eppResponse;
               }});
     flowRunner.inputXmlBytes = "<xml/>".getBytes(UTF_8);
+    flowRunner.prettyPrintRequestLogs = true;
     flowRunner.isDryRun = false;
     flowRunner.isSuperuser = false;
     flowRunner.isTransactional = false;
@@ -137,6 +138,22 @@ public class FlowRunnerTest extends ShardableTestCase {
               "xmlBytes", base64().encode(domainCreateXml.getBytes(UTF_8)));
   }
 
+  @Test
+  public void testRun_reportingLogStatement_withoutPrettyPrinting() throws Exception {
+    flowRunner.prettyPrintRequestLogs = false;
+    flowRunner.inputXmlBytes = "<xml>\n  <foo/>\n</xml>\n".getBytes(UTF_8);
+    flowRunner.run();
+    assertThat(parseJsonMap(findLogMessageByPrefix(handler, "EPP-REPORTING-LOG-SIGNATURE: ")))
+        .containsExactly(
+              "trid", "server-456",
+              "clientId", "TheRegistrar",
+              "xml", "<xml>\n  <foo/>\n</xml>",
+              "xmlBytes", base64().encode("<xml>\n  <foo/>\n</xml>\n".getBytes(UTF_8)));
+    assertThat(Splitter.on("\n\t").split(findLogMessageByPrefix(handler, "EPP Command\n\t")))
+        .containsAllOf("<xml>", "  <foo/>", "</xml>")
+        .inOrder();
+  }
+
   @Test
   public void testRun_legacyLoggingStatement_basic() throws Exception {
     flowRunner.run();
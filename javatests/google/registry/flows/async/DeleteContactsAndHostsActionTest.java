@@ -19,6 +19,7 @@ import static com.google.common.collect.Iterables.getOnlyElement;
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.flows.async.DeleteContactsAndHostsAction.QUEUE_ASYNC_DELETE;
 import static google.registry.model.EppResourceUtils.loadByForeignKey;
+import static google.registry.model.common.Cursor.CursorType.DOMAIN_REFERENCE_INDEX_BACKFILL;
 import static google.registry.model.eppcommon.StatusValue.PENDING_DELETE;
 import static google.registry.model.ofy.ObjectifyService.ofy;
 import static google.registry.model.reporting.HistoryEntry.Type.CONTACT_DELETE;
@@ -61,6 +62,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.googlecode.objectify.Key;
 import google.registry.model.EppResource;
+import google.registry.model.common.Cursor;
 import google.registry.model.contact.ContactAddress;
 import google.registry.model.contact.ContactPhoneNumber;
 import google.registry.model.contact.ContactResource;
@@ -69,6 +71,7 @@ import google.registry.model.domain.DomainResource;
 import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.eppcommon.Trid;
 import google.registry.model.host.HostResource;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.ofy.Ofy;
 import google.registry.model.poll.PendingActionNotificationResponse;
 import google.registry.model.poll.PollMessage;
@@ -435,6 +438,69 @@ public class DeleteContactsAndHostsActionTest
     assertNoTasksEnqueued(QUEUE_ASYNC_DELETE);
   }
 
+  @Test
+  public void testSuccess_indexNotComplete_host_referencedByUnindexedDomain_doesNotGetDeleted()
+      throws Exception {
+    HostResource host = persistHostPendingDelete("ns1.example.tld");
+    persistUsedDomain("example.tld", persistActiveContact("abc456"), host);
+    // Domains written before the index existed have no entries until it has been backfilled.
+    DomainReferenceIndex.deleteForResource(Key.create(host));
+    enqueuer.enqueueAsyncDelete(host, "TheRegistrar", false);
+    runMapreduce();
+    assertAboutHosts()
+        .that(loadByForeignKey(HostResource.class, "ns1.example.tld", clock.nowUtc()))
+        .doesNotHaveStatusValue(PENDING_DELETE)
+        .and()
+        .hasDeletionTime(END_OF_TIME);
+  }
+
+  @Test
+  public void testSuccess_indexComplete_host_referencedByActiveDomain_doesNotGetDeleted()
+      throws Exception {
+    persistResource(Cursor.createGlobal(DOMAIN_REFERENCE_INDEX_BACKFILL, clock.nowUtc()));
+    HostResource host = persistHostPendingDelete("ns1.example.tld");
+    DomainResource domain = persistUsedDomain("example.tld", persistActiveContact("abc456"), host);
+    enqueuer.enqueueAsyncDelete(host, "TheRegistrar", false);
+    runMapreduce();
+    HostResource hostAfter =
+        loadByForeignKey(HostResource.class, "ns1.example.tld", clock.nowUtc());
+    assertAboutHosts()
+        .that(hostAfter)
+        .doesNotHaveStatusValue(PENDING_DELETE)
+        .and()
+        .hasDeletionTime(END_OF_TIME);
+    assertPollMessageFor(
+        getOnlyHistoryEntryOfType(hostAfter, HOST_DELETE_FAILURE),
+        "TheRegistrar",
+        "Can't delete host ns1.example.tld because it is referenced by a domain.");
+    assertThat(DomainReferenceIndex.loadReferencingDomainKeys(Key.create(host)))
+        .containsExactly(Key.create(domain));
+    assertNoTasksEnqueued(QUEUE_ASYNC_DELETE);
+  }
+
+  @Test
+  public void testSuccess_indexComplete_host_noLongerReferenced_getsDeleted_andIndexRemoved()
+      throws Exception {
+    persistResource(Cursor.createGlobal(DOMAIN_REFERENCE_INDEX_BACKFILL, clock.nowUtc()));
+    HostResource host = persistHostPendingDelete("ns1.example.tld");
+    DomainResource domain = persistUsedDomain("example.tld", persistActiveContact("abc456"), host);
+    // The index entry of the domain is left behind when it stops using the host.
+    persistResource(
+        domain.asBuilder().setNameservers(ImmutableSet.<Key<HostResource>>of()).build());
+    assertThat(DomainReferenceIndex.loadReferencingDomainKeys(Key.create(host))).isNotEmpty();
+    enqueuer.enqueueAsyncDelete(host, "TheRegistrar", false);
+    runMapreduce();
+    assertThat(loadByForeignKey(HostResource.class, "ns1.example.tld", clock.nowUtc())).isNull();
+    HostResource hostBeforeDeletion =
+        loadByForeignKey(HostResource.class, "ns1.example.tld", clock.nowUtc().minusDays(1));
+    assertPollMessageFor(
+        getOnlyHistoryEntryOfType(hostBeforeDeletion, HOST_DELETE),
+        "TheRegistrar",
+        "Deleted host ns1.example.tld.");
+    assertThat(DomainReferenceIndex.loadReferencingDomainKeys(Key.create(host))).isEmpty();
+    assertNoTasksEnqueued(QUEUE_ASYNC_DELETE);
+  }
+
   @Test
   public void testSuccess_host_referencedByDeletedDomain_getsDeleted() throws Exception {
     HostResource host = persistHostPendingDelete("ns1.example.tld");
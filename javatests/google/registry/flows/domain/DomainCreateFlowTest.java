@@ -52,6 +52,8 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Iterables;
+import com.googlecode.objectify.Key;
 import google.registry.flows.EppException.UnimplementedExtensionException;
 import google.registry.flows.EppRequestSource;
 import google.registry.flows.ExtensionManager.UndeclaredServiceExtensionException;
@@ -102,6 +104,7 @@ import google.registry.flows.domain.DomainFlowUtils.UnsupportedFeeAttributeExcep
 import google.registry.flows.domain.DomainFlowUtils.UnsupportedMarkTypeException;
 import google.registry.flows.exceptions.OnlyToolCanPassMetadataException;
 import google.registry.flows.exceptions.ResourceAlreadyExistsException;
+import google.registry.model.EppResource;
 import google.registry.model.billing.BillingEvent;
 import google.registry.model.billing.BillingEvent.Flag;
 import google.registry.model.billing.BillingEvent.Reason;
@@ -115,6 +118,7 @@ import google.registry.model.domain.secdns.DelegationSignerData;
 import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.eppoutput.CreateData.DomainCreateData;
 import google.registry.model.eppoutput.EppOutput;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.registrar.Registrar;
 import google.registry.model.registry.Registry;
 import google.registry.model.registry.Registry.TldState;
@@ -340,6 +344,19 @@ public class DomainCreateFlowTest extends ResourceFlowTestCase<DomainCreateFlow,
     doSuccessfulTest();
   }
 
+  @Test
+  public void testSuccess_indexesReferencedContactsAndHosts() throws Exception {
+    persistContactsAndHosts();
+    doSuccessfulTest();
+    DomainResource domain = reloadResourceByForeignKey();
+    assertThat(domain.getNameservers()).isNotEmpty();
+    for (Key<? extends EppResource> resourceKey : Iterables.<Key<? extends EppResource>>concat(
+        domain.getNameservers(), domain.getReferencedContacts())) {
+      assertThat(DomainReferenceIndex.loadReferencingDomainKeys(resourceKey))
+          .containsExactly(Key.create(domain));
+    }
+  }
+
   @Test
   public void testSuccess_multipartTld() throws Exception {
     createTld("foo.tld");
@@ -40,6 +40,7 @@ import static org.joda.money.CurrencyUnit.USD;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.googlecode.objectify.Key;
 import google.registry.flows.EppException.UnimplementedExtensionException;
 import google.registry.flows.EppRequestSource;
@@ -69,6 +70,7 @@ import google.registry.flows.domain.DomainFlowUtils.UrgentAttributeNotSupportedE
 import google.registry.flows.exceptions.OnlyToolCanPassMetadataException;
 import google.registry.flows.exceptions.ResourceHasClientUpdateProhibitedException;
 import google.registry.flows.exceptions.ResourceStatusProhibitsOperationException;
+import google.registry.model.EppResource;
 import google.registry.model.billing.BillingEvent;
 import google.registry.model.billing.BillingEvent.Reason;
 import google.registry.model.contact.ContactResource;
@@ -82,6 +84,7 @@ import google.registry.model.domain.rgp.GracePeriodStatus;
 import google.registry.model.domain.secdns.DelegationSignerData;
 import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.host.HostResource;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.registrar.Registrar;
 import google.registry.model.registry.Registry;
 import google.registry.model.reporting.HistoryEntry;
@@ -420,6 +423,12 @@ public class DomainUpdateFlowTest extends ResourceFlowTestCase<DomainUpdateFlow,
     assertThat(domain.getContacts()).hasSize(3);
     assertThat(ofy().load().key(domain.getRegistrant()).now().getContactId())
         .isEqualTo("max_test_7");
+    // Every added nameserver and contact is indexed as referenced by the domain.
+    for (Key<? extends EppResource> resourceKey : Iterables.<Key<? extends EppResource>>concat(
+        domain.getNameservers(), domain.getReferencedContacts())) {
+      assertThat(DomainReferenceIndex.loadReferencingDomainKeys(resourceKey))
+          .containsExactly(Key.create(domain));
+    }
     assertNoBillingEvents();
     assertDnsTasksEnqueued("example.tld");
   }
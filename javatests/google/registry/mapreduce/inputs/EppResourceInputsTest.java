@@ -238,6 +238,60 @@ public class EppResourceInputsTest {
     reader.next();
   }
 
+  @Test
+  public void testSuccess_entityReader_readsMorePagesThanPageSize() throws Exception {
+    createTld("tld");
+    overrideBucketCount(1);
+    Set<DomainResource> expected = new HashSet<>();
+    for (int i = 0; i < 5; i++) {
+      expected.add(persistActiveDomain("domain" + i + ".tld"));
+    }
+    Set<DomainResource> seen = new HashSet<>();
+    InputReader<DomainResource> reader =
+        createEntityInput(2, DomainResource.class).createReaders().get(0);
+    reader.beginShard();
+    reader.beginSlice();
+    for (int i = 1; i <= 5; i++) {
+      seen.add(reader.next());
+      assertThat(reader.getProgress()).isWithin(EPSILON).of(i / 5.0);
+    }
+    assertThat(seen).containsExactlyElementsIn(expected);
+    thrown.expect(NoSuchElementException.class);
+    reader.next();
+  }
+
+  @Test
+  public void testSuccess_entityReader_survivesSerializationMidPage() throws Exception {
+    createTld("tld");
+    overrideBucketCount(1);
+    Set<DomainResource> expected = new HashSet<>();
+    for (int i = 0; i < 7; i++) {
+      expected.add(persistActiveDomain("domain" + i + ".tld"));
+    }
+    Set<DomainResource> seen = new HashSet<>();
+    InputReader<DomainResource> reader =
+        createEntityInput(3, DomainResource.class).createReaders().get(0);
+    reader.beginShard();
+    // Serialize after every resource, so that slices end in the middle of the loaded pages.
+    for (int i = 1; i <= 7; i++) {
+      reader.beginSlice();
+      assertThat(seen.add(reader.next())).isTrue();
+      assertThat(reader.getProgress()).isWithin(EPSILON).of(i / 7.0);
+      reader.endSlice();
+      reader = serializeAndDeserialize(reader);
+    }
+    assertThat(seen).containsExactlyElementsIn(expected);
+    reader.beginSlice();
+    thrown.expect(NoSuchElementException.class);
+    reader.next();
+  }
+
+  @Test
+  public void testFailure_entityInput_nonPositivePageSize() throws Exception {
+    thrown.expect(IllegalArgumentException.class, "pageSize must be positive");
+    createEntityInput(0, DomainResource.class);
+  }
+
   @Test
   public void testSuccess_entityReader_allowsPolymorphicMatches() throws Exception {
     createTld("tld");
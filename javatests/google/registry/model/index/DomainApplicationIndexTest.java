@@ -18,12 +18,15 @@ import static com.google.common.truth.Truth.assertThat;
 import static google.registry.model.index.DomainApplicationIndex.createUpdatedInstance;
 import static google.registry.model.index.DomainApplicationIndex.createWithSpecifiedKeys;
 import static google.registry.model.index.DomainApplicationIndex.loadActiveApplicationsByDomainName;
+import static google.registry.model.index.DomainApplicationIndex.loadActiveApplicationsByDomainNames;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.newDomainApplication;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.testing.DatastoreHelper.persistSimpleResource;
 import static org.joda.time.DateTimeZone.UTC;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.googlecode.objectify.Key;
 import google.registry.model.EntityTestCase;
@@ -118,4 +121,31 @@ public class DomainApplicationIndexTest extends EntityTestCase {
     assertThat(loadActiveApplicationsByDomainName("example.com", DateTime.now(UTC)))
         .containsExactly(application1);
   }
+
+  @Test
+  public void testSuccess_loadActiveApplicationsByDomainNames() {
+    DomainApplication application1 = persistSimpleResource(newDomainApplication("example.com"));
+    DomainApplication application2 = persistSimpleResource(newDomainApplication("example.com"));
+    DomainApplication application3 = persistSimpleResource(newDomainApplication("other.com"));
+    DomainApplication deletedApplication =
+        persistSimpleResource(
+            newDomainApplication("deleted.com")
+                .asBuilder()
+                .setDeletionTime(DateTime.now(UTC).minusDays(30))
+                .build());
+    persistResource(createUpdatedInstance(application1));
+    persistResource(createUpdatedInstance(application2));
+    persistResource(createUpdatedInstance(application3));
+    persistResource(createUpdatedInstance(deletedApplication));
+    ImmutableMap<String, ImmutableSet<DomainApplication>> applications =
+        loadActiveApplicationsByDomainNames(
+            ImmutableList.of("example.com", "other.com", "deleted.com", "none.com"),
+            DateTime.now(UTC));
+    assertThat(applications.keySet())
+        .containsExactly("example.com", "other.com", "deleted.com", "none.com");
+    assertThat(applications.get("example.com")).containsExactly(application1, application2);
+    assertThat(applications.get("other.com")).containsExactly(application3);
+    assertThat(applications.get("deleted.com")).isEmpty();
+    assertThat(applications.get("none.com")).isEmpty();
+  }
 }
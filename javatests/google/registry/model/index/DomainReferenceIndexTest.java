@@ -0,0 +1,282 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.index;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.model.EppResourceUtils.queryDomainsUsingResource;
+import static google.registry.model.common.Cursor.CursorType.DOMAIN_REFERENCE_INDEX_BACKFILL;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.newDomainResource;
+import static google.registry.testing.DatastoreHelper.persistActiveContact;
+import static google.registry.testing.DatastoreHelper.persistActiveHost;
+import static google.registry.testing.DatastoreHelper.persistResource;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableSet;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import google.registry.model.EntityTestCase;
+import google.registry.model.common.Cursor;
+import google.registry.model.contact.ContactResource;
+import google.registry.model.domain.DomainBase;
+import google.registry.model.domain.DomainResource;
+import google.registry.model.host.HostResource;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Unit tests for {@link DomainReferenceIndex}. */
+public class DomainReferenceIndexTest extends EntityTestCase {
+
+  private ContactResource contact;
+  private HostResource host1;
+  private HostResource host2;
+
+  @Before
+  public void init() throws Exception {
+    createTld("com");
+    contact = persistActiveContact("contact1234");
+    host1 = persistActiveHost("ns1.example.net");
+    host2 = persistActiveHost("ns2.example.net");
+  }
+
+  private DomainResource newDomainWithNameservers(String domainName, HostResource... hosts) {
+    ImmutableSet.Builder<Key<HostResource>> nameservers = new ImmutableSet.Builder<>();
+    for (HostResource host : hosts) {
+      nameservers.add(Key.create(host));
+    }
+    return newDomainResource(domainName, contact).asBuilder()
+        .setNameservers(nameservers.build())
+        .build();
+  }
+
+  @Test
+  public void testCreateForAddedReferences_newDomain_indexesAllReferences() {
+    DomainResource domain = newDomainWithNameservers("example.com", host1, host2);
+    ImmutableSet.Builder<Key<?>> referencedKeys = new ImmutableSet.Builder<>();
+    for (DomainReferenceIndex index
+        : DomainReferenceIndex.createForAddedReferences(null, domain, clock.nowUtc())) {
+      assertThat(index.getDomainKey()).isEqualTo(Key.create(domain));
+      referencedKeys.add(index.getReferencedResourceKey());
+    }
+    assertThat(referencedKeys.build())
+        .containsExactly(Key.create(contact), Key.create(host1), Key.create(host2));
+  }
+
+  @Test
+  public void testCreateForAddedReferences_updatedDomain_indexesOnlyNewReferences() {
+    DomainResource existingDomain = newDomainWithNameservers("example.com", host1);
+    DomainResource newDomain = existingDomain.asBuilder()
+        .setNameservers(ImmutableSet.of(Key.create(host2)))
+        .build();
+    DateTime now = clock.nowUtc();
+    assertThat(DomainReferenceIndex.createForAddedReferences(existingDomain, newDomain, now))
+        .containsExactly(
+            DomainReferenceIndex.create(Key.create(host2), Key.create(newDomain), now));
+  }
+
+  @Test
+  public void testCreate_isInBucketOfReferencedResource() {
+    Key<DomainBase> domainKey = Key.<DomainBase>create(newDomainWithNameservers("example.com"));
+    Key<DomainReferenceIndex> indexKey =
+        DomainReferenceIndex.createKey(Key.create(host1), domainKey);
+    assertThat(
+            Key.create(DomainReferenceIndex.create(Key.create(host1), domainKey, clock.nowUtc())))
+        .isEqualTo(indexKey);
+    assertThat(indexKey.getParent().getParent()).isNull();
+    assertThat(DomainReferenceIndexBucket.getAllBuckets(Key.create(host1)))
+        .contains(indexKey.getParent());
+    assertThat(DomainReferenceIndexBucket.getAllBuckets(Key.create(host2)))
+        .doesNotContain(indexKey.getParent());
+  }
+
+  @Test
+  public void testSaveForAddedReferences_savesOutsideOfTransaction() {
+    final DomainResource domain = newDomainWithNameservers("example.com", host1, host2);
+    try {
+      ofy().transact(new VoidWork() {
+        @Override
+        public void vrun() {
+          DomainReferenceIndex.saveForAddedReferences(null, domain);
+          throw new IllegalStateException("Roll back the transaction");
+        }});
+      fail("Expected IllegalStateException");
+    } catch (IllegalStateException expected) {}
+    assertThat(DomainReferenceIndex.loadReferencingDomainKeys(Key.create(host1)))
+        .containsExactly(Key.create(domain));
+    assertThat(DomainReferenceIndex.loadReferencingDomainKeys(Key.create(host2)))
+        .containsExactly(Key.create(domain));
+    assertThat(DomainReferenceIndex.loadReferencingDomainKeys(Key.create(contact)))
+        .containsExactly(Key.create(domain));
+  }
+
+  @Test
+  public void testLoadReferencingDomainKeys_findsIndexedDomains() {
+    DomainResource domain1 = persistResource(newDomainWithNameservers("example1.com", host1));
+    DomainResource domain2 =
+        persistResource(newDomainWithNameservers("example2.com", host1, host2));
+    assertThat(DomainReferenceIndex.loadReferencingDomainKeys(Key.create(host1)))
+        .containsExactly(Key.create(domain1), Key.create(domain2));
+    assertThat(DomainReferenceIndex.loadReferencingDomainKeys(Key.create(host2)))
+        .containsExactly(Key.create(domain2));
+    assertThat(DomainReferenceIndex.loadReferencingDomainKeys(Key.create(contact)))
+        .containsExactly(Key.create(domain1), Key.create(domain2));
+  }
+
+  @Test
+  public void testDeleteForResource_deletesOnlyEntriesOfResource() {
+    DomainResource domain1 = persistResource(newDomainWithNameservers("example1.com", host1));
+    DomainResource domain2 =
+        persistResource(newDomainWithNameservers("example2.com", host1, host2));
+    DomainReferenceIndex.deleteForResource(Key.create(host1));
+    assertThat(DomainReferenceIndex.loadReferencingDomainKeys(Key.create(host1))).isEmpty();
+    assertThat(DomainReferenceIndex.loadReferencingDomainKeys(Key.create(host2)))
+        .containsExactly(Key.create(domain2));
+    assertThat(DomainReferenceIndex.loadReferencingDomainKeys(Key.create(contact)))
+        .containsExactly(Key.create(domain1), Key.create(domain2));
+  }
+
+  @Test
+  public void testDeleteIfUnused_referencingDomain_keepsEntry() {
+    DomainResource domain = persistResource(newDomainWithNameservers("example.com", host1));
+    clock.advanceBy(DomainReferenceIndex.UNUSED_ENTRY_GRACE_PERIOD.plus(1));
+    DomainReferenceIndex.deleteIfUnused(Key.create(host1), Key.create(domain));
+    assertThat(DomainReferenceIndex.loadReferencingDomainKeys(Key.create(host1)))
+        .containsExactly(Key.create(domain));
+  }
+
+  @Test
+  public void testDeleteIfUnused_droppedReference_deletesEntry() {
+    DomainResource domain = persistResource(newDomainWithNameservers("example.com", host1));
+    persistResource(domain.asBuilder().setNameservers(ImmutableSet.of(Key.create(host2))).build());
+    clock.advanceBy(DomainReferenceIndex.UNUSED_ENTRY_GRACE_PERIOD.plus(1));
+    DomainReferenceIndex.deleteIfUnused(Key.create(host1), Key.create(domain));
+    assertThat(DomainReferenceIndex.loadReferencingDomainKeys(Key.create(host1))).isEmpty();
+    assertThat(DomainReferenceIndex.loadReferencingDomainKeys(Key.create(host2)))
+        .containsExactly(Key.create(domain));
+  }
+
+  @Test
+  public void testDeleteIfUnused_deletedDomain_deletesEntry() {
+    DomainResource domain = persistResource(newDomainWithNameservers("example.com", host1));
+    persistResource(domain.asBuilder().setDeletionTime(clock.nowUtc()).build());
+    clock.advanceBy(DomainReferenceIndex.UNUSED_ENTRY_GRACE_PERIOD.plus(1));
+    DomainReferenceIndex.deleteIfUnused(Key.create(host1), Key.create(domain));
+    assertThat(DomainReferenceIndex.loadReferencingDomainKeys(Key.create(host1))).isEmpty();
+  }
+
+  @Test
+  public void testDeleteIfUnused_missingDomain_deletesEntry() {
+    final DomainResource domain = newDomainWithNameservers("example.com", host1);
+    ofy().transact(new VoidWork() {
+      @Override
+      public void vrun() {
+        DomainReferenceIndex.saveForAddedReferences(null, domain);
+      }});
+    clock.advanceBy(DomainReferenceIndex.UNUSED_ENTRY_GRACE_PERIOD.plus(1));
+    DomainReferenceIndex.deleteIfUnused(Key.create(host1), Key.create(domain));
+    assertThat(DomainReferenceIndex.loadReferencingDomainKeys(Key.create(host1))).isEmpty();
+  }
+
+  @Test
+  public void testDeleteIfUnused_recentlyWrittenEntry_keepsEntry() {
+    // The flow that wrote the entry may not have committed the domain yet.
+    final DomainResource domain = newDomainWithNameservers("example.com", host1);
+    ofy().transact(new VoidWork() {
+      @Override
+      public void vrun() {
+        DomainReferenceIndex.saveForAddedReferences(null, domain);
+      }});
+    DomainReferenceIndex.deleteIfUnused(Key.create(host1), Key.create(domain));
+    assertThat(DomainReferenceIndex.loadReferencingDomainKeys(Key.create(host1)))
+        .containsExactly(Key.create(domain));
+  }
+
+  @Test
+  public void testIsComplete() {
+    assertThat(DomainReferenceIndex.isComplete()).isFalse();
+    persistResource(Cursor.createGlobal(DOMAIN_REFERENCE_INDEX_BACKFILL, clock.nowUtc()));
+    assertThat(DomainReferenceIndex.isComplete()).isTrue();
+  }
+
+  @Test
+  public void testQueryDomainsUsingResource_indexNotComplete_queriesDomains() {
+    DomainResource domain = persistResource(newDomainWithNameservers("example.com", host1));
+    DomainReferenceIndex.deleteForResource(Key.create(host1));
+    assertThat(queryDomainsUsingResource(
+            HostResource.class, Key.create(host1), clock.nowUtc(), 10))
+        .containsExactly(Key.<DomainBase>create(domain));
+  }
+
+  @Test
+  public void testQueryDomainsUsingResource_indexComplete_usesIndex() {
+    persistResource(Cursor.createGlobal(DOMAIN_REFERENCE_INDEX_BACKFILL, clock.nowUtc()));
+    DomainResource domain = persistResource(newDomainWithNameservers("example.com", host1));
+    assertThat(queryDomainsUsingResource(
+            HostResource.class, Key.create(host1), clock.nowUtc(), 10))
+        .containsExactly(Key.<DomainBase>create(domain));
+    // Without an index entry, the domain is no longer found.
+    DomainReferenceIndex.deleteForResource(Key.create(host1));
+    assertThat(queryDomainsUsingResource(
+            HostResource.class, Key.create(host1), clock.nowUtc(), 10))
+        .isEmpty();
+  }
+
+  @Test
+  public void testQueryDomainsUsingResource_skipsDeletedAndStaleDomains() {
+    persistResource(Cursor.createGlobal(DOMAIN_REFERENCE_INDEX_BACKFILL, clock.nowUtc()));
+    DomainResource activeDomain = persistResource(newDomainWithNameservers("active.com", host1));
+    persistResource(newDomainWithNameservers("deleted.com", host1).asBuilder()
+        .setDeletionTime(clock.nowUtc().minusDays(1))
+        .build());
+    // The stale index entry of this domain points at a domain that no longer uses the host.
+    DomainResource staleDomain = persistResource(newDomainWithNameservers("stale.com", host1));
+    persistResource(staleDomain.asBuilder()
+        .setNameservers(ImmutableSet.of(Key.create(host2)))
+        .build());
+    assertThat(queryDomainsUsingResource(
+            HostResource.class, Key.create(host1), clock.nowUtc(), 10))
+        .containsExactly(Key.<DomainBase>create(activeDomain));
+  }
+
+  @Test
+  public void testQueryDomainsUsingResource_deletesEntriesOfSkippedDomains() {
+    persistResource(Cursor.createGlobal(DOMAIN_REFERENCE_INDEX_BACKFILL, clock.nowUtc()));
+    DomainResource activeDomain = persistResource(newDomainWithNameservers("active.com", host1));
+    persistResource(newDomainWithNameservers("deleted.com", host1).asBuilder()
+        .setDeletionTime(clock.nowUtc().minusDays(1))
+        .build());
+    DomainResource staleDomain = persistResource(newDomainWithNameservers("stale.com", host1));
+    persistResource(staleDomain.asBuilder()
+        .setNameservers(ImmutableSet.of(Key.create(host2)))
+        .build());
+    clock.advanceBy(DomainReferenceIndex.UNUSED_ENTRY_GRACE_PERIOD.plus(1));
+    queryDomainsUsingResource(HostResource.class, Key.create(host1), clock.nowUtc(), 10);
+    assertThat(DomainReferenceIndex.loadReferencingDomainKeys(Key.create(host1)))
+        .containsExactly(Key.create(activeDomain));
+  }
+
+  @Test
+  public void testQueryDomainsUsingResource_stopsAtLimit() {
+    persistResource(Cursor.createGlobal(DOMAIN_REFERENCE_INDEX_BACKFILL, clock.nowUtc()));
+    persistResource(newDomainWithNameservers("example1.com", host1));
+    persistResource(newDomainWithNameservers("example2.com", host1));
+    persistResource(newDomainWithNameservers("example3.com", host1));
+    assertThat(queryDomainsUsingResource(
+            HostResource.class, Key.create(host1), clock.nowUtc(), 2))
+        .hasSize(2);
+  }
+}
@@ -0,0 +1,165 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.registry;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static google.registry.model.ofy.ObjectifyService.ofy;
+import static google.registry.model.registry.RegistryCaches.newRefreshingCache;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.createTlds;
+import static google.registry.testing.DatastoreHelper.persistReservedList;
+import static google.registry.testing.DatastoreHelper.persistResource;
+
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import google.registry.model.registry.label.PremiumList;
+import google.registry.model.registry.label.ReservedList;
+import google.registry.testing.AppEngineRule;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.joda.time.Duration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link RegistryCaches}. */
+@RunWith(JUnit4.class)
+public class RegistryCachesTest {
+
+  @Rule
+  public final AppEngineRule appEngine = AppEngineRule.builder().withDatastore().build();
+
+  private final AtomicInteger loads = new AtomicInteger();
+
+  private final CacheLoader<String, Integer> countingLoader = new CacheLoader<String, Integer>() {
+    @Override
+    public Integer load(String key) {
+      return loads.incrementAndGet();
+    }};
+
+  @Test
+  public void testNewRefreshingCache_cachesValues() throws Exception {
+    LoadingCache<String, Integer> cache =
+        newRefreshingCache("test", Duration.standardHours(1), countingLoader);
+    assertThat(cache.get("foo")).isEqualTo(1);
+    assertThat(cache.get("foo")).isEqualTo(1);
+    assertThat(cache.get("bar")).isEqualTo(2);
+    assertThat(cache.stats().hitCount()).isEqualTo(1);
+    assertThat(cache.stats().missCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testNewRefreshingCache_refreshesInPlace() throws Exception {
+    LoadingCache<String, Integer> cache =
+        newRefreshingCache("test", Duration.standardHours(1), countingLoader);
+    assertThat(cache.get("foo")).isEqualTo(1);
+    // Without App Engine background threads, refreshes run inline.
+    cache.refresh("foo");
+    assertThat(cache.get("foo")).isEqualTo(2);
+  }
+
+  @Test
+  public void testNewRefreshingCache_refreshPassesStaleValueToLoader() throws Exception {
+    LoadingCache<String, Integer> cache = newRefreshingCache(
+        "test",
+        Duration.standardHours(1),
+        new CacheLoader<String, Integer>() {
+          @Override
+          public Integer load(String key) {
+            return 1;
+          }
+
+          @Override
+          public ListenableFuture<Integer> reload(String key, Integer oldValue) {
+            return immediateFuture(oldValue * 10);
+          }});
+    assertThat(cache.get("foo")).isEqualTo(1);
+    cache.refresh("foo");
+    assertThat(cache.get("foo")).isEqualTo(10);
+  }
+
+  @Test
+  public void testNewRefreshingCache_loadsWithFreshSessionCache() throws Exception {
+    createTld("foo");
+    final Key<Registry> key = Key.create(Registry.get("foo"));
+    // Load the TLD into this thread's session, then change it without the session seeing it.
+    ofy().load().key(key).now();
+    ofy().doWithFreshSessionCache(new VoidWork() {
+      @Override
+      public void vrun() {
+        ofy().saveWithoutBackup().entity(
+            ofy().load().key(key).now().asBuilder().setDriveFolderId("changed").build()).now();
+      }});
+    LoadingCache<String, Registry> cache = newRefreshingCache(
+        "test",
+        Duration.standardHours(1),
+        new CacheLoader<String, Registry>() {
+          @Override
+          public Registry load(String tld) {
+            return ofy().load().key(key).now();
+          }});
+    assertThat(cache.get("foo").getDriveFolderId()).isEqualTo("changed");
+  }
+
+  @Test
+  public void testNewRefreshingCache_loaderThrowsCheckedException_passedOn() throws Exception {
+    final Exception loaderException = new Exception("load failed");
+    LoadingCache<String, Integer> cache = newRefreshingCache(
+        "test",
+        Duration.standardHours(1),
+        new CacheLoader<String, Integer>() {
+          @Override
+          public Integer load(String key) throws Exception {
+            throw loaderException;
+          }});
+    try {
+      cache.get("foo");
+      assertWithMessage("Expected ExecutionException").fail();
+    } catch (ExecutionException e) {
+      assertThat(e.getCause()).isSameAs(loaderException);
+    }
+  }
+
+  @Test
+  public void testNewRefreshingCache_zeroDuration_doesNotCache() throws Exception {
+    LoadingCache<String, Integer> cache = newRefreshingCache("test", Duration.ZERO, countingLoader);
+    assertThat(cache.get("foo")).isEqualTo(1);
+    assertThat(cache.get("foo")).isEqualTo(2);
+  }
+
+  @Test
+  public void testWarmUp() throws Exception {
+    createTlds("foo", "bar");
+    ReservedList reservedList = persistReservedList("reserved", "lol,FULLY_BLOCKED");
+    persistResource(
+        Registry.get("foo").asBuilder().setReservedLists(reservedList).build());
+    RegistryCaches.warmUp();
+    assertThat(Registry.get("foo").getPremiumList()).isNotNull();
+    assertThat(PremiumList.get("foo")).isPresent();
+  }
+
+  @Test
+  public void testWarmUp_missingPremiumList_doesNotThrow() throws Exception {
+    createTld("foo");
+    PremiumList.get("foo").get().delete();
+    RegistryCaches.warmUp();
+  }
+}
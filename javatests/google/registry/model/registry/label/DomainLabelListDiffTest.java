@@ -0,0 +1,88 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.registry.label;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import google.registry.model.registry.label.PremiumList.PremiumListEntry;
+import google.registry.model.registry.label.ReservedList.ReservedListEntry;
+import google.registry.testing.AppEngineRule;
+import java.util.Map;
+import org.joda.money.Money;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link DomainLabelListDiff}. */
+@RunWith(JUnit4.class)
+public class DomainLabelListDiffTest {
+
+  @Rule
+  public final AppEngineRule appEngine = AppEngineRule.builder()
+      .withDatastore()
+      .build();
+
+  private static Map<String, PremiumListEntry> premiumEntries(String... lines) {
+    return new PremiumList.Builder()
+        .setName("pl")
+        .setPremiumListMapFromLines(ImmutableList.copyOf(lines))
+        .build()
+        .loadPremiumListEntries();
+  }
+
+  private static ImmutableMap<String, ReservedListEntry> reservedEntries(String... lines) {
+    return new ReservedList.Builder()
+        .setName("rl")
+        .setReservedListMapFromLines(ImmutableList.copyOf(lines))
+        .build()
+        .getReservedListEntries();
+  }
+
+  @Test
+  public void testCreate_premiumEntries() throws Exception {
+    DomainLabelListDiff<PremiumListEntry> diff = DomainLabelListDiff.create(
+        premiumEntries("same,USD 1", "priced,USD 2", "commented,USD 3", "gone,USD 4"),
+        premiumEntries("same,USD 1", "priced,USD 20", "commented,USD 3 # new", "new,USD 5"));
+    assertThat(diff.getAdded().keySet()).containsExactly("new");
+    assertThat(diff.getRemoved().keySet()).containsExactly("gone");
+    assertThat(diff.getChanged().keySet()).containsExactly("priced", "commented");
+    assertThat(diff.getChanged().get("priced").getValue()).isEqualTo(Money.parse("USD 20"));
+    assertThat(diff.getLabels()).containsExactly("new", "gone", "priced", "commented");
+    assertThat(diff.size()).isEqualTo(4);
+    assertThat(diff.toString()).isEqualTo("1 added, 1 removed, 2 changed");
+  }
+
+  @Test
+  public void testCreate_premiumEntriesOfDifferentRevisions_areNotChanged() throws Exception {
+    // Each build allocates a new revision, so the entries have different parents.
+    DomainLabelListDiff<PremiumListEntry> diff = DomainLabelListDiff.create(
+        premiumEntries("same,USD 1", "other,JPY 100"),
+        premiumEntries("same,USD 1", "other,JPY 100"));
+    assertThat(diff.isEmpty()).isTrue();
+  }
+
+  @Test
+  public void testCreate_reservedEntries() throws Exception {
+    DomainLabelListDiff<ReservedListEntry> diff = DomainLabelListDiff.create(
+        reservedEntries("same,FULLY_BLOCKED", "anchor,RESERVED_FOR_ANCHOR_TENANT,foo"),
+        reservedEntries("same,FULLY_BLOCKED", "anchor,RESERVED_FOR_ANCHOR_TENANT,bar"));
+    assertThat(diff.getAdded()).isEmpty();
+    assertThat(diff.getRemoved()).isEmpty();
+    assertThat(diff.getChanged().keySet()).containsExactly("anchor");
+  }
+}
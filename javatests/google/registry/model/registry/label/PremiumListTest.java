@@ -87,10 +87,20 @@ public class PremiumListTest {
   @Test
   public void testSave_largeNumberOfEntries_succeeds() throws Exception {
     PremiumList premiumList = persistHumongousPremiumList("tld", 2500);
-    assertThat(premiumList.getPremiumListEntries()).hasSize(2500);
+    assertThat(premiumList.loadPremiumListEntries()).hasSize(2500);
     assertThat(premiumList.getPremiumPrice("7")).hasValue(Money.parse("USD 100"));
   }
 
+  @Test
+  public void testGet_cachedListOnlyRetainsPriceIndex() throws Exception {
+    PremiumList pl = PremiumList.get("tld").get();
+    assertThat(pl.premiumListMap).isNull();
+    assertThat(pl.getPremiumListEntryCount()).isEqualTo(4);
+    assertThat(pl.getPremiumPrice("icann")).hasValue(Money.parse("JPY 100"));
+    assertThat(pl.loadPremiumListEntries().keySet())
+        .containsExactly("lol", "rich", "icann", "johnny-be-goode");
+  }
+
   @Test
   public void testSave_updateTime_isUpdatedOnEverySave() throws Exception {
     PremiumList pl =  new PremiumList.Builder()
@@ -152,6 +162,108 @@ public class PremiumListTest {
         .isNull();
   }
 
+  @Test
+  public void testSave_smallChange_isAppliedInPlace() throws Exception {
+    PremiumList pl = PremiumList.get("tld").get();
+    PremiumList updated = pl.asBuilder()
+        .setPremiumListMapFromLines(ImmutableList.of(
+            "lol,USD 999 # yup",
+            "rich,USD 2999 #tada",
+            "johnny-be-goode,USD 20.50",
+            "newcomer,USD 5"))
+        .build()
+        .saveAndUpdateEntries();
+    assertThat(updated.getRevisionKey()).isEqualTo(pl.getRevisionKey());
+    assertThat(getPremiumPrice("rich", "tld")).hasValue(Money.parse("USD 2999"));
+    assertThat(getPremiumPrice("newcomer", "tld")).hasValue(Money.parse("USD 5"));
+    assertThat(getPremiumPrice("icann", "tld")).isAbsent();
+    ofy().clearSessionCache();
+    assertThat(ofy().load().type(PremiumListEntry.class).ancestor(pl.getRevisionKey()).keys())
+        .hasSize(4);
+    assertThat(PremiumList.get("tld").get().loadPremiumListEntries().keySet())
+        .containsExactly("lol", "rich", "johnny-be-goode", "newcomer");
+  }
+
+  @Test
+  public void testSave_smallChange_doesNotLoadExistingEntries() throws Exception {
+    PremiumList pl = PremiumList.get("tld").get();
+    // Delete an unchanged entry behind the list's back, to show that the diff doesn't read it.
+    ofy().deleteWithoutBackup()
+        .key(Key.create(pl.getRevisionKey(), PremiumListEntry.class, "lol"))
+        .now();
+    ofy().clearSessionCache();
+    pl.asBuilder()
+        .setPremiumListMapFromLines(ImmutableList.of(
+            "lol,USD 999 # yup",
+            "rich,USD 2999 #tada",
+            "icann,JPY 100",
+            "johnny-be-goode,USD 20.50"))
+        .build()
+        .saveAndUpdateEntries();
+    ofy().clearSessionCache();
+    assertThat(PremiumList.get("tld").get().loadPremiumListEntries().keySet())
+        .containsExactly("rich", "icann", "johnny-be-goode");
+  }
+
+  @Test
+  public void testSave_commentChange_writesNewRevision() throws Exception {
+    PremiumList pl = PremiumList.get("tld").get();
+    PremiumList updated = pl.asBuilder()
+        .setPremiumListMapFromLines(ImmutableList.of(
+            "lol,USD 999 # nope",
+            "rich,USD 1999 #tada",
+            "icann,JPY 100",
+            "johnny-be-goode,USD 20.50"))
+        .build()
+        .saveAndUpdateEntries();
+    assertThat(updated.getRevisionKey()).isNotEqualTo(pl.getRevisionKey());
+    ofy().clearSessionCache();
+    assertThat(PremiumList.get("tld").get().loadPremiumListEntries().get("lol").comment)
+        .isEqualTo("nope");
+  }
+
+  @Test
+  public void testLoadWithPriceIndex_afterSmallChange_onlyLoadsChangedEntries() throws Exception {
+    PremiumList cached =
+        PremiumList.get("tld").get().asBuilder().setDescription("foo").build()
+            .saveAndUpdateEntries();
+    cached.asBuilder()
+        .setPremiumListMapFromLines(ImmutableList.of(
+            "lol,USD 999 # yup",
+            "rich,USD 2999 #tada",
+            "johnny-be-goode,USD 20.50",
+            "newcomer,USD 5"))
+        .build()
+        .saveAndUpdateEntries();
+    // Delete an unchanged entry behind the list's back, to show that it isn't reloaded.
+    ofy().deleteWithoutBackup()
+        .key(Key.create(cached.getRevisionKey(), PremiumListEntry.class, "lol"))
+        .now();
+    ofy().clearSessionCache();
+    PremiumList reloaded = PremiumList.loadWithPriceIndex("tld", cached);
+    assertThat(reloaded.getPremiumPrice("lol")).hasValue(Money.parse("USD 999"));
+    assertThat(reloaded.getPremiumPrice("rich")).hasValue(Money.parse("USD 2999"));
+    assertThat(reloaded.getPremiumPrice("newcomer")).hasValue(Money.parse("USD 5"));
+    assertThat(reloaded.getPremiumPrice("icann")).isAbsent();
+    // Without a cached version to update, all entries are loaded.
+    assertThat(PremiumList.loadWithPriceIndex("tld", null).getPremiumPrice("lol")).isAbsent();
+  }
+
+  @Test
+  public void testSave_largeChange_writesNewRevision() throws Exception {
+    PremiumList pl = PremiumList.get("tld").get();
+    ImmutableList.Builder<String> lines = new ImmutableList.Builder<>();
+    for (int i = 0; i < 500; i++) {
+      lines.add(String.format("%d,USD 100", i));
+    }
+    PremiumList updated =
+        pl.asBuilder().setPremiumListMapFromLines(lines.build()).build().saveAndUpdateEntries();
+    assertThat(updated.getRevisionKey()).isNotEqualTo(pl.getRevisionKey());
+    assertThat(ofy().load().type(PremiumListEntry.class).ancestor(pl.getRevisionKey()).keys())
+        .isEmpty();
+    assertThat(getPremiumPrice("499", "tld")).hasValue(Money.parse("USD 100"));
+  }
+
   @Test
   public void testGetPremiumPrice_allLabelsAreNonPremium_whenNotInList() throws Exception {
     assertThat(getPremiumPrice("blah", "tld")).isAbsent();
@@ -166,7 +278,7 @@ public class PremiumListTest {
     assertThat(pl.getPremiumPrice("lol")).hasValue(Money.parse("USD 999"));
     assertThat(getPremiumPrice("lol", "tld")).hasValue(Money.parse("USD 999"));
     assertThat(getPremiumPrice("lol ", "tld")).isAbsent();
-    Map<String, PremiumListEntry> entries = PremiumList.get("tld2").get().getPremiumListEntries();
+    Map<String, PremiumListEntry> entries = PremiumList.get("tld2").get().loadPremiumListEntries();
     assertThat(entries.keySet()).containsExactly("lol");
     assertThat(entries).doesNotContainKey("lol ");
     PremiumListEntry entry = entries.values().iterator().next();
@@ -183,13 +295,13 @@ public class PremiumListTest {
             .setPremiumListMapFromLines(ImmutableList.of("test,USD 1"))
             .build()
             .saveAndUpdateEntries();
-    Map<String, PremiumListEntry> entries = pl.getPremiumListEntries();
+    Map<String, PremiumListEntry> entries = pl.loadPremiumListEntries();
     assertThat(entries.keySet()).containsExactly("test");
-    assertThat(PremiumList.get("pl").get().getPremiumListEntries()).isEqualTo(entries);
+    assertThat(PremiumList.get("pl").get().loadPremiumListEntries()).isEqualTo(entries);
     // Save again with no changes, and clear the cache to force a re-load from datastore.
     pl.saveAndUpdateEntries();
     ofy().clearSessionCache();
-    assertThat(PremiumList.get("pl").get().getPremiumListEntries()).isEqualTo(entries);
+    assertThat(PremiumList.get("pl").get().loadPremiumListEntries()).isEqualTo(entries);
   }
 
   @Test
@@ -200,13 +312,13 @@ public class PremiumListTest {
             .setPremiumListMapFromLines(ImmutableList.of("test,USD 1"))
             .build()
             .saveAndUpdateEntries();
-    Map<String, PremiumListEntry> entries = pl.getPremiumListEntries();
+    Map<String, PremiumListEntry> entries = pl.loadPremiumListEntries();
     assertThat(entries.keySet()).containsExactly("test");
-    assertThat(PremiumList.get("pl").get().getPremiumListEntries()).isEqualTo(entries);
+    assertThat(PremiumList.get("pl").get().loadPremiumListEntries()).isEqualTo(entries);
     // Save again with description changed, and clear the cache to force a re-load from datastore.
     pl.asBuilder().setDescription("foobar").build().saveAndUpdateEntries();
     ofy().clearSessionCache();
-    assertThat(PremiumList.get("pl").get().getPremiumListEntries()).isEqualTo(entries);
+    assertThat(PremiumList.get("pl").get().loadPremiumListEntries()).isEqualTo(entries);
   }
 
   @Test
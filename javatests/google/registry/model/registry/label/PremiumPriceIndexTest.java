@@ -0,0 +1,175 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.registry.label;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.joda.money.CurrencyUnit.USD;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import google.registry.testing.ExceptionRule;
+import org.joda.money.Money;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link PremiumPriceIndex}. */
+@RunWith(JUnit4.class)
+public class PremiumPriceIndexTest {
+
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
+  @Test
+  public void testGetPrice_empty() throws Exception {
+    PremiumPriceIndex index = new PremiumPriceIndex.Builder().build();
+    assertThat(index.size()).isEqualTo(0);
+    assertThat(index.getPrice("rich")).isAbsent();
+    assertThat(index.getPrice("")).isAbsent();
+  }
+
+  @Test
+  public void testGetPrice_singleCurrency() throws Exception {
+    PremiumPriceIndex index = new PremiumPriceIndex.Builder()
+        .put("rich", Money.parse("USD 1999"))
+        .put("lol", Money.parse("USD 999"))
+        .put("johnny-be-goode", Money.parse("USD 20.50"))
+        .build();
+    assertThat(index.size()).isEqualTo(3);
+    assertThat(index.getPrice("rich")).hasValue(Money.parse("USD 1999"));
+    assertThat(index.getPrice("lol")).hasValue(Money.parse("USD 999"));
+    assertThat(index.getPrice("johnny-be-goode")).hasValue(Money.parse("USD 20.50"));
+    assertThat(index.getPrice("lo")).isAbsent();
+    assertThat(index.getPrice("lolz")).isAbsent();
+    assertThat(index.getPrice("lol ")).isAbsent();
+    assertThat(index.getPrice("a")).isAbsent();
+    assertThat(index.getPrice("zzz")).isAbsent();
+  }
+
+  @Test
+  public void testGetPrice_mixedCurrencies() throws Exception {
+    PremiumPriceIndex index = new PremiumPriceIndex.Builder()
+        .put("genius", Money.parse("USD 10"))
+        .put("dolt", Money.parse("JPY 1000"))
+        .put("sleighbells", Money.parse("CHF 2000.25"))
+        .build();
+    assertThat(index.getPrice("genius")).hasValue(Money.parse("USD 10"));
+    assertThat(index.getPrice("dolt")).hasValue(Money.parse("JPY 1000"));
+    assertThat(index.getPrice("sleighbells")).hasValue(Money.parse("CHF 2000.25"));
+  }
+
+  @Test
+  public void testGetPrice_unicodeLabels() throws Exception {
+    PremiumPriceIndex index = new PremiumPriceIndex.Builder()
+        .put("みんな", Money.parse("USD 100"))
+        .put("xn--q9jyb4c", Money.parse("USD 200"))
+        .put("\ud83d\ude00", Money.parse("USD 300"))
+        .put("\uffee", Money.parse("USD 400"))
+        .build();
+    assertThat(index.getPrice("みんな")).hasValue(Money.parse("USD 100"));
+    assertThat(index.getPrice("xn--q9jyb4c")).hasValue(Money.parse("USD 200"));
+    assertThat(index.getPrice("\ud83d\ude00")).hasValue(Money.parse("USD 300"));
+    assertThat(index.getPrice("\uffee")).hasValue(Money.parse("USD 400"));
+    assertThat(index.getPrice("みん")).isAbsent();
+  }
+
+  @Test
+  public void testGetPrice_manyLabels() throws Exception {
+    PremiumPriceIndex.Builder builder = new PremiumPriceIndex.Builder();
+    for (int i = 0; i < 10000; i++) {
+      builder.put(Integer.toString(i), Money.ofMinor(USD, i));
+    }
+    PremiumPriceIndex index = builder.build();
+    assertThat(index.size()).isEqualTo(10000);
+    for (int i = 0; i < 10000; i++) {
+      assertThat(index.getPrice(Integer.toString(i)).get().getAmountMinorLong()).isEqualTo(i);
+    }
+    assertThat(index.getPrice("10000")).isAbsent();
+    assertThat(index.getPrice("-1")).isAbsent();
+  }
+
+  @Test
+  public void testWithChanges() throws Exception {
+    PremiumPriceIndex index = new PremiumPriceIndex.Builder()
+        .put("rich", Money.parse("USD 1999"))
+        .put("lol", Money.parse("USD 999"))
+        .put("icann", Money.parse("USD 100"))
+        .build()
+        .withChanges(
+            ImmutableMap.of("rich", Money.parse("USD 2999"), "newcomer", Money.parse("EUR 5")),
+            ImmutableSet.of("icann"));
+    assertThat(index.size()).isEqualTo(3);
+    assertThat(index.getPrice("rich")).hasValue(Money.parse("USD 2999"));
+    assertThat(index.getPrice("lol")).hasValue(Money.parse("USD 999"));
+    assertThat(index.getPrice("newcomer")).hasValue(Money.parse("EUR 5"));
+    assertThat(index.getPrice("icann")).isAbsent();
+  }
+
+  @Test
+  public void testGetChangedLabels() throws Exception {
+    PremiumPriceIndex index = new PremiumPriceIndex.Builder()
+        .put("rich", Money.parse("USD 1999"))
+        .put("lol", Money.parse("USD 999"))
+        .put("icann", Money.parse("USD 100"))
+        .put("genius", Money.parse("USD 10"))
+        .build();
+    PremiumPriceIndex other = new PremiumPriceIndex.Builder()
+        .put("rich", Money.parse("USD 2999"))
+        .put("lol", Money.parse("USD 999"))
+        .put("genius", Money.parse("EUR 10"))
+        .put("newcomer", Money.parse("USD 5"))
+        .build();
+    assertThat(index.getChangedLabels(other, 4).get())
+        .containsExactly("rich", "icann", "genius", "newcomer");
+    assertThat(other.getChangedLabels(index, 4).get())
+        .containsExactly("rich", "icann", "genius", "newcomer");
+    assertThat(index.getChangedLabels(index, 0).get()).isEmpty();
+  }
+
+  @Test
+  public void testGetChangedLabels_tooMany_isAbsent() throws Exception {
+    PremiumPriceIndex index = new PremiumPriceIndex.Builder()
+        .put("rich", Money.parse("USD 1999"))
+        .put("lol", Money.parse("USD 999"))
+        .build();
+    assertThat(index.getChangedLabels(new PremiumPriceIndex.Builder().build(), 1)).isAbsent();
+    assertThat(index.getChangedLabels(new PremiumPriceIndex.Builder().build(), 2).get())
+        .containsExactly("rich", "lol");
+  }
+
+  @Test
+  public void testEquals() throws Exception {
+    assertThat(new PremiumPriceIndex.Builder()
+            .put("a", Money.parse("USD 1"))
+            .put("b", Money.parse("USD 2"))
+            .build())
+        .isEqualTo(new PremiumPriceIndex.Builder()
+            .put("b", Money.parse("USD 2"))
+            .put("a", Money.parse("USD 1"))
+            .build());
+    assertThat(new PremiumPriceIndex.Builder().put("a", Money.parse("USD 1")).build())
+        .isNotEqualTo(new PremiumPriceIndex.Builder().put("a", Money.parse("USD 2")).build());
+  }
+
+  @Test
+  public void testFailure_duplicateLabel() throws Exception {
+    thrown.expect(IllegalArgumentException.class, "Duplicate label in premium list: lol");
+    new PremiumPriceIndex.Builder()
+        .put("lol", Money.parse("USD 1"))
+        .put("lol", Money.parse("USD 2"))
+        .build();
+  }
+}
@@ -21,6 +21,7 @@ import static google.registry.model.registry.label.ReservationType.FULLY_BLOCKED
 import static google.registry.model.registry.label.ReservationType.RESERVED_FOR_ANCHOR_TENANT;
 import static google.registry.model.registry.label.ReservationType.UNRESERVED;
 import static google.registry.model.registry.label.ReservedList.getReservation;
+import static google.registry.model.registry.label.ReservedList.getReservations;
 import static google.registry.model.registry.label.ReservedList.matchesAnchorTenantReservation;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.persistReservedList;
@@ -159,6 +160,23 @@ public class ReservedListTest {
     assertThat(getReservation("doge", "tld")).isEqualTo(UNRESERVED);
   }
 
+  @Test
+  public void testGetReservations_concatsMultipleListsCorrectly() throws Exception {
+    ReservedList rl1 = persistReservedList(
+        "reserved1", "lol,NAME_COLLISION", "cat,FULLY_BLOCKED");
+    ReservedList rl2 = persistReservedList(
+        "reserved2", "lol,FULLY_BLOCKED", "snowcrash,ALLOWED_IN_SUNRISE");
+    createTld("tld");
+    persistResource(Registry.get("tld").asBuilder().setReservedLists(rl1, rl2).build());
+    assertThat(getReservations(ImmutableList.of("lol", "cat", "snowcrash", "doge", ""), "tld"))
+        .containsExactly(
+            "lol", FULLY_BLOCKED,
+            "cat", FULLY_BLOCKED,
+            "snowcrash", ALLOWED_IN_SUNRISE,
+            "doge", UNRESERVED,
+            "", FULLY_BLOCKED);
+  }
+
   @Test
   public void testGetReservation_worksAfterReservedListRemovedUsingSet() throws Exception {
     ReservedList rl1 = persistReservedList(
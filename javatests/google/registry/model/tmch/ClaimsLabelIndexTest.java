@@ -0,0 +1,91 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.model.tmch;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ClaimsLabelIndex}. */
+@RunWith(JUnit4.class)
+public class ClaimsLabelIndexTest {
+
+  @Test
+  public void testCreate_empty() throws Exception {
+    ClaimsLabelIndex index = ClaimsLabelIndex.create(ImmutableMap.<String, String>of());
+    assertThat(index.size()).isEqualTo(0);
+    assertThat(index.getClaimKey("anything")).isNull();
+    assertThat(index.toMap()).isEmpty();
+  }
+
+  @Test
+  public void testGetClaimKey() throws Exception {
+    ClaimsLabelIndex index = ClaimsLabelIndex.create(ImmutableMap.of(
+        "anotherexample", "2013041500/A/A/A/A/A/A/A",
+        "example", "2013041500/1/2/3/4/5/6/7",
+        "xn--q9jyb4c", "2013041500/6/A/5/alksdjf",
+        "みんな", "2013041500/B/B/B/B/B/B/B"));
+    assertThat(index.size()).isEqualTo(4);
+    assertThat(index.getClaimKey("example")).isEqualTo("2013041500/1/2/3/4/5/6/7");
+    assertThat(index.getClaimKey("anotherexample")).isEqualTo("2013041500/A/A/A/A/A/A/A");
+    assertThat(index.getClaimKey("xn--q9jyb4c")).isEqualTo("2013041500/6/A/5/alksdjf");
+    assertThat(index.getClaimKey("みんな")).isEqualTo("2013041500/B/B/B/B/B/B/B");
+    assertThat(index.getClaimKey("exampl")).isNull();
+    assertThat(index.getClaimKey("examples")).isNull();
+    assertThat(index.getClaimKey("")).isNull();
+  }
+
+  @Test
+  public void testMerge() throws Exception {
+    Map<String, String> all = new HashMap<>();
+    ImmutableList.Builder<ClaimsLabelIndex> shards = new ImmutableList.Builder<>();
+    for (int shard = 0; shard < 5; shard++) {
+      Map<String, String> labelsToKeys = new HashMap<>();
+      for (int i = shard; i < 1000; i += 5) {
+        labelsToKeys.put("label" + i, "key" + i);
+      }
+      all.putAll(labelsToKeys);
+      shards.add(ClaimsLabelIndex.create(labelsToKeys));
+    }
+    ClaimsLabelIndex index = ClaimsLabelIndex.merge(shards.build());
+    assertThat(index.size()).isEqualTo(1000);
+    assertThat(index.toMap()).isEqualTo(all);
+    assertThat(index).isEqualTo(ClaimsLabelIndex.create(all));
+    for (int i = 0; i < 1000; i++) {
+      assertThat(index.getClaimKey("label" + i)).isEqualTo("key" + i);
+    }
+    assertThat(index.getClaimKey("label1000")).isNull();
+  }
+
+  @Test
+  public void testMerge_duplicateLabel_keepsFirstShard() throws Exception {
+    ClaimsLabelIndex index = ClaimsLabelIndex.merge(ImmutableList.of(
+        ClaimsLabelIndex.create(ImmutableMap.of("a", "1", "b", "2")),
+        ClaimsLabelIndex.create(ImmutableMap.of("b", "3", "c", "4"))));
+    assertThat(index.size()).isEqualTo(3);
+    assertThat(index.toMap()).isEqualTo(ImmutableMap.of("a", "1", "b", "2", "c", "4"));
+  }
+
+  @Test
+  public void testMerge_noShards() throws Exception {
+    assertThat(ClaimsLabelIndex.merge(ImmutableList.<ClaimsLabelIndex>of()).size()).isEqualTo(0);
+  }
+}
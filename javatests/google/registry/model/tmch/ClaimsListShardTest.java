@@ -73,7 +73,8 @@ public class ClaimsListShardTest {
 
   @Test
   public void testGet_safelyLoadsEmptyClaimsList_whenNoShardsExist() throws Exception {
-    assertThat(ClaimsListShard.get().labelsToKeys).isEmpty();
+    assertThat(ClaimsListShard.get().getLabelsToKeys()).isEmpty();
+    assertThat(ClaimsListShard.get().size()).isEqualTo(0);
     assertThat(ClaimsListShard.get().creationTime).isEqualTo(START_OF_TIME);
   }
 
@@ -88,7 +89,7 @@ public class ClaimsListShardTest {
     // Save it with sharding, and make sure that reloading it works.
     ClaimsListShard unsharded = ClaimsListShard.create(now, ImmutableMap.copyOf(labelsToKeys));
     unsharded.save();
-    assertThat(ClaimsListShard.get().labelsToKeys).isEqualTo(unsharded.labelsToKeys);
+    assertThat(ClaimsListShard.get().getLabelsToKeys()).isEqualTo(unsharded.labelsToKeys);
     List<ClaimsListShard> shards1 = ofy().load().type(ClaimsListShard.class).list();
     assertThat(shards1).hasSize(4);
     assertThat(ClaimsListShard.get().getClaimKey("1")).isEqualTo("1");
@@ -103,8 +104,8 @@ public class ClaimsListShardTest {
     unsharded = ClaimsListShard.create(now.plusDays(1), ImmutableMap.copyOf(labelsToKeys));
     unsharded.save();
     ofy().clearSessionCache();
-    assertThat(ClaimsListShard.get().labelsToKeys).hasSize(unsharded.labelsToKeys.size());
-    assertThat(ClaimsListShard.get().labelsToKeys).isEqualTo(unsharded.labelsToKeys);
+    assertThat(ClaimsListShard.get().size()).isEqualTo(unsharded.labelsToKeys.size());
+    assertThat(ClaimsListShard.get().getLabelsToKeys()).isEqualTo(unsharded.labelsToKeys);
     List<ClaimsListShard> shards2 = ofy().load().type(ClaimsListShard.class).list();
     assertThat(shards2).hasSize(2);
 
@@ -112,6 +113,25 @@ public class ClaimsListShardTest {
     assertThat(ClaimsListShard.getCurrentRevision()).isEqualTo(shards2.get(0).parent);
   }
 
+  @Test
+  public void testGet_onlyRetainsLabelIndex() throws Exception {
+    ClaimsListShard.create(DateTime.now(UTC), ImmutableMap.of("a", "1", "b", "2", "c", "3")).save();
+    ClaimsListShard claimsList = ClaimsListShard.get();
+    assertThat(claimsList.labelsToKeys).isNull();
+    assertThat(claimsList.size()).isEqualTo(3);
+    assertThat(claimsList.getClaimKey("b")).isEqualTo("2");
+    assertThat(claimsList.getClaimKey("d")).isNull();
+  }
+
+  @Test
+  public void testGet_leavesLoadedShardsUnchanged() throws Exception {
+    ClaimsListShard.create(DateTime.now(UTC), ImmutableMap.of("a", "1", "b", "2")).save();
+    ClaimsListShard.get();
+    ClaimsListShard shard = ofy().load().type(ClaimsListShard.class).first().now();
+    assertThat(shard.labelsToKeys).containsExactly("a", "1", "b", "2");
+    assertThat(shard.labelIndex).isNull();
+  }
+
   /**
    * Returns a created claims list shard with the specified parent key for testing purposes only.
    */
@@ -184,4 +184,65 @@ public class CounterTest {
             MetricPoint.create(
                 counter, ImmutableList.of("moo"), new Instant(1338), new Instant(1400), 5L));
   }
+
+  @Test
+  public void testGetChangedTimestampedValues_returnsOnlyChangedValues() {
+    Counter counter =
+        new Counter(
+            "/metric",
+            "description",
+            "vdn",
+            ImmutableSet.of(LabelDescriptor.create("label1", "bar")));
+    counter.incrementBy(1, new Instant(1337), ImmutableList.of("test_value1"));
+    counter.incrementBy(2, new Instant(1338), ImmutableList.of("test_value2"));
+
+    assertThat(counter.getChangedTimestampedValues(new Instant(1400)))
+        .containsExactly(
+            MetricPoint.create(
+                counter,
+                ImmutableList.of("test_value1"),
+                new Instant(1337),
+                new Instant(1400),
+                1L),
+            MetricPoint.create(
+                counter,
+                ImmutableList.of("test_value2"),
+                new Instant(1338),
+                new Instant(1400),
+                2L));
+    assertThat(counter.getChangedTimestampedValues(new Instant(1500))).isEmpty();
+
+    counter.incrementBy(3, new Instant(1600), ImmutableList.of("test_value2"));
+    assertThat(counter.getChangedTimestampedValues(new Instant(1700)))
+        .containsExactly(
+            MetricPoint.create(
+                counter,
+                ImmutableList.of("test_value2"),
+                new Instant(1338),
+                new Instant(1700),
+                5L));
+
+    counter.reset(new Instant(1800));
+    assertThat(counter.getChangedTimestampedValues(new Instant(1900)))
+        .containsExactly(
+            MetricPoint.create(
+                counter,
+                ImmutableList.of("test_value1"),
+                new Instant(1800),
+                new Instant(1900),
+                0L),
+            MetricPoint.create(
+                counter,
+                ImmutableList.of("test_value2"),
+                new Instant(1800),
+                new Instant(1900),
+                0L));
+    // Reading every value doesn't affect which values have changed.
+    assertThat(counter.getTimestampedValues()).hasSize(2);
+    assertThat(counter.getChangedTimestampedValues(new Instant(2000))).isEmpty();
+
+    counter.incrementBy(1, new Instant(2100), ImmutableList.of("test_value1"));
+    counter.clearChanges();
+    assertThat(counter.getChangedTimestampedValues(new Instant(2200))).isEmpty();
+  }
 }
@@ -20,6 +20,9 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableRangeMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Range;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import org.joda.time.Instant;
 import org.junit.Before;
 import org.junit.Rule;
@@ -314,4 +317,77 @@ public class EventMetricTest {
                         .build(),
                     distributionFitter)));
   }
+
+  @Test
+  public void testRecord_concurrentRecordings_allCounted() throws Exception {
+    final int numThreads = 16;
+    final int recordsPerThread = 1000;
+    final CountDownLatch start = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < numThreads; i++) {
+      final String label = (i % 2 == 0) ? "even" : "odd";
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+          for (int j = 0; j < recordsPerThread; j++) {
+            metric.record(j % 10, label);
+          }
+        }};
+      thread.start();
+      threads.add(thread);
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    ImmutableList<MetricPoint<Distribution>> points = metric.getTimestampedValues();
+    assertThat(points).hasSize(2);
+    for (MetricPoint<Distribution> point : points) {
+      Distribution distribution = point.value();
+      assertThat(distribution.count()).isEqualTo(numThreads / 2 * recordsPerThread);
+      assertThat(distribution.mean()).isWithin(1e-9).of(4.5);
+      assertThat(distribution.intervalCounts())
+          .isEqualTo(
+              ImmutableRangeMap.<Double, Long>builder()
+                  .put(Range.lessThan(5.0), numThreads / 2 * recordsPerThread / 2L)
+                  .put(Range.atLeast(5.0), numThreads / 2 * recordsPerThread / 2L)
+                  .build());
+    }
+  }
+
+  @Test
+  public void testGetChangedTimestampedValues_returnsOnlyChangedValues() {
+    metric.recordMultiple(1.0, 1, new Instant(1337), ImmutableList.of("foo"));
+    metric.recordMultiple(10.0, 1, new Instant(1338), ImmutableList.of("bar"));
+
+    ImmutableList<MetricPoint<Distribution>> points =
+        metric.getChangedTimestampedValues(new Instant(1400));
+    assertThat(points).hasSize(2);
+    for (MetricPoint<Distribution> point : points) {
+      assertThat(point.interval().getEndMillis()).isEqualTo(1400L);
+    }
+    assertThat(metric.getChangedTimestampedValues(new Instant(1500))).isEmpty();
+
+    metric.recordMultiple(2.0, 1, new Instant(1600), ImmutableList.of("foo"));
+    points = metric.getChangedTimestampedValues(new Instant(1700));
+    assertThat(points).hasSize(1);
+    assertThat(points.get(0).labelValues()).containsExactly("foo");
+    assertThat(points.get(0).interval().getStartMillis()).isEqualTo(1337L);
+    assertThat(points.get(0).value().count()).isEqualTo(2);
+
+    metric.reset(new Instant(1800), ImmutableList.of("bar"));
+    points = metric.getChangedTimestampedValues(new Instant(1900));
+    assertThat(points).hasSize(1);
+    assertThat(points.get(0).labelValues()).containsExactly("bar");
+    assertThat(points.get(0).value().count()).isEqualTo(0);
+    // Reading every value doesn't affect which values have changed.
+    assertThat(metric.getTimestampedValues()).hasSize(2);
+    assertThat(metric.getChangedTimestampedValues(new Instant(2000))).isEmpty();
+  }
 }
@@ -14,17 +14,24 @@
 
 package google.registry.monitoring.metrics;
 
+import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
 import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -40,6 +47,7 @@ public class MetricReporterTest {
   @Mock MetricWriter writer;
   @Mock MetricSchema metricSchema;
   @Mock BlockingQueue<Optional<ImmutableList<MetricPoint<?>>>> writeQueue;
+  @Captor ArgumentCaptor<Optional<ImmutableList<MetricPoint<?>>>> batchCaptor;
 
   @Test
   public void testRunOneIteration_enqueuesBatch() throws Exception {
@@ -53,6 +61,47 @@ public class MetricReporterTest {
     verify(writeQueue).offer(Optional.of(ImmutableList.<MetricPoint<?>>of()));
   }
 
+  @Test
+  public void testRunOneIteration_onlyEnqueuesChangedValues() throws Exception {
+    Counter counter =
+        new Counter("/name", "description", "vdn", ImmutableSet.<LabelDescriptor>of());
+    counter.increment();
+    when(registry.getRegisteredMetrics()).thenReturn(ImmutableList.<Metric<?>>of(counter));
+    MetricReporter reporter = new MetricReporter(writer, 10L, threadFactory, registry, writeQueue);
+
+    reporter.runOneIteration();
+    reporter.runOneIteration();
+    counter.increment();
+    reporter.runOneIteration();
+
+    verify(writeQueue, times(3)).offer(batchCaptor.capture());
+    assertThat(batchCaptor.getAllValues().get(0).get()).hasSize(1);
+    assertThat(batchCaptor.getAllValues().get(1).get()).isEmpty();
+    assertThat(batchCaptor.getAllValues().get(2).get().get(0).value()).isEqualTo(2L);
+  }
+
+  @Test
+  public void testRunOneIteration_periodicallyEnqueuesUnchangedValues() throws Exception {
+    Counter counter =
+        new Counter("/name", "description", "vdn", ImmutableSet.<LabelDescriptor>of());
+    counter.increment();
+    when(registry.getRegisteredMetrics()).thenReturn(ImmutableList.<Metric<?>>of(counter));
+    MetricReporter reporter = new MetricReporter(writer, 10L, threadFactory, registry, writeQueue);
+
+    for (int i = 0; i < MetricReporter.FULL_WRITE_INTERVALS + 1; i++) {
+      reporter.runOneIteration();
+    }
+
+    verify(writeQueue, times(MetricReporter.FULL_WRITE_INTERVALS + 1))
+        .offer(batchCaptor.capture());
+    assertThat(batchCaptor.getAllValues().get(0).get()).hasSize(1);
+    assertThat(batchCaptor.getAllValues().get(1).get()).isEmpty();
+    assertThat(batchCaptor.getAllValues().get(MetricReporter.FULL_WRITE_INTERVALS - 1).get())
+        .hasSize(1);
+    assertThat(batchCaptor.getAllValues().get(MetricReporter.FULL_WRITE_INTERVALS).get())
+        .isEmpty();
+  }
+
   @Test
   public void testShutDown_enqueuesBatchAndPoisonPill() throws Exception {
     // Set up a registry with no metrics.
@@ -67,4 +116,23 @@ public class MetricReporterTest {
     interactions.verify(writeQueue).offer(Optional.of(ImmutableList.<MetricPoint<?>>of()));
     interactions.verify(writeQueue).offer(Optional.<ImmutableList<MetricPoint<?>>>absent());
   }
+
+  @Test
+  public void testStop_flushesAndClosesWriter() throws Exception {
+    when(registry.getRegisteredMetrics()).thenReturn(ImmutableList.<Metric<?>>of());
+    MetricReporter reporter =
+        new MetricReporter(
+            writer,
+            1000L,
+            Executors.defaultThreadFactory(),
+            registry,
+            new ArrayBlockingQueue<Optional<ImmutableList<MetricPoint<?>>>>(10));
+
+    reporter.startAsync().awaitRunning(10, TimeUnit.SECONDS);
+    reporter.stopAsync().awaitTerminated(10, TimeUnit.SECONDS);
+
+    InOrder interactions = Mockito.inOrder(writer);
+    interactions.verify(writer).flush();
+    interactions.verify(writer).close();
+  }
 }
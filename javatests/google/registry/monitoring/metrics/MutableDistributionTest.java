@@ -289,4 +289,29 @@ public class MutableDistributionTest {
                 .put(Range.atLeast(5.0), 1L)
                 .build());
   }
+
+  @Test
+  public void testAdd_manyIntervals_countsEachValueInItsInterval() throws Exception {
+    MutableDistribution distribution =
+        new MutableDistribution(CustomFitter.create(ImmutableSet.of(1.0, 2.0, 4.0, 8.0, 16.0)));
+
+    distribution.add(0.5);
+    distribution.add(1.0);
+    distribution.add(3.9, 2);
+    distribution.add(4.0, 3);
+    distribution.add(15.0);
+    distribution.add(1000.0);
+
+    assertThat(distribution.count()).isEqualTo(9);
+    assertThat(distribution.intervalCounts())
+        .isEqualTo(
+            ImmutableRangeMap.<Double, Long>builder()
+                .put(Range.lessThan(1.0), 1L)
+                .put(Range.closedOpen(1.0, 2.0), 1L)
+                .put(Range.closedOpen(2.0, 4.0), 2L)
+                .put(Range.closedOpen(4.0, 8.0), 3L)
+                .put(Range.closedOpen(8.0, 16.0), 1L)
+                .put(Range.atLeast(16.0), 1L)
+                .build());
+  }
 }
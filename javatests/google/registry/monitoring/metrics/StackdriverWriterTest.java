@@ -15,12 +15,13 @@
 package google.registry.monitoring.metrics;
 
 import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.never;
-import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -31,6 +32,7 @@ import com.google.api.client.http.HttpResponseException;
 import com.google.api.services.monitoring.v3.Monitoring;
 import com.google.api.services.monitoring.v3.model.BucketOptions;
 import com.google.api.services.monitoring.v3.model.CreateTimeSeriesRequest;
+import com.google.api.services.monitoring.v3.model.Empty;
 import com.google.api.services.monitoring.v3.model.Explicit;
 import com.google.api.services.monitoring.v3.model.Exponential;
 import com.google.api.services.monitoring.v3.model.Linear;
@@ -44,6 +46,11 @@ import google.registry.monitoring.metrics.MetricSchema.Kind;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.joda.time.Instant;
 import org.junit.Before;
 import org.junit.Test;
@@ -95,14 +102,29 @@ public class StackdriverWriterTest {
         .thenReturn(timeSeriesCreate);
   }
 
+  private StackdriverWriter createWriter(
+      int maxPointsPerRequest,
+      int maxInFlightRequests,
+      int maxRetries,
+      ExecutorService requestExecutor) {
+    return new StackdriverWriter(
+        client,
+        PROJECT,
+        MONITORED_RESOURCE,
+        MAX_QPS,
+        maxPointsPerRequest,
+        maxInFlightRequests,
+        maxRetries,
+        1,
+        requestExecutor);
+  }
+
   @Test
-  public void testWrite_maxPoints_flushes() throws Exception {
+  public void testWrite_maxPoints_sendsRequest() throws Exception {
     // The counter must be set once in order for there to be values to send.
     metric.set(0L, new Instant(1337), ImmutableList.of("some_value"));
     StackdriverWriter writer =
-        spy(
-            new StackdriverWriter(
-                client, PROJECT, MONITORED_RESOURCE, MAX_QPS, MAX_POINTS_PER_REQUEST));
+        new StackdriverWriter(client, PROJECT, MONITORED_RESOURCE, MAX_QPS, MAX_POINTS_PER_REQUEST);
 
     for (int i = 0; i < MAX_POINTS_PER_REQUEST; i++) {
       for (MetricPoint<?> point : metric.getTimestampedValues(new Instant(1337))) {
@@ -110,17 +132,15 @@ public class StackdriverWriterTest {
       }
     }
 
-    verify(writer).flush();
+    verify(timeSeriesCreate).execute();
   }
 
   @Test
-  public void testWrite_lessThanMaxPoints_doesNotFlush() throws Exception {
+  public void testWrite_lessThanMaxPoints_doesNotSendRequest() throws Exception {
     // The counter must be set once in order for there to be values to send.
     metric.set(0L, new Instant(1337), ImmutableList.of("some_value"));
     StackdriverWriter writer =
-        spy(
-            new StackdriverWriter(
-                client, PROJECT, MONITORED_RESOURCE, MAX_QPS, MAX_POINTS_PER_REQUEST));
+        new StackdriverWriter(client, PROJECT, MONITORED_RESOURCE, MAX_QPS, MAX_POINTS_PER_REQUEST);
 
     for (int i = 0; i < MAX_POINTS_PER_REQUEST - 1; i++) {
       for (MetricPoint<?> point : metric.getTimestampedValues(new Instant(1337))) {
@@ -128,7 +148,7 @@ public class StackdriverWriterTest {
       }
     }
 
-    verify(writer, never()).flush();
+    verify(timeSeriesCreate, never()).execute();
   }
 
   @Test
@@ -157,13 +177,11 @@ public class StackdriverWriterTest {
   }
 
   @Test
-  public void testWrite_ManyPoints_flushesTwice() throws Exception {
+  public void testWrite_ManyPoints_sendsTwoRequests() throws Exception {
     // The counter must be set once in order for there to be values to send.
     metric.set(0L, new Instant(1337), ImmutableList.of("some_value"));
     StackdriverWriter writer =
-        spy(
-            new StackdriverWriter(
-                client, PROJECT, MONITORED_RESOURCE, MAX_QPS, MAX_POINTS_PER_REQUEST));
+        new StackdriverWriter(client, PROJECT, MONITORED_RESOURCE, MAX_QPS, MAX_POINTS_PER_REQUEST);
 
     for (int i = 0; i < MAX_POINTS_PER_REQUEST * 2; i++) {
       for (MetricPoint<?> point : metric.getTimestampedValues(new Instant(1337))) {
@@ -171,7 +189,139 @@ public class StackdriverWriterTest {
       }
     }
 
-    verify(writer, times(2)).flush();
+    verify(timeSeriesCreate, times(2)).execute();
+  }
+
+  @Test
+  public void testWrite_fullRequests_sentConcurrently() throws Exception {
+    metric.set(0L, new Instant(1337), ImmutableList.of("first"));
+    metric.set(0L, new Instant(1337), ImmutableList.of("second"));
+    final CountDownLatch bothStarted = new CountDownLatch(2);
+    final AtomicBoolean ranConcurrently = new AtomicBoolean();
+    when(timeSeriesCreate.execute())
+        .thenAnswer(
+            new Answer<Empty>() {
+              @Override
+              public Empty answer(InvocationOnMock invocation) throws Exception {
+                bothStarted.countDown();
+                ranConcurrently.compareAndSet(false, bothStarted.await(10, SECONDS));
+                return new Empty();
+              }
+            });
+    StackdriverWriter writer = createWriter(1, 2, 0, Executors.newFixedThreadPool(2));
+
+    for (MetricPoint<?> point : metric.getTimestampedValues(new Instant(1337))) {
+      writer.write(point);
+    }
+    writer.flush();
+
+    verify(timeSeriesCreate, times(2)).execute();
+    assertThat(ranConcurrently.get()).isTrue();
+  }
+
+  @Test
+  public void testWrite_sameTimeSeries_waitsForEarlierRequest() throws Exception {
+    metric.set(0L, new Instant(1337), ImmutableList.of("some_value"));
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicInteger maxInFlight = new AtomicInteger();
+    when(timeSeriesCreate.execute())
+        .thenAnswer(
+            new Answer<Empty>() {
+              @Override
+              public Empty answer(InvocationOnMock invocation) throws Exception {
+                int current = inFlight.incrementAndGet();
+                maxInFlight.set(Math.max(maxInFlight.get(), current));
+                Thread.sleep(20);
+                inFlight.decrementAndGet();
+                return new Empty();
+              }
+            });
+    StackdriverWriter writer = createWriter(1, 2, 0, Executors.newFixedThreadPool(2));
+
+    for (int i = 0; i < 3; i++) {
+      for (MetricPoint<?> point : metric.getTimestampedValues(new Instant(1337 + i))) {
+        writer.write(point);
+      }
+    }
+    writer.flush();
+
+    verify(timeSeriesCreate, times(3)).execute();
+    assertThat(maxInFlight.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testFlush_transientFailure_retries() throws Exception {
+    metric.set(0L, new Instant(1337), ImmutableList.of("some_value"));
+    when(timeSeriesCreate.execute())
+        .thenThrow(new IOException("Connection reset"))
+        .thenReturn(new Empty());
+    StackdriverWriter writer =
+        createWriter(MAX_POINTS_PER_REQUEST, 1, 2, newDirectExecutorService());
+
+    for (MetricPoint<?> point : metric.getTimestampedValues(new Instant(1337))) {
+      writer.write(point);
+    }
+    writer.flush();
+
+    verify(timeSeriesCreate, times(2)).execute();
+  }
+
+  @Test
+  public void testFlush_failsAfterRetries_throws() throws Exception {
+    metric.set(0L, new Instant(1337), ImmutableList.of("some_value"));
+    when(timeSeriesCreate.execute()).thenThrow(new IOException("Connection reset"));
+    StackdriverWriter writer =
+        createWriter(MAX_POINTS_PER_REQUEST, 1, 2, newDirectExecutorService());
+
+    for (MetricPoint<?> point : metric.getTimestampedValues(new Instant(1337))) {
+      writer.write(point);
+    }
+    try {
+      writer.flush();
+      fail("Expected IOException");
+    } catch (IOException expected) {
+      assertThat(expected.getCause()).hasMessage("Connection reset");
+    }
+    verify(timeSeriesCreate, times(3)).execute();
+
+    // The failure is only reported once.
+    writer.flush();
+  }
+
+  @Test
+  public void testClose_flushesAndShutsDownRequestExecutor() throws Exception {
+    metric.set(0L, new Instant(1337), ImmutableList.of("some_value"));
+    ExecutorService requestExecutor = newDirectExecutorService();
+    StackdriverWriter writer = createWriter(MAX_POINTS_PER_REQUEST, 1, 2, requestExecutor);
+
+    for (MetricPoint<?> point : metric.getTimestampedValues(new Instant(1337))) {
+      writer.write(point);
+    }
+    writer.close();
+
+    verify(timeSeriesCreate).execute();
+    assertThat(requestExecutor.isShutdown()).isTrue();
+  }
+
+  @Test
+  public void testFlush_clientError_doesNotRetry() throws Exception {
+    metric.set(0L, new Instant(1337), ImmutableList.of("some_value"));
+    HttpResponse response =
+        GoogleJsonResponseExceptionHelper.createHttpResponse(
+            400, new ByteArrayInputStream("".getBytes(UTF_8)));
+    when(timeSeriesCreate.execute())
+        .thenThrow(new HttpResponseException.Builder(response).setStatusCode(400).build());
+    StackdriverWriter writer =
+        createWriter(MAX_POINTS_PER_REQUEST, 1, 2, newDirectExecutorService());
+
+    for (MetricPoint<?> point : metric.getTimestampedValues(new Instant(1337))) {
+      writer.write(point);
+    }
+    try {
+      writer.flush();
+      fail("Expected IOException");
+    } catch (IOException expected) {}
+    verify(timeSeriesCreate).execute();
   }
 
   @Test
@@ -0,0 +1,238 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.monitoring.whitebox;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.Executors.defaultThreadFactory;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.api.services.bigquery.Bigquery;
+import com.google.api.services.bigquery.Bigquery.Tabledata;
+import com.google.api.services.bigquery.Bigquery.Tabledata.InsertAll;
+import com.google.api.services.bigquery.model.TableDataInsertAllRequest;
+import com.google.api.services.bigquery.model.TableDataInsertAllRequest.Rows;
+import com.google.api.services.bigquery.model.TableDataInsertAllResponse;
+import com.google.api.services.bigquery.model.TableFieldSchema;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import google.registry.testing.ExceptionRule;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+/** Unit tests for {@link BigQueryMetricsBatcher}. */
+@RunWith(MockitoJUnitRunner.class)
+public class BigQueryMetricsBatcherTest {
+
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
+  @Mock Bigquery bigquery;
+  @Mock Tabledata tabledata;
+  @Mock InsertAll insertAll;
+
+  private final ArgumentCaptor<TableDataInsertAllRequest> requestCaptor =
+      ArgumentCaptor.forClass(TableDataInsertAllRequest.class);
+
+  private BigQueryMetricsBatcher batcher;
+
+  @Before
+  public void setUp() throws Exception {
+    when(bigquery.tabledata()).thenReturn(tabledata);
+    when(tabledata.insertAll(anyString(), anyString(), anyString(), requestCaptor.capture()))
+        .thenReturn(insertAll);
+    when(insertAll.execute()).thenReturn(new TableDataInsertAllResponse());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (batcher != null) {
+      batcher.stopAsync().awaitTerminated(10, SECONDS);
+    }
+  }
+
+  private BigQueryMetricsBatcher createBatcher(
+      int maxBatchSize, Duration flushInterval, int bufferSize) {
+    return new BigQueryMetricsBatcher(
+        bigquery,
+        "project",
+        defaultThreadFactory(),
+        Suppliers.ofInstance("insert id"),
+        maxBatchSize,
+        flushInterval,
+        bufferSize);
+  }
+
+  private void startBatcher(int maxBatchSize, Duration flushInterval, int bufferSize)
+      throws Exception {
+    batcher = createBatcher(maxBatchSize, flushInterval, bufferSize);
+    batcher.startAsync().awaitRunning(10, SECONDS);
+  }
+
+  private List<Object> getInsertedRowValues() {
+    List<Object> values = new ArrayList<>();
+    for (TableDataInsertAllRequest request : requestCaptor.getAllValues()) {
+      for (Rows row : request.getRows()) {
+        values.add(row.getJson().get("value"));
+      }
+    }
+    return values;
+  }
+
+  @Test
+  public void testExport_notRunning_insertsImmediately() throws Exception {
+    createBatcher(10, Duration.standardMinutes(1), 10).export(new TestMetric("test", "1"));
+    verify(tabledata).insertAll(eq("project"), eq("metrics"), eq("test"), any(
+        TableDataInsertAllRequest.class));
+    Rows row = requestCaptor.getValue().getRows().get(0);
+    assertThat(row.getInsertId()).isEqualTo("insert id");
+    assertThat(row.getJson()).isEqualTo(ImmutableMap.of("value", "1"));
+  }
+
+  @Test
+  public void testExport_fullBatch_insertsWithoutWaitingForFlushInterval() throws Exception {
+    startBatcher(3, Duration.standardMinutes(1), 10);
+    batcher.export(new TestMetric("test", "1"));
+    batcher.export(new TestMetric("test", "2"));
+    batcher.export(new TestMetric("test", "3"));
+    verify(insertAll, timeout(10000)).execute();
+    assertThat(requestCaptor.getValue().getRows()).hasSize(3);
+    assertThat(getInsertedRowValues()).containsExactly("1", "2", "3").inOrder();
+  }
+
+  @Test
+  public void testExport_partialBatch_insertsAfterFlushInterval() throws Exception {
+    startBatcher(100, Duration.millis(50), 100);
+    batcher.export(new TestMetric("test", "1"));
+    verify(insertAll, timeout(10000)).execute();
+    assertThat(getInsertedRowValues()).containsExactly("1");
+  }
+
+  @Test
+  public void testExport_severalTables_insertsOncePerTable() throws Exception {
+    startBatcher(4, Duration.standardMinutes(1), 10);
+    batcher.export(new TestMetric("test", "1"));
+    batcher.export(new TestMetric("other", "2"));
+    batcher.export(new TestMetric("test", "3"));
+    batcher.export(new TestMetric("other", "4"));
+    verify(tabledata, timeout(10000)).insertAll(
+        eq("project"), eq("metrics"), eq("test"), any(TableDataInsertAllRequest.class));
+    verify(tabledata, timeout(10000)).insertAll(
+        eq("project"), eq("metrics"), eq("other"), any(TableDataInsertAllRequest.class));
+    assertThat(getInsertedRowValues()).containsExactly("1", "2", "3", "4");
+  }
+
+  @Test
+  public void testStop_flushesBufferedMetrics() throws Exception {
+    startBatcher(100, Duration.standardMinutes(1), 100);
+    batcher.export(new TestMetric("test", "1"));
+    batcher.export(new TestMetric("test", "2"));
+    batcher.stopAsync().awaitTerminated(10, SECONDS);
+    assertThat(getInsertedRowValues()).containsExactly("1", "2");
+  }
+
+  @Test
+  public void testExport_afterStop_insertsImmediately() throws Exception {
+    startBatcher(100, Duration.standardMinutes(1), 100);
+    batcher.stopAsync().awaitTerminated(10, SECONDS);
+    batcher.export(new TestMetric("test", "1"));
+    assertThat(getInsertedRowValues()).containsExactly("1");
+  }
+
+  @Test
+  public void testExport_bufferFull_dropsMetric() throws Exception {
+    final CountDownLatch insertStarted = new CountDownLatch(1);
+    final CountDownLatch finishInsert = new CountDownLatch(1);
+    when(insertAll.execute()).thenAnswer(new Answer<TableDataInsertAllResponse>() {
+      @Override
+      public TableDataInsertAllResponse answer(InvocationOnMock invocation) throws Exception {
+        insertStarted.countDown();
+        finishInsert.await();
+        return new TableDataInsertAllResponse();
+      }});
+    startBatcher(1, Duration.standardMinutes(1), 1);
+    batcher.export(new TestMetric("test", "1"));
+    // Wait for the background thread to get stuck inserting the first metric.
+    insertStarted.await();
+    batcher.export(new TestMetric("test", "2"));
+    batcher.export(new TestMetric("test", "3"));
+    finishInsert.countDown();
+    batcher.stopAsync().awaitTerminated(10, SECONDS);
+    assertThat(getInsertedRowValues()).containsExactly("1", "2");
+  }
+
+  @Test
+  public void testExport_insertFails_continuesExporting() throws Exception {
+    when(insertAll.execute())
+        .thenThrow(new RuntimeException("BigQuery is down"))
+        .thenReturn(new TableDataInsertAllResponse());
+    startBatcher(1, Duration.standardMinutes(1), 10);
+    batcher.export(new TestMetric("test", "1"));
+    batcher.export(new TestMetric("test", "2"));
+    batcher.stopAsync().awaitTerminated(10, SECONDS);
+    assertThat(batcher.state()).isEqualTo(BigQueryMetricsBatcher.State.TERMINATED);
+    assertThat(getInsertedRowValues()).containsExactly("1", "2");
+  }
+
+  @Test
+  public void testCreate_bufferSmallerThanBatch_throws() throws Exception {
+    thrown.expect(IllegalArgumentException.class, "bufferSize must be at least maxBatchSize");
+    createBatcher(10, Duration.standardMinutes(1), 5);
+  }
+
+  /** A stub implementation of {@link BigQueryMetric} with a single value. */
+  private static class TestMetric implements BigQueryMetric {
+    private final String tableId;
+    private final String value;
+
+    TestMetric(String tableId, String value) {
+      this.tableId = tableId;
+      this.value = value;
+    }
+
+    @Override
+    public String getTableId() {
+      return tableId;
+    }
+
+    @Override
+    public ImmutableList<TableFieldSchema> getSchemaFields() {
+      return null;
+    }
+
+    @Override
+    public ImmutableMap<String, String> getBigQueryRowEncoding() {
+      return ImmutableMap.of("value", value);
+    }
+  }
+}
@@ -17,6 +17,8 @@ package google.registry.pricing;
 import static com.google.common.truth.Truth.assertThat;
 import static google.registry.pricing.PricingEngineProxy.getDomainCreateCost;
 import static google.registry.pricing.PricingEngineProxy.getDomainRenewCost;
+import static google.registry.pricing.PricingEngineProxy.getPricesForDomainName;
+import static google.registry.pricing.PricingEngineProxy.getPricesForDomainNames;
 import static google.registry.pricing.PricingEngineProxy.isDomainPremium;
 import static google.registry.testing.DatastoreHelper.createTld;
 import static google.registry.testing.DatastoreHelper.persistPremiumList;
@@ -24,7 +26,10 @@ import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.util.DateTimeUtils.START_OF_TIME;
 import static org.joda.money.CurrencyUnit.USD;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedMap;
+import google.registry.model.pricing.PremiumPricingEngine.DomainPrices;
 import google.registry.model.registry.Registry;
 import google.registry.model.registry.label.PremiumList;
 import google.registry.testing.AppEngineRule;
@@ -140,6 +145,25 @@ public class PricingEngineProxyTest {
         .isEqualTo(Money.of(USD, 200));
   }
 
+  @Test
+  public void testGetPricesForDomainNames() throws Exception {
+    createTld("example");
+    ImmutableMap<String, DomainPrices> prices = getPricesForDomainNames(
+        ImmutableList.of("espresso.moka", "rich.moka", "poor.example", "rich.example", "rich.moka"),
+        clock.nowUtc());
+    assertThat(prices.keySet())
+        .containsExactly("espresso.moka", "rich.moka", "poor.example", "rich.example");
+    for (String domainName : prices.keySet()) {
+      DomainPrices expected = getPricesForDomainName(domainName, clock.nowUtc());
+      assertThat(prices.get(domainName).isPremium()).isEqualTo(expected.isPremium());
+      assertThat(prices.get(domainName).getCreateCost()).isEqualTo(expected.getCreateCost());
+      assertThat(prices.get(domainName).getRenewCost()).isEqualTo(expected.getRenewCost());
+      assertThat(prices.get(domainName).getFeeClass()).isEqualTo(expected.getFeeClass());
+    }
+    assertThat(prices.get("rich.moka").getCreateCost()).isEqualTo(Money.parse("USD 100"));
+    assertThat(prices.get("espresso.moka").isPremium()).isFalse();
+  }
+
   @Test
   public void testFailure_cantLoadPricingEngine() throws Exception {
     createTld("example");
@@ -112,6 +112,7 @@ public class BrdaCopyActionTest extends ShardableTestCase {
     action.watermark = DateTime.parse("2010-10-17TZ");
     action.brdaBucket = "tub";
     action.stagingBucket = "keg";
+    action.bufferSize = 1024;
     action.receiverKey = receiverKey;
     action.signingKey = signingKey;
     action.stagingDecryptionKey = decryptKey;
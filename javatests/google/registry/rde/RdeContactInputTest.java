@@ -140,6 +140,16 @@ public class RdeContactInputTest {
     assertReaderConfigurations(Optional.<Integer>absent(), 1, 100, 100);
   }
 
+  /** Only readers of shards that start within the escrow file have a shard start */
+  @Test
+  public void test200ContactsDefaultShards_onlyFirstReaderHasShardStart() throws Exception {
+    pushToGcs(DEPOSIT_200_CONTACT);
+    List<?> readers = getInput(Optional.<Integer>absent()).createReaders();
+    // the file has fewer contacts than its header says, so only the first shard is found
+    assertThat(((RdeContactReader) readers.get(0)).shardStart).isNotNull();
+    assertThat(((RdeContactReader) readers.get(1)).shardStart).isNull();
+  }
+
   /** Escrow file with 200 contacts and 75 shards results in two readers */
   @Test
   public void test200Contacts75Shards_returnsOneReader() throws Exception {
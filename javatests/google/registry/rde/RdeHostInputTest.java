@@ -154,6 +154,16 @@ public class RdeHostInputTest {
     assertReaderConfigurations(Optional.<Integer>absent(), 1, 100, 100);
   }
 
+  /** Only readers of shards that start within the escrow file have a shard start */
+  @Test
+  public void test200HostsDefaultShards_onlyFirstReaderHasShardStart() throws Exception {
+    pushToGcs(DEPOSIT_200_HOST);
+    List<?> readers = getInput(Optional.<Integer>absent()).createReaders();
+    // the file has fewer hosts than its header says, so only the first shard is found
+    assertThat(((RdeHostReader) readers.get(0)).shardStart).isNotNull();
+    assertThat(((RdeHostReader) readers.get(1)).shardStart).isNull();
+  }
+
   /** Escrow file with 200 hosts and 75 shards results in two readers */
   @Test
   public void test200Hosts75Shards_returnsOneReader() throws Exception {
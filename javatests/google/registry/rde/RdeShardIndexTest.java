@@ -0,0 +1,204 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.rde;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.appengine.tools.cloudstorage.GcsFilename;
+import com.google.appengine.tools.cloudstorage.GcsService;
+import com.google.appengine.tools.cloudstorage.GcsServiceFactory;
+import com.google.appengine.tools.cloudstorage.RetryParams;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteSource;
+import google.registry.config.ConfigModule;
+import google.registry.gcs.GcsUtils;
+import google.registry.model.contact.ContactResource;
+import google.registry.model.host.HostResource;
+import google.registry.rde.RdeShardIndex.ShardStart;
+import google.registry.testing.AppEngineRule;
+import google.registry.testing.ExceptionRule;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.NoSuchElementException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link RdeShardIndex} */
+@RunWith(JUnit4.class)
+public class RdeShardIndexTest {
+
+  private static final ByteSource DEPOSIT_10_CONTACT = RdeTestData.get("deposit_10_contact.xml");
+  private static final ByteSource DEPOSIT_4_HOST = RdeTestData.get("deposit_4_host.xml");
+  private static final String IMPORT_BUCKET_NAME = "rde-import";
+  private static final String IMPORT_FILE_NAME = "escrow-file.xml";
+  private static final GcsFilename FILENAME = new GcsFilename(IMPORT_BUCKET_NAME, IMPORT_FILE_NAME);
+
+  private static final GcsService GCS_SERVICE =
+      GcsServiceFactory.createGcsService(RetryParams.getDefaultInstance());
+
+  @Rule
+  public final AppEngineRule appEngine = AppEngineRule.builder()
+      .withDatastore()
+      .build();
+
+  @Rule
+  public final ExceptionRule thrown = new ExceptionRule();
+
+  private final GcsUtils gcsUtils = new GcsUtils(GCS_SERVICE, ConfigModule.provideGcsBufferSize());
+
+  /** Finds the first of every three contacts */
+  @Test
+  public void testScanContacts_findsShardStarts() throws Exception {
+    byte[] deposit = pushToGcs(DEPOSIT_10_CONTACT);
+    ImmutableList<ShardStart> shardStarts = scanContacts(3);
+    assertThat(shardStarts).hasSize(4);
+    for (ShardStart shardStart : shardStarts) {
+      assertThat(new String(deposit, UTF_8).substring((int) shardStart.position))
+          .startsWith("<rdeContact:contact>");
+      assertThat(shardStart.prologue).startsWith("<rde:deposit ");
+      assertThat(shardStart.prologue)
+          .contains(" xmlns:rdeContact=\"urn:ietf:params:xml:ns:rdeContact-1.0\"");
+      assertThat(shardStart.prologue).endsWith("><rde:contents>");
+    }
+  }
+
+  /** Finds only one shard start if the shards are larger than the file */
+  @Test
+  public void testScanContacts_oneShard() throws Exception {
+    pushToGcs(DEPOSIT_10_CONTACT);
+    assertThat(scanContacts(100)).hasSize(1);
+  }
+
+  /** Reads the contacts of a shard, starting at its shard start */
+  @Test
+  public void testContactReader_readsShard() throws Exception {
+    pushToGcs(DEPOSIT_10_CONTACT);
+    RdeContactReader reader = newContactReader(scanContacts(3), 1);
+    checkContact(reader.next(), "contact4", "contact4-TEST");
+    checkContact(reader.next(), "contact5", "contact5-TEST");
+    checkContact(reader.next(), "contact6", "contact6-TEST");
+    thrown.expect(NoSuchElementException.class);
+    reader.next();
+  }
+
+  /** Reads the last contact of the file in the last shard, then stops at the end of the file */
+  @Test
+  public void testContactReader_lastShard_stopsAtEndOfFile() throws Exception {
+    pushToGcs(DEPOSIT_10_CONTACT);
+    RdeContactReader reader = newContactReader(scanContacts(3), 3);
+    checkContact(reader.next(), "contact10", "contact10-TEST");
+    thrown.expect(NoSuchElementException.class);
+    reader.next();
+  }
+
+  /** Skips already-processed contacts of the shard after rehydration */
+  @Test
+  public void testContactReader_skipsProcessedAfterRehydration() throws Exception {
+    pushToGcs(DEPOSIT_10_CONTACT);
+    RdeContactReader reader = newContactReader(scanContacts(3), 2);
+    checkContact(reader.next(), "contact7", "contact7-TEST");
+    reader.endSlice();
+    reader = cloneReader(reader);
+    reader.beginSlice();
+    checkContact(reader.next(), "contact8", "contact8-TEST");
+  }
+
+  /** Reads the hosts of a shard, starting at its shard start */
+  @Test
+  public void testHostReader_readsShard() throws Exception {
+    pushToGcs(DEPOSIT_4_HOST);
+    ImmutableList<ShardStart> shardStarts =
+        RdeShardIndex.scan(gcsUtils, FILENAME, RdeParser.RDE_HOST_URI, "host", 2);
+    assertThat(shardStarts).hasSize(2);
+    RdeHostReader reader =
+        new RdeHostReader(IMPORT_BUCKET_NAME, IMPORT_FILE_NAME, 2, 2, shardStarts.get(1));
+    reader.beginSlice();
+    HostResource host = reader.next();
+    assertThat(host.getFullyQualifiedHostName()).isEqualTo("ns1.example3.test");
+    assertThat(host.getRepoId()).isEqualTo("Hns1_example3_test-TEST");
+    assertThat(reader.next().getFullyQualifiedHostName()).isEqualTo("ns1.example4.test");
+    thrown.expect(NoSuchElementException.class);
+    reader.next();
+  }
+
+  /** Skips markup before the first element and resolves a default namespace */
+  @Test
+  public void testScan_skipsMarkupBeforeFirstElement() throws Exception {
+    String deposit = "<?xml version=\"1.0\"?>\n"
+        + "<!-- <c:contact> -->\n"
+        + "<deposit xmlns=\"urn:deposit\" note='a \"quoted\" &gt; value'>"
+        + "<![CDATA[<c:contact>]]><empty/>"
+        + "<contents xmlns:c=\"" + RdeParser.RDE_CONTACT_URI + "\">"
+        + "<c:contact>1</c:contact><c:contactId>x</c:contactId><c:contact>2</c:contact>"
+        + "</contents></deposit>";
+    gcsUtils.createFromBytes(FILENAME, deposit.getBytes(UTF_8));
+    ImmutableList<ShardStart> shardStarts = scanContacts(1);
+    assertThat(shardStarts).hasSize(2);
+    assertThat(deposit.substring((int) shardStarts.get(0).position)).startsWith("<c:contact>1");
+    assertThat(deposit.substring((int) shardStarts.get(1).position)).startsWith("<c:contact>2");
+    assertThat(shardStarts.get(0).prologue).isEqualTo(
+        "<deposit xmlns=\"urn:deposit\">"
+            + "<contents xmlns:c=\"" + RdeParser.RDE_CONTACT_URI + "\">");
+  }
+
+  /** Finds no shard starts in a deposit without the element */
+  @Test
+  public void testScan_noElements_isEmpty() throws Exception {
+    pushToGcs(DEPOSIT_4_HOST);
+    assertThat(RdeShardIndex.scan(gcsUtils, FILENAME, "urn:example:unknown", "contact", 3))
+        .isEmpty();
+  }
+
+  private byte[] pushToGcs(ByteSource source) throws Exception {
+    byte[] bytes = source.read();
+    gcsUtils.createFromBytes(FILENAME, bytes);
+    return bytes;
+  }
+
+  private ImmutableList<ShardStart> scanContacts(int contactsPerShard) throws Exception {
+    return RdeShardIndex.scan(
+        gcsUtils, FILENAME, RdeParser.RDE_CONTACT_URI, "contact", contactsPerShard);
+  }
+
+  /** Gets a new {@link RdeContactReader} for one shard of three contacts */
+  private RdeContactReader newContactReader(ImmutableList<ShardStart> shardStarts, int shard)
+      throws Exception {
+    RdeContactReader reader = new RdeContactReader(
+        IMPORT_BUCKET_NAME, IMPORT_FILE_NAME, shard * 3, 3, shardStarts.get(shard));
+    reader.beginSlice();
+    return reader;
+  }
+
+  /** Creates a deep copy of the {@link RdeContactReader} */
+  private RdeContactReader cloneReader(RdeContactReader reader) throws Exception {
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    ObjectOutputStream oout = new ObjectOutputStream(bout);
+    oout.writeObject(reader);
+    ObjectInputStream oin = new ObjectInputStream(new ByteArrayInputStream(bout.toByteArray()));
+    return (RdeContactReader) oin.readObject();
+  }
+
+  /** Verifies that contact id and ROID match expected values */
+  private void checkContact(ContactResource contact, String contactId, String repoId) {
+    assertThat(contact).isNotNull();
+    assertThat(contact.getContactId()).isEqualTo(contactId);
+    assertThat(contact.getRepoId()).isEqualTo(repoId);
+  }
+}
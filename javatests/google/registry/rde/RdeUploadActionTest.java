@@ -191,6 +191,7 @@ public class RdeUploadActionTest {
       action.pgpSigningFactory = signFactory;
       action.tarFactory = tarFactory;
       action.bucket = "bucket";
+      action.bufferSize = BUFFER_SIZE;
       action.interval = standardDays(1);
       action.timeout = standardSeconds(23);
       action.tld = "tld";
@@ -66,6 +66,7 @@ import google.registry.model.domain.DesignatedContact;
 import google.registry.model.domain.DesignatedContact.Type;
 import google.registry.model.domain.DomainApplication;
 import google.registry.model.domain.DomainAuthInfo;
+import google.registry.model.domain.DomainBase;
 import google.registry.model.domain.DomainResource;
 import google.registry.model.domain.launch.LaunchPhase;
 import google.registry.model.eppcommon.AuthInfo.PasswordAuth;
@@ -73,6 +74,7 @@ import google.registry.model.eppcommon.StatusValue;
 import google.registry.model.eppcommon.Trid;
 import google.registry.model.host.HostResource;
 import google.registry.model.index.DomainApplicationIndex;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.ForeignKeyIndex;
 import google.registry.model.ofy.ObjectifyService;
@@ -355,7 +357,7 @@ public class DatastoreHelper {
     // clock in Ofy with a non-advancing FakeClock, and commit logs currently require
     // monotonically increasing timestamps.
     ofy().saveWithoutBackup().entity(premiumList).now();
-    ofy().saveWithoutBackup().entities(premiumList.getPremiumListEntries().values()).now();
+    ofy().saveWithoutBackup().entities(premiumList.loadPremiumListEntries().values()).now();
     return premiumList;
   }
 
@@ -736,7 +738,7 @@ public class DatastoreHelper {
    * ofy() session cache. Specifically, this method calls .now() on the save to force the write to
    * actually get sent to datastore (although it does not force it to be applied) and clears the
    * session cache. If necessary, this method also updates the relevant {@link EppResourceIndex},
-   * {@link ForeignKeyIndex} and {@link DomainApplicationIndex}.
+   * {@link ForeignKeyIndex}, {@link DomainApplicationIndex} and {@link DomainReferenceIndex}.
    *
    * <p><b>Note:</b> Your resource will not be enrolled in a commit log. If you want backups, use
    * {@link #persistResourceWithCommitLog(Object)}.
@@ -769,6 +771,17 @@ public class DatastoreHelper {
     }
   }
 
+  /**
+   * Saves the {@link DomainReferenceIndex} entries of a domain, if the resource is one.
+   *
+   * <p>Like the domain flows, this saves them outside of the transaction that saves the domain.
+   */
+  private static <R> void saveDomainReferenceIndexes(R resource) {
+    if (resource instanceof DomainBase) {
+      DomainReferenceIndex.saveForAddedReferences(null, (DomainBase) resource);
+    }
+  }
+
   private static <R> R persistResource(final R resource, final boolean wantBackup) {
     assertWithMessage("Attempting to persist a Builder is almost certainly an error in test code")
         .that(resource)
@@ -778,6 +791,7 @@ public class DatastoreHelper {
       public void vrun() {
         saveResource(resource, wantBackup);
       }});
+    saveDomainReferenceIndexes(resource);
     // Force the session to be cleared so that when we read it back, we read from the datastore
     // and not from the transaction cache or memcache.
     ofy().clearSessionCache();
@@ -804,6 +818,9 @@ public class DatastoreHelper {
           }
         }});
     }
+    for (R resource : resources) {
+      saveDomainReferenceIndexes(resource);
+    }
     // Force the session to be cleared so that when we read it back, we read from the datastore
     // and not from the transaction cache or memcache.
     ofy().clearSessionCache();
@@ -76,6 +76,22 @@ public class UpdateReservedListCommandTest extends
     assertThat(reservedList.getShouldPublish()).isFalse();
   }
 
+  @Test
+  public void testSuccess_noChanges_doesNotRewriteList() throws Exception {
+    persistResource(
+        new ReservedList.Builder()
+            .setName("xn--q9jyb4c_common-reserved")
+            .setReservedListMapFromLines(
+                ImmutableList.of("baddies,FULLY_BLOCKED", "ford,FULLY_BLOCKED #random comment"))
+            .setCreationTime(START_OF_TIME)
+            .setLastUpdateTime(START_OF_TIME)
+            .build());
+    runCommandForced("--input=" + reservedTermsPath);
+    ReservedList reservedList = ReservedList.get("xn--q9jyb4c_common-reserved").get();
+    assertThat(reservedList.getLastUpdateTime()).isEqualTo(START_OF_TIME);
+    assertThat(reservedList.getReservedListEntries()).hasSize(2);
+  }
+
   private void runSuccessfulUpdateTest(String... args) throws Exception {
     populateInitialReservedList(true);
     runCommandForced(args);
@@ -82,7 +82,7 @@ public class CreatePremiumListActionTest {
     action.run();
     assertThat(response.getStatus()).isEqualTo(SC_OK);
     PremiumList premiumList = PremiumList.get("zanzibar").get();
-    assertThat(premiumList.getPremiumListEntries()).hasSize(1);
+    assertThat(premiumList.loadPremiumListEntries()).hasSize(1);
     assertThat(premiumList.getPremiumPrice("zanzibar")).hasValue(Money.parse("USD 100"));
     assertThat(premiumList.getPremiumPrice("diamond")).isAbsent();
   }
@@ -94,7 +94,7 @@ public class CreatePremiumListActionTest {
     action.run();
     assertThat(response.getStatus()).isEqualTo(SC_OK);
     PremiumList premiumList = PremiumList.get("foo").get();
-    assertThat(premiumList.getPremiumListEntries()).hasSize(2);
+    assertThat(premiumList.loadPremiumListEntries()).hasSize(2);
     assertThat(premiumList.getPremiumPrice("rich")).hasValue(Money.parse("USD 25"));
     assertThat(premiumList.getPremiumPrice("diamond")).isAbsent();
   }
@@ -23,6 +23,7 @@ import static google.registry.testing.DatastoreHelper.persistActiveContact;
 import static google.registry.testing.DatastoreHelper.persistActiveDomain;
 import static google.registry.testing.DatastoreHelper.persistActiveDomainApplication;
 import static google.registry.testing.DatastoreHelper.persistActiveHost;
+import static google.registry.testing.DatastoreHelper.persistDeletedHost;
 import static google.registry.testing.DatastoreHelper.persistResource;
 import static google.registry.testing.GcsTestingUtils.readGcsFile;
 import static google.registry.util.ResourceUtils.readResourceUtf8;
@@ -52,6 +53,8 @@ import org.junit.runners.JUnit4;
 @RunWith(JUnit4.class)
 public class GenerateZoneFilesActionTest extends MapreduceTestCase<GenerateZoneFilesAction> {
 
+  private static final Splitter SPLITTER = Splitter.on('\n').omitEmptyStrings();
+
   private final GcsService gcsService = createGcsService();
 
   @Test
@@ -94,34 +97,82 @@ public class GenerateZoneFilesActionTest extends MapreduceTestCase<GenerateZoneF
         .setDsData(ImmutableSet.of(DelegationSignerData.create(1, 2, 3, new byte[] {0, 1, 2})))
         .build());
 
+    Iterable<String> generatedFileLines = generateZoneFile(now);
+    Iterable<String> goldenFileLines =
+        SPLITTER.split(readResourceUtf8(getClass(), "testdata/tld.zone"));
+    // The first line needs to be the same as the golden file.
+    assertThat(generatedFileLines.iterator().next()).isEqualTo(goldenFileLines.iterator().next());
+    // The remaining lines can be in any order.
+    assertThat(generatedFileLines).containsExactlyElementsIn(goldenFileLines);
+  }
+
+  @Test
+  public void testGenerate_deletedAndMissingNameservers_areLeftOut() throws Exception {
+    DateTime now = DateTime.now(DateTimeZone.UTC).withTimeAtStartOfDay();
+    createTld("tld");
+    HostResource host = persistActiveHost("ns.foo.tld");
+    HostResource deletedHost = persistDeletedHost("ns.deleted.tld", now.minusDays(1));
+    Key<HostResource> missingHostKey = Key.create(HostResource.class, "999-ROID");
+    persistResource(newDomainResource("ns-partly-gone.tld").asBuilder()
+        .addNameservers(ImmutableSet.of(Key.create(host), Key.create(deletedHost), missingHostKey))
+        .build());
+    persistResource(newDomainResource("ns-all-gone.tld").asBuilder()
+        .addNameservers(ImmutableSet.of(Key.create(deletedHost), missingHostKey))
+        .build());
+
+    assertThat(generateZoneFile(now)).containsExactly(
+        "$ORIGIN tld.",
+        "ns-partly-gone.tld 180 IN NS ns.foo.tld.");
+  }
+
+  @Test
+  public void testGenerate_nameserverSharedByManyDomains() throws Exception {
+    DateTime now = DateTime.now(DateTimeZone.UTC).withTimeAtStartOfDay();
+    createTld("tld");
+    Key<HostResource> sharedHostKey = Key.create(persistActiveHost("ns.shared.example"));
+    Key<HostResource> otherHostKey = Key.create(persistActiveHost("ns.other.example"));
+    ImmutableList.Builder<String> expectedLines = new ImmutableList.Builder<>();
+    expectedLines.add("$ORIGIN tld.");
+    for (int i = 0; i < 20; i++) {
+      String domainName = String.format("domain%d.tld", i);
+      ImmutableSet<Key<HostResource>> nameservers = (i % 2 == 0)
+          ? ImmutableSet.of(sharedHostKey)
+          : ImmutableSet.of(sharedHostKey, otherHostKey);
+      persistResource(
+          newDomainResource(domainName).asBuilder().addNameservers(nameservers).build());
+      expectedLines.add(domainName + " 180 IN NS ns.shared.example.");
+      if (i % 2 != 0) {
+        expectedLines.add(domainName + " 180 IN NS ns.other.example.");
+      }
+    }
+
+    assertThat(generateZoneFile(now)).containsExactlyElementsIn(expectedLines.build());
+  }
+
+  /** Runs the action for the "tld" TLD and returns the non-empty lines of its zone file. */
+  private Iterable<String> generateZoneFile(DateTime exportTime) throws Exception {
     GenerateZoneFilesAction action = new GenerateZoneFilesAction();
     action.mrRunner = makeDefaultRunner();
     action.bucket = "zonefiles-bucket";
     action.gcsBufferSize = 123;
     action.datastoreRetention = standardDays(29);
-    action.clock = new FakeClock(now.plusMinutes(2));  // Move past the actions' 2 minute check.
+    // Move past the actions' 2 minute check.
+    action.clock = new FakeClock(exportTime.plusMinutes(2));
 
     Map<String, Object> response = action.handleJsonRequest(ImmutableMap.<String, Object>of(
         "tlds", ImmutableList.of("tld"),
-        "exportTime", now));
+        "exportTime", exportTime));
     assertThat(response).containsEntry(
         "filenames",
-        ImmutableList.of("gs://zonefiles-bucket/tld-" + now + ".zone"));
+        ImmutableList.of("gs://zonefiles-bucket/tld-" + exportTime + ".zone"));
 
     executeTasksUntilEmpty("mapreduce");
 
     GcsFilename gcsFilename =
-        new GcsFilename("zonefiles-bucket", String.format("tld-%s.zone", now));
+        new GcsFilename("zonefiles-bucket", String.format("tld-%s.zone", exportTime));
     String generatedFile = new String(readGcsFile(gcsService, gcsFilename), UTF_8);
     // The generated file contains spaces and tabs, but the golden file contains only spaces, as
     // files with literal tabs irritate our build tools.
-    Splitter splitter = Splitter.on('\n').omitEmptyStrings();
-    Iterable<String> generatedFileLines = splitter.split(generatedFile.replaceAll("\t", " "));
-    Iterable<String> goldenFileLines =
-        splitter.split(readResourceUtf8(getClass(), "testdata/tld.zone"));
-    // The first line needs to be the same as the golden file.
-    assertThat(generatedFileLines.iterator().next()).isEqualTo(goldenFileLines.iterator().next());
-    // The remaining lines can be in any order.
-    assertThat(generatedFileLines).containsExactlyElementsIn(goldenFileLines);
+    return SPLITTER.split(generatedFile.replaceAll("\t", " "));
   }
 }
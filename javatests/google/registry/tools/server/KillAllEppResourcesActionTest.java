@@ -44,6 +44,7 @@ import google.registry.model.contact.ContactResource;
 import google.registry.model.domain.DomainBase;
 import google.registry.model.host.HostResource;
 import google.registry.model.index.DomainApplicationIndex;
+import google.registry.model.index.DomainReferenceIndex;
 import google.registry.model.index.EppResourceIndex;
 import google.registry.model.index.ForeignKeyIndex.ForeignKeyContactIndex;
 import google.registry.model.index.ForeignKeyIndex.ForeignKeyDomainIndex;
@@ -71,6 +72,7 @@ public class KillAllEppResourcesActionTest extends MapreduceTestCase<KillAllEppR
           ForeignKeyHostIndex.class,
           DomainApplicationIndex.class,
           DomainBase.class,
+          DomainReferenceIndex.class,
           ContactResource.class,
           HostResource.class,
           HistoryEntry.class,
@@ -80,7 +80,7 @@ public class UpdatePremiumListActionTest {
     action.run();
     assertThat(response.getStatus()).isEqualTo(SC_OK);
     PremiumList premiumList = PremiumList.get("foo").get();
-    assertThat(premiumList.getPremiumListEntries()).hasSize(3);
+    assertThat(premiumList.loadPremiumListEntries()).hasSize(3);
     assertThat(premiumList.getPremiumPrice("rich")).hasValue(Money.parse("USD 75"));
     assertThat(premiumList.getPremiumPrice("richer")).hasValue(Money.parse("USD 5000"));
     assertThat(premiumList.getPremiumPrice("poor")).hasValue(Money.parse("USD 0.99"));
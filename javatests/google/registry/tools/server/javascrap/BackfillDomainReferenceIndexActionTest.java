@@ -0,0 +1,106 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.tools.server.javascrap;
+
+import static com.google.common.truth.Truth.assertThat;
+import static google.registry.testing.DatastoreHelper.createTld;
+import static google.registry.testing.DatastoreHelper.newDomainApplication;
+import static google.registry.testing.DatastoreHelper.newDomainResource;
+import static google.registry.testing.DatastoreHelper.persistActiveContact;
+import static google.registry.testing.DatastoreHelper.persistActiveHost;
+import static google.registry.testing.DatastoreHelper.persistDomainAsDeleted;
+import static google.registry.testing.DatastoreHelper.persistResource;
+
+import com.google.common.collect.ImmutableSet;
+import com.googlecode.objectify.Key;
+import google.registry.model.contact.ContactResource;
+import google.registry.model.domain.DomainApplication;
+import google.registry.model.domain.DomainResource;
+import google.registry.model.host.HostResource;
+import google.registry.model.index.DomainReferenceIndex;
+import google.registry.testing.FakeResponse;
+import google.registry.testing.mapreduce.MapreduceTestCase;
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link BackfillDomainReferenceIndexAction}. */
+@RunWith(JUnit4.class)
+public class BackfillDomainReferenceIndexActionTest
+    extends MapreduceTestCase<BackfillDomainReferenceIndexAction> {
+
+  private ContactResource contact;
+  private HostResource host;
+
+  @Before
+  public void init() {
+    action = new BackfillDomainReferenceIndexAction();
+    action.mrRunner = makeDefaultRunner();
+    action.response = new FakeResponse();
+    createTld("tld");
+    contact = persistActiveContact("jd1234");
+    host = persistActiveHost("ns1.example.net");
+  }
+
+  private void runMapreduce() throws Exception {
+    action.run();
+    executeTasksUntilEmpty("mapreduce");
+  }
+
+  /** Removes the index entries written by the test helpers, like for domains written long ago. */
+  private void deleteIndexEntries() {
+    DomainReferenceIndex.deleteForResource(Key.create(contact));
+    DomainReferenceIndex.deleteForResource(Key.create(host));
+  }
+
+  @Test
+  public void testSuccess_indexesActiveDomainsAndApplications() throws Exception {
+    DomainResource domain = persistResource(newDomainResource("example.tld", contact).asBuilder()
+        .setNameservers(ImmutableSet.of(Key.create(host)))
+        .build());
+    DomainApplication application = persistResource(newDomainApplication("example.tld", contact));
+    deleteIndexEntries();
+    runMapreduce();
+    assertThat(DomainReferenceIndex.loadReferencingDomainKeys(Key.create(contact)))
+        .containsExactly(Key.create(domain), Key.create(application));
+    assertThat(DomainReferenceIndex.loadReferencingDomainKeys(Key.create(host)))
+        .containsExactly(Key.create(domain));
+  }
+
+  @Test
+  public void testSuccess_doesNotIndexDeletedDomains() throws Exception {
+    persistDomainAsDeleted(
+        newDomainResource("example.tld", contact), DateTime.parse("2000-01-01T00:00:00Z"));
+    deleteIndexEntries();
+    runMapreduce();
+    assertThat(DomainReferenceIndex.loadReferencingDomainKeys(Key.create(contact))).isEmpty();
+  }
+
+  @Test
+  public void testSuccess_marksIndexComplete() throws Exception {
+    persistResource(newDomainResource("example.tld", contact));
+    assertThat(DomainReferenceIndex.isComplete()).isFalse();
+    runMapreduce();
+    assertThat(DomainReferenceIndex.isComplete()).isTrue();
+  }
+
+  @Test
+  public void testSuccess_noDomains_marksIndexComplete() throws Exception {
+    runMapreduce();
+    assertThat(DomainReferenceIndex.isComplete()).isTrue();
+  }
+}
@@ -0,0 +1,123 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.util;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.Executors.defaultThreadFactory;
+
+import google.registry.testing.ExceptionRule;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link BackgroundOutputStream}. */
+@RunWith(JUnit4.class)
+public class BackgroundOutputStreamTest {
+
+  @Rule
+  public ExceptionRule thrown = new ExceptionRule();
+
+  /** Output stream that records the threads it's written from. */
+  private static class ThreadRecordingOutputStream extends ByteArrayOutputStream {
+    final List<Thread> writingThreads = new ArrayList<>();
+    boolean isClosed;
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+      writingThreads.add(Thread.currentThread());
+      super.write(b, off, len);
+    }
+
+    @Override
+    public void close() {
+      isClosed = true;
+    }
+  }
+
+  private final ThreadRecordingOutputStream output = new ThreadRecordingOutputStream();
+
+  @Test
+  public void testWrite_writesEverythingInOrderOnBackgroundThread() throws Exception {
+    StringBuilder expected = new StringBuilder();
+    try (OutputStream handOff = new BackgroundOutputStream(output, defaultThreadFactory(), 7, 2)) {
+      for (int i = 0; i < 1000; i++) {
+        String line = "line " + i + "\n";
+        expected.append(line);
+        handOff.write(line.getBytes(UTF_8));
+      }
+      handOff.write('!');
+      expected.append('!');
+    }
+    assertThat(output.toString(UTF_8.name())).isEqualTo(expected.toString());
+    assertThat(output.writingThreads).doesNotContain(Thread.currentThread());
+    assertThat(output.isClosed).isFalse();
+  }
+
+  @Test
+  public void testWrite_noThreadFactory_writesOnCallingThread() throws Exception {
+    try (OutputStream handOff = new BackgroundOutputStream(output, null, 4, 2)) {
+      handOff.write("hello world".getBytes(UTF_8));
+    }
+    assertThat(output.toString(UTF_8.name())).isEqualTo("hello world");
+    assertThat(output.writingThreads).containsExactly(
+        Thread.currentThread(), Thread.currentThread(), Thread.currentThread());
+  }
+
+  @Test
+  public void testFlush_waitsForBackgroundThread() throws Exception {
+    try (OutputStream handOff =
+        new BackgroundOutputStream(output, defaultThreadFactory(), 1024, 2)) {
+      handOff.write("hello".getBytes(UTF_8));
+      handOff.flush();
+      assertThat(output.toString(UTF_8.name())).isEqualTo("hello");
+      handOff.write(" world".getBytes(UTF_8));
+      handOff.flush();
+      assertThat(output.toString(UTF_8.name())).isEqualTo("hello world");
+    }
+  }
+
+  @Test
+  public void testClose_backgroundWriteFailed_rethrows() throws Exception {
+    OutputStream failing = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IOException("disk full");
+      }};
+    OutputStream handOff = new BackgroundOutputStream(failing, defaultThreadFactory(), 4, 1);
+    thrown.expect(IOException.class, "disk full");
+    try {
+      for (int i = 0; i < 100; i++) {
+        handOff.write("hello world".getBytes(UTF_8));
+      }
+    } finally {
+      handOff.close();
+    }
+  }
+
+  @Test
+  public void testWrite_afterClose_throws() throws Exception {
+    OutputStream handOff = new BackgroundOutputStream(output, defaultThreadFactory(), 4, 1);
+    handOff.close();
+    thrown.expect(IllegalStateException.class, "outputstream closed");
+    handOff.write(1);
+  }
+}
@@ -0,0 +1,119 @@
+// Copyright 2016 The Nomulus Authors. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package google.registry.util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import google.registry.monitoring.metrics.Distribution;
+import google.registry.monitoring.metrics.MetricPoint;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link StageTimer}. */
+@RunWith(JUnit4.class)
+public class StageTimerTest {
+
+  @After
+  public void tearDown() {
+    StageTimer.endRequest();
+  }
+
+  /** Returns the recorded times of a stage, or null if nothing was recorded. */
+  private static Distribution getStageTime(String stage, String command, String tld) {
+    for (MetricPoint<Distribution> point : StageTimer.stageTime.getTimestampedValues()) {
+      if (point.labelValues().equals(ImmutableList.of(stage, command, tld))) {
+        return point.value();
+      }
+    }
+    return null;
+  }
+
+  @Test
+  public void testStart_notTimingRequest_returnsNoOpStage() throws Exception {
+    assertThat(StageTimer.isTimingRequest()).isFalse();
+    try (StageTimer.Stage stage = StageTimer.start("unmarshal")) {
+      assertThat(stage).isSameAs(StageTimer.start("marshal"));
+    }
+  }
+
+  @Test
+  public void testEndRequest_recordsStagesWithLabels() throws Exception {
+    StageTimer.startRequest();
+    assertThat(StageTimer.isTimingRequest()).isTrue();
+    try (StageTimer.Stage stage = StageTimer.start("unmarshal")) {
+      Thread.sleep(5);
+    }
+    // The labels apply to stages that ended before they were set.
+    StageTimer.setLabels("LabelsCommand", "tld");
+    try (StageTimer.Stage stage = StageTimer.start("marshal")) {}
+    StageTimer.endRequest();
+
+    assertThat(StageTimer.isTimingRequest()).isFalse();
+    assertThat(getStageTime("unmarshal", "LabelsCommand", "tld").count()).isEqualTo(1L);
+    assertThat(getStageTime("unmarshal", "LabelsCommand", "tld").mean()).isAtLeast(5.0);
+    assertThat(getStageTime("marshal", "LabelsCommand", "tld").count()).isEqualTo(1L);
+  }
+
+  @Test
+  public void testEndRequest_repeatedStage_recordsTotalTime() throws Exception {
+    StageTimer.startRequest();
+    StageTimer.setLabels("RepeatedCommand", "");
+    for (int i = 0; i < 2; i++) {
+      try (StageTimer.Stage stage = StageTimer.start("transaction")) {
+        Thread.sleep(5);
+      }
+    }
+    StageTimer.endRequest();
+
+    assertThat(getStageTime("transaction", "RepeatedCommand", "").count()).isEqualTo(1L);
+    assertThat(getStageTime("transaction", "RepeatedCommand", "").mean()).isAtLeast(10.0);
+  }
+
+  @Test
+  public void testEndRequest_nestedStage_timedByOutermostEntry() throws Exception {
+    StageTimer.startRequest();
+    StageTimer.setLabels("NestedCommand", "");
+    try (StageTimer.Stage outer = StageTimer.start("transaction")) {
+      try (StageTimer.Stage inner = StageTimer.start("transaction")) {
+        assertThat(inner).isSameAs(outer);
+      }
+      Thread.sleep(5);
+    }
+    StageTimer.endRequest();
+
+    assertThat(getStageTime("transaction", "NestedCommand", "").count()).isEqualTo(1L);
+    assertThat(getStageTime("transaction", "NestedCommand", "").mean()).isAtLeast(5.0);
+  }
+
+  @Test
+  public void testEndRequest_unfinishedStage_notRecorded() throws Exception {
+    StageTimer.startRequest();
+    StageTimer.setLabels("UnfinishedCommand", "");
+    StageTimer.start("flow");
+    StageTimer.endRequest();
+
+    assertThat(getStageTime("flow", "UnfinishedCommand", "")).isNull();
+  }
+
+  @Test
+  public void testEndRequest_notTimingRequest_doesNothing() throws Exception {
+    StageTimer.setLabels("IgnoredCommand", "");
+    StageTimer.endRequest();
+    assertThat(StageTimer.isTimingRequest()).isFalse();
+  }
+}